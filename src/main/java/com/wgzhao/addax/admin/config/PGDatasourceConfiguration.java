@@ -8,6 +8,7 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
 import org.springframework.transaction.PlatformTransactionManager;
@@ -56,4 +57,10 @@ public class PGDatasourceConfiguration {
             @Qualifier("pgEntityManagerFactory") LocalContainerEntityManagerFactoryBean pgEntityManagerFactory) {
         return new JpaTransactionManager(Objects.requireNonNull(pgEntityManagerFactory.getObject()));
     }
+
+    @Bean(name = "pgJdbcTemplate")
+    public JdbcTemplate jdbcTemplate(@Qualifier("pgDatasource") DataSource pgDatasource)
+    {
+        return new JdbcTemplate(pgDatasource);
+    }
 }
@@ -13,6 +13,8 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
@@ -44,6 +46,26 @@ public class RedisConfig {
         return template;
     }
 
+    /**
+     * 纯字符串的模板，与 rds 命令行读写的数据格式一致，供 RedisClient 使用
+     */
+    @Bean
+    public StringRedisTemplate stringRedisTemplate(LettuceConnectionFactory connectionFactory)
+    {
+        return new StringRedisTemplate(connectionFactory);
+    }
+
+    /**
+     * 订阅容器，供 CacheUtil 接收近端缓存的失效通知
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(LettuceConnectionFactory connectionFactory)
+    {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
+
     public ObjectMapper getObjectMapper()
     {
         ObjectMapper mapper = new ObjectMapper();
@@ -3,6 +3,7 @@ package com.wgzhao.addax.admin.controller;
 import com.wgzhao.addax.admin.dto.AddaxReportDto;
 import com.wgzhao.addax.admin.model.pg.TbAddaxSta;
 import com.wgzhao.addax.admin.repository.pg.AddaxStaRepo;
+import com.wgzhao.addax.admin.utils.ConcurrencyGovernor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -21,6 +22,9 @@ public class AddaxReportController {
     @Autowired
     private AddaxStaRepo addaxStaRepo;
 
+    @Autowired
+    private ConcurrencyGovernor governor;
+
     @PostMapping(value = "/jobReport", consumes = "application/json")
     public TbAddaxSta jobReport(@RequestBody AddaxReportDto dto) {
         logger.info("job report: {}", dto);
@@ -36,6 +40,7 @@ public class AddaxReportController {
         sta.setTotalErr(dto.getTotalErrorRecords());
         sta.setUpdtDate(new java.sql.Timestamp(System.currentTimeMillis()));
 
+        governor.onReport(dto.getJobName(), dto.getByteSpeedPerSecond());
         return addaxStaRepo.save(sta);
     }
 }
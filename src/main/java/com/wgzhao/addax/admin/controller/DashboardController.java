@@ -8,6 +8,7 @@ import com.wgzhao.addax.admin.repository.oracle.TbImpFlagRepo;
 import com.wgzhao.addax.admin.repository.oracle.ViewPseudoRepo;
 import com.wgzhao.addax.admin.repository.pg.AddaxStaRepo;
 import com.wgzhao.addax.admin.utils.CacheUtil;
+import com.wgzhao.addax.admin.utils.FlagRegistry;
 import jakarta.annotation.Resource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -41,6 +42,9 @@ public class DashboardController {
     @Resource
     CacheUtil cacheUtil;
 
+    @Resource
+    FlagRegistry flagRegistry;
+
     // 各数据源采集完成率，用于图表展示
     @RequestMapping("/accomplishRatio")
     public ApiResponse<List<AccomplishRatio>> accompListRatio() {
@@ -83,4 +87,10 @@ public class DashboardController {
     public ApiResponse<Long> tableCount() {
         return ApiResponse.success(tbImpEtlRepo.count());
     }
+
+    // 当前被占用的任务标志及其持有者
+    @RequestMapping("/flags")
+    public ApiResponse<Map<String, String>> flags() {
+        return ApiResponse.success(flagRegistry.all());
+    }
 }
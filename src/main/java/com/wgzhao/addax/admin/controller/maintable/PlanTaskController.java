@@ -2,14 +2,18 @@ package com.wgzhao.addax.admin.controller.maintable;
 
 import com.wgzhao.addax.admin.dto.ApiResponse;
 import com.wgzhao.addax.admin.model.oracle.TbImpPlan;
+import com.wgzhao.addax.admin.service.PlanSchedulerService;
 import com.wgzhao.addax.admin.service.TbImpPlanService;
 import io.swagger.annotations.Api;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * 计划任务配置接口
@@ -23,9 +27,25 @@ public class PlanTaskController
     @Autowired
     private TbImpPlanService tbImpPlanService;
 
+    @Autowired
+    private PlanSchedulerService planSchedulerService;
+
     @GetMapping({"/list", "/"})
     public ApiResponse<List<TbImpPlan>> getAllImpPlan() {
         return ApiResponse.success(tbImpPlanService.findAll());
     }
 
+    // 所有计划之后若干次的触发时间
+    @GetMapping("/next")
+    public ApiResponse<Map<String, List<String>>> getNextFireTimes(@RequestParam(name = "count", defaultValue = "5") int count) {
+        return ApiResponse.success(planSchedulerService.nextFireTimes(Math.min(count, 100)));
+    }
+
+    // 指定计划之后若干次的触发时间
+    @GetMapping("/{pnId}/next")
+    public ApiResponse<List<String>> getNextFireTimes(@PathVariable("pnId") String pnId,
+            @RequestParam(name = "count", defaultValue = "5") int count) {
+        return ApiResponse.success(planSchedulerService.nextFireTimes(pnId, Math.min(count, 100)));
+    }
+
 }
@@ -2,8 +2,10 @@ package com.wgzhao.addax.admin.handlers;
 
 import com.wgzhao.addax.admin.utils.*;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * 数据服务处理类
@@ -12,15 +14,17 @@ import java.util.concurrent.Executors;
 public class DataServiceHandler
 {
     private static final String curpath = RedisUtils.get("path.bin");
-    private static final String c_sql = RedisUtils.get("com.inicmd");
-    private static final String c_sql3 = RedisUtils.get("com.iniout");
+
+    // initrds 脚本写入的配置项
+    private static final List<String> CONF_KEYS = List.of("dsview", "bupdate", "pre_sql", "pre_sh", "post_sql", "post_sh", "paral_num");
 
     /**
      * 数据服务的具体执行
      */
     public static boolean dsEtl(String dsId)
     {
-        if (dsId == null || dsId.isEmpty() || !"1".equals(RedisUtils.flagAdd("ds." + dsId))) {
+        String flag = "ds." + dsId;
+        if (dsId == null || dsId.isEmpty() || !"1".equals(RedisUtils.flagAdd(flag))) {
             return false;
         }
 
@@ -28,26 +32,27 @@ public class DataServiceHandler
 
         // 初始化redis
         System.out.println("\n<b>" + DateUtils.getCurrentDateTime() + ":初始化redis配置信息...</b>" + RedisUtils.set("ds." + dsId, "0"));
-        CommandExecutor.execute(c_sql3 + " \"select init_rds from stg01.vw_imp_ds2 where ds_id='" + dsId + "'\" |tee " + dest_dir + "/" + dsId + ".initrds");
+        SqlUtils.teeToFile("select init_rds from stg01.vw_imp_ds2 where ds_id=?", dest_dir + "/" + dsId + ".initrds", dsId);
 
         int result = CommandExecutor.executeWithResult("bash " + dest_dir + "/" + dsId + ".initrds 2>&1");
         if (result != 0) {
             RedisUtils.set("ds." + dsId, "1");
         }
 
+        // 一次性读取初始化后的配置项，执行过程中不再变化
+        Map<String, String> conf = loadConf(dsId);
+
         // 刷新ds视图
-        if ("0".equals(RedisUtils.get("ds." + dsId)) && "1".equals(RedisUtils.get("ds." + dsId + ".dsview"))) {
+        if ("0".equals(RedisUtils.get("ds." + dsId)) && "1".equals(conf.get("dsview"))) {
             System.out.println("\n<b>" + DateUtils.getCurrentDateTime() + ":自定义查询转为presto视图...</b><p style='background-color:#A9A9A9'>");
 
             for (String kind : new String[] {"presto", "allsql"}) {
                 System.out.println("利用" + kind + "刷新视图...");
-                CommandExecutor.execute(c_sql3 + " \"select stg01.fn_imp_value('ds_sql_" + kind + "','" + dsId + "') from dual\" |tee " + dest_dir + "/" + dsId + ".dsview");
-
-                if (CommandExecutor.executeWithResult("test $(wc -c " + dest_dir + "/" + dsId + ".dsview |awk '{print $1}') -gt 3") == 0) {
-                    String cmd = kind.equals("presto") ? RedisUtils.get("com.prestocmd") : RedisUtils.get("com.prestoall");
-                    result = CommandExecutor.executeWithResult(cmd + " -f " + dest_dir + "/" + dsId + ".dsview 2>&1");
+                String dsview = SqlUtils.queryForString("select stg01.fn_imp_value(?,?) from dual", "ds_sql_" + kind, dsId);
+                System.out.println(dsview);
 
-                    if (result != 0) {
+                if (dsview.trim().length() > 3) {
+                    if (!PrestoUtils.runScript(kind, dsview)) {
                         System.out.println("利用" + kind + "刷新视图失败!!!设置redis：" + RedisUtils.set("ds." + dsId, "1"));
                     }
                 }
@@ -57,49 +62,39 @@ public class DataServiceHandler
         }
 
         // 获取目标表字段及ds下视图字段,更新涉及表
-        if ("0".equals(RedisUtils.get("ds." + dsId)) && "1".equals(RedisUtils.get("ds." + dsId + ".bupdate"))) {
+        if ("0".equals(RedisUtils.get("ds." + dsId)) && "1".equals(conf.get("bupdate"))) {
             System.out.println("\n<b>" + DateUtils.getCurrentDateTime() + ":获取目标表字段及ds下视图字段...</b><p style='background-color:#A9A9A9'>");
 
-            String dbConns = CommandExecutor.executeForOutput(c_sql + " \"select sou_db_conn from vw_imp_ds2_mid where ds_id='" + dsId +
-                    "' group by sou_db_conn union all select '" + dsId + "' from dual union all select 'hadoop' from dual\"");
-
-            ExecutorService executor = Executors.newCachedThreadPool();
-
-            for (String dbConn : dbConns.split("\n")) {
-                if (dbConn == null || dbConn.trim().isEmpty()) {
-                    continue;
-                }
+            List<String> dbConns = SqlUtils.queryForLines("select sou_db_conn from vw_imp_ds2_mid where ds_id=?" +
+                    " group by sou_db_conn union all select ? from dual union all select 'hadoop' from dual", dsId, dsId);
 
-                executor.submit(() -> {
-                    boolean success = EtlHandler.soutabEtl(dbConn);
-                    if (!success) {
-                        RedisUtils.set("ds." + dsId, "1");
+            try (TaskScope scope = TaskScope.open("ds_soutab")) {
+                for (String dbConn : dbConns) {
+                    if (dbConn == null || dbConn.trim().isEmpty()) {
+                        continue;
                     }
-                });
-            }
 
-            executor.shutdown();
-            try {
-                executor.awaitTermination(Long.MAX_VALUE, java.util.concurrent.TimeUnit.NANOSECONDS);
-            }
-            catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+                    scope.fork(() -> EtlHandler.soutabEtl(dbConn));
+                }
+                if (!scope.join()) {
+                    RedisUtils.set("ds." + dsId, "1");
+                }
             }
 
             // 更新数据服务涉及源表，用于计算是否完整配置了前置条件
-            CommandExecutor.execute(c_sql + " \"begin stg01.sp_imp_alone('bupdate','D','" + dsId + "');end;\" 2>&1");
+            SqlUtils.call("stg01.sp_imp_alone", "bupdate", "D", dsId);
 
             // 更新完后，修改状态
             if ("0".equals(RedisUtils.get("ds." + dsId))) {
                 System.out.println("</p>表结构获取完成，置更新状态为N");
-                CommandExecutor.execute(c_sql + " \"update stg01.tb_imp_ds2 set bupdate='N' where ds_id='" + dsId + "'\" 2>&1");
+                SqlUtils.update("update stg01.tb_imp_ds2 set bupdate='N' where ds_id=?", dsId);
             }
         }
 
         // 前置SQL
-        if ("0".equals(RedisUtils.get("ds." + dsId)) && "1".equals(RedisUtils.get("ds." + dsId + ".pre_sql"))) {
+        if ("0".equals(RedisUtils.get("ds." + dsId)) && "1".equals(conf.get("pre_sql"))) {
             System.out.println("\n<b>" + DateUtils.getCurrentDateTime() + ":执行前置语句pre_sql...</b>");
-            CommandExecutor.execute(c_sql3 + " \"select pre_sql from stg01.vw_imp_ds2 where ds_id='" + dsId + "'\" |tee " + dest_dir + "/" + dsId + ".presql");
+            SqlUtils.teeToFile("select pre_sql from stg01.vw_imp_ds2 where ds_id=?", dest_dir + "/" + dsId + ".presql", dsId);
 
             if (!SpAloneUtils.runSql(dest_dir + "/" + dsId + ".presql", 1)) {
                 RedisUtils.set("ds." + dsId, "1");
@@ -107,9 +102,9 @@ public class DataServiceHandler
         }
 
         // 前置SH
-        if ("0".equals(RedisUtils.get("ds." + dsId)) && "1".equals(RedisUtils.get("ds." + dsId + ".pre_sh"))) {
+        if ("0".equals(RedisUtils.get("ds." + dsId)) && "1".equals(conf.get("pre_sh"))) {
             System.out.println("\n<b>" + DateUtils.getCurrentDateTime() + ":执行前置脚本pre_sh...</b>");
-            CommandExecutor.execute(c_sql3 + " \"select pre_sh from stg01.vw_imp_ds2 where ds_id='" + dsId + "'\" |tee " + dest_dir + "/" + dsId + ".presh");
+            SqlUtils.teeToFile("select pre_sh from stg01.vw_imp_ds2 where ds_id=?", dest_dir + "/" + dsId + ".presh", dsId);
 
             if (CommandExecutor.executeWithResult("bash " + dest_dir + "/" + dsId + ".presh") != 0) {
                 RedisUtils.set("ds." + dsId, "1");
@@ -120,70 +115,68 @@ public class DataServiceHandler
         if ("0".equals(RedisUtils.get("ds." + dsId))) {
             System.out.println("\n<b>" + DateUtils.getCurrentDateTime() + ":开始数据服务推送...</b>");
 
-            CommandExecutor.execute(c_sql3 + " \"select tbl_id from stg01.tb_imp_ds2_tbls where ds_id='" + dsId +
-                    "' and flag='N' order by end_time-start_time desc\" |tee " + dest_dir + "/" + dsId + ".txt");
-
-            String tblIds = LogUtils.readFile(dest_dir + "/" + dsId + ".txt");
-            ExecutorService executor = Executors.newCachedThreadPool();
-
-            for (String tblId : tblIds.split("\n")) {
-                if (tblId.trim().isEmpty()) {
-                    continue;
-                }
-
-                String rc = SpAloneUtils.waitIdxResult("ds_" + dsId, Integer.parseInt(RedisUtils.get("ds." + dsId + ".paral_num")));
+            List<String> tblIds = SqlUtils.queryForLines("select tbl_id from stg01.tb_imp_ds2_tbls where ds_id=?" +
+                    " and flag='N' order by end_time-start_time desc", dsId);
+            System.out.println(String.join("\n", tblIds));
+            try (TaskScope scope = TaskScope.open("ds_push", 0)) {
+                for (String tblId : tblIds) {
+                    if (tblId.trim().isEmpty()) {
+                        continue;
+                    }
 
-                executor.submit(() -> {
-                    System.out.println("======" + DateUtils.getCurrentDateTime() + ":[" + tblId + "][并发队列号:" + rc + "]开始执行======");
-                    CommandExecutor.execute(c_sql + " \"begin stg01.sp_imp_status('cR','" + tblId + "');end;\"");
+                    RedisSemaphore.Permit permit = SpAloneUtils.acquireSlot("ds_" + dsId, Integer.parseInt(conf.get("paral_num")));
+                    if (permit == null || scope.isCancelled()) {
+                        SpAloneUtils.releaseSlot(permit);
+                        RedisUtils.set("ds." + dsId, "1");
+                        break;
+                    }
+                    int rc = permit.slot();
 
-                    // 获取服务JSON及具体执行命令（文件及关系型数据库，通过cmd区分）
-                    CommandExecutor.execute(c_sql3 + " \"select stg01.fn_imp_value('ds_json','" + tblId + "') from dual\" >" + dest_dir + "/" + tblId + ".json");
-                    CommandExecutor.execute(c_sql3 + " \"select stg01.fn_imp_value('ds_cmd','" + tblId + "') from dual\" >" + dest_dir + "/" + tblId + ".sh");
+                    scope.fork(() -> {
+                        System.out.println("======" + DateUtils.getCurrentDateTime() + ":[" + tblId + "][并发队列号:" + rc + "]开始执行======");
+                        StatusUtils.update("cR", tblId, flag);
 
-                    // 命令具体执行
-                    int retCode;
-                    if ("1".equals(RedisUtils.get("ds." + dsId + ".paral_num"))) {
-                        System.out.println("<p style='background-color:#A9A9A9'>");
-                        retCode = CommandExecutor.executeWithResult("bash " + dest_dir + "/" + tblId + ".sh " + dest_dir + "/" + tblId + ".json 2>&1");
-                    }
-                    else {
-                        retCode = CommandExecutor.executeWithResult("bash " + dest_dir + "/" + tblId + ".sh " + dest_dir + "/" + tblId + ".json 2>/dev/null 1>/dev/null");
-                    }
+                        // 获取服务JSON及具体执行命令（文件及关系型数据库，通过cmd区分）
+                        SqlUtils.writeToFile("select stg01.fn_imp_value('ds_json',?) from dual", dest_dir + "/" + tblId + ".json", tblId);
+                        SqlUtils.writeToFile("select stg01.fn_imp_value('ds_cmd',?) from dual", dest_dir + "/" + tblId + ".sh", tblId);
 
-                    if (retCode == 0) {
-                        CommandExecutor.execute(c_sql + " \"begin stg01.sp_imp_status('cY','" + tblId + "');end;\"");
-                    }
-                    else {
-                        RedisUtils.set("ds." + dsId, "1");
-                        CommandExecutor.execute(c_sql + " \"begin stg01.sp_imp_status('cE','" + tblId + "');end;\"");
-                        System.out.println(tblId + "执行失败，等待10秒后继续");
-                        try {
-                            Thread.sleep(10000);
+                        // 命令具体执行
+                        int retCode;
+                        if ("1".equals(conf.get("paral_num"))) {
+                            System.out.println("<p style='background-color:#A9A9A9'>");
+                            retCode = CommandExecutor.executeWithResult("bash " + dest_dir + "/" + tblId + ".sh " + dest_dir + "/" + tblId + ".json 2>&1");
                         }
-                        catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
+                        else {
+                            retCode = CommandExecutor.executeWithResult("bash " + dest_dir + "/" + tblId + ".sh " + dest_dir + "/" + tblId + ".json 2>/dev/null 1>/dev/null");
                         }
-                    }
 
-                    System.out.println("</p>======" + DateUtils.getCurrentDateTime() + ":[" + tblId + "][并发队列号:" + rc + "]执行结束======" +
-                            RedisUtils.flagRemove("ds_" + dsId + "_" + rc));
-                });
-            }
+                        if (retCode == 0) {
+                            StatusUtils.update("cY", tblId, flag);
+                        }
+                        else {
+                            RedisUtils.set("ds." + dsId, "1");
+                            StatusUtils.update("cE", tblId, flag);
+                            System.out.println(tblId + "执行失败，等待10秒后继续");
+                            try {
+                                Thread.sleep(10000);
+                            }
+                            catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
 
-            executor.shutdown();
-            try {
-                executor.awaitTermination(Long.MAX_VALUE, java.util.concurrent.TimeUnit.NANOSECONDS);
-            }
-            catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+                        return retCode == 0;
+                    }, () -> System.out.println("</p>======" + DateUtils.getCurrentDateTime() + ":[" + tblId + "][并发队列号:" + rc + "]执行结束======" +
+                            SpAloneUtils.releaseSlot(permit)));
+                }
+                scope.join();
             }
         }
 
         // 后置SQL
-        if ("0".equals(RedisUtils.get("ds." + dsId)) && "1".equals(RedisUtils.get("ds." + dsId + ".post_sql"))) {
+        if ("0".equals(RedisUtils.get("ds." + dsId)) && "1".equals(conf.get("post_sql"))) {
             System.out.println("\n<b>" + DateUtils.getCurrentDateTime() + ":执行后置语句post_sql...</b>");
-            CommandExecutor.execute(c_sql3 + " \"select post_sql from stg01.vw_imp_ds2 where ds_id='" + dsId + "'\" |tee " + dest_dir + "/" + dsId + ".postsql");
+            SqlUtils.teeToFile("select post_sql from stg01.vw_imp_ds2 where ds_id=?", dest_dir + "/" + dsId + ".postsql", dsId);
 
             if (!SpAloneUtils.runSql(dest_dir + "/" + dsId + ".postsql", 1)) {
                 RedisUtils.set("ds." + dsId, "1");
@@ -191,34 +184,52 @@ public class DataServiceHandler
         }
 
         // 后置SH
-        if ("0".equals(RedisUtils.get("ds." + dsId)) && "1".equals(RedisUtils.get("ds." + dsId + ".post_sh"))) {
+        if ("0".equals(RedisUtils.get("ds." + dsId)) && "1".equals(conf.get("post_sh"))) {
             System.out.println("\n<b>" + DateUtils.getCurrentDateTime() + ":执行后置脚本post_sh...</b>");
-            CommandExecutor.execute(c_sql3 + " \"select post_sh from stg01.vw_imp_ds2 where ds_id='" + dsId + "'\" |tee " + dest_dir + "/" + dsId + ".postsh");
+            SqlUtils.teeToFile("select post_sh from stg01.vw_imp_ds2 where ds_id=?", dest_dir + "/" + dsId + ".postsh", dsId);
 
             if (CommandExecutor.executeWithResult("bash " + dest_dir + "/" + dsId + ".postsh") != 0) {
                 RedisUtils.set("ds." + dsId, "1");
             }
         }
 
-        // 执行完毕
+        // 执行完毕，租约到期后标志已被其他进程获取时由其负责后续的状态变更及清理
         System.out.println("数据服务执行结果：" + RedisUtils.get("ds." + dsId));
+        if (!RedisUtils.flagValid(flag)) {
+            System.out.println("\n<b>" + DateUtils.getCurrentDateTime() + ":数据服务标志已失效，放弃后续状态变更</b>");
+            return false;
+        }
         if ("0".equals(RedisUtils.get("ds." + dsId))) {
-            CommandExecutor.execute(c_sql + " \"begin stg01.sp_imp_status('Y','" + dsId + "');end;\"");
+            StatusUtils.update("Y", dsId);
         }
         else {
-            CommandExecutor.execute(c_sql + " \"begin stg01.sp_imp_status('E','" + dsId + "');end;\"");
+            StatusUtils.update("E", dsId);
         }
 
         // 清理redis
         System.out.println("\n<b>" + DateUtils.getCurrentDateTime() + ":清理redis配置信息...</b>");
-        String redisKeys = CommandExecutor.executeForOutput("rds \"keys ds." + dsId + "*\"");
-        for (String rs : redisKeys.split("\n")) {
-            if (rs != null && !rs.trim().isEmpty()) {
-                System.out.println("删除[" + rs + "]:" + CommandExecutor.executeForOutput("rds \"del " + rs + "\""));
-            }
+        for (String rs : RedisUtils.deleteByPattern("ds." + dsId + "*")) {
+            System.out.println("删除[" + rs + "]");
         }
 
-        RedisUtils.flagRemove("ds." + dsId);
+        RedisUtils.flagRemove(flag);
         return true;
     }
-}
\ No newline at end of file
+
+    /**
+     * 批量读取数据服务在redis中的配置项
+     */
+    private static Map<String, String> loadConf(String dsId)
+    {
+        List<String> keys = new ArrayList<>(CONF_KEYS.size());
+        for (String k : CONF_KEYS) {
+            keys.add("ds." + dsId + "." + k);
+        }
+        List<String> values = RedisUtils.multiGet(keys);
+        Map<String, String> conf = new HashMap<>();
+        for (int i = 0; i < CONF_KEYS.size(); i++) {
+            conf.put(CONF_KEYS.get(i), values.get(i));
+        }
+        return conf;
+    }
+}
@@ -1,10 +1,18 @@
 package com.wgzhao.addax.admin.handlers;
 
+import com.wgzhao.addax.admin.service.EmbeddedExecutorService;
+import com.wgzhao.addax.admin.service.TbImpChkService;
 import com.wgzhao.addax.admin.utils.*;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 /**
  * ETL相关处理类
@@ -13,8 +21,11 @@ import java.util.Arrays;
 public class EtlHandler
 {
     private static final String curpath = RedisUtils.get("path.bin");
-    private static final String c_sql = RedisUtils.get("com.inicmd");
-    private static final String c_sql3 = RedisUtils.get("com.iniout");
+
+    // tuna.py 挂死未按时退出时，超过其自身的超时秒数(com.tuna_timeout，默认 36000)后再等待宽限秒数，然后终止其整个进程树；
+    // stdout/stderr 都超过 com.tuna_idle 秒(默认 3600，0 表示不检查)没有输出时视为挂死，不必等到总超时。
+    // 两个参数在每条命令执行时读取，updt_param 修改后立即生效
+    private static final int TUNA_TIMEOUT_GRACE = 600;
 
     /**
      * 采集,SP,计划任务的具体执行
@@ -27,19 +38,29 @@ public class EtlHandler
             return false;
         }
 
-        if ("1".equals(RedisUtils.flagAdd("sp." + taskId))) {
-            String spname = CommandExecutor.executeForOutput(c_sql3 + " \"select nvl(stg01.fn_imp_value('taskname','" + taskId + "'),'" + taskId + "') from dual\"");
+        String flag = "sp." + taskId;
+        if ("1".equals(RedisUtils.flagAdd(flag))) {
+            String spname = SqlUtils.queryForString("select nvl(stg01.fn_imp_value('taskname',?),?) from dual", taskId, taskId);
             System.out.println("<b>" + DateUtils.getCurrentDateTime() + ":" + taskId + "[" + spname + "]开始执行...</b>");
 
             if ("manual".equals(mode)) {
-                CommandExecutor.execute(c_sql + " \"update tb_imp_sp_com set flag='N' where sp_id='" + taskId + "' and flag!='X'\"");
+                SqlUtils.update("update tb_imp_sp_com set flag='N' where sp_id=? and flag!='X'", taskId);
             }
 
-            String comtList = CommandExecutor.executeForOutput(c_sql3 + " \"select com_id||','||com_kind||','||com_idx from stg01.tb_imp_sp_com where sp_id='" + taskId + "' and flag='N' order by com_idx\"");
-            for (String comt : comtList.split("\n")) {
+            List<String> comtList = SqlUtils.queryForLines("select com_id||','||com_kind||','||com_idx from stg01.tb_imp_sp_com where sp_id=? and flag='N' order by com_idx", taskId);
+            // 一次渲染全部待执行命令，未包含的命令（采集任务）仍通过 fn_imp_value('com_text') 生成
+            Map<String, FuncHelper.ComText> comTexts = renderComTexts(taskId);
+            // 同一交易日已执行成功且命令未变化的命令不再执行，计划任务每次都完整执行
+            SpCheckpoint checkpoint = "plan".equals(mode) ? null : SpringContextUtil.getBean(SpCheckpoint.class);
+            Map<String, String> done = checkpoint == null ? Map.of() : checkpoint.load(taskId);
+            boolean failed = false;
+            for (String comt : comtList) {
                 if (comt.trim().isEmpty()) {
                     continue;
                 }
+                if (!RedisUtils.flagValid(flag)) {
+                    break;
+                }
 
                 String[] parts = comt.split(",");
                 if (parts.length < 3) {
@@ -58,14 +79,26 @@ public class EtlHandler
                 String com_file = RedisUtils.get("path.coms") + "/" + spname + "_" + com_idx + ".txt";
                 System.out.println("\n<b>" + DateUtils.getCurrentDateTime() + ":生成文件" + com_file + "...</b>");
 
-                int result = CommandExecutor.executeWithResult(c_sql3 + " \"select stg01.fn_imp_value('com_text','" + com_id + "') from dual\" >" + com_file);
-                if (result == 0) {
+                FuncHelper.ComText comText = comTexts.get(com_id);
+                boolean generated = comText != null
+                        ? writeComText(com_file, comText.text())
+                        : SqlUtils.writeToFile("select stg01.fn_imp_value('com_text',?) from dual", com_file, com_id);
+                // 摘要取替换动态参数之前的文本，否则 ${NOW}、${UUID} 使每次的摘要都不同；库中生成的命令只能取生成后的文件
+                String digest = !generated || checkpoint == null ? null
+                        : SpCheckpoint.digest(comText != null ? comText.stable() : LogUtils.readFile(com_file));
+                if (digest != null && digest.equals(done.get(com_id))) {
+                    System.out.println("本交易日已执行成功且命令未变化，置命令状态为Y");
+                    StatusUtils.update("cY", com_id, flag);
+                    continue;
+                }
+                if (generated) {
                     System.out.println("生成成功，置命令状态为R");
-                    CommandExecutor.execute(c_sql + " \"begin stg01.sp_imp_status('cR','" + com_id + "');end;\" 2>&1");
+                    StatusUtils.update("cR", com_id, flag);
                 }
                 else {
                     System.out.println("生成失败，跳过");
-                    CommandExecutor.execute(c_sql + " \"begin stg01.sp_imp_status('cE','" + com_id + "');end;\" 2>&1");
+                    StatusUtils.update("cE", com_id, flag);
+                    failed = true;
 
                     if ("plan".equals(mode)) {
                         // 计划需要继续执行,只是跳过报错的一条计划
@@ -79,13 +112,18 @@ public class EtlHandler
 
                 // 开始执行脚本
                 System.out.println("\n<b>" + DateUtils.getCurrentDateTime() + ":执行文件" + com_file + "...</b><p style='background-color:#A9A9A9'>");
-                result = CommandExecutor.executeWithResult(curpath + "/tuna.py -t 36000 -m " + com_kind + " -f " + com_file + " 2>&1");
+                int tunaTimeout = intParam("com.tuna_timeout", 36000);
+                int result = CommandExecutor.executeWithResult(curpath + "/tuna.py -t " + tunaTimeout + " -m " + com_kind + " -f " + com_file + " 2>&1",
+                        tunaTimeout + TUNA_TIMEOUT_GRACE, intParam("com.tuna_idle", 3600));
 
                 if (result == 0) {
-                    CommandExecutor.execute(c_sql + " \"begin stg01.sp_imp_status('cY','" + com_id + "');end;\" 2>&1");
+                    if (StatusUtils.update("cY", com_id, flag) && checkpoint != null) {
+                        checkpoint.record(taskId, com_id, digest);
+                    }
                 }
                 else {
-                    CommandExecutor.execute(c_sql + " \"begin stg01.sp_imp_status('cE','" + com_id + "');end;\" 2>&1");
+                    StatusUtils.update("cE", com_id, flag);
+                    failed = true;
 
                     if ("plan".equals(mode)) {
                         // 计划需要继续执行,只是跳过报错的一条计划
@@ -99,10 +137,18 @@ public class EtlHandler
                 System.out.println("</p>");
             }
 
-            System.out.println("\n<b>" + DateUtils.getCurrentDateTime() + ":" + taskId + "[" + spname + "]执行结束...</b>" + RedisUtils.flagRemove("sp." + taskId));
+            // 租约到期后标志已被其他进程获取，由其负责后续的状态变更及释放标志
+            if (!RedisUtils.flagValid(flag)) {
+                System.out.println("\n<b>" + DateUtils.getCurrentDateTime() + ":" + taskId + "[" + spname + "]任务标志已失效，放弃后续状态变更</b>");
+                return false;
+            }
+            if (checkpoint != null && !failed) {
+                checkpoint.clear(taskId);
+            }
+            System.out.println("\n<b>" + DateUtils.getCurrentDateTime() + ":" + taskId + "[" + spname + "]执行结束...</b>" + RedisUtils.flagRemove(flag));
 
             if (!"manual".equals(mode)) {
-                CommandExecutor.execute(c_sql + " \"begin stg01.sp_imp_status('Y','" + taskId + "');end;\" 2>&1");
+                StatusUtils.update("Y", taskId);
                 // 计划任务执行无需重新调起sp_start
                 if (!"plan".equals(mode)) {
                     return spStart();
@@ -112,26 +158,62 @@ public class EtlHandler
         }
         else {
             if (!"manual".equals(mode)) {
-                CommandExecutor.execute(c_sql + " \"begin stg01.sp_imp_status('E','" + taskId + "');end;\" 2>&1");
+                StatusUtils.update("E", taskId);
             }
             return false;
         }
     }
 
+    private static Map<String, FuncHelper.ComText> renderComTexts(String taskId) {
+        FuncHelper funcHelper = SpringContextUtil.getBean(FuncHelper.class);
+        if (funcHelper == null) {
+            return Map.of();
+        }
+        try {
+            return funcHelper.renderComTexts(taskId);
+        }
+        catch (Exception e) {
+            System.err.println("批量生成命令失败，逐条生成:" + e.getMessage());
+            return Map.of();
+        }
+    }
+
+    private static boolean writeComText(String comFile, String text) {
+        try {
+            Files.writeString(Path.of(comFile), text + System.lineSeparator(), StandardCharsets.UTF_8);
+            return true;
+        }
+        catch (IOException e) {
+            System.err.println("写入" + comFile + "失败:" + e.getMessage());
+            return false;
+        }
+    }
+
     /**
      * 启动任务的并发入口
+     * 已有节点在调度时只登记一次待处理请求，由持有者在本轮结束后合并为一次补跑，避免任务完成的触发被丢弃
      */
     public static boolean spStart()
     {
-        if ("1".equals(RedisUtils.flagAdd("auto"))) {
-            System.out.println(DateUtils.getCurrentDateTime() + ":当前redis标志情况:\n" + CommandExecutor.executeForOutput("rfg all 1"));
-            CommandExecutor.execute("rfg wtout sp_init");
+        RedisUtils.set("auto.pending", "1");
+        // 开启主备选举时只有主节点调起，其他节点登记的请求由主节点定时执行
+        LeaderElection leader = SpringContextUtil.getBean(LeaderElection.class);
+        if (leader != null && !leader.isLeader()) {
+            return false;
+        }
+        if (!"1".equals(RedisUtils.flagAdd("auto"))) {
+            return false;
+        }
+        do {
+            RedisUtils.delete("auto.pending");
+            System.out.println(DateUtils.getCurrentDateTime() + ":当前redis标志情况:\n" + RedisUtils.flagAll());
+            RedisUtils.flagWaitOut("sp_init");
             startWkf("sp_init", "");
             RedisUtils.flagRemove("auto");
-            System.out.println("\n" + DateUtils.getCurrentDateTime() + ":当前redis标志情况:\n" + CommandExecutor.executeForOutput("rfg all 1"));
-            return true;
+            System.out.println("\n" + DateUtils.getCurrentDateTime() + ":当前redis标志情况:\n" + RedisUtils.flagAll());
         }
-        return false;
+        while ("1".equals(RedisUtils.get("auto.pending")) && "1".equals(RedisUtils.flagAdd("auto")));
+        return true;
     }
 
     /**
@@ -140,12 +222,12 @@ public class EtlHandler
     public static boolean spInit()
     {
         if ("1".equals(RedisUtils.flagAdd("sp_init"))) {
-            String shfile = RedisUtils.get("path.oths") + "/sp_init.sh";
-            CommandExecutor.execute(">" + shfile);
             String strsql = "";
+            List<String> ended = new ArrayList<>();
+            List<String[]> wkfs = new ArrayList<>();
 
             System.out.println("#####" + DateUtils.getCurrentDateTime() + ":数据源采集完毕######");
-            String sysids = CommandExecutor.executeForOutput(c_sql3 + " \"select stg01.fn_imp_value('etl_end') from dual\"");
+            String sysids = SqlUtils.queryForString("select stg01.fn_imp_value('etl_end') from dual");
 
             for (String sysid : sysids.split("\n")) {
                 if (sysid == null || sysid.trim().isEmpty()) {
@@ -154,40 +236,100 @@ public class EtlHandler
 
                 // 置数据源采集结束
                 strsql += "stg01.sp_imp_alone('etl_end','" + sysid + "');";
+                ended.add(sysid.trim());
                 // 数据源采集完后的操作
-                CommandExecutor.execute("echo \"" + RedisUtils.get("com.sp_alone") + " start_wkf etl_end " + sysid + "\" |tee -a " + shfile);
+                wkfs.add(new String[] {"etl_end", sysid});
             }
 
             if (!strsql.isEmpty()) {
                 System.out.println(DateUtils.getCurrentDateTime() + ":执行SQL=[" + strsql + "]");
-                CommandExecutor.execute(c_sql + " \"begin " + strsql + " end;\" 2>&1");
-                CommandExecutor.execute("bash " + shfile + " 2>&1");
+                SqlUtils.execute(strsql);
+                startWkfAll(wkfs);
+                // 来源系统采集结束，通知就绪引擎
+                ReadinessEngine engine = SpringContextUtil.getBean(ReadinessEngine.class);
+                if (engine != null) {
+                    ended.forEach(engine::onSourceEnd);
+                }
             }
 
             System.out.println("\n\n#####" + DateUtils.getCurrentDateTime() + ":需要执行的采集、SP计算、数据服务######");
             strsql = "";
-            CommandExecutor.execute(">" + shfile);
-
-            int result = CommandExecutor.executeWithResult(c_sql + " \"begin stg01.sp_imp_alone('sp_start');end;\" 2>&1");
-
-            if (result == 0) {
-                String lines = CommandExecutor.executeForOutput(c_sql3 + " \"select stg01.fn_imp_value('sp_run') from dual\"");
+            wkfs.clear();
+
+            ProcedureHelper procedureHelper = SpringContextUtil.getBean(ProcedureHelper.class);
+            boolean started = procedureHelper != null ? procedureHelper.spImpAlone("sp_start")
+                    : SqlUtils.call("stg01.sp_imp_alone", "sp_start");
+            if (started) {
+                List<String> running = new ArrayList<>();
+                // 多节点租约模式下任务放入共享队列，由各节点领取执行
+                WorkLease lease = SpringContextUtil.getBean(WorkLease.class);
+                boolean leasing = lease != null && lease.isEnabled();
+                List<String[]> leased = new ArrayList<>();
+                Dispatcher dispatcher = SpringContextUtil.getBean(Dispatcher.class);
+                String lines = dispatcher != null ? String.join("\n", dispatcher.dispatch())
+                        : SqlUtils.queryForString("select stg01.fn_imp_value('sp_run') from dual");
 
                 for (String line : lines.split("\n")) {
                     if (line == null || line.trim().isEmpty()) {
                         continue;
                     }
 
-                    // 置状态为R
                     String[] linev = line.split("\\|");
+                    // 手工执行的SP不改变任务状态
+                    if (leasing) {
+                        leased.add(new String[] {linev[1], linev.length > 2 ? linev[2] : linev[1], wkfCommand(linev[0], linev[1])});
+                    }
+                    if ("spcom".equals(linev[0])) {
+                        if (!leasing) {
+                            wkfs.add(new String[] {"spcom", linev[1]});
+                        }
+                        continue;
+                    }
+                    // 置状态为R
                     strsql += "stg01.sp_imp_status('R','" + linev[1] + "');";
-                    CommandExecutor.execute("echo \"" + RedisUtils.get("com.sp_alone") + " start_wkf " + linev[0] + " " + linev[1] + "\" |tee -a " + shfile);
+                    running.add(linev[1]);
+                    if (!leasing) {
+                        wkfs.add(new String[] {linev[0], linev[1]});
+                    }
                 }
 
+                // 主节点已切换，旧主节点不再置R及调起任务
+                LeaderElection leader = SpringContextUtil.getBean(LeaderElection.class);
+                if (leader != null && !leader.fence()) {
+                    System.out.println(DateUtils.getCurrentDateTime() + ":已不是调度主节点，放弃本轮调起");
+                    if (dispatcher != null) {
+                        dispatcher.abortManual();
+                    }
+                    RedisUtils.flagRemove("sp_init");
+                    return false;
+                }
                 if (!strsql.isEmpty()) {
                     System.out.println(DateUtils.getCurrentDateTime() + ":执行SQL=[" + strsql + "]");
-                    CommandExecutor.execute(c_sql + " \"begin " + strsql + " end;\"");
-                    CommandExecutor.execute("bash " + shfile + " 2>&1");
+                    // 主任务置R会重置子任务状态，先写入管道中的子任务状态
+                    if (!StatusUtils.flush()) {
+                        System.out.println(DateUtils.getCurrentDateTime() + ":子任务状态写入失败，放弃本轮调起");
+                        if (dispatcher != null) {
+                            dispatcher.abortManual();
+                        }
+                        RedisUtils.flagRemove("sp_init");
+                        return false;
+                    }
+                    SqlUtils.execute(strsql);
+                    TaskRegistry registry = SpringContextUtil.getBean(TaskRegistry.class);
+                    if (registry != null) {
+                        running.forEach(id -> registry.onStatus("R", id));
+                    }
+                }
+                if (leasing) {
+                    // 置R之后再入队，避免其他节点在状态变更之前开始执行
+                    leased.forEach(w -> lease.submit(w[0], w[1], w[2]));
+                    System.out.println(DateUtils.getCurrentDateTime() + ":" + leased.size() + "个任务放入共享队列");
+                }
+                else {
+                    startWkfAll(wkfs);
+                }
+                if (dispatcher != null) {
+                    dispatcher.ackManual();
                 }
             }
 
@@ -217,18 +359,18 @@ public class EtlHandler
             String jsonfile = RedisUtils.get("path.oths") + "/soutab_" + dbConn + ".json";
             System.out.println("\n" + DateUtils.getCurrentDateTime() + ":获取表结构信息[" + dbConn + "][" + jsonfile + "]...");
 
-            CommandExecutor.execute(c_sql3 + " \"select col_json from stg01.vw_imp_etl_soutab where sou_db_conn='" + dbConn + "'\" |tee " + jsonfile);
+            SqlUtils.teeToFile("select col_json from stg01.vw_imp_etl_soutab where sou_db_conn=?", jsonfile, dbConn);
 
             if (LogUtils.countLines(jsonfile) >= 5) {
                 int result = CommandExecutor.executeWithResult(RedisUtils.get("com.tuna") + " -m schema -f " + jsonfile + " 2>&1");
 
                 if (result == 0) {
-                    CommandExecutor.execute(c_sql + " \"begin stg01.sp_imp_alone('bupdate','" + dbConn + "','n');end;\"");
+                    SqlUtils.call("stg01.sp_imp_alone", "bupdate", dbConn, "n");
                     RedisUtils.flagRemove("soutab." + dbConn);
                     return true;
                 }
                 else {
-                    CommandExecutor.execute(c_sql + " \"begin stg01.sp_sms('获取" + dbConn + "的表结构信息失败!!!!','1','010');end;\"");
+                    SqlUtils.sms("获取" + dbConn + "的表结构信息失败!!!!", "1", "010");
                 }
             }
 
@@ -247,49 +389,49 @@ public class EtlHandler
             System.out.println("<b>" + DateUtils.getCurrentDateTime() + ":获取源库及hadoop的表结构信息</b><p style='background-color:#A9A9A9'>");
 
             String dest_dir = RedisUtils.get("path.oths");
-            String dbConns = CommandExecutor.executeForOutput(c_sql + " \"select sou_db_conn from stg01.vw_imp_etl_soutab where kind='etl'\"");
+            List<String> dbConns = SqlUtils.queryForLines("select sou_db_conn from stg01.vw_imp_etl_soutab where kind='etl'");
 
-            ExecutorService executor = Executors.newCachedThreadPool();
+            try (TaskScope scope = TaskScope.open("soutab")) {
+                for (String dbConn : dbConns) {
+                    if (dbConn == null || dbConn.trim().isEmpty()) {
+                        continue;
+                    }
 
-            for (String dbConn : dbConns.split("\n")) {
-                if (dbConn == null || dbConn.trim().isEmpty()) {
-                    continue;
+                    scope.fork(() -> {
+                        System.out.println(DateUtils.getCurrentDateTime() + ":" + dbConn + "...start");
+                        boolean ok = soutabEtl(dbConn);
+                        System.out.println(DateUtils.getCurrentDateTime() + ":" + dbConn + "...over");
+                        return ok;
+                    });
                 }
-
-                executor.submit(() -> {
-                    System.out.println(DateUtils.getCurrentDateTime() + ":" + dbConn + "...start");
-                    soutabEtl(dbConn);
-                    System.out.println(DateUtils.getCurrentDateTime() + ":" + dbConn + "...over");
-                });
-            }
-
-            executor.shutdown();
-            try {
-                executor.awaitTermination(Long.MAX_VALUE, java.util.concurrent.TimeUnit.NANOSECONDS);
-            }
-            catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+                scope.join();
             }
 
             // 刷新对比表
-            CommandExecutor.execute(c_sql + " \"begin stg01.sp_imp_alone('colexch_updt');end;\" 2>&1");
+            SqlUtils.call("stg01.sp_imp_alone", "colexch_updt");
 
             // 建表或者刷新hive表结构
             String dest_file = dest_dir + "/updt_hive.sql";
 
             for (String kind : Arrays.asList("updt_hive", "updt_mysql")) {
-                CommandExecutor.execute(c_sql3 + " \"select stg01.fn_imp_value('" + kind + "') from dual\" >" + dest_file);
+                SqlUtils.writeToFile("select stg01.fn_imp_value(?) from dual", dest_file, kind);
 
                 if (CommandExecutor.executeWithResult("test -s " + dest_file) == 0) {
                     System.out.println("</p>\n<b>" + DateUtils.getCurrentDateTime() + ":" + kind + " " +
                             RedisUtils.flagAdd("soutab.task") + "</b>[" + dest_file + "]<p style='background-color:#A9A9A9'>");
 
                     if ("updt_hive".equals(kind)) {
-                        CommandExecutor.execute(curpath + "/tuna.py -m hive -f " + dest_file + " 2>&1");
+                        if (HiveUtils.isEnabled()) {
+                            HiveUtils.runDdl(LogUtils.readFile(dest_file));
+                        }
+                        else {
+                            CommandExecutor.execute(curpath + "/tuna.py -m hive -f " + dest_file + " 2>&1");
+                        }
                     }
                     else {
-                        CommandExecutor.execute("cat " + dest_file);
-                        CommandExecutor.execute("HOME=/opt/infalog mysql -hnn01 -P3306 -Dhive -uhive -p'ZEQEJGsNP7NT' <" + dest_file);
+                        String ddl = LogUtils.readFile(dest_file);
+                        System.out.println(ddl);
+                        HiveUtils.updateMetastore(ddl);
                     }
                 }
             }
@@ -298,17 +440,24 @@ public class EtlHandler
             if ("1".equals(RedisUtils.flagHas("soutab.task"))) {
                 System.out.println("</p>\n<b>" + DateUtils.getCurrentDateTime() + ":本次hadoop有更新，获取更新后的hadoop表结构信息</b><p style='background-color:#A9A9A9'>");
                 soutabEtl("hadoop");
-                CommandExecutor.execute(c_sql + " \"begin stg01.sp_imp_alone('colexch_updt');end;\" 2>&1");
+                SqlUtils.call("stg01.sp_imp_alone", "colexch_updt");
             }
 
             RedisUtils.flagRemove("soutab.task");
 
             // 更新状态及采集JSON
             System.out.println("</p>\n<b>" + DateUtils.getCurrentDateTime() + ":执行完毕，更新状态及采集JSON</b>");
-            CommandExecutor.execute(c_sql + " \"begin stg01.sp_imp_alone('bupdate','N');end;\" 2>&1");
+            ProcedureHelper procedureHelper = SpringContextUtil.getBean(ProcedureHelper.class);
+            boolean ok;
+            if (procedureHelper != null) {
+                ok = procedureHelper.spImpAlone("bupdate", "N");
+            }
+            else {
+                ok = SqlUtils.call("stg01.sp_imp_alone", "bupdate", "N");
+            }
 
             RedisUtils.flagRemove("soutab");
-            return true;
+            return ok;
         }
         return false;
     }
@@ -323,12 +472,11 @@ public class EtlHandler
         }
 
         // 1、更新redis中api参数,用于接口的日期参数，该参数是以数据源编号开头的，用于区分不同数据源的采集情况
-        String rdsCommands = CommandExecutor.executeForOutput(c_sql + " \"select replace(rds,'set param.','set api." + sysid +
-                "') rds from stg01.vw_updt_rds where rds like 'set param.%'\"");
+        List<String> rdsCommands = SqlUtils.queryForLines("select replace(rds,'set param.','set api.'||?) rds from stg01.vw_updt_rds where rds like 'set param.%'", sysid);
 
-        for (String line : rdsCommands.split("\n")) {
+        for (String line : rdsCommands) {
             if (line != null && !line.trim().isEmpty()) {
-                System.out.println("更新redis:" + line + "===>" + CommandExecutor.executeForOutput("rds \"" + line + "\""));
+                System.out.println("更新redis:" + line + "===>" + RedisUtils.command(line));
             }
         }
 
@@ -337,9 +485,26 @@ public class EtlHandler
             String tblcnt = RedisUtils.get("path.oths") + "/tblcnt_" + sysid + ".txt";
             String tblsql = RedisUtils.get("path.oths") + "/tblcnt_" + sysid + ".sql";
 
-            CommandExecutor.execute(">" + tblcnt);
-            CommandExecutor.execute(c_sql3 + " \"select stg01.fn_imp_value('etl_end_chk','" + sysid + "') from dual\" >" + tblsql);
-            CommandExecutor.execute(RedisUtils.get("com.prestocmd") + " --output-format TSV -f " + tblsql + " |tee -a " + tblcnt);
+            SqlUtils.writeToFile("select stg01.fn_imp_value('etl_end_chk',?) from dual", tblsql, sysid);
+
+            // 比对结果逐行写入 tblcnt 文件，同时批量写入 tb_imp_chk_etl
+            List<List<String>> rows = new ArrayList<>();
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Path.of(tblcnt), StandardCharsets.UTF_8))) {
+                PrestoUtils.runScript("presto", LogUtils.readFile(tblsql), row -> {
+                    String line = String.join("\t", row);
+                    System.out.println(line);
+                    writer.println(line);
+                    rows.add(row);
+                });
+            }
+            catch (IOException e) {
+                System.err.println("写入" + tblcnt + "失败:" + e.getMessage());
+            }
+
+            TbImpChkService chkService = SpringContextUtil.getBean(TbImpChkService.class);
+            if (chkService != null && !rows.isEmpty()) {
+                System.out.println("写入tb_imp_chk_etl：" + chkService.saveEtlCounts(RedisUtils.get("param.TD"), rows) + "行");
+            }
             CommandExecutor.execute("cp " + tblcnt + " /mnt/dfs/sta/stage/tab_cnt/logdate=" + RedisUtils.get("param.TD") + "/");
         }
 
@@ -347,44 +512,95 @@ public class EtlHandler
     }
 
     /**
-     * 统一调起工作流
+     * 工作流实际执行的命令
      */
-    public static boolean startWkf(String type, String param)
+    public static String wkfCommand(String type, String param)
     {
-        String comt;
-
         switch (type) {
             case "plan":
-                comt = RedisUtils.get("com.sp_alone") + " sp_etl " + param + " plan";
-                break;
+                return RedisUtils.get("com.sp_alone") + " sp_etl " + param + " plan";
             case "judge":
-                comt = RedisUtils.get("com.sp_alone") + " judge_etl " + param;
-                break;
+                return RedisUtils.get("com.sp_alone") + " judge_etl " + param;
             case "ds":
-                comt = RedisUtils.get("com.sp_alone") + " ds_etl " + param;
-                break;
+                return RedisUtils.get("com.sp_alone") + " ds_etl " + param;
             case "soutab":
-                comt = RedisUtils.get("com.sp_alone") + " soutab_etl " + param;
-                break;
+                return RedisUtils.get("com.sp_alone") + " soutab_etl " + param;
             case "sp":
-                comt = RedisUtils.get("com.sp_alone") + " sp_etl " + param;
-                break;
+                return RedisUtils.get("com.sp_alone") + " sp_etl " + param;
             case "spcom":
-                comt = RedisUtils.get("com.sp_alone") + " sp_etl " + param + " manual";
-                break;
+                return RedisUtils.get("com.sp_alone") + " sp_etl " + param + " manual";
             case "manual":
-                comt = param;
-                break;
+                return param;
             default:
-                comt = RedisUtils.get("com.sp_alone") + " " + type + " " + param;
-                break;
+                return RedisUtils.get("com.sp_alone") + " " + type + " " + param;
         }
+    }
 
-        // 真实调起命令
-        String curlCommand = "curl -H 'token:de27aefdf8f0392ddab7c2144af67ab0' " +
-                "-X POST 'http://etl01:12345/dolphinscheduler/projects/10691104512992/executors/start-process-instance' " +
-                "-d 'failureStrategy=END&processDefinitionCode=10691166416992&processInstancePriority=MEDIUM&scheduleTime=&warningGroupId=0&warningType=NONE&startParams={\"comt\":\"" + comt + "\"}'";
+    /**
+     * 统一调起工作流
+     */
+    public static boolean startWkf(String type, String param)
+    {
+        EmbeddedExecutorService embedded = SpringContextUtil.getBean(EmbeddedExecutorService.class);
+        if (embedded != null && embedded.isEnabled()) {
+            return embedded.submit(type, param);
+        }
+        String comt = wkfCommand(type, param);
+        DsTrigger trigger = SpringContextUtil.getBean(DsTrigger.class);
+        if (trigger == null) {
+            // 处理类只在进程内调用，Spring 容器未启动时没有可用的调度工具客户端
+            System.out.println(DateUtils.getCurrentDateTime() + ":调度工具客户端未启动，无法调起工作流[" + comt + "]");
+            return false;
+        }
+        return trigger.trigger(comt).join();
+    }
+
+    /**
+     * 批量调起工作流，开启内嵌执行器时直接提交，否则通过 DsTrigger 并发发送，重复的命令只调起一次
+     * @param wkfs 工作流类型及参数
+     * @return 全部调起成功时返回 true
+     */
+    public static boolean startWkfAll(List<String[]> wkfs)
+    {
+        if (wkfs.isEmpty()) {
+            return true;
+        }
+        long start = System.currentTimeMillis();
+        EmbeddedExecutorService embedded = SpringContextUtil.getBean(EmbeddedExecutorService.class);
+        DsTrigger trigger = SpringContextUtil.getBean(DsTrigger.class);
+        int failed = 0;
+        if (embedded != null && embedded.isEnabled()) {
+            for (String[] wkf : wkfs) {
+                if (!embedded.submit(wkf[0], wkf[1])) {
+                    failed++;
+                }
+            }
+        }
+        else if (trigger != null) {
+            List<String> comts = wkfs.stream().map(w -> wkfCommand(w[0], w[1])).toList();
+            for (Map.Entry<String, Boolean> e : trigger.triggerAll(comts).entrySet()) {
+                System.out.println(DateUtils.getCurrentDateTime() + ":调起工作流[" + e.getKey() + "]" + (e.getValue() ? "" : "失败"));
+                if (!e.getValue()) {
+                    failed++;
+                }
+            }
+        }
+        else {
+            System.out.println(DateUtils.getCurrentDateTime() + ":调度工具客户端未启动，无法调起工作流");
+            failed = wkfs.size();
+        }
+        System.out.println(DateUtils.getCurrentDateTime() + ":调起" + wkfs.size() + "个工作流，失败" + failed + "个，耗时"
+                + (System.currentTimeMillis() - start) + "ms");
+        return failed == 0;
+    }
 
-        return CommandExecutor.executeWithResult(curlCommand) == 0;
+    private static int intParam(String key, int defaultValue) {
+        try {
+            String value = RedisUtils.get(key);
+            return value == null || value.isBlank() ? defaultValue : Integer.parseInt(value.trim());
+        }
+        catch (Exception e) {
+            return defaultValue;
+        }
     }
 }
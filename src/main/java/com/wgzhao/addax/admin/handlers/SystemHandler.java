@@ -1,8 +1,11 @@
 package com.wgzhao.addax.admin.handlers;
 
 
+import com.wgzhao.addax.admin.service.TbImpChkService;
 import com.wgzhao.addax.admin.utils.*;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -13,10 +16,6 @@ import java.util.concurrent.Executors;
 public class SystemHandler {
     private static final String rootdir = RedisUtils.get("path.infalog");
     private static final String curpath = RedisUtils.get("path.bin");
-    private static final String c_sql = RedisUtils.get("com.inicmd");
-    private static final String c_sql3 = RedisUtils.get("com.iniout");
-    private static final String c_presto = RedisUtils.get("com.prestocmd");
-    private static final String c_allsql = RedisUtils.get("com.prestoall");
 
     private static final String v_today = DateUtils.getCurrentDate("yyyyMMdd");
     private static final String v_yest = DateUtils.getYesterdayDate("yyyyMMdd");
@@ -69,34 +68,47 @@ public class SystemHandler {
             return false;
         }
 
-        CommandExecutor.execute(c_sql + " \"begin stg01.sp_sms('系统参数param_sys开始切换'||chr(10)||to_char(stg01.fn_imp_value('pntype_list'))||chr(10)||'TD=" +
-                RedisUtils.get("param.TD") + "'||chr(10)||'CD=" + RedisUtils.get("param.CD") + "','1','110');end;\"");
+        SqlUtils.sms("系统参数param_sys开始切换\n" + SqlUtils.queryForString("select to_char(stg01.fn_imp_value('pntype_list')) from dual") +
+                "\nTD=" + RedisUtils.get("param.TD") + "\nCD=" + RedisUtils.get("param.CD"), "1", "110");
 
         // 计算日期参数
         for (String td : new String[]{"sysdate", "sysdate-1", "sysdate+1"}) {
-            int result = CommandExecutor.executeWithResult(c_sql + " \"begin stg01.sp_imp_param(to_char(" + td + ",'YYYYMMDD'));end;\"");
-            if (result != 0) {
-                CommandExecutor.execute(c_sql + " \"begin stg01.sp_sms('系统参数param_sys生成失败!!!!','1','111');end;\"");
+            if (!SqlUtils.execute("stg01.sp_imp_param(to_char(" + td + ",'YYYYMMDD'));")) {
+                SqlUtils.sms("系统参数param_sys生成失败!!!!", "1", "111");
                 return false;
             }
         }
+        ParamSnapshot paramSnapshot = SpringContextUtil.getBean(ParamSnapshot.class);
+        if (paramSnapshot != null) {
+            System.out.println("参数快照版本：" + paramSnapshot.rebuild());
+        }
+        // 切日后重新读取采集JSON模板，表结构变化由 bupdate 逐表丢弃字段缓存
+        JobFileGenerator jobFileGenerator = SpringContextUtil.getBean(JobFileGenerator.class);
+        if (jobFileGenerator != null) {
+            jobFileGenerator.invalidateTemplates();
+        }
+        // 切日后 vw_imp_date 可能变化，计划调度在下一次定时比对时重新定时
+        PlanSchedule planSchedule = SpringContextUtil.getBean(PlanSchedule.class);
+        if (planSchedule != null) {
+            planSchedule.invalidate();
+        }
 
         // 更新薪酬参数
-        CommandExecutor.execute(c_sql + " \"begin stg01.sp_imp_alone('xc_init');end;\"");
+        SqlUtils.call("stg01.sp_imp_alone", "xc_init");
 
         // 读取配置信息更新redis，包含日期参数、常用地址，命令中文等
-        String rdsCommands = CommandExecutor.executeForOutput(c_sql + " \"select rds from stg01.vw_updt_rds\"");
-        for (String line : rdsCommands.split("\n")) {
+        List<String> rdsCommands = SqlUtils.queryForLines("select rds from stg01.vw_updt_rds");
+        for (String line : rdsCommands) {
             if (line != null && !line.trim().isEmpty()) {
-                System.out.println("更新redis：" + line + "===>" + CommandExecutor.executeForOutput("rds \"" + line + "\""));
+                System.out.println("更新redis：" + line + "===>" + RedisUtils.command(line));
             }
         }
 
-        CommandExecutor.execute(c_sql + " \"begin stg01.sp_sms('系统参数param_sys切换完成！'||chr(10)||to_char(stg01.fn_imp_value('pntype_list'))||chr(10)||'TD=" +
-                RedisUtils.get("param.TD") + "'||chr(10)||'CD=" + RedisUtils.get("param.CD") + "','1','110');end;\"");
+        SqlUtils.sms("系统参数param_sys切换完成！\n" + SqlUtils.queryForString("select to_char(stg01.fn_imp_value('pntype_list')) from dual") +
+                "\nTD=" + RedisUtils.get("param.TD") + "\nCD=" + RedisUtils.get("param.CD"), "1", "110");
 
         // 记录数比对表增加分区
-        CommandExecutor.execute("hive -e \"alter table default.tab_cnt add if not exists partition(logdate='" + RedisUtils.get("param.TD") + "')\"");
+        HiveUtils.runDdl("alter table default.tab_cnt add if not exists partition(logdate='" + RedisUtils.get("param.TD") + "')");
 
         SpAloneUtils.syslog("参数更新任务执行完毕");
         return true;
@@ -130,8 +142,7 @@ public class SystemHandler {
             RedisUtils.set("dschk.errcnt", "0"); // 错误数归0
 
             if ("1".equals(RedisUtils.flagHas("dschk.msg"))) {
-                CommandExecutor.execute(c_sql + " \"begin stg01.sp_sms('" + DateUtils.getCurrentDateTime() +
-                        ":调度工具运行平稳~~来自于" + CommandExecutor.getHostname() + "','1','010');end;\"");
+                SqlUtils.sms(DateUtils.getCurrentDateTime() + ":调度工具运行平稳~~来自于" + CommandExecutor.getHostname(), "1", "010");
             }
         } else {
             System.out.println("调度工具异常，需要赶紧处理");
@@ -145,9 +156,8 @@ public class SystemHandler {
             errCount++;
             RedisUtils.set("dschk.errcnt", String.valueOf(errCount)); // 错误数+1
 
-            CommandExecutor.execute(c_sql + " \"begin stg01.sp_sms('" + DateUtils.getCurrentDateTime() +
-                    ":调度工具连续异常" + errCount + "次，需要赶紧处理!!来自于" +
-                    CommandExecutor.getHostname() + "','dschk','110');end;\"");
+            SqlUtils.sms(DateUtils.getCurrentDateTime() + ":调度工具连续异常" + errCount + "次，需要赶紧处理!!来自于" +
+                    CommandExecutor.getHostname(), "dschk", "110");
         }
 
         RedisUtils.flagRemove("dschk.msg");
@@ -164,17 +174,17 @@ public class SystemHandler {
         }
 
         // 更新检测的配置信息
-        CommandExecutor.execute(c_sql + " \"truncate table stg01.tb_imp_chk_inf\"");
-        CommandExecutor.execute(c_sql + " \"insert into stg01.tb_imp_chk_inf(engine,chk_idx,chk_sendtype,chk_mobile,bpntype,chk_kind,chk_sql) " +
-                "select engine,chk_idx,chk_sendtype,chk_mobile,bpntype,chk_kind,chk_sql from stg01.vw_imp_chk_inf\"");
+        SqlUtils.update("truncate table stg01.tb_imp_chk_inf");
+        SqlUtils.update("insert into stg01.tb_imp_chk_inf(engine,chk_idx,chk_sendtype,chk_mobile,bpntype,chk_kind,chk_sql) " +
+                "select engine,chk_idx,chk_sendtype,chk_mobile,bpntype,chk_kind,chk_sql from stg01.vw_imp_chk_inf");
 
-        CommandExecutor.execute(c_sql + " \"delete from stg01.tb_imp_chk where chk_kind not in(select chk_kind from stg01.tb_imp_chk_inf)\"");
+        SqlUtils.update("delete from stg01.tb_imp_chk where chk_kind not in(select chk_kind from stg01.tb_imp_chk_inf)");
 
         // 网络连通性检测部分已注释，如需实现可以取消注释
         /*
         System.out.println("<b>" + DateUtils.getCurrentDateTime() + ":获取网络连通性</b><p style='background-color:#A9A9A9'>");
         String inifile = RedisUtils.get("path.trans") + "/netchk.txt";
-        CommandExecutor.execute(c_sql3 + " \"select distinct sysid||'_'||sys_name||','||netchk from stg01.vw_imp_system where netchk is not null order by 1\" >" + inifile);
+        SqlUtils.writeToFile("select distinct sysid||'_'||sys_name||','||netchk from stg01.vw_imp_system where netchk is not null order by 1", inifile);
 
         ExecutorService executor = Executors.newCachedThreadPool();
 
@@ -193,8 +203,8 @@ public class SystemHandler {
                 System.out.println(DateUtils.getCurrentDateTime() + ":" + String.join(" ", parts) + "==>" + result);
 
                 if (result.contains("Closed")) {
-                    CommandExecutor.execute(c_sql + " \"insert into stg01.tb_imp_chk(chk_kind,chk_name,chk_content) values('netchk','" +
-                                          parts[0] + "','" + parts[0] + "[" + parts[1] + "]连通性异常')\"");
+                    SqlUtils.update("insert into stg01.tb_imp_chk(chk_kind,chk_name,chk_content) values('netchk',?,?)",
+                                    parts[0], parts[0] + "[" + parts[1] + "]连通性异常");
                 }
             });
         }
@@ -207,24 +217,41 @@ public class SystemHandler {
         }
         */
 
-        CommandExecutor.execute(c_sql + " \"delete from stg01.tb_imp_chk where chk_kind in(select chk_kind from stg01.tb_imp_chk_inf where engine='allsql')\"");
+        SqlUtils.update("delete from stg01.tb_imp_chk where chk_kind in(select chk_kind from stg01.tb_imp_chk_inf where engine='allsql')");
 
         // 基于allsql的自定义检测
         System.out.println("</p><b>" + DateUtils.getCurrentDateTime() + ":基于allsql的自定义检测</b><p style='background-color:#A9A9A9'>");
 
         ExecutorService executor = Executors.newFixedThreadPool(5);
+        TbImpChkService chkService = SpringContextUtil.getBean(TbImpChkService.class);
 
         for (int grp = 1; grp <= 5; grp++) {
             final int groupNum = grp;
             executor.submit(() -> {
-                String sqlfile = RedisUtils.get("path.oths") + "/syschk_" + groupNum + ".sql";
-                CommandExecutor.execute(RedisUtils.get("com.iniout") + " \"select chk from (select 'insert into ora_in.stg01.tb_imp_chk(chk_mobile,chk_sendtype,chk_kind,chk_name,chk_content)'||" +
-                        "chr(10)||stg01.fn_imp_param_replace(chk_sql)||';' as chk,mod(row_number()over(order by chk_idx),5)+1 px from stg01.tb_imp_chk_inf where engine='allsql') where px=" +
-                        groupNum + "\" |tee " + sqlfile);
-
-                int result = CommandExecutor.executeWithResult(RedisUtils.get("com.prestoall") + " -f " + sqlfile + " 2>&1");
-                if (result != 0) {
-                    CommandExecutor.execute(RedisUtils.get("com.inicmd") + " \"begin stg01.sp_sms('" + groupNum + "组的系统检测失败','1','110');end;\"");
+                boolean ok;
+                if (chkService != null) {
+                    // 检测语句的结果直接批量写入 tb_imp_chk，单条检测失败不影响同组其他检测
+                    List<String> chkSqls = SqlUtils.queryForLines("select chk_sql from (select stg01.fn_imp_param_replace(chk_sql) chk_sql," +
+                            "mod(row_number()over(order by chk_idx),5)+1 px from stg01.tb_imp_chk_inf where engine='allsql') where px=?", groupNum);
+                    List<List<String>> rows = new ArrayList<>();
+                    ok = true;
+                    for (String chkSql : chkSqls) {
+                        System.out.println(chkSql);
+                        ok &= PrestoUtils.runScript("allsql", chkSql, rows::add);
+                    }
+                    if (!rows.isEmpty()) {
+                        System.out.println(groupNum + "组写入tb_imp_chk：" + chkService.saveChecks(rows) + "行");
+                    }
+                }
+                else {
+                    String sqlfile = RedisUtils.get("path.oths") + "/syschk_" + groupNum + ".sql";
+                    SqlUtils.teeToFile("select chk from (select 'insert into ora_in.stg01.tb_imp_chk(chk_mobile,chk_sendtype,chk_kind,chk_name,chk_content)'||" +
+                            "chr(10)||stg01.fn_imp_param_replace(chk_sql)||';' as chk,mod(row_number()over(order by chk_idx),5)+1 px from stg01.tb_imp_chk_inf where engine='allsql') where px=?",
+                            sqlfile, groupNum);
+                    ok = PrestoUtils.runScript("allsql", LogUtils.readFile(sqlfile));
+                }
+                if (!ok) {
+                    SqlUtils.sms(groupNum + "组的系统检测失败", "1", "110");
                 }
             });
         }
@@ -238,9 +265,8 @@ public class SystemHandler {
 
         // 系统整体异常检测
         System.out.println("</p><b>" + DateUtils.getCurrentDateTime() + ":系统整体异常检测</b><p style='background-color:#A9A9A9'>");
-        int result = CommandExecutor.executeWithResult(c_sql + " \"begin stg01.sp_imp_alone('syschk');end;\" 2>&1");
-        if (result != 0) {
-            CommandExecutor.execute(c_sql + " \"begin stg01.sp_sms('系统检测函数报错,请及时处理!!','1','110');end;\"");
+        if (!SqlUtils.call("stg01.sp_imp_alone", "syschk")) {
+            SqlUtils.sms("系统检测函数报错,请及时处理!!", "1", "110");
         }
 
         RedisUtils.flagRemove("syschk");
@@ -14,7 +14,6 @@ import java.util.Map;
  */
 public interface TbImpSpRepo extends JpaRepository<TbImpSp, String> {
     @Query(value = "select t.needs, \n" +
-            "to_char(fn_imp_value('taskname', t.needs)) as needs_name,\n" +
             "t.needs_flag,\n" +
             "to_char(t.needs_end_time, 'YYYY-MM-dd HH:mm:ss') as needs_end_time \n" +
             "from vw_imp_sp_needs t\n" +
@@ -0,0 +1,204 @@
+package com.wgzhao.addax.admin.service;
+
+import com.wgzhao.addax.admin.handlers.DataServiceHandler;
+import com.wgzhao.addax.admin.handlers.EtlHandler;
+import com.wgzhao.addax.admin.utils.CommandExecutor;
+import com.wgzhao.addax.admin.utils.DateUtils;
+import com.wgzhao.addax.admin.utils.LogUtils;
+import com.wgzhao.addax.admin.utils.RunLog;
+import com.wgzhao.addax.admin.utils.SpAloneUtils;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 内嵌执行器
+ * 开启 addax.embedded.enabled 后，startWkf 不再经由 DolphinScheduler 及 sp_alone.sh 新起进程，
+ * 而是在本 JVM 的工作线程中直接执行 spEtl/dsEtl，任务状态的变更与原流程相同。
+ * 采集、SP 及数据服务受 addax.embedded.workers 限制；sp_init、etl_end 等调度类任务不占用工作线程名额，
+ * 否则任务结束时等待 sp_init 的 spStart 与排队中的 sp_init 会互相等待。
+ * 没有内嵌实现的工作流类型仍在工作线程中以子进程执行原命令。
+ * 每个任务的输出(包括子任务线程及子进程的输出)写入与 sp_alone 同样命名的运行日志文件，系统暂停及执行失败的告警与 sp_alone 相同
+ */
+@Service
+@Slf4j
+public class EmbeddedExecutorService {
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("embedded-", 0).factory());
+
+    // 排队及执行中的 类型|参数，同一任务不重复执行，只记录受工作线程限制的任务
+    private final Set<String> active = ConcurrentHashMap.newKeySet();
+
+    private Semaphore workers;
+
+    @Value("${addax.embedded.enabled:false}")
+    private boolean enabled;
+
+    @Value("${addax.embedded.workers:32}")
+    private int workerCount;
+
+    @PostConstruct
+    public void init() {
+        workers = new Semaphore(Math.max(1, workerCount));
+        if (enabled) {
+            RunLog.install();
+            log.info("embedded executor enabled with {} workers", workerCount);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 正在执行及排队的任务数
+     */
+    public int activeCount() {
+        return active.size();
+    }
+
+    /**
+     * 提交工作流，与 EtlHandler.startWkf 的参数相同
+     * @param type 工作流类型
+     * @param param 参数
+     * @return 提交成功或者同一任务已在排队、执行中时返回 true，执行器已关闭时返回 false
+     */
+    public boolean submit(String type, String param) {
+        String key = type + "|" + param;
+        boolean bounded = switch (type) {
+            case "sp", "plan", "spcom", "ds", "soutab", "judge" -> true;
+            default -> false;
+        };
+        // sp_init 等调度类任务可能在上一次结束前被再次调起，不能丢弃
+        if (bounded && !active.add(key)) {
+            // 已在执行的任务视为调起成功，不计为调起失败
+            log.debug("embedded task {} already queued", key);
+            return true;
+        }
+        try {
+            executor.execute(() -> run(type, param, bounded, task(type, param)));
+            return true;
+        }
+        catch (Exception e) {
+            active.remove(key);
+            log.error("failed to submit embedded task {}: {}", key, e.getMessage());
+            return false;
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdown();
+        if (!active.isEmpty()) {
+            log.warn("embedded executor closed with {} tasks unfinished: {}", active.size(), active);
+        }
+    }
+
+    private BooleanSupplier task(String type, String param) {
+        return switch (type) {
+            case "sp" -> () -> EtlHandler.spEtl(param, "");
+            case "plan" -> () -> EtlHandler.spEtl(param, "plan");
+            case "spcom" -> () -> EtlHandler.spEtl(param, "manual");
+            // 数据服务结束后原流程由 sp_alone.sh 调起下一轮，这里直接调起
+            case "ds" -> () -> {
+                boolean ok = DataServiceHandler.dsEtl(param);
+                EtlHandler.spStart();
+                return ok;
+            };
+            case "soutab" -> () -> EtlHandler.soutabEtl(param);
+            case "sp_init" -> EtlHandler::spInit;
+            case "etl_end" -> () -> EtlHandler.etlEnd(param, "");
+            default -> () -> CommandExecutor.executeWithResult(EtlHandler.wkfCommand(type, param)) == 0;
+        };
+    }
+
+    private void run(String type, String param, boolean bounded, BooleanSupplier task) {
+        String key = type + "|" + param;
+        boolean acquired = false;
+        String logfile = null;
+        PrintStream out = null;
+        try {
+            if (bounded) {
+                workers.acquire();
+                acquired = true;
+            }
+            logfile = SpAloneUtils.runLogFile(logPrefix(type, param));
+            out = open(logfile);
+            String file = logfile;
+            RunLog.with(out, () -> {
+                System.out.println("######embedded=" + key + ",logfile=" + file + "######");
+                if (SpAloneUtils.halted("embedded", key)) {
+                    return null;
+                }
+                long start = System.currentTimeMillis();
+                boolean ok;
+                try {
+                    ok = task.getAsBoolean();
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                    ok = false;
+                }
+                System.out.println(DateUtils.getCurrentDateTime() + ":执行结束，耗时" + (System.currentTimeMillis() - start) + "ms，执行结果：" + ok);
+                log.info("embedded task {} finished in {}ms: {}", key, System.currentTimeMillis() - start, ok);
+                if (!ok) {
+                    SpAloneUtils.failed("embedded", type, param);
+                }
+                return null;
+            });
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (Exception e) {
+            log.error("embedded task {} failed: {}", key, e.getMessage(), e);
+        }
+        finally {
+            if (acquired) {
+                workers.release();
+            }
+            active.remove(key);
+            if (out != null) {
+                out.close();
+                // 只有开头及结束两行的日志没有内容，与 sp_alone 一样删除
+                if (LogUtils.countLines(logfile) <= 2) {
+                    LogUtils.deleteFile(logfile);
+                }
+            }
+        }
+    }
+
+    // 与 sp_alone 的日志文件前缀一致，sp_etl 及 ds_etl 带上参数
+    private static String logPrefix(String type, String param) {
+        return switch (type) {
+            case "sp", "plan", "spcom" -> "sp_etl_" + param;
+            case "ds" -> "ds_etl_" + param;
+            case "soutab" -> "soutab_etl";
+            case "judge" -> "judge_etl";
+            default -> type;
+        };
+    }
+
+    // 打开运行日志，失败时输出到标准输出
+    private static PrintStream open(String logfile) {
+        try {
+            return new PrintStream(new FileOutputStream(logfile, true), true);
+        }
+        catch (FileNotFoundException e) {
+            log.warn("failed to open run log {}: {}", logfile, e.getMessage());
+            return null;
+        }
+    }
+}
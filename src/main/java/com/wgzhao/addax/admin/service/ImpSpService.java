@@ -2,9 +2,12 @@ package com.wgzhao.addax.admin.service;
 
 import com.wgzhao.addax.admin.model.oracle.TbImpSp;
 import com.wgzhao.addax.admin.repository.oracle.TbImpSpRepo;
+import com.wgzhao.addax.admin.utils.TaskRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -20,6 +23,9 @@ public class ImpSpService {
     @Autowired
     private TbImpSpRepo impSpRepo;
 
+    @Autowired
+    private TaskRegistry taskRegistry;
+
     public List<TbImpSp> findAll() {
         return impSpRepo.findAll();
     }
@@ -30,7 +36,16 @@ public class ImpSpService {
     }
 
     public List<Map<String, String>> findRequires(String spId) {
-        return impSpRepo.findRequires(spId);
+        // 前置任务名称从内存注册表中读取，不再逐行调用 fn_imp_value('taskname')
+        List<Map<String, String>> result = new ArrayList<>();
+        for (Map<String, String> row : impSpRepo.findRequires(spId)) {
+            // 列名大小写与驱动返回的保持一致
+            boolean upper = row.containsKey("NEEDS");
+            Map<String, String> item = new LinkedHashMap<>(row);
+            item.put(upper ? "NEEDS_NAME" : "needs_name", taskRegistry.name(row.get(upper ? "NEEDS" : "needs")));
+            result.add(item);
+        }
+        return result;
     }
 
     public Map<String, String> findThrough(String spId) {
@@ -0,0 +1,294 @@
+package com.wgzhao.addax.admin.service;
+
+import com.wgzhao.addax.admin.handlers.EtlHandler;
+import com.wgzhao.addax.admin.utils.FuncHelper;
+import com.wgzhao.addax.admin.utils.LeaderElection;
+import com.wgzhao.addax.admin.utils.PlanSchedule;
+import com.wgzhao.addax.admin.utils.RedisUtils;
+import com.wgzhao.addax.admin.utils.StatusUtils;
+import com.wgzhao.addax.admin.utils.TimerWheel;
+import com.wgzhao.addax.admin.utils.TradeCalendar;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 计划任务调度
+ * 由 tb_imp_plan 的定点、间隔及时间范围编译出每个计划一天中的触发分钟，只把下一次触发时间放入分层时间轮，
+ * 每分钟推进时间轮取出到期的计划，按 fn_imp_pntype 的规则判断当天是否执行后调起，再放入下一次触发时间；
+ * 每分钟的开销只与到期的计划数有关。计划定义定时比对，只有新增、修改、删除的计划重新定时，
+ * vw_imp_date 变化(updt_param 切日或定时比对发现)时所有计划重新定时。
+ * 调起前获取 plan.计划编号 标志，与其他节点或者上一任主节点的同一次调起互斥，置R并交给调度工具后释放，之后由 R 状态防止重复调起。
+ * <p>
+ * 开启 addax.plan.enabled 后由本服务调起计划任务，fn_imp_value('plan_run') 不再返回计划任务
+ */
+@Service
+@Slf4j
+public class PlanSchedulerService {
+
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private static final String PLAN_SQL = "select pn_id, pn_type, pn_fixed, pn_interval, pn_range from stg01.tb_imp_plan where flag <> 'X'";
+
+    /**
+     * 计划的时间定义
+     */
+    record Plan(String id, String type, String fixed, Integer interval, String range) {
+    }
+
+    @Resource
+    private PlanSchedule planSchedule;
+
+    @Resource
+    private FuncHelper funcHelper;
+
+    @Resource
+    private LeaderElection leaderElection;
+
+    @Autowired
+    @Qualifier("oracleJdbcTemplate")
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${addax.plan.enabled:false}")
+    private boolean enabled;
+
+    // 调度中断后补调的最长分钟数，更早的触发直接跳过
+    @Value("${addax.plan.catch-up-minutes:5}")
+    private long catchUpMinutes;
+
+    private volatile Map<String, Plan> plans;
+
+    private TimerWheel<String> wheel;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 每分钟推进时间轮并调起到期的计划
+     */
+    @Scheduled(cron = "${addax.plan.cron:0 * * * * *}")
+    public void tick() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            long now = epochMinute(LocalDateTime.now());
+            List<TimerWheel.Expired<String>> expired;
+            synchronized (this) {
+                if (wheel == null) {
+                    wheel = new TimerWheel<>(now - 1);
+                    reload(false);
+                }
+                expired = wheel.advance(now);
+                for (TimerWheel.Expired<String> e : expired) {
+                    Plan p = plans.get(e.item());
+                    if (p != null) {
+                        schedule(p, e.at());
+                    }
+                }
+            }
+            List<String> due = new ArrayList<>();
+            for (TimerWheel.Expired<String> e : expired) {
+                Plan p = plans.get(e.item());
+                if (p == null) {
+                    continue;
+                }
+                if (now - e.at() > catchUpMinutes) {
+                    log.warn("plan {} missed its fire time {}", p.id(), format(e.at()));
+                    continue;
+                }
+                if (funcHelper.fnImpPntype(p.type()) == 1) {
+                    due.add(p.id());
+                }
+            }
+            if (!due.isEmpty()) {
+                fire(due);
+            }
+        }
+        catch (Exception e) {
+            log.error("plan tick failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 比对计划定义，只重新定时发生变化的计划
+     */
+    @Scheduled(fixedDelayString = "${addax.plan.reload-interval:60000}", initialDelayString = "${addax.plan.reload-interval:60000}")
+    public synchronized void refresh() {
+        if (!enabled || wheel == null) {
+            return;
+        }
+        try {
+            reload(planSchedule.refresh());
+        }
+        catch (Exception e) {
+            log.warn("failed to reload plans: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 计划之后若干次的触发时间
+     * @param pnId 计划编号
+     * @param count 次数
+     * @return yyyy-MM-dd HH:mm 格式的时间，计划不存在时为空
+     */
+    public List<String> nextFireTimes(String pnId, int count) {
+        Plan p = current().get(pnId);
+        return p == null ? List.of() : forecast(p, count);
+    }
+
+    /**
+     * 所有计划之后若干次的触发时间
+     * @return 计划编号 -> 触发时间
+     */
+    public Map<String, List<String>> nextFireTimes(int count) {
+        Map<String, List<String>> result = new TreeMap<>();
+        current().values().forEach(p -> result.put(p.id(), forecast(p, count)));
+        return result;
+    }
+
+    private void fire(List<String> due) {
+        if (!leaderElection.isLeader() || !leaderElection.fence()) {
+            return;
+        }
+        for (String id : due) {
+            String flag = "plan." + id;
+            if (!"1".equals(RedisUtils.flagAdd(flag))) {
+                log.info("plan {} is being started elsewhere, skipped", id);
+                continue;
+            }
+            try {
+                // 上一次仍在执行时不重复调起，持有标志后再检查，避免两个节点同时通过检查
+                List<String> flags = jdbcTemplate.queryForList("select flag from stg01.tb_imp_plan where pn_id = ?", String.class, id);
+                if (flags.isEmpty() || "R".equals(flags.get(0))) {
+                    continue;
+                }
+                log.info("plan {} fired", id);
+                if (!StatusUtils.update("R", id)) {
+                    log.warn("failed to set plan {} running, not started", id);
+                    continue;
+                }
+                if (!EtlHandler.startWkf("plan", id)) {
+                    log.warn("failed to start plan {}", id);
+                }
+            }
+            finally {
+                RedisUtils.flagRemove(flag);
+            }
+        }
+    }
+
+    private Map<String, Plan> current() {
+        Map<String, Plan> p = plans;
+        if (p == null) {
+            synchronized (this) {
+                if (plans == null) {
+                    plans = load();
+                }
+                p = plans;
+            }
+        }
+        return p;
+    }
+
+    private Map<String, Plan> load() {
+        Map<String, Plan> loaded = new LinkedHashMap<>();
+        jdbcTemplate.query(PLAN_SQL, (RowCallbackHandler) rs -> {
+            int interval = rs.getInt(4);
+            Plan p = new Plan(rs.getString(1), rs.getString(2), rs.getString(3), rs.wasNull() ? null : interval, rs.getString(5));
+            loaded.put(p.id(), p);
+        });
+        return loaded;
+    }
+
+    // all 为 true 时所有计划重新定时
+    private void reload(boolean all) {
+        Map<String, Plan> loaded = load();
+        Map<String, Plan> old = plans == null ? Map.of() : plans;
+        int changed = 0;
+        for (Plan p : loaded.values()) {
+            if (all || !p.equals(old.get(p.id())) || wheel.scheduledAt(p.id()) < 0) {
+                schedule(p, wheel.now());
+                changed++;
+            }
+        }
+        for (String id : old.keySet()) {
+            if (!loaded.containsKey(id)) {
+                wheel.cancel(id);
+                changed++;
+            }
+        }
+        plans = loaded;
+        if (changed > 0) {
+            log.info("plans reloaded, {} plans, {} rescheduled, {} timers", loaded.size(), changed, wheel.size());
+        }
+    }
+
+    // 放入 after 之后的下一次触发时间，一天中没有触发分钟的计划不放入时间轮
+    private void schedule(Plan p, long after) {
+        BitSet minutes = planSchedule.minutes(p.fixed(), p.interval(), p.range());
+        if (minutes.isEmpty()) {
+            wheel.cancel(p.id());
+            return;
+        }
+        long day = Math.floorDiv(after, PlanSchedule.MINUTES_OF_DAY);
+        int next = minutes.nextSetBit(Math.floorMod(after, PlanSchedule.MINUTES_OF_DAY) + 1);
+        if (next < 0) {
+            day++;
+            next = minutes.nextSetBit(0);
+        }
+        wheel.schedule(p.id(), day * PlanSchedule.MINUTES_OF_DAY + next);
+    }
+
+    private List<String> forecast(Plan p, int count) {
+        List<String> result = new ArrayList<>();
+        BitSet minutes = planSchedule.minutes(p.fixed(), p.interval(), p.range());
+        if (minutes.isEmpty() || count <= 0) {
+            return result;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        long day = Math.floorDiv(epochMinute(now), PlanSchedule.MINUTES_OF_DAY);
+        int from = now.getHour() * 60 + now.getMinute() + 1;
+        // 最多向后预测一年
+        for (int d = 0; d <= 366 && result.size() < count; d++, from = 0) {
+            LocalDateTime date = toLocal((day + d) * PlanSchedule.MINUTES_OF_DAY);
+            if (!planSchedule.mayRunOn(p.type(), TradeCalendar.toInt(date.toLocalDate()))) {
+                continue;
+            }
+            for (int m = minutes.nextSetBit(from); m >= 0 && result.size() < count; m = minutes.nextSetBit(m + 1)) {
+                result.add(FORMAT.format(date.plusMinutes(m)));
+            }
+        }
+        return result;
+    }
+
+    // 本地时间按 UTC 换算的 epoch 分钟，保证整天对齐到本地零点
+    private static long epochMinute(LocalDateTime t) {
+        return t.toEpochSecond(ZoneOffset.UTC) / 60;
+    }
+
+    private static LocalDateTime toLocal(long epochMinute) {
+        return LocalDateTime.ofEpochSecond(epochMinute * 60, 0, ZoneOffset.UTC);
+    }
+
+    private static String format(long epochMinute) {
+        return FORMAT.format(toLocal(epochMinute));
+    }
+}
@@ -0,0 +1,267 @@
+package com.wgzhao.addax.admin.service;
+
+import com.wgzhao.addax.admin.handlers.EtlHandler;
+import com.wgzhao.addax.admin.utils.CommandExecutor;
+import com.wgzhao.addax.admin.utils.FlagRegistry;
+import com.wgzhao.addax.admin.utils.LeaderElection;
+import com.wgzhao.addax.admin.utils.ReadinessEngine;
+import com.wgzhao.addax.admin.utils.RedisSemaphore;
+import com.wgzhao.addax.admin.utils.RedisUtils;
+import com.wgzhao.addax.admin.utils.StatusUtils;
+import com.wgzhao.addax.admin.utils.TaskRegistry;
+import com.wgzhao.addax.admin.utils.WorkLease;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 调度主节点切换
+ * 当选后先恢复现场：上一任主节点已没有心跳(WorkLease 的节点心跳)时释放其遗留的标志及并发队列号，
+ * 找出既没有持有任务标志、在任何存活节点上也没有执行进程的运行中任务，把其未完成的附属命令(tb_imp_sp_com)
+ * 及主任务重置为 N，重新加载内存中的任务状态，然后重新调起 sp_start；
+ * 写后管道中的子任务状态重试后仍无法写入数据库时放弃接管，避免其覆盖重置后的状态。
+ * 上一任主节点仍有心跳(例如只是失去了 Redis 租约)时保留其标志、队列号及正在执行的任务。
+ * <p>
+ * 每个节点定时释放本机已退出进程(包括 sp_alone 子进程)持有的标志；没有存活节点的主机上的标志无法判断进程是否存活，
+ * 等待标志租约到期。非主节点上的 sp_start 只登记待处理请求，由主节点定时检查后执行。
+ * 未开启选举时，只有开启 addax.leader.recover-on-startup 后进程启动时才恢复一次(多个节点同时启动时各自恢复，默认关闭)，
+ * 开启 addax.checkpoint.enabled 时重新调起的任务按 SpCheckpoint 跳过已执行成功的命令
+ */
+@Service
+@Slf4j
+public class SchedulerFailoverService {
+
+    private static final String RUNNING_SQL = """
+            select sp_id from stg01.tb_imp_sp where flag = 'R'
+            union all
+            select tid from stg01.tb_imp_etl where flag = 'R'
+            """;
+
+    // 接管时写空写后管道的尝试次数及间隔
+    private static final int FLUSH_ATTEMPTS = 3;
+
+    private static final long FLUSH_RETRY_MS = 2000;
+
+    @Resource
+    private LeaderElection leaderElection;
+
+    @Resource
+    private FlagRegistry flagRegistry;
+
+    @Resource
+    private RedisSemaphore redisSemaphore;
+
+    @Resource
+    private TaskRegistry taskRegistry;
+
+    @Resource
+    private ReadinessEngine readinessEngine;
+
+    @Resource
+    private WorkLease workLease;
+
+    @Autowired
+    @Qualifier("oracleJdbcTemplate")
+    private JdbcTemplate jdbcTemplate;
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    // 未开启选举时，进程启动后是否恢复中断的任务
+    @Value("${addax.leader.recover-on-startup:false}")
+    private boolean recoverOnStartup;
+
+    @PostConstruct
+    public void subscribe() {
+        leaderElection.addListener(this::takeOver);
+    }
+
+    /**
+     * 接管调度
+     * @param previous 上一任主节点，为空时只恢复运行中的任务
+     */
+    public void takeOver(String previous) {
+        long start = System.currentTimeMillis();
+        int flags = 0;
+        int slots = 0;
+        Set<String> alive = workLease.liveNodes();
+        if (previous != null && !previous.isEmpty() && alive.contains(previous)) {
+            log.warn("previous leader [{}] is still alive, its flags and slots are kept", previous);
+        }
+        else if (previous != null && !previous.isEmpty()) {
+            for (Map.Entry<String, String> e : flagRegistry.all().entrySet()) {
+                if (previous.equals(e.getValue()) && flagRegistry.release(e.getKey(), previous)) {
+                    flags++;
+                }
+            }
+            slots = redisSemaphore.releaseHeldBy(previous);
+        }
+        flags += releaseDeadLocal();
+
+        // 重置任务及重新加载状态之前先写空写后管道，否则管道中较早的子任务状态会覆盖重置的结果
+        if (!flushPending()) {
+            log.error("pending sub-task status not written after {} attempts, scheduler takeover aborted", FLUSH_ATTEMPTS);
+            return;
+        }
+        int orphans = recoverOrphans();
+        taskRegistry.reload();
+        readinessEngine.reload();
+        log.info("scheduler takeover from [{}] done in {}ms: {} flags, {} slots released, {} orphaned tasks reset",
+                previous, System.currentTimeMillis() - start, flags, slots, orphans);
+
+        if (leaderElection.fence()) {
+            EtlHandler.spStart();
+        }
+    }
+
+    /**
+     * 释放本机已退出进程遗留的标志，包括 sp_alone 子进程获取的标志
+     */
+    @Scheduled(fixedDelayString = "${addax.flag.renew-interval:60000}", initialDelayString = "${addax.flag.renew-interval:60000}")
+    public void sweepLocal() {
+        try {
+            int released = releaseDeadLocal();
+            if (released > 0) {
+                log.info("{} flags of exited local processes released", released);
+            }
+        }
+        catch (Exception e) {
+            log.warn("failed to sweep local flags: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 进程重启后恢复中断的任务，需开启 addax.leader.recover-on-startup；开启选举时由当选回调恢复
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverOnStartup() {
+        if (leaderElection.isEnabled() || !recoverOnStartup) {
+            return;
+        }
+        Thread.ofVirtual().name("startup-recovery").start(() -> {
+            try {
+                takeOver("");
+            }
+            catch (Exception e) {
+                log.error("startup recovery failed: {}", e.getMessage(), e);
+            }
+        });
+    }
+
+    // 写空写后管道，失败时间隔重试
+    private boolean flushPending() {
+        for (int i = 1; i <= FLUSH_ATTEMPTS; i++) {
+            if (StatusUtils.flush()) {
+                return true;
+            }
+            log.warn("failed to flush pending sub-task status, attempt {}/{}", i, FLUSH_ATTEMPTS);
+            if (i < FLUSH_ATTEMPTS) {
+                try {
+                    Thread.sleep(FLUSH_RETRY_MS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 释放本机已经退出的进程遗留的标志，不必等待租约到期
+     * @return 释放的标志数
+     */
+    private int releaseDeadLocal() {
+        String host = CommandExecutor.getHostname() + ":";
+        long self = ProcessHandle.current().pid();
+        int released = 0;
+        for (Map.Entry<String, String> e : flagRegistry.all().entrySet()) {
+            String v = e.getValue();
+            if (v == null || !v.startsWith(host)) {
+                continue;
+            }
+            long pid;
+            try {
+                pid = Long.parseLong(v.substring(host.length()));
+            }
+            catch (NumberFormatException ex) {
+                continue;
+            }
+            if (pid != self && !ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false)
+                    && flagRegistry.release(e.getKey(), v)) {
+                released++;
+            }
+        }
+        return released;
+    }
+
+    /**
+     * 运行中但既没有持有任务标志(sp.任务编号)、任何存活节点上也没有对应进程或租约的任务视为已中断，
+     * 重置后由 sp_start 重新调起，已完成的附属命令保持 Y，重新执行时只执行剩余的命令
+     * @return 重置的任务数
+     */
+    private int recoverOrphans() {
+        List<String> running = jdbcTemplate.queryForList(RUNNING_SQL, String.class);
+        if (running.isEmpty()) {
+            return 0;
+        }
+        List<String> flags = new ArrayList<>(running.size());
+        running.forEach(id -> flags.add("sp." + id));
+        Map<String, Boolean> held = flagRegistry.hasMany(flags);
+        Set<String> executing = workLease.runningTasks();
+
+        List<Object[]> args = new ArrayList<>();
+        for (String id : running) {
+            if (Boolean.TRUE.equals(held.get("sp." + id)) || executing.contains(id)) {
+                continue;
+            }
+            args.add(new Object[] {id});
+        }
+        if (args.isEmpty()) {
+            return 0;
+        }
+        if (!leaderElection.fence()) {
+            log.warn("leadership lost during takeover, {} orphaned tasks left untouched", args.size());
+            return 0;
+        }
+        jdbcTemplate.batchUpdate("update stg01.tb_imp_sp_com set flag = 'N' where sp_id = ? and flag = 'R'", args);
+        jdbcTemplate.batchUpdate("update stg01.tb_imp_sp set flag = 'N' where sp_id = ? and flag = 'R'", args);
+        jdbcTemplate.batchUpdate("update stg01.tb_imp_etl set flag = 'N' where tid = ? and flag = 'R'", args);
+        return args.size();
+    }
+
+    /**
+     * 主节点执行其他节点登记的 sp_start 请求
+     */
+    @Scheduled(fixedDelayString = "${addax.leader.renew-interval:2000}")
+    public void drainPending() {
+        if (!leaderElection.isEnabled() || leaderElection.token() == 0 || !"1".equals(RedisUtils.get("auto.pending"))) {
+            return;
+        }
+        // sp_start 会等待 sp_init 结束，不能占用定时任务线程
+        if (draining.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("sp-start-pending").start(() -> {
+                try {
+                    EtlHandler.spStart();
+                }
+                finally {
+                    draining.set(false);
+                }
+            });
+        }
+    }
+}
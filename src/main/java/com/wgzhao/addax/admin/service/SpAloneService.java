@@ -17,10 +17,6 @@ public class SpAloneService {
     private static final String v_today = DateUtils.getCurrentDate("yyyyMMdd");
     private static final String v_yest = DateUtils.getYesterdayDate("yyyyMMdd");
     private static final String c_ckh = RedisUtils.get("com.ckhcmd");
-    private static final String c_presto = RedisUtils.get("com.prestocmd");
-    private static final String c_allsql = RedisUtils.get("com.prestoall");
-    private static final String c_sql = RedisUtils.get("com.inicmd");
-    private static final String c_sql3 = RedisUtils.get("com.iniout");
 
     private static String logfile;
 
@@ -42,10 +38,7 @@ public class SpAloneService {
             logprex = args[0];
         }
 
-        logfile = RedisUtils.get("path.runlog") + "/tuna_" + logprex + "_" +
-                DateUtils.getCurrentDate("yyyyMMdd_HHmmss") + "_" +
-                CommandExecutor.getHostname().split("\\.")[0] + "_" +
-                ProcessHandle.current().pid() + ".log";
+        logfile = SpAloneUtils.runLogFile(logprex);
 
         // 记录开始信息
         tip(args[0], "1", String.join(" ", args));
@@ -54,17 +47,13 @@ public class SpAloneService {
                 ",v_yest=" + v_yest + ",param=[" + String.join(" ", args) + "]######\n");
 
         // 检查系统是否暂停
-        if ("Y".equals(RedisUtils.get("com.halt"))) {
-            String msg = DateUtils.getCurrentDateTime() + ":系统暂停服务!!sp_alone:" + args[0] + "无法执行";
-            System.out.println(msg);
-            LogUtils.appendToFile(logfile, msg);
-            CommandExecutor.execute(c_sql + " \"begin stg01.sp_sms('" + msg + "','1','110');end;\"");
+        if (SpAloneUtils.halted("sp_alone", args[0])) {
+            LogUtils.appendToFile(logfile, DateUtils.getCurrentDateTime() + ":系统暂停服务!!sp_alone:" + args[0] + "无法执行");
         } else {
             // 根据参数调用相应的方法
             boolean success = dispatchCommand(args);
             if (!success) {
-                CommandExecutor.execute(c_sql + " \"begin stg01.sp_sms('sp_alone:" + args[0] +
-                        "[" + (args.length > 1 ? args[1] : "") + "]执行失败，请速速排查','1','110');end;\"");
+                SpAloneUtils.failed("sp_alone", args[0], args.length > 1 ? args[1] : "");
             }
         }
 
@@ -86,6 +75,8 @@ public class SpAloneService {
             switch (args[0]) {
                 case "wait_idx":
                     return waitIdx(args.length > 1 ? args[1] : "", args.length > 2 ? args[2] : "");
+                case "release_idx":
+                    return releaseIdx(args.length > 1 ? args[1] : "", args.length > 2 ? args[2] : "");
                 case "runsql":
                     return runSql(args.length > 1 ? args[1] : "", args.length > 2 ? args[2] : "");
                 case "sdb":
@@ -141,21 +132,35 @@ public class SpAloneService {
             return false;
         }
 
-        int maxIdx = Integer.parseInt(param2);
-        while (true) {
-            for (int idx = 1; idx <= maxIdx; idx++) {
-                if ("1".equals(RedisUtils.flagAdd(param1 + "_" + idx))) {
-                    System.out.println(idx);
-                    return true;
-                }
-            }
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                return false;
-            }
+        RedisSemaphore.Permit permit = SpAloneUtils.acquireSlot(param1, Integer.parseInt(param2));
+        if (permit == null) {
+            return false;
         }
+        // 队列号由调用脚本通过 release_idx 释放，释放前本进程持续续约，避免长时间的作业超过租约后被其他进程获取
+        RedisSemaphore semaphore = SpringContextUtil.getBean(RedisSemaphore.class);
+        if (semaphore != null) {
+            semaphore.hold(permit);
+        }
+        // 没有 Spring 容器时队列号是本进程获取的标志，本进程退出后只保留一个标志租约
+        System.out.println(permit.slot());
+        return true;
+    }
+
+    /**
+     * 释放 wait_idx 获取的队列号
+     * 参数1：队列前缀
+     * 参数2：队列号
+     */
+    private static boolean releaseIdx(String param1, String param2) {
+        if (param2.isEmpty()) {
+            return false;
+        }
+
+        RedisSemaphore semaphore = SpringContextUtil.getBean(RedisSemaphore.class);
+        if (semaphore != null) {
+            return semaphore.release(param1, Integer.parseInt(param2));
+        }
+        return "1".equals(RedisUtils.flagRemove(param1 + "_" + param2));
     }
 
     /**
@@ -196,8 +201,12 @@ public class SpAloneService {
                 continue;
             }
 
-            String rc = waitIdxResult(paral_name, String.valueOf(paral_num));
-            String fname = paral_name + "_" + rc;
+            RedisSemaphore.Permit permit = SpAloneUtils.acquireSlot(paral_name, paral_num);
+            if (permit == null) {
+                RedisUtils.set(paral_name, "-1");
+                break;
+            }
+            String fname = paral_name + "_" + permit.slot();
 
             executor.submit(() -> {
                 System.out.println(DateUtils.getCurrentDateTime() + ":[" + fname + "]开始执行[" + line + "]");
@@ -207,7 +216,7 @@ public class SpAloneService {
                     RedisUtils.set(paral_name, String.valueOf(result));
                 }
                 System.out.println(DateUtils.getCurrentDateTime() + ":[" + fname + "]执行结束[" + line +
-                        "],执行结果[" + result + "],删除标志：" + RedisUtils.flagRemove(fname));
+                        "],执行结果[" + result + "],删除标志：" + SpAloneUtils.releaseSlot(permit));
             });
         }
 
@@ -226,33 +235,11 @@ public class SpAloneService {
         return "0".equals(rc);
     }
 
-    // waitIdx的辅助方法，返回结果而不是布尔值
-    private static String waitIdxResult(String param1, String param2) {
-        if (param2.isEmpty()) {
-            return "";
-        }
-
-        int maxIdx = Integer.parseInt(param2);
-        while (true) {
-            for (int idx = 1; idx <= maxIdx; idx++) {
-                if ("1".equals(RedisUtils.flagAdd(param1 + "_" + idx))) {
-                    return String.valueOf(idx);
-                }
-            }
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                return "";
-            }
-        }
-    }
-
     /**
      * 在数据库源库执行语句
      */
     private static boolean sdb(String sysid, String sql) {
-        String dbConn = CommandExecutor.executeForOutput(c_sql + " \"select db_conn from stg01.vw_imp_system where sysid='" + sysid + "'\"");
+        String dbConn = SqlUtils.queryForString("select db_conn from stg01.vw_imp_system where sysid=?", sysid);
         return CommandExecutor.executeWithResult(curpath + "/jdbc2console.sh -f MySQL " + dbConn + " \"" + sql + "\"") == 0;
     }
 
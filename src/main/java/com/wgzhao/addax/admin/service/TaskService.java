@@ -2,21 +2,18 @@ package com.wgzhao.addax.admin.service;
 
 import com.wgzhao.addax.admin.utils.CacheUtil;
 import com.wgzhao.addax.admin.utils.DbUtil;
+import com.wgzhao.addax.admin.utils.DsTrigger;
 import com.wgzhao.addax.admin.utils.FuncHelper;
+import com.wgzhao.addax.admin.utils.HiveGateway;
 import com.wgzhao.addax.admin.utils.ProcedureHelper;
+import com.wgzhao.addax.admin.utils.ProcessRunner;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
 import javax.sql.DataSource;
 
@@ -51,19 +48,10 @@ public class TaskService
     private RedisTemplate<String, ?> redisTemplate;
 
     @Resource
-    private RestTemplate restTemplate;
+    private DsTrigger dsTrigger;
 
-    @Value("${hive.metastore.jdbc.url}")
-    private String hiveJdbcUrl;
-
-    @Value("${hive.metastore.jdbc.username}")
-    private String hivejdbcUsername;
-
-    @Value("${hive.metastore.jdbc.password}")
-    private String hivejdbcPassword;
-
-    @Value("${hive.metastore.jdbc.driver-class-name}")
-    private String hivejdbcDriverClassName;
+    @Resource
+    private HiveGateway hiveGateway;
 
     /**
      * Asynchronously updates table schema.
@@ -118,7 +106,7 @@ public class TaskService
                 log.info("Procedure sp_imp_alone('bupdate','N') executed successfully");
             }
         }
-        catch (SQLException | IOException | InterruptedException e) {
+        catch (SQLException | IOException e) {
             log.error("Exception during table schema update", e);
         }
         finally {
@@ -143,7 +131,7 @@ public class TaskService
     }
 
     private void processUpdateByKind(Statement statement, String kind)
-            throws SQLException, IOException, InterruptedException
+            throws SQLException, IOException
     {
         log.info("Processing update for kind: {}", kind);
         try (ResultSet rs = statement.executeQuery("select stg01.fn_imp_value('" + kind + "') from dual")) {
@@ -169,27 +157,27 @@ public class TaskService
     }
 
     private void executeHiveUpdate(String sql)
-            throws IOException, InterruptedException
+            throws IOException
     {
+        if (hiveGateway.isEnabled()) {
+            HiveGateway.Result result = hiveGateway.runDdl(sql);
+            result.failures().forEach(f -> log.warn("Hive update failed: {}", f));
+            log.info("Hive update executed, {} statements, {} failed", result.total(), result.failures().size());
+            return;
+        }
         Path tempPath = Files.createTempFile("updt", ".sql");
         Files.writeString(tempPath, sql);
         log.info("Executing hive update with temporary file: {}", tempPath);
-        Process process = Runtime.getRuntime().exec(new String[] {"hive", "-f", tempPath.toString()});
-        process.waitFor();
+        ProcessRunner.Result result = ProcessRunner.of("hive -f " + tempPath).onStderr(log::info).run();
         Files.deleteIfExists(tempPath);
-        log.info("Hive update executed successfully");
+        log.info("Hive update executed with exit code {}", result.exitCode());
     }
 
     private void executeMetastoreUpdate(String sql, String kind)
     {
-        try (Connection conn = DbUtil.getConnect(hiveJdbcUrl, hivejdbcUsername, hivejdbcPassword);
-                Statement stmt = conn != null ? conn.createStatement() : null) {
-            if (conn == null || stmt == null) {
-                log.warn("Failed to connect to hive metastore for kind: {}", kind);
-                return;
-            }
-            stmt.execute(sql);
-            log.info("Hive metastore update executed successfully for kind: {}", kind);
+        try {
+            int count = hiveGateway.updateMetastore(sql);
+            log.info("Hive metastore update executed successfully for kind: {}, {} statements", kind, count);
         }
         catch (SQLException e) {
             log.error("Error executing hive metastore update for kind: {}", kind, e);
@@ -246,28 +234,6 @@ public class TaskService
 
     private boolean executeScheduler(String comp)
     {
-        String url = "http://etl01:12345/dolphinscheduler/projects/10691104512992/executors/start-process-instance";
-        String token = "de27aefdf8f0392ddab7c2144af67ab0";
-        String payload = String.format(
-                "failureStrategy=END&processDefinitionCode=10691166416992&processInstancePriority=MEDIUM&scheduleTime=&warningGroupId=0&warningType=NONE&startParams={\"comt\":\"%s\"}",
-                comp);
-        HttpHeaders headers = new HttpHeaders();
-        headers.set("token", token);
-        HttpEntity<String> entity = new HttpEntity<>(payload, headers);
-        try {
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, entity, String.class);
-            if (response.getStatusCode().is2xxSuccessful()) {
-                log.info("Scheduler response: {}", response.getBody());
-                return true;
-            }
-            else {
-                log.error("Failed to execute scheduler; status code: {}", response.getStatusCode());
-                return false;
-            }
-        }
-        catch (Exception e) {
-            log.error("Exception while executing scheduler for comp: {}", comp, e);
-            return false;
-        }
+        return dsTrigger.trigger(comp).join();
     }
-}
\ No newline at end of file
+}
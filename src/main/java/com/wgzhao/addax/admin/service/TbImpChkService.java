@@ -0,0 +1,89 @@
+package com.wgzhao.addax.admin.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 检测结果写入，批量插入 tb_imp_chk（Oracle）及 tb_imp_chk_etl（PostgreSQL）
+ */
+@Service
+public class TbImpChkService {
+
+    private static final int BATCH_SIZE = 500;
+
+    @Autowired
+    @Qualifier("oracleJdbcTemplate")
+    private JdbcTemplate oracleJdbcTemplate;
+
+    @Autowired
+    @Qualifier("pgJdbcTemplate")
+    private JdbcTemplate pgJdbcTemplate;
+
+    @Autowired
+    @Qualifier("pgTransactionManager")
+    private PlatformTransactionManager pgTransactionManager;
+
+    /**
+     * 写入自定义检测的结果
+     * @param rows 每行依次为 chk_mobile,chk_sendtype,chk_kind,chk_name,chk_content
+     * @return 写入的行数
+     */
+    public int saveChecks(List<List<String>> rows) {
+        List<Object[]> args = new ArrayList<>(rows.size());
+        for (List<String> row : rows) {
+            args.add(new Object[] {col(row, 0), col(row, 1), col(row, 2), col(row, 3), col(row, 4)});
+        }
+        oracleJdbcTemplate.batchUpdate("insert into stg01.tb_imp_chk(chk_mobile,chk_sendtype,chk_kind,chk_name,chk_content) values(?,?,?,?,?)",
+                args, BATCH_SIZE, (ps, a) -> {
+                    for (int i = 0; i < a.length; i++) {
+                        ps.setObject(i + 1, a[i]);
+                    }
+                });
+        return args.size();
+    }
+
+    /**
+     * 写入 ODS 采集表记录数比对结果，同一日期下已有的同名记录先删除，保证重跑幂等；删除与插入在同一事务中，失败时不会只删不插
+     * @param logdate 日期，即 param.TD
+     * @param rows 每行依次为 tblname,kind,cnt
+     * @return 写入的行数
+     */
+    public int saveEtlCounts(String logdate, List<List<String>> rows) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<Object[]> keys = new ArrayList<>(rows.size());
+        List<Object[]> args = new ArrayList<>(rows.size());
+        for (List<String> row : rows) {
+            if (row.size() < 3) {
+                continue;
+            }
+            keys.add(new Object[] {logdate, row.get(0), row.get(1)});
+            args.add(new Object[] {row.get(0), row.get(1), parseCount(row.get(2)), now, logdate});
+        }
+        new TransactionTemplate(pgTransactionManager).executeWithoutResult(status -> {
+            pgJdbcTemplate.batchUpdate("delete from tb_imp_chk_etl where logdate=? and tblname=? and kind=?", keys);
+            pgJdbcTemplate.batchUpdate("insert into tb_imp_chk_etl(tblname,kind,cnt,updt_date,logdate) values(?,?,?,?,?)", args);
+        });
+        return args.size();
+    }
+
+    private static String col(List<String> row, int idx) {
+        return idx < row.size() ? row.get(idx) : null;
+    }
+
+    private static Integer parseCount(String value) {
+        try {
+            return value == null ? null : Integer.valueOf(value.trim());
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
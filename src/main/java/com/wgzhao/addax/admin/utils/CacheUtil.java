@@ -1,25 +1,145 @@
 package com.wgzhao.addax.admin.utils;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
 import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Redis 缓存工具类
+ * 前缀为 addax.cache.near-prefix 的键（默认 param.）在进程内做近端缓存，
+ * 由 pub/sub 频道及 keyspace 通知失效，热点读取不再访问 Redis。
+ * 其他进程直接修改 Redis（如 rds 命令行、vw_updt_rds）只能通过 keyspace 通知得知，
+ * 启动时检查 notify-keyspace-events，未开启时近端缓存的有效期降为 addax.cache.near-ttl-unnotified 秒
+ */
 @Service
-public class CacheUtil {
+public class CacheUtil implements MessageListener {
+    private static final Logger logger = LoggerFactory.getLogger(CacheUtil.class);
+
+    // 失效消息为该值时清空全部近端缓存
+    private static final String ALL = "*";
+
     @Resource
     private RedisTemplate<String, Serializable> serializableRedisTemplate;
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${addax.cache.near-prefix:param.}")
+    private String nearPrefix;
+
+    @Value("${addax.cache.channel:addax:cache:invalidate}")
+    private String channel;
+
+    @Value("${addax.cache.near-ttl:300}")
+    private long nearTtl;
+
+    @Value("${addax.cache.near-ttl-unnotified:5}")
+    private long unnotifiedTtl;
+
+    @Value("${addax.cache.keyspace-events:}")
+    private String keyspaceEvents;
+
+    // 实际使用的近端缓存有效期(秒)
+    private volatile long ttl;
+
+    private record Entry(String value, long loadedAt) {}
+
+    private final Map<String, Entry> near = new ConcurrentHashMap<>();
+
+    // 每次失效递增，加载期间发生失效时不写入近端缓存，避免旧值覆盖
+    private final AtomicLong generation = new AtomicLong();
+
+    @PostConstruct
+    public void subscribe()
+    {
+        if (!keyspaceEvents.isEmpty()) {
+            try {
+                stringRedisTemplate.execute((RedisConnection connection) -> {
+                    connection.serverCommands().setConfig("notify-keyspace-events", keyspaceEvents);
+                    return null;
+                });
+            }
+            catch (Exception e) {
+                logger.warn("failed to enable keyspace notifications, rely on channel {} only: {}", channel, e.getMessage());
+            }
+        }
+        ttl = keyspaceNotified() ? nearTtl : Math.min(nearTtl, unnotifiedTtl);
+        if (ttl < nearTtl) {
+            logger.warn("redis keyspace notifications are off, near cache entries for {}* expire after {}s instead of {}s",
+                    nearPrefix, ttl, nearTtl);
+        }
+        redisMessageListenerContainer.addMessageListener(this,
+                List.of(new ChannelTopic(channel), new PatternTopic("__keyspace@*__:" + nearPrefix + "*")));
+    }
+
     public void set(String key, Serializable value)
     {
         serializableRedisTemplate.opsForValue().set(key, value);
+        invalidate(key);
     }
 
     public String get(String key)
+    {
+        if (!isNear(key)) {
+            return load(key);
+        }
+        long now = System.nanoTime();
+        Entry entry = near.get(key);
+        if (entry != null && now - entry.loadedAt() < TimeUnit.SECONDS.toNanos(ttl)) {
+            return entry.value();
+        }
+        long gen = generation.get();
+        String value = load(key);
+        if (generation.get() == gen) {
+            near.put(key, new Entry(value, now));
+        }
+        return value;
+    }
+
+    // 字符串键的修改(set)、删除(del)及过期(expired)需要 K 以及 $、g、x 或者 A
+    private boolean keyspaceNotified() {
+        try {
+            String flags = stringRedisTemplate.execute((RedisConnection connection) -> {
+                Properties config = connection.serverCommands().getConfig("notify-keyspace-events");
+                return config == null ? "" : config.getProperty("notify-keyspace-events", "");
+            });
+            if (flags == null || !flags.contains("K")) {
+                return false;
+            }
+            return flags.contains("A") || (flags.contains("$") && flags.contains("g") && flags.contains("x"));
+        }
+        catch (Exception e) {
+            logger.warn("failed to read notify-keyspace-events: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private String load(String key)
     {
         return Objects.requireNonNull(serializableRedisTemplate.opsForValue().get(key)).toString();
     }
@@ -45,6 +165,7 @@ public class CacheUtil {
 
     public void del(String key) {
         serializableRedisTemplate.delete(key);
+        invalidate(key);
     }
 
     public boolean tryLock(String key, String requestId, long timeoutSeconds) {
@@ -59,4 +180,45 @@ public class CacheUtil {
             serializableRedisTemplate.delete(key);
         }
     }
+
+    public boolean isNear(String key) {
+        return key.startsWith(nearPrefix);
+    }
+
+    /**
+     * 键被修改后调用，通知所有实例（包括本实例）丢弃近端缓存
+     * @param key 键，为 * 时清空全部
+     */
+    public void invalidate(String key) {
+        if (ALL.equals(key) || isNear(key)) {
+            evict(key);
+            stringRedisTemplate.convertAndSend(channel, key);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern)
+    {
+        String source = new String(message.getChannel(), StandardCharsets.UTF_8);
+        String key;
+        if (source.equals(channel)) {
+            key = new String(message.getBody(), StandardCharsets.UTF_8);
+        }
+        else {
+            // __keyspace@<db>__:<key>
+            key = source.substring(source.indexOf("__:") + 3);
+        }
+        evict(key);
+    }
+
+    private void evict(String key) {
+        generation.incrementAndGet();
+        if (ALL.equals(key)) {
+            near.clear();
+        }
+        else {
+            near.remove(key);
+        }
+        logger.debug("near cache evicted {}", key);
+    }
 }
@@ -1,51 +1,33 @@
 package com.wgzhao.addax.admin.utils;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
+import java.time.Duration;
 
 /**
  * 命令执行工具类
+ * 基于 ProcessRunner，stdout 与 stderr 同时读取
  */
 public class CommandExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(CommandExecutor.class);
+
+    // executeForOutput 最多保留的输出行数
+    private static final int MAX_OUTPUT_LINES = 200000;
 
     /**
      * 执行命令并返回输出结果
      * @param command 要执行的命令
      * @return 命令的输出结果
+     * @throws IllegalStateException 输出超过 MAX_OUTPUT_LINES 行，只保留了最后部分，不返回不完整的结果
      */
     public static String executeForOutput(String command) {
-        StringBuilder output = new StringBuilder();
-        Process process = null;
-
-        try {
-            process = Runtime.getRuntime().exec(new String[]{"bash", "-c", command});
-
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                }
-            }
-
-            process.waitFor();
-
-            // 移除最后一个换行符
-            if (output.length() > 0) {
-                output.setLength(output.length() - 1);
-            }
-
-            return output.toString();
-        } catch (IOException | InterruptedException e) {
-            if (process != null) {
-                process.destroy();
-            }
-            if (e instanceof InterruptedException) {
-                Thread.currentThread().interrupt();
-            }
-            return "";
+        ProcessRunner.Result result = ProcessRunner.of(command).capture(MAX_OUTPUT_LINES).run();
+        if (result.truncated()) {
+            logger.error("output of [{}] exceeds {} lines, the result is discarded", command, MAX_OUTPUT_LINES);
+            throw new IllegalStateException("output exceeds " + MAX_OUTPUT_LINES + " lines: " + command);
         }
+        return result.output();
     }
 
     /**
@@ -54,37 +36,38 @@ public class CommandExecutor {
      * @return 命令的退出码，0表示成功
      */
     public static int executeWithResult(String command) {
-        Process process = null;
-
-        try {
-            process = Runtime.getRuntime().exec(new String[]{"bash", "-c", command});
-
-            // 将输出重定向到标准输出
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    System.out.println(line);
-                }
-            }
+        return executeWithResult(command, 0);
+    }
 
-            // 将错误输出重定向到标准错误
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    System.err.println(line);
-                }
-            }
+    /**
+     * 执行命令并返回退出码，超时后终止整个进程树
+     * @param command 要执行的命令
+     * @param timeoutSeconds 超时秒数，小于等于0表示不超时
+     * @return 命令的退出码，0表示成功
+     */
+    public static int executeWithResult(String command, long timeoutSeconds) {
+        return executeWithResult(command, timeoutSeconds, 0);
+    }
 
-            return process.waitFor();
-        } catch (IOException | InterruptedException e) {
-            if (process != null) {
-                process.destroy();
-            }
-            if (e instanceof InterruptedException) {
-                Thread.currentThread().interrupt();
-            }
+    /**
+     * 执行命令并返回退出码，超时或者长时间没有输出时终止整个进程树
+     * @param command 要执行的命令
+     * @param timeoutSeconds 超时秒数，小于等于0表示不超时
+     * @param idleSeconds 无输出超时秒数，小于等于0表示不检查
+     * @return 命令的退出码，0表示成功
+     */
+    public static int executeWithResult(String command, long timeoutSeconds, long idleSeconds) {
+        ProcessRunner.Result result = ProcessRunner.of(command)
+                .timeout(timeoutSeconds > 0 ? Duration.ofSeconds(timeoutSeconds) : null)
+                .idleTimeout(idleSeconds > 0 ? Duration.ofSeconds(idleSeconds) : null)
+                .onStdout(System.out::println)
+                .onStderr(System.err::println)
+                .run();
+        if (result.timedOut()) {
+            System.err.println("执行超时(" + timeoutSeconds + "秒" + (idleSeconds > 0 ? "，或" + idleSeconds + "秒无输出" : "") + ")，已终止：" + command);
             return -1;
         }
+        return result.exitCode();
     }
 
     /**
@@ -118,4 +101,4 @@ public class CommandExecutor {
     public static String getIpAddress() {
         return executeForOutput("ifconfig | grep '188\\.175\\.' | awk '{print $2}'").trim();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,286 @@
+package com.wgzhao.addax.admin.utils;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按来源系统及数据服务目标系统自适应调整并发数
+ * 以 vw_imp_system 的 db_paral 为初始值，在 [addax.governor.min, db_paral * addax.governor.max-factor] 之间按 AIMD 调整：
+ * 任务成功结束时加 1/当前并发数(约每轮任务加 1)；任务失败，或者采集作业速度(采集报告的 byte_speed)
+ * 低于该作业自身速度基线的 addax.governor.degrade-ratio 时乘以 addax.governor.backoff。
+ * 速度基线按作业分别统计，不同数据量的作业不互相比较；错误记录数反映的是数据质量而不是源库负载，不参与调整。
+ * 调整后的并发数按 addax.governor.half-life-seconds 的半衰期向 db_paral 回归，db_paral 修改后重新从 db_paral 开始，
+ * 调低 db_paral 后不会继续使用按旧值调整出的并发数。
+ * <p>
+ * 并发数及速度基线保存在 Redis 中，多个节点共用；反馈只来自本节点：本节点 TaskRegistry 上的状态变更及本节点收到的采集报告，
+ * 其他节点上的变更由各自节点反馈，不会重复计入。运行中的任务数仍以库中 R 状态为准，由 Dispatcher 统计
+ * <p>
+ * 分组与 Dispatcher 的目标系统一致：采集任务为 sysid(每个来源系统对应一个 sou_db_conn)，数据服务为 'ds'||dest_sysid
+ */
+@Component
+public class ConcurrencyGovernor {
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrencyGovernor.class);
+
+    private static final String NOW_MS = "local t = redis.call('time') " +
+            "local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000) ";
+
+    // 按半衰期向初始并发回归，lim、init、last、half 为已定义的局部变量
+    private static final String DECAY = "if half > 0 and last < now then lim = init + (lim - init) * math.pow(0.5, (now - last) / half) end ";
+
+    // KEYS=limit,baseline,base,ts ARGV[1]=分组 ARGV[2]=事件(ok/err/speed) ARGV[3]=初始并发 ARGV[4]=下限 ARGV[5]=上限
+    // ARGV[6]=退避系数 ARGV[7]=作业速度 ARGV[8]=劣化比例 ARGV[9]=基线平滑系数 ARGV[10]=半衰期毫秒 ARGV[11]=作业；返回调整后的并发数
+    private static final RedisScript<String> FEEDBACK = new DefaultRedisScript<>(NOW_MS +
+            "local init, half = tonumber(ARGV[3]), tonumber(ARGV[10]) " +
+            "local lim = tonumber(redis.call('hget', KEYS[1], ARGV[1]) or ARGV[3]) " +
+            "local last = tonumber(redis.call('hget', KEYS[4], ARGV[1]) or now) " +
+            "if redis.call('hget', KEYS[3], ARGV[1]) ~= ARGV[3] then lim = init end " +
+            DECAY +
+            "local lo, hi, beta = tonumber(ARGV[4]), tonumber(ARGV[5]), tonumber(ARGV[6]) " +
+            "if ARGV[2] == 'ok' then lim = lim + 1 / math.max(lim, 1) " +
+            "elseif ARGV[2] == 'err' then lim = lim * beta " +
+            "else " +
+            "  local speed = tonumber(ARGV[7]) " +
+            "  local base = tonumber(redis.call('hget', KEYS[2], ARGV[11]) or ARGV[7]) " +
+            "  if speed < base * tonumber(ARGV[8]) then lim = lim * beta end " +
+            "  local a = tonumber(ARGV[9]) " +
+            "  redis.call('hset', KEYS[2], ARGV[11], tostring(a * speed + (1 - a) * base)) " +
+            "end " +
+            "lim = math.max(lo, math.min(hi, lim)) " +
+            "redis.call('hset', KEYS[1], ARGV[1], tostring(lim)) " +
+            "redis.call('hset', KEYS[3], ARGV[1], ARGV[3]) " +
+            "redis.call('hset', KEYS[4], ARGV[1], now) " +
+            "return tostring(lim)", String.class);
+
+    // KEYS=limit,base,ts ARGV[1]=半衰期毫秒；返回 {分组, 回归后的并发, 调整时的初始并发, ...}，不修改保存的值
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> LIMITS = new DefaultRedisScript<>(NOW_MS +
+            "local half = tonumber(ARGV[1]) " +
+            "local r = {} " +
+            "local all = redis.call('hgetall', KEYS[1]) " +
+            "for i = 1, #all, 2 do " +
+            "  local g, lim = all[i], tonumber(all[i + 1]) " +
+            "  local b = redis.call('hget', KEYS[2], g) " +
+            "  if b then " +
+            "    local init = tonumber(b) " +
+            "    local last = tonumber(redis.call('hget', KEYS[3], g) or now) " +
+            "    " + DECAY +
+            "    r[#r + 1] = g r[#r + 1] = tostring(lim) r[#r + 1] = b " +
+            "  end " +
+            "end " +
+            "return r", List.class);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final TaskRegistry taskRegistry;
+
+    // 任务编号 -> 分组
+    private volatile Map<String, String> groups = Map.of();
+
+    // 采集任务名 -> 分组，用于匹配采集报告中的 jobName
+    private volatile Map<String, String> jobs = Map.of();
+
+    // 分组 -> db_paral
+    private volatile Map<String, Integer> bases = Map.of();
+
+    @Value("${addax.governor.enabled:false}")
+    private boolean enabled;
+
+    @Value("${addax.governor.prefix:governor:}")
+    private String prefix;
+
+    @Value("${addax.governor.min:1}")
+    private int min;
+
+    @Value("${addax.governor.max-factor:2.0}")
+    private double maxFactor;
+
+    @Value("${addax.governor.backoff:0.7}")
+    private double backoff;
+
+    @Value("${addax.governor.degrade-ratio:0.5}")
+    private double degradeRatio;
+
+    @Value("${addax.governor.alpha:0.2}")
+    private double alpha;
+
+    // 调整后的并发数向 db_paral 回归的半衰期，0 表示不回归
+    @Value("${addax.governor.half-life-seconds:1800}")
+    private long halfLifeSeconds;
+
+    @Value("${addax.dispatch.default-paral:8}")
+    private int defaultParal;
+
+    public ConcurrencyGovernor(@Qualifier("oracleJdbcTemplate") JdbcTemplate jdbcTemplate, StringRedisTemplate stringRedisTemplate,
+            TaskRegistry taskRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.redisTemplate = stringRedisTemplate;
+        this.taskRegistry = taskRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            taskRegistry.addListener(this::onStatus);
+            try {
+                reload();
+            }
+            catch (Exception e) {
+                logger.warn("failed to load governor groups: {}", e.getMessage());
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 当前各分组的并发上限，未开启时返回空；调整时的 db_paral 与当前不同的分组不返回，沿用当前的 db_paral
+     * @param paral 当前各来源系统的 db_paral，没有的分组按 addax.dispatch.default-paral
+     * @return 分组 -> 并发数
+     */
+    public Map<String, Integer> limits(Map<String, Integer> paral) {
+        if (!enabled) {
+            return Map.of();
+        }
+        Map<String, Integer> result = new HashMap<>();
+        try {
+            List<?> rs = redisTemplate.execute(LIMITS, List.of(prefix + "limit", prefix + "base", prefix + "ts"),
+                    String.valueOf(TimeUnit.SECONDS.toMillis(halfLifeSeconds)));
+            for (int i = 0; rs != null && i + 2 < rs.size(); i += 3) {
+                String group = String.valueOf(rs.get(i));
+                if (String.valueOf(initial(paral.get(group))).equals(String.valueOf(rs.get(i + 2)))) {
+                    result.put(group, Math.max(min, (int) Math.floor(Double.parseDouble(String.valueOf(rs.get(i + 1))))));
+                }
+            }
+        }
+        catch (Exception e) {
+            logger.warn("failed to read governor limits: {}", e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * 主任务结束，Y 视为成功，E 视为失败
+     */
+    public void onStatus(String id, String flag) {
+        if (!"Y".equals(flag) && !"E".equals(flag)) {
+            return;
+        }
+        String group = groups.get(id);
+        if (group != null) {
+            feedback(group, "Y".equals(flag) ? "ok" : "err", 0, "");
+        }
+    }
+
+    /**
+     * 采集报告，作业速度低于自身基线时退避
+     * @param jobName 作业名，一般为命令文件名，与采集任务名(spname)匹配
+     * @param byteSpeed 每秒字节数
+     */
+    public void onReport(String jobName, long byteSpeed) {
+        if (!enabled || jobName == null || byteSpeed <= 0) {
+            return;
+        }
+        String job = jobKey(jobName);
+        String group = match(job);
+        if (group == null) {
+            logger.debug("no source system for job {}", jobName);
+            return;
+        }
+        feedback(group, "speed", byteSpeed, job);
+    }
+
+    @Scheduled(fixedDelayString = "${addax.governor.reload-interval:600000}", initialDelayString = "${addax.governor.reload-interval:600000}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            reload();
+        }
+        catch (Exception e) {
+            logger.warn("failed to reload governor groups: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 重新加载任务所属的分组及各分组的 db_paral
+     */
+    public void reload() {
+        Map<String, String> g = new HashMap<>();
+        Map<String, String> j = new HashMap<>();
+        jdbcTemplate.query("select tid, sysid, spname from vw_imp_etl where bvalid = 1", (RowCallbackHandler) rs -> {
+            if (rs.getString(2) != null) {
+                g.put(rs.getString(1), rs.getString(2));
+                if (rs.getString(3) != null) {
+                    j.put(rs.getString(3), rs.getString(2));
+                }
+            }
+        });
+        jdbcTemplate.query("select ds_id, 'ds'||dest_sysid from vw_imp_ds2", (RowCallbackHandler) rs -> g.put(rs.getString(1), rs.getString(2)));
+        Map<String, Integer> b = new HashMap<>();
+        jdbcTemplate.query("select sysid, db_paral from vw_imp_system where sys_kind = 'etl'",
+                (RowCallbackHandler) rs -> b.put(rs.getString(1), rs.getInt(2)));
+        groups = g;
+        jobs = j;
+        bases = b;
+        logger.info("governor groups loaded, {} tasks, {} jobs, {} systems", g.size(), j.size(), b.size());
+    }
+
+    private void feedback(String group, String event, long speed, String job) {
+        int base = initial(bases.get(group));
+        try {
+            String lim = redisTemplate.execute(FEEDBACK, List.of(prefix + "limit", prefix + "baseline", prefix + "base", prefix + "ts"),
+                    group, event, String.valueOf(base), String.valueOf(min), String.valueOf(Math.max(min, Math.round(base * maxFactor))),
+                    String.valueOf(backoff), String.valueOf(speed), String.valueOf(degradeRatio), String.valueOf(alpha),
+                    String.valueOf(TimeUnit.SECONDS.toMillis(halfLifeSeconds)), job);
+            if (!"ok".equals(event)) {
+                logger.info("governor {} on {}: limit now {}", event, group, lim);
+            }
+        }
+        catch (Exception e) {
+            logger.warn("governor feedback failed for {}: {}", group, e.getMessage());
+        }
+    }
+
+    // 分组的初始并发，未配置或者不大于 0 时使用默认值
+    private int initial(Integer paral) {
+        return paral == null || paral <= 0 ? defaultParal : paral;
+    }
+
+    // jobName 可能带路径及扩展名，去掉后作为作业的速度基线键
+    private static String jobKey(String jobName) {
+        String name = jobName.substring(Math.max(jobName.lastIndexOf('/'), jobName.lastIndexOf('\\')) + 1);
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    // 作业名可能带命令序号(spname_序号)
+    private String match(String name) {
+        Map<String, String> j = jobs;
+        String group = j.get(name);
+        int idx = name.lastIndexOf('_');
+        if (group == null && idx > 0 && name.substring(idx + 1).chars().allMatch(Character::isDigit)) {
+            group = j.get(name.substring(0, idx));
+        }
+        return group;
+    }
+}
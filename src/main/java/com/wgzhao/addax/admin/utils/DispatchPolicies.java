@@ -0,0 +1,113 @@
+package com.wgzhao.addax.admin.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 内置调度策略
+ */
+public final class DispatchPolicies {
+
+    private DispatchPolicies() {
+    }
+
+    /**
+     * 原 fn_imp_value('sp_run') 的排序：同一目标系统内按耗时降序编号 sys_px（正在运行的任务占前面的编号），
+     * 再整体按 runtime + 20000 / sys_px 降序，使各系统的第一个任务优先调起
+     */
+    @Component
+    public static class Default implements DispatchPolicy {
+        @Override
+        public String name() {
+            return "default";
+        }
+
+        @Override
+        public List<Candidate> order(List<Candidate> runnable, Map<String, Integer> running) {
+            List<Candidate> byRuntime = new ArrayList<>(runnable);
+            byRuntime.sort(Comparator.comparingDouble(Candidate::runtime).reversed());
+            Map<String, Integer> sysPx = new HashMap<>(running);
+            Map<Candidate, Double> score = new HashMap<>();
+            for (Candidate c : byRuntime) {
+                int px = sysPx.merge(c.kind() + "|" + c.destSys(), 1, Integer::sum);
+                score.put(c, c.runtime() + 20000.0 / px);
+            }
+            byRuntime.sort(Comparator.comparingDouble((Candidate c) -> score.get(c)).reversed());
+            return byRuntime;
+        }
+    }
+
+    /**
+     * 最长任务优先(LPT)，耗时长的任务先调起，缩短整体完成时间
+     */
+    @Component
+    public static class LongestFirst implements DispatchPolicy {
+        @Override
+        public String name() {
+            return "lpt";
+        }
+
+        @Override
+        public List<Candidate> order(List<Candidate> runnable, Map<String, Integer> running) {
+            List<Candidate> result = new ArrayList<>(runnable);
+            result.sort(Comparator.comparingDouble(Candidate::runtime).reversed());
+            return result;
+        }
+    }
+
+    /**
+     * 关键路径优先，下游链路越长的任务越先调起
+     */
+    @Component
+    public static class CriticalPath implements DispatchPolicy {
+        @Override
+        public String name() {
+            return "critical-path";
+        }
+
+        @Override
+        public boolean needsCriticalPath() {
+            return true;
+        }
+
+        @Override
+        public List<Candidate> order(List<Candidate> runnable, Map<String, Integer> running) {
+            List<Candidate> result = new ArrayList<>(runnable);
+            result.sort(Comparator.comparingDouble(Candidate::criticalPath).reversed()
+                    .thenComparing(Comparator.comparingDouble(Candidate::runtime).reversed()));
+            return result;
+        }
+    }
+
+    /**
+     * 最早截止优先，按松弛时间(距截止时间的秒数减去关键路径)升序：松弛时间越少越先调起。
+     * 延迟任务(bdelay=1)已经超过截止时间，松弛时间为关键路径的负数；
+     * 其余任务以 addax.dispatch.deadline 为截止时间，关键路径超过剩余时间的长链路可以排在短的延迟任务之前。
+     * 松弛时间相同时耗时长的先调起
+     */
+    @Component
+    public static class DeadlineFirst implements DispatchPolicy {
+        @Override
+        public String name() {
+            return "deadline";
+        }
+
+        @Override
+        public boolean needsCriticalPath() {
+            return true;
+        }
+
+        @Override
+        public List<Candidate> order(List<Candidate> runnable, Map<String, Integer> running) {
+            List<Candidate> result = new ArrayList<>(runnable);
+            result.sort(Comparator.comparingDouble(Candidate::slack)
+                    .thenComparing(Comparator.comparingDouble(Candidate::runtime).reversed()));
+            return result;
+        }
+    }
+}
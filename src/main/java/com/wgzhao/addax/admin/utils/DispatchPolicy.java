@@ -0,0 +1,52 @@
+package com.wgzhao.addax.admin.utils;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 调度策略，决定一轮 sp_run 中待执行任务的先后顺序
+ * Dispatcher 按策略给出的顺序依次选取，同时保证每个目标系统不超过 db_paral、每轮总数不超过上限；
+ * 通过 addax.dispatch.policy 按部署选择，新的策略实现本接口并注册为 Spring Bean 即可
+ */
+public interface DispatchPolicy {
+
+    /**
+     * 候选任务
+     * @param kind 任务类型 sp/etl/ds
+     * @param id 任务编号
+     * @param destSys 目标系统，用于并发数限制
+     * @param runtime 上次运行耗时(秒)
+     * @param delayed 是否为延迟任务(bdelay=1)
+     * @param criticalPath 本任务及其最长下游链路的耗时之和，不在依赖图中的任务等于自身耗时；策略不需要时为 0
+     * @param deadline 距截止时间(addax.dispatch.deadline)的秒数，延迟任务已经超过截止时间，为 0；策略不需要时为 0
+     */
+    record Candidate(String kind, String id, String destSys, double runtime, boolean delayed, double criticalPath, double deadline) {
+
+        /**
+         * 松弛时间：截止前还能推迟开始的秒数，为负表示即使立即调起也会超过截止时间
+         */
+        public double slack() {
+            return deadline - criticalPath;
+        }
+    }
+
+    /**
+     * 策略名称，与 addax.dispatch.policy 对应
+     */
+    String name();
+
+    /**
+     * 是否需要计算关键路径，计算时需要读取 SP 依赖关系
+     */
+    default boolean needsCriticalPath() {
+        return false;
+    }
+
+    /**
+     * 对可执行任务排序
+     * @param runnable 可执行(brun=1)的任务
+     * @param running 各目标系统正在运行的任务数，键为 kind|destSys
+     * @return 排序后的任务，越靠前越先调起
+     */
+    List<Candidate> order(List<Candidate> runnable, Map<String, Integer> running);
+}
@@ -0,0 +1,282 @@
+package com.wgzhao.addax.admin.utils;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisListCommands;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 任务分发，fn_imp_value('sp_run') 的 Java 实现
+ * 读取可执行及正在运行的任务后交给 DispatchPolicy 排序，再按目标系统的 db_paral 及每轮上限截取。
+ * 前台手工执行的 SP(spcom) 走单独的通道，不受并发数限制且优先于自动任务调起。
+ * 手工任务出队时原子地移到处理中列表，调起方在确认仍是主节点并交出任务后调用 ackManual 删除，
+ * 放弃本轮时调用 abortManual 放回队首；主节点中途退出时，下一轮 dispatch 先把遗留的任务放回队首
+ */
+@Component
+public class Dispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(Dispatcher.class);
+
+    private static final String CANDIDATES_SQL = """
+            select 'sp' kind, sp_id, 'sp'||sp_owner dest_sys, runtime, brun, 0 bdelay
+              from vw_imp_sp
+             where brun = 1 or flag = 'R'
+            union all
+            select 'etl', tid, sysid, runtime + runtime_add, brun, 0
+              from vw_imp_etl
+             where brun = 1 or flag = 'R'
+            union all
+            select 'ds', ds_id, 'ds'||dest_sysid, nvl(runtime, 999), brun, nvl(bdelay, 0)
+              from vw_imp_ds2
+             where brun = 1 or flag = 'R'
+            """;
+
+    private static final String MANUAL_KEY = "dispatch.manual";
+
+    private static final String MANUAL_PROCESSING_KEY = "dispatch.manual.processing";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RuntimeModel runtimeModel;
+
+    private final ConcurrencyGovernor governor;
+
+    private final Map<String, DispatchPolicy> policies = new HashMap<>();
+
+    @Value("${addax.dispatch.policy:default}")
+    private String policyName;
+
+    // 每轮调起及正在运行的任务总数上限
+    @Value("${addax.dispatch.limit:100}")
+    private int limit;
+
+    // 目标系统未配置 db_paral 时的并发数
+    @Value("${addax.dispatch.default-paral:8}")
+    private int defaultParal;
+
+    @Value("${addax.dispatch.manual-limit:20}")
+    private int manualLimit;
+
+    // 批量任务的截止时间(HH:mm)，已过时取次日
+    @Value("${addax.dispatch.deadline:08:00}")
+    private String deadline;
+
+    private DispatchPolicy policy;
+
+    // 关键路径，按需加载并定时刷新
+    private volatile Map<String, Double> criticalPaths;
+
+    public Dispatcher(@Qualifier("oracleJdbcTemplate") JdbcTemplate jdbcTemplate, StringRedisTemplate stringRedisTemplate,
+            RuntimeModel runtimeModel, ConcurrencyGovernor governor, List<DispatchPolicy> policies) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.runtimeModel = runtimeModel;
+        this.governor = governor;
+        policies.forEach(p -> this.policies.put(p.name(), p));
+    }
+
+    @PostConstruct
+    public void init() {
+        policy = policies.get(policyName);
+        if (policy == null) {
+            logger.warn("unknown dispatch policy '{}', use default, available: {}", policyName, policies.keySet());
+            policy = policies.get("default");
+        }
+        logger.info("dispatch policy: {}", policy.name());
+    }
+
+    /**
+     * 登记前台手工执行的 SP，下一轮取得 sp_init 标志的 sp_start 优先调起
+     */
+    public void submitManual(String spId) {
+        stringRedisTemplate.opsForList().rightPush(MANUAL_KEY, spId);
+    }
+
+    /**
+     * 本轮取出的手工任务已经交出（调起工作流或放入共享队列），从处理中列表删除
+     */
+    public void ackManual() {
+        stringRedisTemplate.delete(MANUAL_PROCESSING_KEY);
+    }
+
+    /**
+     * 放弃本轮调起，把取出的手工任务按原有顺序放回队首
+     * @return 放回的任务数
+     */
+    public int abortManual() {
+        int n = 0;
+        while (stringRedisTemplate.opsForList().move(MANUAL_PROCESSING_KEY, RedisListCommands.Direction.RIGHT,
+                MANUAL_KEY, RedisListCommands.Direction.LEFT) != null) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * 本轮需要调起的任务，取出的手工任务需要调用方 ackManual 或 abortManual
+     * @return kind|id|目标系统 格式的任务列表，kind 为 spcom(手工)、sp(采集及 SP)或 ds，手工任务没有目标系统
+     */
+    public List<String> dispatch() {
+        List<String> result = new ArrayList<>();
+        Set<String> manual = new HashSet<>();
+        int requeued = abortManual();
+        if (requeued > 0) {
+            logger.info("{} manual runs left by an unfinished round are queued again", requeued);
+        }
+        for (int i = 0; i < manualLimit; i++) {
+            String spId = stringRedisTemplate.opsForList().move(MANUAL_KEY, RedisListCommands.Direction.LEFT,
+                    MANUAL_PROCESSING_KEY, RedisListCommands.Direction.RIGHT);
+            if (spId == null) {
+                break;
+            }
+            if (manual.add(spId)) {
+                result.add("spcom|" + spId);
+            }
+        }
+
+        List<String[]> rows = new ArrayList<>();
+        jdbcTemplate.query(CANDIDATES_SQL, (RowCallbackHandler) rs -> rows.add(new String[] {rs.getString(1), rs.getString(2),
+                rs.getString(3), rs.getString(4), rs.getString(5), rs.getString(6)}));
+        boolean needsPath = policy.needsCriticalPath();
+        Map<String, Double> paths = needsPath ? criticalPaths() : Map.of();
+        double untilDeadline = needsPath ? secondsUntil(LocalTime.parse(deadline), LocalDateTime.now()) : 0;
+        Map<String, Integer> running = new HashMap<>();
+        List<DispatchPolicy.Candidate> runnable = new ArrayList<>();
+        for (String[] r : rows) {
+            if ("1".equals(r[4])) {
+                // 优先使用按历史耗时预测的值，没有历史时使用上次的 runtime
+                double runtime = runtimeModel.predict(r[1], r[3] == null ? 0 : Double.parseDouble(r[3]));
+                boolean delayed = "1".equals(r[5]);
+                runnable.add(new DispatchPolicy.Candidate(r[0], r[1], r[2], runtime, delayed,
+                        needsPath ? paths.getOrDefault(r[1], runtime) : 0, delayed ? 0 : untilDeadline));
+            }
+            else {
+                running.merge(r[0] + "|" + r[2], 1, Integer::sum);
+            }
+        }
+        if (runnable.isEmpty()) {
+            return result;
+        }
+
+        Map<String, Integer> paral = new HashMap<>();
+        jdbcTemplate.query("select sysid, db_paral from vw_imp_system where sys_kind = 'etl'",
+                (RowCallbackHandler) rs -> paral.put(rs.getString(1), rs.getInt(2)));
+        // 开启自适应并发时，采集及数据服务使用调整后的并发数
+        paral.putAll(governor.limits(paral));
+
+        int busy = running.values().stream().mapToInt(Integer::intValue).sum();
+        int total = busy;
+        Map<String, Integer> used = new HashMap<>(running);
+        for (DispatchPolicy.Candidate c : policy.order(runnable, Map.copyOf(running))) {
+            if (total >= limit) {
+                break;
+            }
+            String key = c.kind() + "|" + c.destSys();
+            if (used.getOrDefault(key, 0) >= paral.getOrDefault(c.destSys(), defaultParal)) {
+                continue;
+            }
+            used.merge(key, 1, Integer::sum);
+            total++;
+            // 采集任务与 SP 使用相同的执行入口
+            result.add(("etl".equals(c.kind()) ? "sp" : c.kind()) + "|" + c.id() + "|" + c.destSys());
+        }
+        logger.debug("dispatch by {}: {} runnable, {} running, {} started", policy.name(), runnable.size(), busy, result.size());
+        return result;
+    }
+
+    // 距下一个截止时间的秒数
+    static double secondsUntil(LocalTime deadline, LocalDateTime now) {
+        LocalDateTime at = now.toLocalDate().atTime(deadline);
+        if (!at.isAfter(now)) {
+            at = at.plusDays(1);
+        }
+        return Duration.between(now, at).toSeconds();
+    }
+
+    @Scheduled(fixedDelayString = "${addax.dispatch.graph-refresh-interval:300000}")
+    public void refresh() {
+        if (criticalPaths != null) {
+            try {
+                criticalPaths = loadCriticalPaths();
+            }
+            catch (Exception e) {
+                logger.warn("failed to reload critical paths: {}", e.getMessage());
+            }
+        }
+    }
+
+    private Map<String, Double> criticalPaths() {
+        Map<String, Double> paths = criticalPaths;
+        if (paths == null) {
+            paths = loadCriticalPaths();
+            criticalPaths = paths;
+        }
+        return paths;
+    }
+
+    /**
+     * 计算每个任务的关键路径：自身耗时加上最长下游链路的耗时
+     * 依赖关系来自 vw_imp_sp_needs 以及按脚本解析出的 tb_imp_sp_needtab(NDS)
+     */
+    private Map<String, Double> loadCriticalPaths() {
+        Map<String, Double> runtimes = new HashMap<>();
+        jdbcTemplate.query("select sp_id, nvl(runtime, 0) from vw_imp_sp where bvalid = 1 " +
+                        "union all select tid, nvl(runtime, 0) + nvl(runtime_add, 0) from vw_imp_etl where bvalid = 1",
+                (RowCallbackHandler) rs -> runtimes.put(rs.getString(1), rs.getDouble(2)));
+        runtimes.replaceAll(runtimeModel::predict);
+        Map<String, Set<String>> downstream = new HashMap<>();
+        RowCallbackHandler edge = rs -> {
+            if (rs.getString(1) != null && rs.getString(2) != null) {
+                downstream.computeIfAbsent(rs.getString(2), k -> new HashSet<>()).add(rs.getString(1));
+            }
+        };
+        jdbcTemplate.query("select sp_id, needs from vw_imp_sp_needs", edge);
+        jdbcTemplate.query("select sp_id, table_name from tb_imp_sp_needtab where kind = 'NDS'", edge);
+
+        Map<String, Double> paths = new HashMap<>();
+        Set<String> visiting = new HashSet<>();
+        for (String id : runtimes.keySet()) {
+            longest(id, runtimes, downstream, paths, visiting);
+        }
+        logger.info("critical paths loaded, {} tasks, {} upstreams", paths.size(), downstream.size());
+        return paths;
+    }
+
+    private static double longest(String id, Map<String, Double> runtimes, Map<String, Set<String>> downstream,
+            Map<String, Double> paths, Set<String> visiting) {
+        Double known = paths.get(id);
+        if (known != null) {
+            return known;
+        }
+        // 依赖存在环时不再向下计算
+        if (!visiting.add(id)) {
+            return 0;
+        }
+        double max = 0;
+        for (String next : downstream.getOrDefault(id, Set.of())) {
+            max = Math.max(max, longest(next, runtimes, downstream, paths, visiting));
+        }
+        visiting.remove(id);
+        double path = runtimes.getOrDefault(id, 0.0) + max;
+        paths.put(id, path);
+        return path;
+    }
+}
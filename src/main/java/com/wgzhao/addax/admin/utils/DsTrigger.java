@@ -0,0 +1,205 @@
+package com.wgzhao.addax.admin.utils;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DolphinScheduler 工作流调起客户端
+ * 取代每个任务 fork 一次 curl：共享一个 HttpClient 复用长连接，批量调起时异步并发发送，
+ * 并发数由 addax.ds.max-concurrency 限制；建立连接失败、连接超时及 5xx 响应按带随机抖动的指数退避重试，
+ * 请求已发出后的读超时、连接中断等异常无法确定调度服务是否已经调起，不再重试，避免重复调起工作流。
+ * 同一命令(comt)正在调起时，重复的请求共用同一次调起的结果
+ */
+@Component
+public class DsTrigger {
+    private static final Logger logger = LoggerFactory.getLogger(DsTrigger.class);
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ds-trigger-", 0).factory());
+
+    // 正在调起的命令
+    private final Map<String, CompletableFuture<Boolean>> inflight = new ConcurrentHashMap<>();
+
+    private HttpClient client;
+
+    private Semaphore permits;
+
+    @Value("${addax.ds.url}")
+    private String url;
+
+    @Value("${addax.ds.token}")
+    private String token;
+
+    @Value("${addax.ds.process-code}")
+    private String processCode;
+
+    @Value("${addax.ds.max-concurrency:16}")
+    private int maxConcurrency;
+
+    @Value("${addax.ds.retries:3}")
+    private int retries;
+
+    @Value("${addax.ds.backoff-ms:200}")
+    private long backoffMs;
+
+    @Value("${addax.ds.timeout-seconds:10}")
+    private long timeoutSeconds;
+
+    @PostConstruct
+    public void init() {
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(timeoutSeconds))
+                .executor(executor)
+                .build();
+        permits = new Semaphore(Math.max(1, maxConcurrency));
+    }
+
+    /**
+     * 异步调起一个工作流
+     * @param comt 工作流中实际执行的命令
+     * @return 调起是否成功
+     */
+    public CompletableFuture<Boolean> trigger(String comt) {
+        CompletableFuture<Boolean> created = new CompletableFuture<>();
+        CompletableFuture<Boolean> existing = inflight.putIfAbsent(comt, created);
+        if (existing != null) {
+            return existing;
+        }
+        executor.execute(() -> {
+            boolean ok = false;
+            try {
+                ok = send(comt);
+            }
+            finally {
+                inflight.remove(comt, created);
+                created.complete(ok);
+            }
+        });
+        return created;
+    }
+
+    /**
+     * 批量调起，重复的命令只调起一次
+     * @param comts 工作流中实际执行的命令
+     * @return 每个命令的调起结果，按传入顺序
+     */
+    public Map<String, Boolean> triggerAll(Collection<String> comts) {
+        Map<String, CompletableFuture<Boolean>> futures = new LinkedHashMap<>();
+        for (String comt : new LinkedHashSet<>(comts)) {
+            futures.put(comt, trigger(comt));
+        }
+        Map<String, Boolean> result = new LinkedHashMap<>();
+        futures.forEach((comt, f) -> result.put(comt, f.join()));
+        return result;
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdown();
+    }
+
+    private boolean send(String comt) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(timeoutSeconds))
+                .header("token", token)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(payload(comt)))
+                .build();
+        for (int attempt = 0; ; attempt++) {
+            String reason;
+            try {
+                permits.acquire();
+                HttpResponse<String> response;
+                try {
+                    response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                }
+                finally {
+                    permits.release();
+                }
+                int status = response.statusCode();
+                if (status / 100 == 2) {
+                    // DolphinScheduler 业务失败时仍返回 200
+                    String body = response.body();
+                    if (body != null && body.contains("\"failed\":true")) {
+                        logger.error("failed to start workflow [{}]: {}", comt, body);
+                        return false;
+                    }
+                    logger.debug("workflow [{}] started: {}", comt, body);
+                    return true;
+                }
+                if (status / 100 != 5) {
+                    logger.error("failed to start workflow [{}], status {}: {}", comt, status, response.body());
+                    return false;
+                }
+                reason = "status " + status;
+            }
+            catch (IOException e) {
+                if (!beforeSent(e)) {
+                    logger.error("failed to start workflow [{}], the request may have been accepted: {}", comt, e.toString());
+                    return false;
+                }
+                reason = e.toString();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (attempt >= retries) {
+                logger.error("failed to start workflow [{}] after {} attempts: {}", comt, attempt + 1, reason);
+                return false;
+            }
+            // 指数退避加随机抖动，避免调度服务恢复时所有请求同时重试
+            long delay = ThreadLocalRandom.current().nextLong(Math.max(1, backoffMs << attempt)) + backoffMs;
+            logger.warn("start workflow [{}] failed: {}, retry in {}ms", comt, reason, delay);
+            try {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    // 连接尚未建立的异常，请求一定没有发出，可以安全重试
+    private static boolean beforeSent(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof ConnectException || t instanceof HttpConnectTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String payload(String comt) {
+        return "failureStrategy=END&processDefinitionCode=" + processCode +
+                "&processInstancePriority=MEDIUM&scheduleTime=&warningGroupId=0&warningType=NONE&startParams=" +
+                URLEncoder.encode("{\"comt\":\"" + comt.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}", StandardCharsets.UTF_8);
+    }
+}
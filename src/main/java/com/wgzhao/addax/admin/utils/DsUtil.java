@@ -34,6 +34,9 @@ public class DsUtil {
     @Resource
     CacheUtil cacheUtil;
 
+    @Resource
+    Dispatcher dispatcher;
+
     /**
      * 执行调度工具命令
      * @param ctype 任务类型
@@ -52,7 +55,15 @@ public class DsUtil {
             logger.error("bad ctype: {}", ctype);
             return new Pair<>(false, "bad ctype");
         }
-        sb.append(" ").append(ctypeMap.get(ctype));
+        if ("spcom".equals(ctype) && sp_id != null && !sp_id.isEmpty()) {
+            // 手工执行走单独通道：先登记，再调起 sp_start 工作流优先执行；
+            // 若此时上一轮 sp_start 仍持有 sp_init 标志，本次调起直接退出，手工任务等到下一轮 sp_start 才执行
+            dispatcher.submitManual(sp_id);
+            sb.append(" ").append(ctypeMap.get("sp"));
+        }
+        else {
+            sb.append(" ").append(ctypeMap.get(ctype));
+        }
 
         try {
             logger.info("execute command: '{}'", sb);
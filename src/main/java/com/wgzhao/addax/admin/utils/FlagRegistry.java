@@ -0,0 +1,236 @@
+package com.wgzhao.addax.admin.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 任务互斥标志注册表
+ * 取代 rfg 的集合标志：每个标志是一个带租约的键，值为持有者(主机名:进程号)，与 rfg all 展示的内容一致，
+ * 外部脚本读取标志值时不需要额外解析。获取、释放、续约均由 Lua 脚本在一次往返内原子完成，
+ * 释放及续约时校验持有者，避免租约到期后误删其他进程重新获取的标志。
+ * <p>
+ * 每次获取从计数器取得单调递增的 fencing token，记录在单独的哈希中(标志值保持为持有者)。
+ * 受标志保护的写入(任务的命令状态、主任务状态等)在写入前调用 validate 校验持有者及 token 仍然有效，
+ * 租约到期后被其他进程重新获取的旧持有者因此不会再写入。
+ * 校验在 Redis 中完成，数据库不保存 token，校验与写入之间仍有很短的窗口
+ */
+@Component
+public class FlagRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(FlagRegistry.class);
+
+    // KEYS[1]=标志键 KEYS[2]=计数器 KEYS[3]=token 哈希 ARGV[1]=持有者 ARGV[2]=租约毫秒 ARGV[3]=标志名；返回 token，已被占用返回 0
+    private static final RedisScript<Long> ACQUIRE = new DefaultRedisScript<>(
+            "if not redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return 0 end " +
+            "local token = redis.call('incr', KEYS[2]) " +
+            "redis.call('hset', KEYS[3], ARGV[3], token) " +
+            "return token", Long.class);
+
+    // KEYS[1]=标志键 KEYS[2]=token 哈希 ARGV[1]=持有者(空表示不校验) ARGV[2]=标志名；返回 1 已释放，0 不存在，-1 持有者不匹配
+    private static final RedisScript<Long> RELEASE = new DefaultRedisScript<>(
+            "local v = redis.call('get', KEYS[1]) " +
+            "if not v then return 0 end " +
+            "if ARGV[1] ~= '' and v ~= ARGV[1] then return -1 end " +
+            "redis.call('hdel', KEYS[2], ARGV[2]) " +
+            "return redis.call('del', KEYS[1])", Long.class);
+
+    // KEYS[1]=标志键 KEYS[2]=token 哈希 ARGV[1]=持有者 ARGV[2]=标志名 ARGV[3]=token
+    private static final RedisScript<Long> VALIDATE = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] and redis.call('hget', KEYS[2], ARGV[2]) == ARGV[3] then return 1 end " +
+            "return 0", Long.class);
+
+    // KEYS[1]=标志键 ARGV[1]=持有者 ARGV[2]=租约毫秒
+    private static final RedisScript<Long> RENEW = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) end " +
+            "return 0", Long.class);
+
+    // 批量判断标志是否存在
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> HAS_MANY = new DefaultRedisScript<>(
+            "local r = {} " +
+            "for i, k in ipairs(KEYS) do r[i] = redis.call('exists', k) end " +
+            "return r", List.class);
+
+    private final StringRedisTemplate redisTemplate;
+
+    // 本进程持有的标志及其 token，用于续约及校验
+    private final Map<String, Long> held = new ConcurrentHashMap<>();
+
+    private final String owner = CommandExecutor.getHostname() + ":" + ProcessHandle.current().pid();
+
+    @Value("${addax.flag.prefix:flag:}")
+    private String prefix;
+
+    @Value("${addax.flag.lease-seconds:300}")
+    private long leaseSeconds;
+
+    @Value("${addax.flag.seq-key:flag-seq}")
+    private String seqKey;
+
+    @Value("${addax.flag.token-key:flag-token}")
+    private String tokenKey;
+
+    public FlagRegistry(StringRedisTemplate stringRedisTemplate) {
+        this.redisTemplate = stringRedisTemplate;
+    }
+
+    public String owner() {
+        return owner;
+    }
+
+    /**
+     * 获取标志
+     * @param flag 标志名
+     * @return 获取成功返回 fencing token(单调递增，大于 0)，标志已被占用时返回 0
+     */
+    public long acquire(String flag) {
+        Long token = redisTemplate.execute(ACQUIRE, List.of(key(flag), seqKey, tokenKey), owner, String.valueOf(leaseMillis()), flag);
+        if (token == null || token == 0) {
+            return 0;
+        }
+        held.put(flag, token);
+        return token;
+    }
+
+    /**
+     * 校验本进程获取标志时的 token 是否仍然有效，在受标志保护的写入之前调用
+     * @param flag 标志名
+     * @return 本进程仍持有标志且 token 未变化时返回 true；本进程没有获取该标志时返回 false
+     */
+    public boolean validate(String flag) {
+        Long token = held.get(flag);
+        return token != null && validate(flag, token);
+    }
+
+    /**
+     * 校验 token 是否仍然有效
+     * @param flag 标志名
+     * @param token 获取标志时返回的 token
+     * @return 本进程仍持有标志且 token 未变化时返回 true
+     */
+    public boolean validate(String flag, long token) {
+        Long rc = redisTemplate.execute(VALIDATE, List.of(key(flag), tokenKey), owner, flag, String.valueOf(token));
+        return rc != null && rc == 1;
+    }
+
+    /**
+     * 释放标志，本进程持有时校验持有者，否则强制释放（兼容 rfg rem 的语义）
+     * @param flag 标志名
+     * @return 是否释放成功
+     */
+    public boolean release(String flag) {
+        return release(flag, held.remove(flag) != null ? owner : "");
+    }
+
+    /**
+     * 按持有者释放标志
+     * @param flag 标志名
+     * @param holder 持有者，空字符串表示不校验
+     * @return 是否释放成功
+     */
+    public boolean release(String flag, String holder) {
+        Long rc = redisTemplate.execute(RELEASE, List.of(key(flag), tokenKey), holder, flag);
+        if (rc != null && rc < 0) {
+            logger.warn("flag {} is held by another process, release by {} ignored", flag, holder);
+        }
+        return rc != null && rc > 0;
+    }
+
+    public boolean has(String flag) {
+        return Boolean.TRUE.equals(redisTemplate.hasKey(key(flag)));
+    }
+
+    /**
+     * 一次往返判断多个标志是否被占用
+     * @param flags 标志名
+     * @return 标志名到是否占用的映射，保持入参顺序
+     */
+    public Map<String, Boolean> hasMany(Collection<String> flags) {
+        Map<String, Boolean> result = new LinkedHashMap<>();
+        if (flags.isEmpty()) {
+            return result;
+        }
+        List<String> keys = new ArrayList<>(flags.size());
+        flags.forEach(f -> keys.add(key(f)));
+        List<?> rs = redisTemplate.execute(HAS_MANY, keys);
+        int i = 0;
+        for (String flag : flags) {
+            Object v = rs == null ? null : rs.get(i++);
+            result.put(flag, v instanceof Number n && n.longValue() == 1);
+        }
+        return result;
+    }
+
+    /**
+     * 当前所有被占用的标志
+     * @return 标志名到持有者的映射
+     */
+    public Map<String, String> all() {
+        Map<String, String> result = new LinkedHashMap<>();
+        List<String> keys = RedisUtils.keys(prefix + "*");
+        List<String> values = RedisUtils.multiGet(keys);
+        for (int i = 0; i < keys.size(); i++) {
+            result.put(keys.get(i).substring(prefix.length()), values.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * 等待标志被释放，替代 rfg wtout
+     * @param flag 标志名
+     * @param timeoutSeconds 最长等待秒数，小于等于0表示一直等待
+     * @return 在超时前释放返回 true
+     */
+    public boolean awaitRelease(String flag, long timeoutSeconds) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        while (has(flag)) {
+            if (timeoutSeconds > 0 && System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(200);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 续约本进程持有的标志，进程异常退出后标志将在租约到期后自动失效
+     */
+    @Scheduled(fixedDelayString = "${addax.flag.renew-interval:60000}")
+    public void renew() {
+        String lease = String.valueOf(leaseMillis());
+        held.forEach((flag, token) -> {
+            Long rc = redisTemplate.execute(RENEW, List.of(key(flag)), owner, lease);
+            if (rc == null || rc == 0) {
+                logger.warn("lost flag {}", flag);
+                held.remove(flag, token);
+            }
+        });
+    }
+
+    private long leaseMillis() {
+        return TimeUnit.SECONDS.toMillis(leaseSeconds);
+    }
+
+    private String key(String flag) {
+        return prefix + flag;
+    }
+}
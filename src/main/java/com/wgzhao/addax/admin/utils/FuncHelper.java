@@ -1,14 +1,16 @@
 package com.wgzhao.addax.admin.utils;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Component;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 
 /**
  * Helper class that implements the functionality of Oracle functions
@@ -19,15 +21,37 @@ public class FuncHelper {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private TradeCalendar tradeCalendar;
+
+    @Autowired
+    private ParamSnapshot paramSnapshot;
+
+    @Autowired
+    private JobFileGenerator jobFileGenerator;
+
+    @Autowired
+    private Dispatcher dispatcher;
+
+    @Autowired
+    private PlanSchedule planSchedule;
+
+    @Value("${addax.plan.enabled:false}")
+    private boolean planWheelEnabled;
+
     /**
      * Implementation of getparam
-     * Returns parameter value from vw_imp_param table
+     * Returns parameter value from the vw_imp_param snapshot, falls back to the view on a miss
      *
      * @param dateKind  Parameter kind
      * @param paramSou  Parameter source
      * @return          Parameter value as string
      */
     public String getParam(String dateKind, String paramSou) {
+        String value = paramSnapshot.get(dateKind, paramSou);
+        if (value != null) {
+            return value;
+        }
         String sql = "SELECT param_value FROM vw_imp_param WHERE param_kind_0 = ? AND param_sou = ?";
         return jdbcTemplate.queryForObject(sql, String.class, dateKind, paramSou);
     }
@@ -104,20 +128,6 @@ public class FuncHelper {
             return 0;
         }
 
-        String sql = "WITH t_param AS " +
-                     "(SELECT CASE WHEN SUBSTR(param_kind_0, -1) = '0' THEN LOWER(SUBSTR(param_kind_0, 2, 1)) " +
-                     "ELSE SUBSTR(param_kind_0, 2, 1) END kind, param_value " +
-                     "FROM vw_imp_param WHERE param_sou = 'C' AND param_kind_0 IN " +
-                     "('TD', 'CW1', 'CM1', 'CQ1', 'CY1', 'CW0', 'CM0', 'CQ0', 'CY0')), " +
-                     "t_nextdate AS (SELECT init_date, " +
-                     "LEAD(init_date, ?) OVER(ORDER BY init_date) next_date " +
-                     "FROM vw_trade_date), " +
-                     "t_range AS (SELECT param_value start_dt, a.next_date end_dt " +
-                     "FROM t_param t INNER JOIN t_nextdate a ON a.init_date = t.param_value " +
-                     "WHERE kind = ?) " +
-                     "SELECT COUNT(1) FROM t_range WHERE " +
-                     "(SELECT param_value FROM t_param WHERE kind = 'D') BETWEEN start_dt AND end_dt";
-
         String strfreq = freq.substring(0, 1);
         int noffset = 0;
         if (freq.length() > 1) {
@@ -127,12 +137,42 @@ public class FuncHelper {
             }
         }
 
-        return jdbcTemplate.queryForObject(sql, Integer.class, noffset, strfreq);
+        // Period start dates come from the parameter snapshot, the trade-date window from the in-memory calendar
+        String todayValue = paramSnapshot.get("TD", "C");
+        String startValue = paramSnapshot.get(periodStartKind(strfreq), "C");
+        if (todayValue == null || startValue == null) {
+            return 0;
+        }
+        try {
+            int today = Integer.parseInt(todayValue.trim());
+            int start = Integer.parseInt(startValue.trim());
+            // Same as LEAD(init_date, n) over vw_trade_date: the start date itself must be a trade day
+            if (!tradeCalendar.isTradeDay(start)) {
+                return 0;
+            }
+            int end = noffset == 0 ? start : tradeCalendar.shift(start, noffset);
+            return end != 0 && today >= start && today <= end ? 1 : 0;
+        }
+        catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // Same mapping as fn_imp_freqchk: D is the trade date, W/M/Q/Y the CW1..CY1 and w/m/q/y the CW0..CY0 period starts
+    private static String periodStartKind(String freq) {
+        if ("D".equals(freq)) {
+            return "TD";
+        }
+        String upper = freq.toUpperCase();
+        if (!"WMQY".contains(upper)) {
+            return null;
+        }
+        return "C" + upper + (freq.equals(upper) ? "1" : "0");
     }
 
     /**
      * Implementation of fn_imp_param_replace
-     * Replaces parameters in text
+     * Replaces parameters in text in a single pass, using the compiled template of the parameter snapshot
      *
      * @param comText   Input text
      * @param paramSou  Parameter source
@@ -141,25 +181,45 @@ public class FuncHelper {
     public String fnImpParamReplace(String comText, String paramSou) {
         if (comText == null) return null;
 
-        String result = comText;
-
-        // Replace parameters from vw_imp_param
-        String sql = "SELECT param_kind, param_value FROM vw_imp_param WHERE param_sou = ? AND param_kind IS NOT NULL";
-        jdbcTemplate.query(sql, (rs) -> {
-            String paramKind = rs.getString("param_kind");
-            String paramValue = rs.getString("param_value");
-            result.replace(paramKind, paramValue);
-        }, paramSou);
-
-        // Replace special parameters
-        SimpleDateFormat fullDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        SimpleDateFormat shortDateFormat = new SimpleDateFormat("yyyyMMdd");
-        Date now = new Date();
-
-        return result
-            .replace("${NOW}", fullDateFormat.format(now))
-            .replace("${NO}", shortDateFormat.format(now))
-            .replace("${UUID}", UUID.randomUUID().toString().replace("-", "").toUpperCase());
+        return paramSnapshot.render(comText, paramSou);
+    }
+
+    /**
+     * Rendered command text
+     *
+     * @param text    text with all parameters replaced, written to the command file
+     * @param stable  text with only the static parameters replaced, ${NOW}/${NO}/${UUID} are kept,
+     *                so it only changes when the command or a parameter value changes
+     */
+    public record ComText(String text, String stable) {
+    }
+
+    /**
+     * Batch implementation of fn_imp_value('com_text') for the pending commands of an SP
+     * Loads all command texts with one query and renders them against the parameter snapshot.
+     * Commands of ETL tasks (sp_id is a tid) are generated from the source metadata and are not included.
+     *
+     * @param spId  SP id
+     * @return      com_id to rendered command text
+     */
+    public Map<String, ComText> renderComTexts(String spId) {
+        String sql = """
+                select t.com_id, coalesce(a.param_sou,'C') as sou, t.com_text
+                  from stg01.tb_imp_sp_com t
+                  left join stg01.tb_imp_sp a on a.sp_id = t.sp_id
+                 where t.sp_id = ? and t.flag = 'N'
+                   and not exists (select 1 from stg01.tb_imp_etl b where b.tid = t.sp_id)
+                """;
+        Map<String, ComText> result = new HashMap<>();
+        ParamSnapshot.Snapshot snapshot = paramSnapshot.current();
+        jdbcTemplate.query(sql, (RowCallbackHandler) rs -> {
+            String text = rs.getString("com_text");
+            if (text != null) {
+                ParamTemplate template = snapshot.template(rs.getString("sou"));
+                result.put(rs.getString("com_id"), new ComText(template.render(text), template.renderStatic(text)));
+            }
+        }, spId);
+        return result;
     }
 
     /**
@@ -232,7 +292,7 @@ public class FuncHelper {
 
     /**
      * Implementation of fn_imp_timechk
-     * Checks if current time matches the time condition
+     * Checks if current time matches the time condition, using the per-day minute bitmap compiled by PlanSchedule
      *
      * @param currTime  Current time
      * @param fixed     Fixed time
@@ -244,55 +304,10 @@ public class FuncHelper {
     public int fnImpTimechk(Date currTime, String fixed, Integer interval, String range, String exit) {
         if (currTime == null) return 0;
 
-        String sql1 = "SELECT dt_full FROM vw_imp_date WHERE dt = ?";
-        String sql2 = "SELECT dt_full FROM vw_imp_date WHERE dt = ?";
-
-        int range1;
-        int range2;
-
-        if (range != null) {
-            String[] ranges = range.split("-");
-            String startRange = ranges.length > 0 ? ranges[0] : "0";
-            String endRange = ranges.length > 1 ? ranges[1] : "2359";
-
-            range1 = jdbcTemplate.queryForObject(sql1, Integer.class, startRange);
-            range2 = jdbcTemplate.queryForObject(sql2, Integer.class, endRange);
-        } else {
-            range1 = 0;
-            range2 = 2359;
-        }
-
         SimpleDateFormat timeFormat = new SimpleDateFormat("HHmm");
         int currentTime = Integer.parseInt(timeFormat.format(currTime));
 
-        // Check interval-based condition
-        if (interval != null && interval > 0) {
-            // This is a simplified version - the full implementation would need complex time calculations
-            if ((range1 < range2 && currentTime >= range1 && currentTime <= range2) ||
-                (range1 > range2 && (currentTime >= range1 || currentTime <= range2))) {
-
-                // Check if current minutes are divisible by interval
-                SimpleDateFormat minutesFormat = new SimpleDateFormat("HH:mm");
-                String[] timeParts = minutesFormat.format(currTime).split(":");
-                int totalMinutes = Integer.parseInt(timeParts[0]) * 60 + Integer.parseInt(timeParts[1]);
-
-                if (totalMinutes % interval == 0) {
-                    return 1;
-                }
-            }
-        }
-
-        // Check fixed time condition
-        if (fixed != null && !fixed.isEmpty() && (currentTime == 0 || currentTime > 23)) {
-            String formattedTime = String.valueOf(currentTime);
-            formattedTime = formattedTime.replaceAll("^0+|00$", "0");
-
-            if (("," + fixed + ",").contains("," + formattedTime + ",")) {
-                return 1;
-            }
-        }
-
-        return 0;
+        return planSchedule.matches(currentTime / 100 * 60 + currentTime % 100, fixed, interval, range) ? 1 : 0;
     }
 
     /**
@@ -321,6 +336,8 @@ public class FuncHelper {
                     return handleSpRun();
                 case "COM_TEXT":
                     return handleComText(spId);
+                case "JOBFILE":
+                    return handleJobfile(spId);
                 // 其他case分支...
                 default:
                     throw new IllegalArgumentException("Unsupported i_kind: " + kind);
@@ -340,9 +357,11 @@ public class FuncHelper {
     }
 
     private List<Map<String, Object>> handlePlanRun() {
-        String sql = "WITH t_sp AS (" +
+        // Plans are fired by the timer wheel in PlanSchedulerService when it is enabled, only judges are returned here
+        String plans = planWheelEnabled ? "" :
                 "  SELECT 'plan|'||pn_id sp_id FROM stg01.vw_imp_plan WHERE brun=1 AND bpntype=1 " +
-                "  UNION ALL " +
+                "  UNION ALL ";
+        String sql = "WITH t_sp AS (" + plans +
                 "  SELECT 'judge|'||DECODE(bstart,-1,'status_',0,'start_')||sysid " +
                 "  FROM stg01.vw_imp_etl_judge WHERE bstart IN (-1,0) AND px=1" +
                 ") SELECT LISTAGG(sp_id, CHR(10)) WITHIN GROUP (ORDER BY 1) FROM t_sp";
@@ -351,32 +370,7 @@ public class FuncHelper {
     }
 
     private List<Map<String, Object>> handleSpRun()  {
-        String sql = """
-                with t_sp as
-                     (select 'sp' kind, sp_id, 'sp'||sp_owner dest_sys, runtime, brun
-                        from vw_imp_sp
-                       where brun = 1 or flag = 'R'
-                      union all
-                      select 'etl', tid, sysid, runtime+runtime_add, brun
-                        from vw_imp_etl
-                       where brun = 1 or flag = 'R'
-                      union all
-                      select 'ds', ds_id, 'ds'||dest_sysid, nvl(runtime,999), brun
-                        from vw_imp_ds2
-                       where brun = 1 or flag = 'R')
-                    select replace(wm_concat(sp_id),',',chr(10))
-                           into o_return
-                      from (select decode(kind,'etl','sp',kind)||'|'||sp_id sp_id,
-                                   brun * row_number() over(order by brun , runtime + 20000 / sys_px desc) px
-                              from (select kind , sp_id , dest_sys , brun , runtime ,
-                                           row_number() over(partition by kind, dest_sys order by brun , runtime desc) sys_px 
-                                      from t_sp)
-                             where sys_px <= nvl((select db_paral from stg01.vw_imp_system
-                                                   where sysid = dest_sys and sys_kind='etl'),
-                                                 8))
-                     where px between 1 and 100 ;
-                """;
-        return jdbcTemplate.queryForList(sql);
+        return List.of(Map.of("sp_run", String.join("\n", dispatcher.dispatch())));
     }
 
     private List<Map<String, Object>> handleComText(String spId)  {
@@ -411,23 +405,9 @@ public class FuncHelper {
 
     }
 
-    private void handleJobfile(String spId) {
-        String sql = """
-                select a.jobfile,a.jobkind
-                     from stg01.vw_imp_etl t
-                     inner join stg01.vw_imp_jobfile a on a.jobkind=t.jobkind
-                     where t.tid = ?
-                """;
-        Map<String, Object> map = jdbcTemplate.queryForMap(sql, spId);
-        String jobfile = map.get("jobfile").toString();
-        String jobkind = map.get("jobkind").toString();
-        sql = """
-            select jobkind,data_type,column_name,bquota,col_name,col_type,col_idx
-            from stg01.vw_imp_etl_cols
-            where tid = ?
-            order by col_idx
-            """;
-        List<Map> columns = jdbcTemplate.queryForList(sql, Map.class, spId);
+    private List<Map<String, Object>> handleJobfile(String spId) {
+        String jobfile = jobFileGenerator.render(spId);
+        return jobfile == null ? List.of() : List.of(Map.of("jobfile", jobfile));
     }
 
     private String handleDestPart(String spId)
@@ -0,0 +1,331 @@
+package com.wgzhao.addax.admin.utils;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Hive DDL 网关
+ * 替代 hive -e/-f 及 mysql 命令行：DDL 通过 HiveServer2 连接池执行，按表分组后并行提交，
+ * 同一张表的语句保持原有顺序并在同一个会话中执行；元数据库（MySQL）的更新在同一个连接上按顺序执行。
+ * Hive JDBC 驱动不随应用打包，需要通过 loader.path 等方式放到运行时 classpath 中
+ */
+@Component
+public class HiveGateway {
+    private static final Logger logger = LoggerFactory.getLogger(HiveGateway.class);
+
+    // 能识别出目标表的 DDL，不同表之间互不依赖
+    private static final Pattern TABLE_DDL = Pattern.compile(
+            "^(?:create\\s+(?:external\\s+)?table(?:\\s+if\\s+not\\s+exists)?|alter\\s+table|drop\\s+table(?:\\s+if\\s+exists)?"
+                    + "|msck\\s+repair\\s+table|analyze\\s+table|truncate\\s+table)\\s+([\\w.`]+)",
+            Pattern.CASE_INSENSITIVE);
+
+    // 重命名会改变后续语句引用的表名，包含重命名的脚本整体按原有顺序执行
+    private static final Pattern RENAME = Pattern.compile("\\brename\\s+to\\b", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern SESSION_STMT = Pattern.compile("^(?:set|use|add\\s+jar)\\s+.*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private volatile HikariDataSource hivePool;
+
+    private volatile HikariDataSource metastorePool;
+
+    private volatile Semaphore permits;
+
+    @Value("${addax.hive.url:}")
+    private String url;
+
+    @Value("${addax.hive.user:hive}")
+    private String user;
+
+    @Value("${addax.hive.password:}")
+    private String password;
+
+    @Value("${addax.hive.driver-class-name:org.apache.hive.jdbc.HiveDriver}")
+    private String driverClassName;
+
+    @Value("${addax.hive.pool-size:4}")
+    private int poolSize;
+
+    @Value("${addax.hive.parallelism:4}")
+    private int parallelism;
+
+    @Value("${addax.hive.batch-size:50}")
+    private int batchSize;
+
+    @Value("${hive.metastore.jdbc.url}")
+    private String metastoreUrl;
+
+    @Value("${hive.metastore.jdbc.username}")
+    private String metastoreUser;
+
+    @Value("${hive.metastore.jdbc.password}")
+    private String metastorePassword;
+
+    @Value("${hive.metastore.jdbc.driver-class-name}")
+    private String metastoreDriverClassName;
+
+    /**
+     * DDL 执行结果
+     * @param total 语句总数
+     * @param failures 失败的语句及原因，同一张表在失败语句之后的语句不再执行，也记录在内
+     */
+    public record Result(int total, List<String> failures) {
+        public boolean ok() {
+            return failures.isEmpty();
+        }
+    }
+
+    /**
+     * 是否配置了 HiveServer2 地址，未配置时调用方回退到命令行
+     */
+    public boolean isEnabled() {
+        return !url.isEmpty();
+    }
+
+    /**
+     * 执行 DDL 脚本
+     * 脚本中的 set/use 语句作为会话参数在每个会话开始时执行；
+     * 其余语句都能识别出目标表时按表分组，每 batch-size 条语句组成一个会话，最多 parallelism 个会话同时执行；
+     * 存在无法识别的语句（如 insert）或者重命名语句时，为了不破坏依赖关系，整个脚本按原有顺序在一个会话中执行
+     * @param script 脚本内容，语句之间以分号分隔
+     * @return 执行结果
+     */
+    public Result runDdl(String script) {
+        List<String> session = new ArrayList<>();
+        List<String> ordered = new ArrayList<>();
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        boolean sequential = false;
+        for (String sql : PrestoGateway.splitStatements(script)) {
+            if (SESSION_STMT.matcher(sql).matches()) {
+                session.add(sql);
+                continue;
+            }
+            ordered.add(sql);
+            Matcher m = TABLE_DDL.matcher(sql);
+            String table = m.find() ? m.group(1).replace("`", "").toLowerCase(Locale.ROOT) : null;
+            if (table == null || RENAME.matcher(sql).find()) {
+                sequential = true;
+            }
+            groups.computeIfAbsent(table == null ? "" : table, k -> new ArrayList<>()).add(sql);
+        }
+        int total = ordered.size();
+        if (total == 0) {
+            return new Result(0, List.of());
+        }
+
+        List<List<List<String>>> chunks = new ArrayList<>();
+        if (sequential) {
+            chunks.add(List.of(ordered));
+        }
+        else {
+            List<List<String>> chunk = new ArrayList<>();
+            int size = 0;
+            for (List<String> group : groups.values()) {
+                if (size > 0 && size + group.size() > batchSize) {
+                    chunks.add(chunk);
+                    chunk = new ArrayList<>();
+                    size = 0;
+                }
+                chunk.add(group);
+                size += group.size();
+            }
+            chunks.add(chunk);
+        }
+
+        logger.info("run {} hive statements in {} session(s)", total, chunks.size());
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        Semaphore limit = permits();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (List<List<String>> chunk : chunks) {
+                executor.submit(() -> {
+                    limit.acquireUninterruptibly();
+                    try {
+                        runChunk(session, chunk, failures);
+                    }
+                    finally {
+                        limit.release();
+                    }
+                });
+            }
+        }
+        return new Result(total, List.copyOf(failures));
+    }
+
+    private void runChunk(List<String> session, List<List<String>> chunk, List<String> failures) {
+        try (Connection conn = hivePool().getConnection(); Statement stmt = conn.createStatement()) {
+            for (String sql : session) {
+                stmt.execute(sql);
+            }
+            for (List<String> group : chunk) {
+                String failed = null;
+                for (String sql : group) {
+                    if (failed != null) {
+                        failures.add(sql + " => skipped after: " + failed);
+                        continue;
+                    }
+                    try {
+                        logger.debug("[hive] {}", sql);
+                        stmt.execute(sql);
+                    }
+                    catch (SQLException e) {
+                        failed = e.getMessage();
+                        failures.add(sql + " => " + failed);
+                    }
+                }
+            }
+        }
+        catch (SQLException e) {
+            // 会话建立失败，本会话的语句全部记为失败
+            for (List<String> group : chunk) {
+                for (String sql : group) {
+                    failures.add(sql + " => " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 执行查询，返回每一行的第一列，用于 show tables 等
+     * @param sql 查询语句
+     * @return 结果列表
+     */
+    public List<String> queryForLines(String sql) throws SQLException {
+        List<String> lines = new ArrayList<>();
+        try (Connection conn = hivePool().getConnection(); Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                lines.add(rs.getString(1));
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * 按顺序批量执行元数据库（MySQL）更新，一次往返提交整个脚本，遇到失败的语句即停止
+     * 各语句自动提交，MySQL 的 DDL 本身也会隐式提交，因此失败时之前的语句不会回滚，
+     * 异常信息中给出失败语句的序号及已执行的条数
+     * @param script 脚本内容，语句之间以分号分隔
+     * @return 执行的语句条数
+     */
+    public int updateMetastore(String script) throws SQLException {
+        List<String> statements = PrestoGateway.splitStatements(script);
+        if (statements.isEmpty()) {
+            return 0;
+        }
+        try (Connection conn = metastorePool().getConnection(); Statement stmt = conn.createStatement()) {
+            for (String sql : statements) {
+                stmt.addBatch(sql);
+            }
+            try {
+                stmt.executeBatch();
+            }
+            catch (BatchUpdateException e) {
+                // 驱动在失败后停止时只返回之前语句的结果，继续执行时失败的语句标记为 EXECUTE_FAILED
+                int[] counts = e.getUpdateCounts() == null ? new int[0] : e.getUpdateCounts();
+                int failed = counts.length;
+                int applied = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] == Statement.EXECUTE_FAILED) {
+                        failed = Math.min(failed, i);
+                    }
+                    else {
+                        applied++;
+                    }
+                }
+                String sql = failed < statements.size() ? statements.get(failed) : "";
+                throw new SQLException("statement " + (failed + 1) + "/" + statements.size() + " failed, "
+                        + applied + " applied: " + sql + " => " + e.getMessage(), e.getSQLState(), e);
+            }
+        }
+        logger.info("applied {} metastore statements", statements.size());
+        return statements.size();
+    }
+
+    private Semaphore permits() {
+        if (permits == null) {
+            synchronized (this) {
+                if (permits == null) {
+                    permits = new Semaphore(Math.max(1, parallelism));
+                }
+            }
+        }
+        return permits;
+    }
+
+    private HikariDataSource hivePool() {
+        if (hivePool == null) {
+            synchronized (this) {
+                if (hivePool == null) {
+                    HikariConfig config = new HikariConfig();
+                    config.setPoolName("hive");
+                    config.setJdbcUrl(url);
+                    config.setUsername(user);
+                    if (!password.isEmpty()) {
+                        config.setPassword(password);
+                    }
+                    config.setDriverClassName(driverClassName);
+                    // HiveServer2 的驱动不支持 isValid
+                    config.setConnectionTestQuery("select 1");
+                    config.setMaximumPoolSize(Math.max(poolSize, 1));
+                    config.setMinimumIdle(0);
+                    hivePool = new HikariDataSource(config);
+                }
+            }
+        }
+        return hivePool;
+    }
+
+    private HikariDataSource metastorePool() {
+        if (metastorePool == null) {
+            synchronized (this) {
+                if (metastorePool == null) {
+                    HikariConfig config = new HikariConfig();
+                    config.setPoolName("hive-metastore");
+                    config.setJdbcUrl(metastoreUrl);
+                    config.setUsername(metastoreUser);
+                    config.setPassword(metastorePassword);
+                    config.setDriverClassName(metastoreDriverClassName);
+                    config.setMaximumPoolSize(2);
+                    config.setMinimumIdle(0);
+                    if (metastoreUrl.startsWith("jdbc:mysql:")) {
+                        // 批量执行时遇到失败即停止，与逐条执行一致
+                        config.addDataSourceProperty("continueBatchOnError", "false");
+                    }
+                    metastorePool = new HikariDataSource(config);
+                }
+            }
+        }
+        return metastorePool;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (hivePool != null) {
+            hivePool.close();
+        }
+        if (metastorePool != null) {
+            metastorePool.close();
+        }
+    }
+}
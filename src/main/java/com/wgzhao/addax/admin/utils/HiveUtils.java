@@ -0,0 +1,76 @@
+package com.wgzhao.addax.admin.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Hive 操作工具类
+ * Spring 容器启动后委托给 HiveGateway，未配置 addax.hive.url 时 DDL 回退到 hive -f 命令行；
+ * 元数据库的连接信息只来自 hive.metastore.jdbc.* 配置，没有 Spring 容器时不做更新
+ */
+public class HiveUtils {
+
+    /**
+     * 是否配置了 HiveServer2 地址
+     * @return 未配置时调用方可以回退到原有的命令行
+     */
+    public static boolean isEnabled() {
+        HiveGateway gateway = SpringContextUtil.getBean(HiveGateway.class);
+        return gateway != null && gateway.isEnabled();
+    }
+
+    /**
+     * 执行 Hive DDL 脚本
+     * @param script 脚本内容，语句之间以分号分隔
+     * @return 是否全部执行成功
+     */
+    public static boolean runDdl(String script) {
+        HiveGateway gateway = SpringContextUtil.getBean(HiveGateway.class);
+        if (gateway != null && gateway.isEnabled()) {
+            HiveGateway.Result result = gateway.runDdl(script);
+            result.failures().forEach(f -> System.err.println("hive执行失败:" + f));
+            System.out.println("hive执行完毕，共" + result.total() + "条，失败" + result.failures().size() + "条");
+            return result.ok();
+        }
+
+        Path file = null;
+        try {
+            file = Files.createTempFile("hive_", ".sql");
+            Files.writeString(file, script, StandardCharsets.UTF_8);
+            return ProcessRunner.of("hive -f " + file).onStdout(System.out::println).onStderr(System.err::println).run().exitCode() == 0;
+        }
+        catch (IOException e) {
+            System.err.println("hive执行失败:" + e.getMessage());
+            return false;
+        }
+        finally {
+            if (file != null) {
+                file.toFile().delete();
+            }
+        }
+    }
+
+    /**
+     * 按顺序执行 Hive 元数据库（MySQL）更新，遇到失败的语句即停止
+     * 各语句自动提交，失败时之前的语句不会回滚
+     * @param script 脚本内容，语句之间以分号分隔
+     * @return 是否全部执行成功
+     */
+    public static boolean updateMetastore(String script) {
+        HiveGateway gateway = SpringContextUtil.getBean(HiveGateway.class);
+        if (gateway == null) {
+            System.err.println("元数据库更新失败:未获取到 hive.metastore.jdbc 连接配置");
+            return false;
+        }
+        try {
+            System.out.println("元数据库更新" + gateway.updateMetastore(script) + "条");
+            return true;
+        }
+        catch (Exception e) {
+            System.err.println("元数据库更新失败:" + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.wgzhao.addax.admin.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 采集 JSON 生成器，fn_imp_value('jobfile') 的 Java 实现
+ * 按 tid 缓存 vw_imp_etl_cols 的字段元数据及生成的 JSON，只有 bupdate='N'（结构已稳定）的表才缓存，
+ * 之后每次执行采集任务时生成 JSON(fn_imp_value('jobfile')) 直接取缓存。
+ * 表结构变化时 bupdate 先被置为 'n'，此时读取到的 bupdate 不是 'N' 或者 jobkind 变化即只丢弃该表的缓存并重新读取；
+ * 同一批待更新的表只用一次查询取出所有需要重新读取的字段，在内存中完成拼接
+ * <p>
+ * 模板按 jobkind 缓存 vw_imp_jobfile，切日（updt_param）及 sp_imp_alone('bupdate','N') 时调用 invalidateTemplates()
+ * 重新读取模板并丢弃已生成的 JSON，字段缓存保留；其他时间修改模板后需要手工调用
+ */
+@Component
+public class JobFileGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(JobFileGenerator.class);
+
+    private static final String COLS_SQL = """
+            select c.tid, c.jobkind, c.data_type, c.column_name, c.bquota, c.col_name, c.col_type, c.col_idx
+              from stg01.vw_imp_etl_cols c
+             where c.tid in (select t.tid from stg01.vw_imp_etl t where %s)
+             order by c.tid, c.col_idx
+            """;
+
+    record Column(String jobkind, String dataType, String columnName, String bquota, String colName, String colType, int colIdx) {
+    }
+
+    // json 为按 templates 生成的结果，模板重新读取后不再使用
+    private record Entry(String jobkind, List<Column> columns, String json, Map<String, String> templates) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final Map<String, Entry> columns = new ConcurrentHashMap<>();
+
+    private volatile Map<String, String> templates;
+
+    public JobFileGenerator(@Qualifier("oracleJdbcTemplate") JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 生成单个采集任务的 JSON
+     * @param tid 采集任务编号
+     * @return JSON 模板替换字段后的内容，任务不存在或者没有模板时返回 null
+     */
+    public String render(String tid) {
+        return renderWhere("t.tid = ?", tid).get(tid);
+    }
+
+    /**
+     * 批量生成所有待更新（bupdate='n'）采集任务的 JSON，供 sp_imp_alone('bupdate','N') 使用
+     * @return tid 到 JSON 的映射
+     */
+    public Map<String, String> renderPending() {
+        return renderWhere("t.bupdate = 'n'");
+    }
+
+    /**
+     * 清除指定任务的字段缓存
+     */
+    public void invalidate(String tid) {
+        columns.remove(tid);
+    }
+
+    /**
+     * 重新读取模板，已生成的 JSON 随之丢弃，字段缓存保留
+     */
+    public void invalidateTemplates() {
+        templates = null;
+    }
+
+    /**
+     * 清除全部字段及模板缓存
+     */
+    public void invalidate() {
+        columns.clear();
+        templates = null;
+    }
+
+    private Map<String, String> renderWhere(String cond, Object... args) {
+        Map<String, String[]> tasks = new LinkedHashMap<>();
+        jdbcTemplate.query("select t.tid, t.jobkind, t.bupdate from stg01.vw_imp_etl t where " + cond,
+                (RowCallbackHandler) rs -> tasks.put(rs.getString(1), new String[] {rs.getString(2), rs.getString(3)}), args);
+        if (tasks.isEmpty()) {
+            return Map.of();
+        }
+
+        // 缓存缺失、结构待更新或者 jobkind 已变化的表，统一重新读取字段
+        Map<String, Entry> cached = new HashMap<>();
+        Set<String> stale = new HashSet<>();
+        tasks.forEach((tid, t) -> {
+            Entry e = columns.get(tid);
+            if (e == null || !"N".equals(t[1]) || !e.jobkind().equals(t[0])) {
+                stale.add(tid);
+            }
+            else {
+                cached.put(tid, e);
+            }
+        });
+        Map<String, List<Column>> loaded = stale.isEmpty() ? Map.of() : loadColumns(cond, args, stale);
+
+        Map<String, String> tpl = templates();
+        Map<String, String> result = new LinkedHashMap<>();
+        tasks.forEach((tid, t) -> {
+            String jobkind = t[0];
+            String jobfile = jobkind == null ? null : tpl.get(jobkind);
+            if (jobfile == null) {
+                return;
+            }
+            Entry e = cached.get(tid);
+            if (e != null && e.templates() == tpl) {
+                result.put(tid, e.json());
+                return;
+            }
+            List<Column> cols = e != null ? e.columns() : loaded.getOrDefault(tid, List.of());
+            String json = render(jobfile, jobkind, cols);
+            if ("N".equals(t[1])) {
+                columns.put(tid, new Entry(jobkind, cols, json, tpl));
+            }
+            else {
+                columns.remove(tid);
+            }
+            result.put(tid, json);
+        });
+        logger.debug("rendered {} job files, {} column sets reloaded", result.size(), stale.size());
+        return result;
+    }
+
+    private Map<String, List<Column>> loadColumns(String cond, Object[] args, Set<String> wanted) {
+        Map<String, List<Column>> loaded = new HashMap<>();
+        jdbcTemplate.query(String.format(COLS_SQL, cond), (RowCallbackHandler) rs -> {
+            String tid = rs.getString(1);
+            if (wanted.contains(tid)) {
+                loaded.computeIfAbsent(tid, k -> new ArrayList<>()).add(new Column(rs.getString(2), rs.getString(3),
+                        rs.getString(4), rs.getString(5), rs.getString(6), rs.getString(7), rs.getInt(8)));
+            }
+        }, args);
+        return loaded;
+    }
+
+    private Map<String, String> templates() {
+        Map<String, String> t = templates;
+        if (t == null) {
+            Map<String, String> loaded = new HashMap<>();
+            jdbcTemplate.query("select jobkind, jobfile from stg01.vw_imp_jobfile",
+                    (RowCallbackHandler) rs -> loaded.put(rs.getString(1), rs.getString(2)));
+            t = Map.copyOf(loaded);
+            templates = t;
+        }
+        return t;
+    }
+
+    /**
+     * 按模板拼接字段，与 fn_imp_value('jobfile') 的输出一致
+     */
+    static String render(String jobfile, String jobkind, List<Column> cols) {
+        StringBuilder souCols = new StringBuilder();
+        StringBuilder hdpCols = new StringBuilder();
+        for (Column c : cols) {
+            souCols.append('"').append(columnExpr(c)).append("\",");
+            String kind = c.jobkind() == null ? "" : c.jobkind();
+            if (kind.endsWith("H")) {
+                hdpCols.append("{\"name\":\"").append(c.colName() == null ? "" : c.colName().toLowerCase())
+                        .append("\",\"type\":\"").append(nvl(c.colType())).append("\"},");
+            }
+            else if (kind.startsWith("H")) {
+                hdpCols.append("{\"index\":").append(c.colIdx()).append(",\"type\":\"").append(hiveType(c.colType())).append("\"},");
+            }
+        }
+        String sou = stripComma(jobkind.startsWith("H") ? hdpCols : souCols);
+        String tag = stripComma(jobkind.endsWith("H") ? hdpCols : souCols);
+        String out = jobfile.replace("${sou_col}", sou).replace("${tag_col}", tag);
+
+        // dbf 文件采集，源端按下标读取
+        if ("D2H".equals(jobkind)) {
+            StringBuilder dbf = new StringBuilder();
+            for (Column c : cols) {
+                if ("D2H".equals(c.jobkind()) && !List.of("dw_clt_date", "modifier_no", "dw_trade_date").contains(c.colName())) {
+                    dbf.append("{\"index\":").append(c.colIdx()).append(", \"type\":\"string\"},");
+                }
+            }
+            dbf.append("{\"value\":\"${NOW}\",\"type\":\"string\"},{\"value\":\"ZD\",\"type\":\"string\"},{\"value\":\"${TD}\",\"type\":\"long\"}");
+            out = out.replace("${col}", dbf);
+        }
+        return out;
+    }
+
+    // 源端查询字段，PostgreSQL 需要显式类型
+    private static String columnExpr(Column c) {
+        String kind = c.jobkind() == null ? "" : c.jobkind();
+        boolean pg = kind.startsWith("P");
+        String name = c.colName() == null ? "" : c.colName().toUpperCase();
+        return switch (name) {
+            case "DW_CLT_DATE" -> "'${NOW}'" + (pg ? "::varchar" : "");
+            case "MODIFIER_NO" -> "'${modifier_no}'" + (pg ? "::varchar" : "");
+            case "DW_TRADE_DATE" -> "${TD}" + (pg ? "::int" : "");
+            default -> {
+                if ("ROWID".equals(c.dataType())) {
+                    yield "rowidtochar(" + c.columnName() + ")";
+                }
+                if (c.columnName() == null && pg) {
+                    yield "null::varchar";
+                }
+                if ("1".equals(c.bquota())) {
+                    // 关键字字段加引号
+                    yield kind.startsWith("M") ? "`" + c.columnName() + "`" : "\\\"" + c.columnName() + "\\\"";
+                }
+                yield c.columnName() == null ? "null" : c.columnName();
+            }
+        };
+    }
+
+    private static String hiveType(String colType) {
+        if ("decimal".equals(colType)) {
+            return "double";
+        }
+        if ("varchar".equals(colType) || "char".equals(colType)) {
+            return "string";
+        }
+        return nvl(colType);
+    }
+
+    private static String nvl(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static String stripComma(StringBuilder sb) {
+        int n = sb.length();
+        return n > 0 && sb.charAt(n - 1) == ',' ? sb.substring(0, n - 1) : sb.toString();
+    }
+}
@@ -0,0 +1,169 @@
+package com.wgzhao.addax.admin.utils;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 调度角色的主备选举
+ * 主节点持有一个短租约的 Redis 键，值为 "令牌|节点"，每次当选时令牌单调递增；
+ * 主节点定时续约，续约失败即放弃主角色，备节点在租约到期后的下一次检查中接管。
+ * 当选时记录上一任主节点，回调中据此清理其遗留的标志、队列号及运行中的任务。
+ * <p>
+ * 令牌只用于写入前的检查(fence)，Oracle 的写入不携带也不校验令牌，因此不是严格意义上的 fencing：
+ * 检查通过后进程暂停超过租约时长，旧主节点仍可能在新主节点当选后写入一次
+ */
+@Component
+public class LeaderElection {
+    private static final Logger logger = LoggerFactory.getLogger(LeaderElection.class);
+
+    // KEYS=leader,fence,last ARGV[1]=节点 ARGV[2]=租约毫秒；返回 {令牌, 上一任节点}，已有主节点时令牌为 0
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> ACQUIRE = new DefaultRedisScript<>(
+            "if redis.call('exists', KEYS[1]) == 1 then return {0, ''} end " +
+            "local token = redis.call('incr', KEYS[2]) " +
+            "redis.call('set', KEYS[1], token .. '|' .. ARGV[1], 'PX', ARGV[2]) " +
+            "local last = redis.call('get', KEYS[3]) or '' " +
+            "redis.call('set', KEYS[3], ARGV[1]) " +
+            "return {token, last}", List.class);
+
+    // KEYS=leader ARGV[1]=令牌 ARGV[2]=租约毫秒
+    private static final RedisScript<Long> RENEW = new DefaultRedisScript<>(
+            "local v = redis.call('get', KEYS[1]) " +
+            "if v and string.match(v, '^%d+') == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) end " +
+            "return 0", Long.class);
+
+    // KEYS=leader ARGV[1]=令牌
+    private static final RedisScript<Long> RELEASE = new DefaultRedisScript<>(
+            "local v = redis.call('get', KEYS[1]) " +
+            "if v and string.match(v, '^%d+') == ARGV[1] then return redis.call('del', KEYS[1]) end " +
+            "return 0", Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final String node = CommandExecutor.getHostname() + ":" + ProcessHandle.current().pid();
+
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
+    // 当前持有的令牌，0 表示不是主节点
+    private volatile long token;
+
+    @Value("${addax.leader.enabled:false}")
+    private boolean enabled;
+
+    @Value("${addax.leader.key:leader:scheduler}")
+    private String key;
+
+    @Value("${addax.leader.lease-seconds:10}")
+    private long leaseSeconds;
+
+    public LeaderElection(StringRedisTemplate stringRedisTemplate) {
+        this.redisTemplate = stringRedisTemplate;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 是否为主节点，未开启选举时所有节点都视为主节点
+     */
+    public boolean isLeader() {
+        return !enabled || token > 0;
+    }
+
+    public long token() {
+        return token;
+    }
+
+    public String node() {
+        return node;
+    }
+
+    /**
+     * 写入前校验令牌仍然有效，避免失去主角色后继续写入。
+     * 只是检查后再写入，检查与写入之间不是原子的，写入本身不校验令牌
+     * @return 令牌有效或者未开启选举时返回 true
+     */
+    public boolean fence() {
+        if (!enabled) {
+            return true;
+        }
+        long t = token;
+        String v = redisTemplate.opsForValue().get(key);
+        return t > 0 && v != null && v.startsWith(t + "|");
+    }
+
+    /**
+     * 注册当选回调，参数为上一任主节点，首次当选时为空字符串
+     */
+    public void addListener(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    @Scheduled(fixedDelayString = "${addax.leader.renew-interval:2000}")
+    public void tick() {
+        if (!enabled) {
+            return;
+        }
+        String lease = String.valueOf(TimeUnit.SECONDS.toMillis(leaseSeconds));
+        try {
+            long t = token;
+            if (t > 0) {
+                Long rc = redisTemplate.execute(RENEW, List.of(key), String.valueOf(t), lease);
+                if (rc == null || rc == 0) {
+                    token = 0;
+                    logger.warn("lost scheduler leadership with token {}", t);
+                }
+                return;
+            }
+            List<?> rs = redisTemplate.execute(ACQUIRE, List.of(key, key + ":fence", key + ":last"), node, lease);
+            if (rs == null || rs.size() < 2 || !(rs.get(0) instanceof Number n) || n.longValue() == 0) {
+                return;
+            }
+            token = n.longValue();
+            String previous = String.valueOf(rs.get(1));
+            logger.info("elected as scheduler leader with token {}, previous leader: {}", token, previous);
+            // 回调可能耗时较长，不能阻塞续约
+            Thread.ofVirtual().name("leader-elected").start(() -> listeners.forEach(l -> {
+                try {
+                    l.accept(previous.equals(node) ? "" : previous);
+                }
+                catch (Exception e) {
+                    logger.error("leader callback failed: {}", e.getMessage(), e);
+                }
+            }));
+        }
+        catch (Exception e) {
+            logger.warn("leader election failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 正常退出时主动放弃主角色，备节点无需等待租约到期
+     */
+    @PreDestroy
+    public void resign() {
+        long t = token;
+        if (enabled && t > 0) {
+            token = 0;
+            try {
+                redisTemplate.execute(RELEASE, List.of(key), String.valueOf(t));
+            }
+            catch (Exception e) {
+                logger.warn("failed to resign leadership: {}", e.getMessage());
+            }
+        }
+    }
+}
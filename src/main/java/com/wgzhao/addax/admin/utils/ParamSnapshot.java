@@ -0,0 +1,225 @@
+package com.wgzhao.addax.admin.utils;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 系统参数快照
+ * 将 vw_imp_param 按 (param_kind_0, param_sou) 整体加载为不可变快照，读取无锁；
+ * sp_imp_param 重新生成参数后调用 rebuild，版本号通过 Redis 自增得到并广播，其他节点收到后重新加载。
+ * 广播可能丢失，另外定时比对 Redis 中的版本号兜底。
+ * 快照同时提供按参数来源编译好的替换模板，供 fn_imp_param_replace 及命令文本渲染使用
+ */
+@Component
+public class ParamSnapshot implements MessageListener {
+    private static final Logger logger = LoggerFactory.getLogger(ParamSnapshot.class);
+
+    public record Key(String kind, String sou) {
+    }
+
+    /**
+     * 不可变快照
+     * @param version 版本号，0 表示尚未有节点发布过
+     * @param values 参数值，按 param_kind_0 索引
+     * @param replacements 按 param_sou 分组的 param_kind 到参数值的映射，用于文本替换
+     * @param templates 按 param_sou 缓存的已编译模板，随快照一起失效
+     */
+    public record Snapshot(long version, Map<Key, String> values, Map<String, Map<String, String>> replacements,
+            Map<String, ParamTemplate> templates) {
+        public String get(String kind, String sou) {
+            return values.get(new Key(kind, sou));
+        }
+
+        /**
+         * 指定参数来源的替换模板，首次使用时编译
+         */
+        public ParamTemplate template(String sou) {
+            return templates.computeIfAbsent(sou == null ? "C" : sou,
+                    s -> ParamTemplate.compile(replacements.getOrDefault(s, Map.of()), DYNAMIC, ParamSnapshot::dynamicValue));
+        }
+    }
+
+    // 动态参数，每次渲染时求值，替换顺序与 fn_imp_param_replace 相同
+    private static final List<String> DYNAMIC = List.of("${NOW}", "${NO}", "${UUID}");
+
+    private static String dynamicValue(String key) {
+        return switch (key) {
+            case "${NOW}" -> new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
+            case "${NO}" -> new SimpleDateFormat("yyyyMMdd").format(new Date());
+            case "${UUID}" -> UUID.randomUUID().toString().replace("-", "").toUpperCase();
+            default -> null;
+        };
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer container;
+
+    private volatile Snapshot snapshot;
+
+    @Value("${addax.param.version-key:addax:param:version}")
+    private String versionKey;
+
+    @Value("${addax.param.channel:addax:param:rebuild}")
+    private String channel;
+
+    public ParamSnapshot(@Qualifier("oracleJdbcTemplate") JdbcTemplate jdbcTemplate, StringRedisTemplate stringRedisTemplate,
+            RedisMessageListenerContainer container) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.container = container;
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        container.addMessageListener(this, new ChannelTopic(channel));
+    }
+
+    /**
+     * 读取参数，未加载时先加载
+     * @param kind param_kind_0
+     * @param sou param_sou
+     * @return 参数值，不存在时返回 null
+     */
+    public String get(String kind, String sou) {
+        return current().get(kind, sou);
+    }
+
+    /**
+     * 按参数来源替换文本中的参数，等同于 fn_imp_param_replace
+     * @param text 文本
+     * @param sou param_sou
+     * @return 替换后的文本
+     */
+    public String render(String text, String sou) {
+        return current().template(sou).render(text);
+    }
+
+    /**
+     * 当前快照
+     */
+    public Snapshot current() {
+        Snapshot s = snapshot;
+        if (s == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    load(remoteVersion());
+                }
+                s = snapshot;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * 参数表重新生成后调用：递增版本号、重新加载并通知其他节点
+     * @return 新的版本号
+     */
+    public long rebuild() {
+        long version;
+        try {
+            Long next = stringRedisTemplate.opsForValue().increment(versionKey);
+            version = next == null ? 0 : next;
+        }
+        catch (Exception e) {
+            logger.warn("failed to increase param version, reload locally only: {}", e.getMessage());
+            version = snapshot == null ? 0 : snapshot.version() + 1;
+        }
+        load(version);
+        try {
+            stringRedisTemplate.convertAndSend(channel, String.valueOf(version));
+        }
+        catch (Exception e) {
+            logger.warn("failed to publish param version {}: {}", version, e.getMessage());
+        }
+        return version;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            long version = Long.parseLong(new String(message.getBody(), StandardCharsets.UTF_8));
+            Snapshot s = snapshot;
+            if (s != null && version > s.version()) {
+                load(version);
+            }
+        }
+        catch (NumberFormatException e) {
+            logger.warn("invalid param version message: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 兜底检查，广播丢失时按 Redis 中的版本号重新加载
+     */
+    @Scheduled(fixedDelayString = "${addax.param.check-interval:60000}")
+    public void checkVersion() {
+        Snapshot s = snapshot;
+        if (s == null) {
+            return;
+        }
+        long version = remoteVersion();
+        if (version > s.version()) {
+            load(version);
+        }
+    }
+
+    private long remoteVersion() {
+        try {
+            String value = stringRedisTemplate.opsForValue().get(versionKey);
+            return value == null ? 0 : Long.parseLong(value);
+        }
+        catch (Exception e) {
+            return snapshot == null ? 0 : snapshot.version();
+        }
+    }
+
+    private synchronized void load(long version) {
+        Snapshot s = snapshot;
+        if (s != null && s.version() > version) {
+            return;
+        }
+        Map<Key, String> values = new HashMap<>();
+        Map<String, Map<String, String>> replacements = new HashMap<>();
+        jdbcTemplate.query("select param_kind_0, param_sou, param_value, param_kind from vw_imp_param",
+                (RowCallbackHandler) rs -> {
+                    String sou = rs.getString(2);
+                    String value = rs.getString(3);
+                    if (sou == null) {
+                        return;
+                    }
+                    if (rs.getString(1) != null && value != null) {
+                        values.put(new Key(rs.getString(1), sou), value);
+                    }
+                    // 值为 null 的参数同样参与替换，渲染时删除参数名
+                    if (rs.getString(4) != null) {
+                        replacements.computeIfAbsent(sou, k -> new HashMap<>()).put(rs.getString(4), value);
+                    }
+                });
+        snapshot = new Snapshot(version, Map.copyOf(values), replacements, new ConcurrentHashMap<>());
+        logger.info("param snapshot v{} loaded, {} entries", version, values.size());
+    }
+}
@@ -0,0 +1,219 @@
+package com.wgzhao.addax.admin.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 编译后的参数替换模板
+ * 以全部参数名构建 Aho-Corasick 自动机，一次线性扫描完成所有替换，耗时与参数个数无关。
+ * 同一位置可以匹配多个参数名时取最长者。与 fn_imp_param_replace 保持一致：
+ * <ul>
+ *     <li>值为 null 的参数名被删除，等同于 Oracle 中 replace(text, key, null)</li>
+ *     <li>参数值中引用了其他参数时，替换结果再次扫描直到没有可替换的参数（最多 MAX_PASSES 次），
+ *     相当于存储过程的游标恰好按引用顺序返回</li>
+ *     <li>动态参数（${NOW}、${NO}、${UUID}）在普通参数之后按给定顺序依次替换，同一次渲染中只求值一次，
+ *     参数值中引用的动态参数同样会被替换</li>
+ * </ul>
+ * <p>
+ * 编译后的实例不可变，可以被多个线程同时使用
+ */
+public final class ParamTemplate {
+
+    private final List<Map<Character, Integer>> children = new ArrayList<>();
+
+    private int[] fail;
+
+    // 以该节点结尾的最长参数名下标，-1 表示没有
+    private int[] output;
+
+    // 沿失败链的下一个有输出的节点，-1 表示没有
+    private int[] dictLink;
+
+    // 参数值相互引用时的最大扫描次数，避免循环引用时无限展开
+    static final int MAX_PASSES = 16;
+
+    private final String[] keys;
+
+    private final String[] values;
+
+    private final List<String> dynamic;
+
+    private final Function<String, String> resolver;
+
+    // 是否有参数值引用了其他参数，没有时一次扫描即可
+    private final boolean nested;
+
+    private ParamTemplate(Map<String, String> params, List<String> dynamic, Function<String, String> resolver) {
+        this.dynamic = List.copyOf(dynamic);
+        this.resolver = resolver;
+        List<String> keyList = new ArrayList<>();
+        List<String> valueList = new ArrayList<>();
+        params.forEach((k, v) -> {
+            if (k != null && !k.isEmpty()) {
+                keyList.add(k);
+                valueList.add(v == null ? "" : v);
+            }
+        });
+        this.keys = keyList.toArray(new String[0]);
+        this.values = valueList.toArray(new String[0]);
+        build();
+        boolean refs = false;
+        for (String v : values) {
+            if (replaceOnce(v) != v) {
+                refs = true;
+                break;
+            }
+        }
+        this.nested = refs;
+    }
+
+    /**
+     * 编译模板
+     * @param params 参数名到参数值的映射，值为 null 的参数在渲染时被删除
+     * @param dynamic 动态参数名，按顺序在普通参数之后替换
+     * @param resolver 动态参数求值函数，返回 null 时保留参数名，resolver 为 null 时不替换动态参数
+     * @return 编译后的模板
+     */
+    public static ParamTemplate compile(Map<String, String> params, List<String> dynamic, Function<String, String> resolver) {
+        return new ParamTemplate(params, dynamic, resolver);
+    }
+
+    private void build() {
+        List<Integer> out = new ArrayList<>();
+        children.add(new HashMap<>());
+        out.add(-1);
+        for (int k = 0; k < keys.length; k++) {
+            int node = 0;
+            for (char c : keys[k].toCharArray()) {
+                Integer next = children.get(node).get(c);
+                if (next == null) {
+                    next = children.size();
+                    children.get(node).put(c, next);
+                    children.add(new HashMap<>());
+                    out.add(-1);
+                }
+                node = next;
+            }
+            out.set(node, k);
+        }
+
+        int size = children.size();
+        fail = new int[size];
+        dictLink = new int[size];
+        output = new int[size];
+        for (int i = 0; i < size; i++) {
+            output[i] = out.get(i);
+            dictLink[i] = -1;
+        }
+
+        // 按层次遍历计算失败指针
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int child : children.get(0).values()) {
+            fail[child] = 0;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (Map.Entry<Character, Integer> e : children.get(node).entrySet()) {
+                int child = e.getValue();
+                int f = fail[node];
+                while (f != 0 && !children.get(f).containsKey(e.getKey())) {
+                    f = fail[f];
+                }
+                Integer target = children.get(f).get(e.getKey());
+                fail[child] = target != null && target != child ? target : 0;
+                dictLink[child] = output[fail[child]] >= 0 ? fail[child] : dictLink[fail[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * 渲染文本
+     * @param text 模板文本
+     * @return 替换后的文本，text 为 null 时返回 null
+     */
+    public String render(String text) {
+        String result = renderStatic(text);
+        if (result == null || resolver == null) {
+            return result;
+        }
+        for (String key : dynamic) {
+            if (result.contains(key)) {
+                String value = resolver.apply(key);
+                if (value != null) {
+                    result = result.replace(key, value);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 只替换普通参数，保留 ${NOW}、${UUID} 等动态参数，结果只随参数值及文本变化
+     * @param text 模板文本
+     * @return 替换后的文本，text 为 null 时返回 null
+     */
+    public String renderStatic(String text) {
+        if (text == null) {
+            return null;
+        }
+        String result = replaceOnce(text);
+        for (int pass = 1; nested && pass < MAX_PASSES && result != text; pass++) {
+            text = result;
+            result = replaceOnce(text);
+        }
+        return result;
+    }
+
+    // 一次扫描替换所有普通参数，没有任何匹配时返回原实例
+    private String replaceOnce(String text) {
+        if (keys.length == 0) {
+            return text;
+        }
+        int n = text.length();
+        // 每个起始位置上最长的匹配
+        int[] best = null;
+        int node = 0;
+        for (int i = 0; i < n; i++) {
+            char c = text.charAt(i);
+            Integer next;
+            while ((next = children.get(node).get(c)) == null && node != 0) {
+                node = fail[node];
+            }
+            node = next == null ? 0 : next;
+            for (int m = output[node] >= 0 ? node : dictLink[node]; m >= 0; m = dictLink[m]) {
+                int k = output[m];
+                int start = i - keys[k].length() + 1;
+                if (best == null) {
+                    best = new int[n];
+                    Arrays.fill(best, -1);
+                }
+                if (best[start] < 0 || keys[best[start]].length() < keys[k].length()) {
+                    best[start] = k;
+                }
+            }
+        }
+        if (best == null) {
+            return text;
+        }
+
+        StringBuilder sb = new StringBuilder(n + 64);
+        int i = 0;
+        while (i < n) {
+            int k = best[i];
+            if (k < 0) {
+                sb.append(text.charAt(i++));
+                continue;
+            }
+            sb.append(values[k]);
+            i += keys[k].length();
+        }
+        return sb.toString();
+    }
+}
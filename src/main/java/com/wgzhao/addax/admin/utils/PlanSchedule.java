@@ -0,0 +1,206 @@
+package com.wgzhao.addax.admin.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 计划时间的解析，fn_imp_timechk/fn_imp_pntype 的 Java 实现
+ * 把 定点(fixed)、间隔(interval)、时间范围(range) 编译为一天 1440 分钟的位图，相同的定义只编译一次；
+ * 时间范围的端点按 vw_imp_date 的 dt -> dt_full 转换，整表缓存，不再每次判断查询两次
+ * <p>
+ * 规则与 fn_imp_timechk 一致：
+ * 间隔任务在范围内(起点大于终点时跨零点)且距离范围起点的分钟数能被间隔整除时触发；
+ * 定点任务的时间写法为去掉前导 0 及末尾 00 的 HH24MI，如 8 表示 08:00，830 表示 08:30，0 表示 00:00，
+ * 00:01 至 00:23 与整点写法冲突，不作为定点时间
+ */
+@Component
+public class PlanSchedule {
+    private static final Logger logger = LoggerFactory.getLogger(PlanSchedule.class);
+
+    public static final int MINUTES_OF_DAY = 1440;
+
+    private static final Pattern HEAD = Pattern.compile("^[0-9]+");
+
+    private static final Pattern TAIL = Pattern.compile("[0-9]+$");
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TradeCalendar tradeCalendar;
+
+    private final Map<String, BitSet> compiled = new ConcurrentHashMap<>();
+
+    private volatile Map<String, Integer> dates;
+
+    // invalidate 之后尚未被 refresh 报告
+    private volatile boolean invalidated;
+
+    public PlanSchedule(@Qualifier("oracleJdbcTemplate") JdbcTemplate jdbcTemplate, TradeCalendar tradeCalendar) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tradeCalendar = tradeCalendar;
+    }
+
+    /**
+     * 一天中触发的分钟
+     * @return 位图，下标为零点开始的分钟数
+     */
+    public BitSet minutes(String fixed, Integer interval, String range) {
+        String key = fixed + "|" + interval + "|" + range;
+        BitSet bits = compiled.get(key);
+        if (bits == null) {
+            bits = compile(fixed, interval, range);
+            // vw_imp_date 加载失败时的结果不缓存
+            if (dates != null) {
+                compiled.put(key, bits);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * 指定分钟是否触发
+     * @param minute 零点开始的分钟数
+     */
+    public boolean matches(int minute, String fixed, Integer interval, String range) {
+        return minutes(fixed, interval, range).get(minute);
+    }
+
+    /**
+     * 预测某天是否满足计划类型，交易标志(TF)无法预知，按交易日判断
+     * @param pnType 0 每天，1 交易标志为Y，2 交易日当天，3 交易日或标志
+     * @param date yyyyMMdd
+     */
+    public boolean mayRunOn(String pnType, int date) {
+        if ("0".equals(pnType)) {
+            return true;
+        }
+        if ("1".equals(pnType) || "2".equals(pnType) || "3".equals(pnType)) {
+            return tradeCalendar.isTradeDay(date);
+        }
+        return false;
+    }
+
+    /**
+     * vw_imp_date 变化后清空缓存，由 updt_param 调用
+     */
+    public void invalidate() {
+        invalidated = true;
+        dates = null;
+        compiled.clear();
+    }
+
+    /**
+     * 重新读取 vw_imp_date，与缓存不同时清空已编译的位图
+     * @return 时间范围的转换发生变化或者期间调用过 invalidate 时返回 true，调用方需要重新计算已经定时的计划
+     */
+    public boolean refresh() {
+        boolean stale = invalidated;
+        Map<String, Integer> old = dates;
+        Map<String, Integer> loaded = new HashMap<>();
+        jdbcTemplate.query("select dt, dt_full from vw_imp_date", (RowCallbackHandler) rs -> {
+            if (rs.getString(1) != null) {
+                loaded.put(rs.getString(1), rs.getInt(2));
+            }
+        });
+        // 读取失败时保留 invalidate 的标记，下次重试
+        invalidated = false;
+        if (loaded.equals(old)) {
+            return stale;
+        }
+        compiled.clear();
+        dates = loaded;
+        return true;
+    }
+
+    private BitSet compile(String fixed, Integer interval, String range) {
+        BitSet bits = new BitSet(MINUTES_OF_DAY);
+        if (interval != null && interval > 0) {
+            int r1 = resolve(find(HEAD, range), "0");
+            int r2 = resolve(find(TAIL, range), "2359");
+            int start = r1 / 100 * 60 + r1 % 100;
+            for (int m = 0; m < MINUTES_OF_DAY; m++) {
+                int c = m / 60 * 100 + m % 60;
+                boolean inRange = (r1 < r2 && c >= r1 && c <= r2) || (r1 > r2 && (c >= r1 || c <= r2));
+                // 当前时间早于范围起点时，起点为前一天
+                int elapsed = c >= r1 ? m - start : m + MINUTES_OF_DAY - start;
+                if (inRange && elapsed % interval == 0) {
+                    bits.set(m);
+                }
+            }
+        }
+        if (fixed != null && !fixed.isBlank()) {
+            Set<String> points = new HashSet<>();
+            for (String p : fixed.split(",")) {
+                points.add(p.trim());
+            }
+            for (int m = 0; m < MINUTES_OF_DAY; m++) {
+                int c = m / 60 * 100 + m % 60;
+                if (c >= 1 && c <= 23) {
+                    continue;
+                }
+                String point = String.format("%04d", c).replaceAll("^0+|00$", "");
+                if (points.contains(point.isEmpty() ? "0" : point)) {
+                    bits.set(m);
+                }
+            }
+        }
+        return bits;
+    }
+
+    private static String find(Pattern pattern, String range) {
+        if (range == null) {
+            return null;
+        }
+        Matcher m = pattern.matcher(range);
+        return m.find() ? m.group() : null;
+    }
+
+    // 按 vw_imp_date 转换为 HH24MI，表中没有时小于 24 的值按整点处理
+    private int resolve(String dt, String fallback) {
+        String key = dt == null ? fallback : dt;
+        Integer full = dates().get(key);
+        if (full != null) {
+            return full;
+        }
+        try {
+            int v = Integer.parseInt(key);
+            return v < 24 ? v * 100 : v;
+        }
+        catch (NumberFormatException e) {
+            return Integer.parseInt(fallback);
+        }
+    }
+
+    private Map<String, Integer> dates() {
+        Map<String, Integer> d = dates;
+        if (d == null) {
+            Map<String, Integer> loaded = new HashMap<>();
+            try {
+                jdbcTemplate.query("select dt, dt_full from vw_imp_date", (RowCallbackHandler) rs -> {
+                    if (rs.getString(1) != null) {
+                        loaded.put(rs.getString(1), rs.getInt(2));
+                    }
+                });
+                dates = loaded;
+            }
+            catch (Exception e) {
+                // 加载失败时不缓存，下次重试
+                logger.warn("failed to load vw_imp_date: {}", e.getMessage());
+            }
+            d = loaded;
+        }
+        return d;
+    }
+}
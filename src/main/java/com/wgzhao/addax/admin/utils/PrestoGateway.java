@@ -0,0 +1,212 @@
+package com.wgzhao.addax.admin.utils;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Presto/Trino 查询网关
+ * 替代 com.prestocmd/com.prestoall 命令行，每个 catalog 一个 Hikari 连接池，
+ * 引擎名（presto、allsql）通过 addax.presto.engine.&lt;name&gt; 映射到 catalog。
+ * catalog 的地址取 addax.presto.catalog-url.&lt;catalog&gt;，未配置时 Trino/Presto 地址的路径替换为该 catalog，
+ * 连接池按 catalog 及其地址区分，不会因为共用 addax.presto.url 而合并到同一个 catalog。
+ * 只依赖标准 JDBC 接口，任何 JDBC 数据库都可以替代 Trino
+ */
+@Component
+public class PrestoGateway {
+    private static final Logger logger = LoggerFactory.getLogger(PrestoGateway.class);
+
+    // jdbc:trino://host:port 之后的路径(catalog/schema)及参数
+    private static final Pattern SERVER_URL = Pattern.compile("^(jdbc:(?:trino|presto)://[^/?]+)(/[^?]*)?(\\?.*)?$");
+
+    private final Environment env;
+
+    private final Map<String, HikariDataSource> pools = new ConcurrentHashMap<>();
+
+    @Value("${addax.presto.url:}")
+    private String url;
+
+    @Value("${addax.presto.user:hive}")
+    private String user;
+
+    @Value("${addax.presto.password:}")
+    private String password;
+
+    @Value("${addax.presto.driver-class-name:io.trino.jdbc.TrinoDriver}")
+    private String driverClassName;
+
+    @Value("${addax.presto.pool-size:8}")
+    private int poolSize;
+
+    public PrestoGateway(Environment env) {
+        this.env = env;
+    }
+
+    /**
+     * 是否配置了 JDBC 地址，未配置时调用方回退到命令行
+     */
+    public boolean isEnabled() {
+        return !url.isEmpty();
+    }
+
+    /**
+     * 执行多语句脚本，遇到第一条失败的语句即停止，与命令行 -f 的行为一致
+     * @param engine 引擎名，如 presto、allsql
+     * @param script 脚本内容，语句之间以分号分隔
+     * @param rowSink 查询语句的每一行结果，为 null 时丢弃
+     */
+    public void runScript(String engine, String script, Consumer<List<String>> rowSink) throws SQLException {
+        try (Connection conn = dataSource(engine).getConnection(); Statement stmt = conn.createStatement()) {
+            for (String sql : splitStatements(script)) {
+                logger.debug("[{}] {}", engine, sql);
+                if (stmt.execute(sql)) {
+                    try (ResultSet rs = stmt.getResultSet()) {
+                        drain(rs, rowSink);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 执行单条查询
+     * @param engine 引擎名
+     * @param sql 查询语句
+     * @param rowSink 每一行结果，各列转换为字符串
+     */
+    public void query(String engine, String sql, Consumer<List<String>> rowSink) throws SQLException {
+        try (Connection conn = dataSource(engine).getConnection(); Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(stripTerminator(sql))) {
+            drain(rs, rowSink);
+        }
+    }
+
+    private static void drain(ResultSet rs, Consumer<List<String>> rowSink) throws SQLException {
+        ResultSetMetaData meta = rs.getMetaData();
+        int cols = meta.getColumnCount();
+        while (rs.next()) {
+            if (rowSink == null) {
+                continue;
+            }
+            List<String> row = new ArrayList<>(cols);
+            for (int i = 1; i <= cols; i++) {
+                row.add(rs.getString(i));
+            }
+            rowSink.accept(row);
+        }
+    }
+
+    private HikariDataSource dataSource(String engine) {
+        String catalog = env.getProperty("addax.presto.engine." + engine, engine);
+        String catalogUrl = catalogUrl(catalog);
+        return pools.computeIfAbsent(catalog + "|" + catalogUrl, k -> {
+            HikariConfig config = new HikariConfig();
+            config.setPoolName("presto-" + catalog);
+            config.setJdbcUrl(catalogUrl);
+            config.setUsername(user);
+            if (!password.isEmpty()) {
+                config.setPassword(password);
+            }
+            config.setDriverClassName(driverClassName);
+            config.setCatalog(catalog);
+            config.setMaximumPoolSize(poolSize);
+            config.setMinimumIdle(0);
+            config.setAutoCommit(true);
+            logger.info("create presto pool for catalog {} at {}", catalog, catalogUrl);
+            return new HikariDataSource(config);
+        });
+    }
+
+    /**
+     * catalog 的 JDBC 地址
+     * @param catalog catalog 名称
+     * @return addax.presto.catalog-url.&lt;catalog&gt;；未配置时 jdbc:trino://host:port[/...] 形式的地址路径替换为 /catalog，
+     * 其他数据库的地址原样返回
+     */
+    String catalogUrl(String catalog) {
+        String configured = env.getProperty("addax.presto.catalog-url." + catalog);
+        if (configured != null && !configured.isEmpty()) {
+            return configured;
+        }
+        Matcher m = SERVER_URL.matcher(url);
+        if (!m.matches()) {
+            return url;
+        }
+        return m.group(1) + "/" + catalog + (m.group(3) == null ? "" : m.group(3));
+    }
+
+    @PreDestroy
+    public void close() {
+        pools.values().forEach(HikariDataSource::close);
+    }
+
+    /**
+     * 按分号拆分脚本，忽略引号内的分号及 -- 注释
+     * @param script 脚本内容
+     * @return 非空语句列表，不含结尾分号
+     */
+    public static List<String> splitStatements(String script) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        char quote = 0;
+        int len = script.length();
+        for (int i = 0; i < len; i++) {
+            char c = script.charAt(i);
+            if (quote != 0) {
+                sb.append(c);
+                if (c == quote) {
+                    quote = 0;
+                }
+            }
+            else if (c == '\'' || c == '"') {
+                quote = c;
+                sb.append(c);
+            }
+            else if (c == '-' && i + 1 < len && script.charAt(i + 1) == '-') {
+                while (i < len && script.charAt(i) != '\n') {
+                    i++;
+                }
+                sb.append('\n');
+            }
+            else if (c == ';') {
+                addStatement(statements, sb);
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        addStatement(statements, sb);
+        return statements;
+    }
+
+    private static void addStatement(List<String> statements, StringBuilder sb) {
+        String sql = sb.toString().trim();
+        if (!sql.isEmpty()) {
+            statements.add(sql);
+        }
+        sb.setLength(0);
+    }
+
+    private static String stripTerminator(String sql) {
+        String s = sql.trim();
+        return s.endsWith(";") ? s.substring(0, s.length() - 1) : s;
+    }
+}
@@ -0,0 +1,76 @@
+package com.wgzhao.addax.admin.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Presto/Trino 操作工具类
+ * Spring 容器启动且配置了 addax.presto.url 时委托给 PrestoGateway，否则回退到 com.prestocmd/com.prestoall 命令行
+ */
+public class PrestoUtils {
+
+    private static PrestoGateway gateway() {
+        PrestoGateway gateway = SpringContextUtil.getBean(PrestoGateway.class);
+        return gateway != null && gateway.isEnabled() ? gateway : null;
+    }
+
+    /**
+     * 执行多语句脚本，查询结果输出到日志
+     * @param engine 引擎名，presto 或者 allsql
+     * @param script 脚本内容
+     * @return 是否全部执行成功
+     */
+    public static boolean runScript(String engine, String script) {
+        return runScript(engine, script, null);
+    }
+
+    /**
+     * 执行多语句脚本
+     * @param engine 引擎名，presto 或者 allsql
+     * @param script 脚本内容
+     * @param rowSink 查询结果的每一行，为 null 时输出到日志
+     * @return 是否全部执行成功
+     */
+    public static boolean runScript(String engine, String script, Consumer<List<String>> rowSink) {
+        PrestoGateway gateway = gateway();
+        if (gateway != null) {
+            try {
+                gateway.runScript(engine, script, rowSink != null ? rowSink : row -> System.out.println(String.join("\t", row)));
+                return true;
+            }
+            catch (Exception e) {
+                System.err.println(engine + "执行失败:" + e.getMessage());
+                return false;
+            }
+        }
+
+        Path file = null;
+        try {
+            file = Files.createTempFile("presto_", ".sql");
+            Files.writeString(file, script, StandardCharsets.UTF_8);
+            String cli = "allsql".equals(engine) ? RedisUtils.get("com.prestoall") : RedisUtils.get("com.prestocmd");
+            ProcessRunner runner = ProcessRunner.of(cli + " --output-format TSV -f " + file).onStderr(System.err::println);
+            if (rowSink != null) {
+                runner.onStdout(line -> rowSink.accept(Arrays.asList(line.split("\t", -1))));
+            }
+            else {
+                runner.onStdout(System.out::println);
+            }
+            return runner.run().exitCode() == 0;
+        }
+        catch (IOException e) {
+            System.err.println(engine + "执行失败:" + e.getMessage());
+            return false;
+        }
+        finally {
+            if (file != null) {
+                file.toFile().delete();
+            }
+        }
+    }
+}
@@ -4,8 +4,11 @@ import jakarta.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -15,8 +18,10 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Oracle 存储过程的 Java 实现
@@ -28,9 +33,37 @@ public class ProcedureHelper {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    @Qualifier("oracleTransactionManager")
+    private PlatformTransactionManager oracleTransactionManager;
+
     @Resource
     private FuncHelper funcHelper;
 
+    @Resource
+    private HiveGateway hiveGateway;
+
+    @Resource
+    private TradeCalendar tradeCalendar;
+
+    @Resource
+    private ParamSnapshot paramSnapshot;
+
+    @Resource
+    private JobFileGenerator jobFileGenerator;
+
+    @Resource
+    private StatusPipeline statusPipeline;
+
+    @Resource
+    private TaskRegistry taskRegistry;
+
+    @Resource
+    private ReadinessEngine readinessEngine;
+
+    @Resource
+    private RuntimeModel runtimeModel;
+
     /**
      * 实现 sp_sms 存储过程
      * 发送短信通知
@@ -138,18 +171,30 @@ public class ProcedureHelper {
      * @param iSpId  任务ID
      */
     public void spImpStatus(String iKind, String iSpId) {
+        // 子任务状态交给写后管道批量写入；主任务状态需要统计子任务，先把管道写空
+        if (statusPipeline.isEnabled()) {
+            if (iKind.length() == 2 && statusPipeline.submit(iKind, iSpId)) {
+                taskRegistry.onStatus(iKind, iSpId);
+                return;
+            }
+            // 写不空时放弃本次变更，否则管道中较早的变更可能在本次同步写入之后落库并覆盖它
+            if (!statusPipeline.drain()) {
+                logger.warn("pending sub-task status not written, status change {} {} aborted", iKind, iSpId);
+                return;
+            }
+        }
         try {
             Date vCurtime = new Date();
 
             // 获取基础信息
             Map<String, Object> info = getTaskInfo(iKind, iSpId);
-            if (info.isEmpty()) {
+            int vErr = ((Number) info.get("error_count")).intValue();
+            if (vErr < 0) {
                 logger.warn("No task found with ID: {}", iSpId);
                 return;
             }
 
             String vRemark = (String) info.get("remark");
-            int vErr = (int) info.get("error_count");
             String vSou = (String) info.get("source");
 
             // 处理状态变更
@@ -163,7 +208,7 @@ public class ProcedureHelper {
                 updateMainTableStatus(iSpId, vSou, vKind, vCurtime);
 
                 if (vKind.equals("R")) {
-                    // 主表开始执行，附属表状态置为N
+                    // 主表开始执行，附属表状态置为N，开启检查点时本交易日已执行成功的命令由 SpCheckpoint 在执行时跳过
                     resetSubTaskStatus(iSpId, vSou);
                 } else if (vKind.equals("E")) {
                     // 任务执行结束，报错提醒
@@ -176,6 +221,7 @@ public class ProcedureHelper {
 
             // 记录操作流水
             recordOperationLog(vSou, vKind, iSpId, vRemark, vCurtime);
+            taskRegistry.onStatus(iKind, iSpId);
 
             logger.info("Status updated: {}, for task: {}, source: {}", vKind, iSpId, vSou);
         } catch (Exception e) {
@@ -203,11 +249,9 @@ public class ProcedureHelper {
             }
 
             // 获取交易日期
-            Integer vTradeDate = jdbcTemplate.queryForObject(
-                    "SELECT MAX(init_date) FROM vw_trade_date WHERE init_date <= ?",
-                    Integer.class, vCurrDate);
+            int vTradeDate = tradeCalendar.floor(vCurrDate);
 
-            if (vTradeDate == null) {
+            if (vTradeDate == 0) {
                 logger.error("Failed to get trade date for current date: {}", vCurrDate);
                 return;
             }
@@ -231,13 +275,11 @@ public class ProcedureHelper {
 
             // 检查是否需要跳过周
             int vJumpWeek = 0;
-            Integer weekCount = jdbcTemplate.queryForObject(
-                    "SELECT COUNT(1) FROM vw_trade_date WHERE init_date BETWEEN ? AND ?",
-                    Integer.class,
-                    getDateOffset(vTradeDate, -7, "week_start"),
-                    getDateOffset(vTradeDate, -1, "week_start"));
+            int weekCount = tradeCalendar.count(
+                    Integer.parseInt(getDateOffset(vTradeDate, -7, "week_start")),
+                    Integer.parseInt(getDateOffset(vTradeDate, -1, "week_start")));
 
-            if (weekCount == null || weekCount == 0) {
+            if (weekCount == 0) {
                 vJumpWeek = 7;
             }
 
@@ -264,6 +306,9 @@ public class ProcedureHelper {
                     createParamView();
                 }
 
+                // 参数已重新生成，刷新快照并通知其他节点
+                paramSnapshot.rebuild();
+
                 logger.info("Parameters updated for date: {}, source: {}", vCurrDate, vParamSou);
             } else {
                 spSms("参数更新不在允许的时间范围内!!!", "1", "111");
@@ -438,7 +483,11 @@ public class ProcedureHelper {
      * 获取任务信息
      */
     private Map<String, Object> getTaskInfo(String kind, String spId) {
-        Date vCurtime = new Date();
+        // 优先从内存注册表读取，未登记的新任务再查询数据库
+        Map<String, Object> cached = taskRegistry.info(kind, spId);
+        if (cached != null) {
+            return cached;
+        }
 
         // Query basic information using a complex join similar to the SQL procedure
         String infoQuery =
@@ -474,7 +523,12 @@ public class ProcedureHelper {
                         "INNER JOIN t_com b ON b.sp_id = t.sp_id AND ? IN (b.sp_id, b.com_id) AND coalesce(b.flag,'N') <> 'X' " +
                         "WHERE LENGTH(?) = 32";
 
-        return jdbcTemplate.queryForMap(infoQuery, kind, spId, spId);
+        Map<String, Object> row = jdbcTemplate.queryForMap(infoQuery, kind, spId, spId);
+        Map<String, Object> info = new HashMap<>();
+        info.put("remark", row.get("remark"));
+        info.put("error_count", row.get("err_count") == null ? -1 : ((Number) row.get("err_count")).intValue());
+        info.put("source", row.get("sou"));
+        return info;
     }
 
     /**
@@ -639,13 +693,62 @@ public class ProcedureHelper {
 
     /**
      * 处理SP开始任务
+     * 符合执行条件的 SP 由就绪引擎增量维护，这里只取走就绪集合，不再对 vw_imp_sp_needs 整体分组统计
      */
     private String handleSpStart(int tradedate) {
         StringBuilder spIdBuilder = new StringBuilder();
 
-        // 实现处理SP开始任务的逻辑
-        // 返回更新后的spId
+        // 符合执行条件的任务组，剔除已经执行过的任务组
+        List<String> groups = jdbcTemplate.queryForList("SELECT a.task_group FROM (" +
+                "SELECT task_group FROM vw_imp_taskgroup_over " +
+                "UNION ALL " +
+                "SELECT task_group FROM vw_imp_ds2_needs WHERE bmulti = 1 GROUP BY task_group HAVING sum(bover) = count(1)) a " +
+                "LEFT JOIN (SELECT fid FROM tb_imp_flag WHERE tradedate = ? AND kind = 'TASK_GROUP' GROUP BY fid) b " +
+                "ON b.fid = a.task_group WHERE b.fid IS NULL GROUP BY a.task_group", String.class, tradedate);
+        for (String group : groups) {
+            // 数据服务
+            jdbcTemplate.update("UPDATE tb_imp_ds2 SET flag = 'N', retry_cnt = 3 " +
+                    "WHERE task_group = ? AND flag IN ('Y', 'E') AND fn_imp_freqchk(run_freq) = 1", group);
+            // SP计算
+            jdbcTemplate.update("UPDATE tb_imp_sp SET flag = 'N', retry_cnt = 3, runtime = runtime * power(2, 3 - retry_cnt) " +
+                    "WHERE realtime_taskgroup = ? AND flag IN ('Y', 'E') AND fn_imp_freqchk(run_freq) = 1", group);
+            // 写任务组完成标志
+            jdbcTemplate.update("INSERT INTO tb_imp_flag(tradedate, kind, fid, fval) VALUES(?, 'TASK_GROUP', ?, 1)", tradedate, group);
+            spIdBuilder.append(group).append(',');
+        }
+
+        // 符合执行条件的sp
+        Set<String> ready = readinessEngine.ready();
+        if (!ready.isEmpty()) {
+            List<Object[]> args = new ArrayList<>(ready.size());
+            ready.forEach(id -> args.add(new Object[] {id}));
+            jdbcTemplate.batchUpdate("UPDATE tb_imp_sp SET flag = 'N', retry_cnt = 3, runtime = runtime * power(2, 3 - retry_cnt) " +
+                    "WHERE sp_id = ? AND flag <> 'R'", args);
+            // 批量更新已自动提交，此后才从就绪集合中移除
+            readinessEngine.ack(ready);
+        }
+
+        // SP及前置SP均为N的，当前SP临时置为Y
+        // 前置SP准备执行，但是下游的SP正在执行，前置SP临时置为Y
+        List<String> held = jdbcTemplate.queryForList("SELECT sp_id FROM vw_imp_sp_needs WHERE flag = 'N' AND needs_flag = 'N' " +
+                "UNION SELECT needs FROM vw_imp_sp_needs WHERE flag = 'R' AND needs_flag = 'N'", String.class);
+        if (!held.isEmpty()) {
+            List<Object[]> args = new ArrayList<>(held.size());
+            held.forEach(id -> args.add(new Object[] {id}));
+            int[] counts = jdbcTemplate.batchUpdate("UPDATE tb_imp_sp SET flag = 'Y' WHERE sp_id = ?", args);
+            for (int i = 0; i < counts.length; i++) {
+                // 前置可能是采集任务，只同步实际更新的 SP
+                if (counts[i] != 0) {
+                    readinessEngine.hold(held.get(i));
+                }
+            }
+        }
 
+        // 重复执行的sp，删除任务组的完成标志
+        jdbcTemplate.update("DELETE FROM tb_imp_flag WHERE tradedate = ? AND kind = 'TASK_GROUP' " +
+                "AND instr((SELECT ','||wm_concat(task_group)||',' FROM (SELECT task_group FROM tb_imp_sp " +
+                "WHERE flag = 'N' AND task_group IS NOT NULL GROUP BY task_group)), ','||fid||',') > 0", tradedate);
+        logger.info("sp_start: {} task groups, {} sp ready, {} held", groups.size(), ready.size(), held.size());
         return spIdBuilder.toString();
     }
 
@@ -672,7 +775,53 @@ public class ProcedureHelper {
      * 处理更新与建表任务
      */
     private void handleBupdate(String spId, String value1) {
-        // 实现处理更新与建表任务的逻辑
+        // 按源库刷新结构(spId 为 sou_db_conn)及数据服务(D)仍由 sp_imp_alone 处理
+        if (!"N".equals(spId)) {
+            return;
+        }
+
+        // 模板可能已修改，重新读取；待更新的表(bupdate='n')的字段缓存在生成时丢弃并重新读取，其他表的字段缓存保留
+        jobFileGenerator.invalidateTemplates();
+
+        // 与 sp_imp_alone 一致，删除、重建命令及更新状态在一个事务内完成
+        List<String> updated = new ArrayList<>();
+        int generated = new TransactionTemplate(oracleTransactionManager).execute(status -> {
+            // 先生成采集JSON
+            Map<String, String> jobfiles = jobFileGenerator.renderPending();
+
+            // 已经在hadoop上建好表的，不再需要建表
+            jdbcTemplate.update("UPDATE tb_imp_etl SET bcreate = 'N' " +
+                    "WHERE rowid IN (SELECT rid FROM vw_imp_etl WHERE bcreate = 'Y' AND bupdate = 'n' AND bvalid = 1 " +
+                    "AND tid IN (SELECT tid FROM tb_imp_tbl_hdp GROUP BY tid))");
+
+            // 删除原有的分区命令(99)及采集JSON(100)
+            jdbcTemplate.update("DELETE FROM tb_imp_sp_com WHERE com_idx IN (99, 100) " +
+                    "AND sp_id IN (SELECT tid FROM tb_imp_etl WHERE bupdate = 'n')");
+
+            // 99:分区处理
+            jdbcTemplate.update("INSERT INTO tb_imp_sp_com(sp_id, com_idx, com_kind, com_text) " +
+                    "SELECT tid, 99, 'hive', " +
+                    "'alter table '||replace(lower(dest),'.','.`')||'` drop if exists partition(logdate=''${dest_part}'');'||chr(10)||" +
+                    "'alter table '||replace(lower(dest),'.','.`')||'` add if not exists partition(logdate=''${dest_part}'');' " +
+                    "FROM vw_imp_etl WHERE bupdate = 'n'");
+
+            // 100:采集JSON，一次批量写入；与 fn_imp_value('jobfile') 一样，没有模板的表也写入一条空命令
+            List<String> tids = jdbcTemplate.queryForList("SELECT tid FROM tb_imp_etl WHERE bupdate = 'n'", String.class);
+            updated.addAll(tids);
+            List<Object[]> args = new ArrayList<>(tids.size());
+            tids.forEach(tid -> args.add(new Object[] {tid, jobfiles.get(tid)}));
+            jdbcTemplate.batchUpdate("INSERT INTO tb_imp_sp_com(sp_id, com_idx, com_kind, com_text) VALUES(?, 100, 'addax', ?)", args);
+
+            // 更新状态为N
+            jdbcTemplate.update("UPDATE tb_imp_etl SET bupdate = 'N', " +
+                    "flag = CASE WHEN flag = 'W' AND bcreate = 'N' THEN 'N' ELSE flag END, " +
+                    "retry_cnt = CASE WHEN flag = 'W' AND bcreate = 'N' THEN 1 ELSE retry_cnt END " +
+                    "WHERE bupdate = 'n'");
+            return jobfiles.size();
+        });
+        logger.info("bupdate N: {} job files generated", generated);
+        // 99/100 命令以新的编号重建，读回注册表中的附属命令，否则错误数按已删除的命令统计
+        taskRegistry.refreshCommands(updated);
     }
 
     /**
@@ -750,19 +899,8 @@ public class ProcedureHelper {
      * 检查任务执行状态
      */
     private void checkTaskExecutionStatus() {
-        // 检查长时间运行的任务
-        List<Map<String, Object>> longRunningTasks = jdbcTemplate.queryForList(
-                "SELECT sp_id, sp_owner, sp_name, runtime FROM tb_imp_sp " +
-                        "WHERE flag = 'R' AND runtime > 3600"); // 运行超过1小时的任务
-
-        if (!longRunningTasks.isEmpty()) {
-            StringBuilder msg = new StringBuilder("以下任务运行时间过长:\n");
-            for (Map<String, Object> task : longRunningTasks) {
-                msg.append(task.get("sp_owner")).append(".").append(task.get("sp_name"))
-                        .append(" (").append(task.get("runtime")).append("秒)\n");
-            }
-            spSms(msg.toString(), "1", "110");
-        }
+        // 检查长时间运行的任务，超过自身历史 p90 一定倍数即告警，没有历史的任务仍按 1 小时
+        runtimeModel.checkStragglers();
 
         // 检查失败的任务
         List<Map<String, Object>> failedTasks = jdbcTemplate.queryForList(
@@ -786,11 +924,15 @@ public class ProcedureHelper {
             // 清空临时表
             jdbcTemplate.update("TRUNCATE TABLE tmp_imp_hdp_tbls");
 
-            // 获取Hadoop表结构信息
-            // 这里需要通过外部命令或API调用获取Hadoop表结构
-            // 例如使用JDBC连接Hive或调用shell命令
+            // 获取Hadoop表结构信息，配置了 HiveServer2 时直接通过连接池查询
+            if (hiveGateway.isEnabled()) {
+                insertHadoopTables(hiveGateway.queryForLines("show tables in default"));
+                updateHadoopTableStructure();
+                logger.info("Hadoop table structure updated successfully");
+                return;
+            }
 
-            // 示例：通过执行shell命令获取表结构
+            // 否则通过执行shell命令获取表结构
             String command = "hive -e \"show tables in default\" > /tmp/hive_tables.txt";
             Process process = Runtime.getRuntime().exec(new String[]{"/bin/sh", "-c", command});
             int exitCode = process.waitFor();
@@ -819,16 +961,19 @@ public class ProcedureHelper {
     private void parseHadoopTables(String filePath) throws Exception {
         // 读取文件内容并解析表结构
         java.nio.file.Path path = java.nio.file.Paths.get(filePath);
-        List<String> lines = java.nio.file.Files.readAllLines(path);
-
-        for (String line : lines) {
-            if (line.trim().isEmpty()) continue;
+        insertHadoopTables(java.nio.file.Files.readAllLines(path));
+    }
 
-            // 插入表信息到临时表
-            jdbcTemplate.update(
-                    "INSERT INTO tmp_imp_hdp_tbls(db_name, tbl_name) VALUES(?, ?)",
-                    "default", line.trim());
+    /**
+     * 批量插入表信息到临时表
+     */
+    private void insertHadoopTables(List<String> tables) {
+        List<Object[]> args = new ArrayList<>(tables.size());
+        for (String table : tables) {
+            if (table == null || table.trim().isEmpty()) continue;
+            args.add(new Object[] {"default", table.trim()});
         }
+        jdbcTemplate.batchUpdate("INSERT INTO tmp_imp_hdp_tbls(db_name, tbl_name) VALUES(?, ?)", args);
     }
 
     /**
@@ -905,26 +1050,19 @@ public class ProcedureHelper {
      * 插入交易日期相关参数
      */
     private void insertTradeDateParams(int tradeDate, String paramSou) {
-        // 查询交易日期相关参数并插入
-        List<Map<String, Object>> tradeDateParams = jdbcTemplate.queryForList(
-                "SELECT param_kind, param_value FROM (" +
-                        "  SELECT 'trade_date' AS param_kind, ? AS param_value FROM dual " +
-                        "  UNION ALL " +
-                        "  SELECT 'last_trade_date', " +
-                        "    (SELECT MAX(init_date) FROM vw_trade_date WHERE init_date < ?) FROM dual " +
-                        "  UNION ALL " +
-                        "  SELECT 'next_trade_date', " +
-                        "    (SELECT MIN(init_date) FROM vw_trade_date WHERE init_date > ?) FROM dual " +
-                        "  /* 其他交易日期相关参数 */" +
-                        ")",
-                tradeDate, tradeDate, tradeDate);
-
-        for (Map<String, Object> param : tradeDateParams) {
-            jdbcTemplate.update(
-                    "INSERT INTO tb_imp_param0(param_name, param_value, param_sou) " +
-                            "VALUES(?, ?, ?)",
-                    "$$" + param.get("param_kind"), param.get("param_value"), paramSou);
-        }
+        // 交易日期相关参数由内存交易日历计算
+        Map<String, Object> tradeDateParams = new LinkedHashMap<>();
+        tradeDateParams.put("trade_date", tradeDate);
+        int lastTradeDate = tradeCalendar.prev(tradeDate);
+        int nextTradeDate = tradeCalendar.next(tradeDate);
+        tradeDateParams.put("last_trade_date", lastTradeDate == 0 ? null : lastTradeDate);
+        tradeDateParams.put("next_trade_date", nextTradeDate == 0 ? null : nextTradeDate);
+
+        List<Object[]> args = new ArrayList<>();
+        tradeDateParams.forEach((kind, value) -> args.add(new Object[] {"$$" + kind, value, paramSou}));
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO tb_imp_param0(param_name, param_value, param_sou) " +
+                        "VALUES(?, ?, ?)", args);
     }
 
     /**
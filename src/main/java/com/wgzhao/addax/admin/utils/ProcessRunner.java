@@ -0,0 +1,265 @@
+package com.wgzhao.addax.admin.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 子进程执行器
+ * stdout 与 stderr 由各自的读取线程同时读取，避免任一管道写满导致子进程阻塞；
+ * 支持按行回调、只保留最后若干行的输出捕获，以及总超时或者长时间无输出后终止整个进程树。
+ * 子进程退出后最多再等待 DRAIN_GRACE 读取剩余输出，脱离进程树的孙进程继续占用管道时不会让调用方一直等待。
+ * 用法：ProcessRunner.of("bash cmd").timeout(Duration.ofHours(1)).onStdout(System.out::println).start()
+ */
+public class ProcessRunner {
+    private static final Logger logger = LoggerFactory.getLogger(ProcessRunner.class);
+
+    // 终止进程树时，先发送 SIGTERM，等待该时长后仍存活的进程强制终止
+    private static final Duration KILL_GRACE = Duration.ofSeconds(5);
+
+    // 子进程退出后等待输出读取完毕的最长时间
+    private static final Duration DRAIN_GRACE = Duration.ofSeconds(10);
+
+    // 读取管道是阻塞的文件读取，在 JDK 21 的虚拟线程上会占住载体线程，因此使用平台守护线程
+    private static final ExecutorService PUMPS = Executors.newCachedThreadPool(
+            Thread.ofPlatform().name("process-pump-", 0).daemon(true).factory());
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "process-timeout");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * 执行结果
+     * @param exitCode 退出码，启动失败为 -1
+     * @param stdout 捕获的标准输出（最后 captureLines 行）
+     * @param stderr 捕获的错误输出（最后 captureLines 行）
+     * @param timedOut 是否因超时被终止
+     * @param truncated 捕获的输出是否丢弃了前面的行
+     */
+    public record Result(int exitCode, List<String> stdout, List<String> stderr, boolean timedOut, boolean truncated) {
+        public String output() {
+            return String.join("\n", stdout);
+        }
+    }
+
+    private final String command;
+    private Duration timeout;
+    private Duration idleTimeout;
+    private Consumer<String> stdoutListener;
+    private Consumer<String> stderrListener;
+    private int captureLines;
+
+    private ProcessRunner(String command) {
+        this.command = command;
+    }
+
+    /**
+     * 以 bash -c 方式执行命令
+     * @param command 命令
+     */
+    public static ProcessRunner of(String command) {
+        return new ProcessRunner(command);
+    }
+
+    /**
+     * 超时时长，超时后终止整个进程树，为 null 表示不超时
+     */
+    public ProcessRunner timeout(Duration timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * 无输出超时，stdout 与 stderr 都超过该时长没有新的输出时视为挂死并终止整个进程树，为 null 表示不检查
+     */
+    public ProcessRunner idleTimeout(Duration idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        return this;
+    }
+
+    /**
+     * 标准输出按行回调，在读取线程中调用
+     */
+    public ProcessRunner onStdout(Consumer<String> listener) {
+        this.stdoutListener = listener;
+        return this;
+    }
+
+    /**
+     * 错误输出按行回调，在读取线程中调用
+     */
+    public ProcessRunner onStderr(Consumer<String> listener) {
+        this.stderrListener = listener;
+        return this;
+    }
+
+    /**
+     * 每个输出流最多保留的行数，超出时丢弃最早的行，0 表示不捕获
+     */
+    public ProcessRunner capture(int lines) {
+        this.captureLines = lines;
+        return this;
+    }
+
+    /**
+     * 启动子进程
+     * @return 子进程结束且输出读取完毕后完成的 future；取消该 future 会终止进程树
+     */
+    public CompletableFuture<Result> start() {
+        Process process;
+        try {
+            process = new ProcessBuilder("bash", "-c", command).start();
+        }
+        catch (IOException e) {
+            logger.error("failed to start [{}]: {}", command, e.getMessage());
+            return CompletableFuture.completedFuture(new Result(-1, List.of(), List.of(), false, false));
+        }
+        try {
+            process.getOutputStream().close();
+        }
+        catch (IOException ignored) {
+            // 子进程不读取标准输入
+        }
+
+        RingBuffer out = new RingBuffer(captureLines);
+        RingBuffer err = new RingBuffer(captureLines);
+        AtomicLong lastOutput = new AtomicLong(System.nanoTime());
+        // 读取线程沿用调用线程的运行日志(RunLog)，回调中的 System.out 写入同一个文件
+        CompletableFuture<Void> outPump = CompletableFuture.runAsync(RunLog.wrap(() -> pump(process.getInputStream(), out, stdoutListener, lastOutput)), PUMPS);
+        CompletableFuture<Void> errPump = CompletableFuture.runAsync(RunLog.wrap(() -> pump(process.getErrorStream(), err, stderrListener, lastOutput)), PUMPS);
+
+        AtomicBoolean timedOut = new AtomicBoolean();
+        List<ScheduledFuture<?>> timers = new ArrayList<>();
+        if (timeout != null && !timeout.isZero() && !timeout.isNegative()) {
+            timers.add(TIMER.schedule(() -> {
+                timedOut.set(true);
+                logger.warn("[{}] exceeded {}s, killing pid {} and its descendants", command, timeout.toSeconds(), process.pid());
+                killTree(process.toHandle());
+            }, timeout.toMillis(), TimeUnit.MILLISECONDS));
+        }
+        if (idleTimeout != null && !idleTimeout.isZero() && !idleTimeout.isNegative()) {
+            long idle = idleTimeout.toNanos();
+            long period = Math.max(1000, Math.min(idleTimeout.toMillis() / 4, 30_000));
+            timers.add(TIMER.scheduleWithFixedDelay(() -> {
+                if (process.isAlive() && System.nanoTime() - lastOutput.get() > idle && timedOut.compareAndSet(false, true)) {
+                    logger.warn("[{}] produced no output for {}s, killing pid {} and its descendants", command, idleTimeout.toSeconds(), process.pid());
+                    killTree(process.toHandle());
+                }
+            }, period, period, TimeUnit.MILLISECONDS));
+        }
+
+        CompletableFuture<Void> pumps = CompletableFuture.allOf(outPump, errPump);
+        CompletableFuture<Result> result = process.onExit()
+                .thenCompose(p -> pumps.handle((v, e) -> p).completeOnTimeout(p, DRAIN_GRACE.toMillis(), TimeUnit.MILLISECONDS))
+                .thenApply(p -> {
+                    timers.forEach(t -> t.cancel(false));
+                    if (!pumps.isDone()) {
+                        // 子进程已经退出，但脱离进程树的孙进程仍持有管道，不再等待其余输出
+                        logger.warn("[{}] exited but its output pipes are still open, returning without the remaining output", command);
+                    }
+                    return new Result(p.exitValue(), out.lines(), err.lines(), timedOut.get(), out.dropped || err.dropped);
+                });
+        result.whenComplete((r, e) -> {
+            if (e instanceof CancellationException) {
+                timers.forEach(t -> t.cancel(false));
+                killTree(process.toHandle());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 启动并等待子进程结束，线程被中断时终止进程树
+     * @return 执行结果，被中断时退出码为 -1
+     */
+    public Result run() {
+        CompletableFuture<Result> future = start();
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+        }
+        catch (Exception e) {
+            logger.error("failed to run [{}]: {}", command, e.getMessage());
+        }
+        return new Result(-1, List.of(), List.of(), false, false);
+    }
+
+    /**
+     * 终止进程及其所有子孙进程，先 SIGTERM，宽限期后仍存活的强制终止
+     */
+    public static void killTree(ProcessHandle root) {
+        List<ProcessHandle> handles = new ArrayList<>(root.descendants().toList());
+        handles.add(root);
+        handles.forEach(ProcessHandle::destroy);
+        TIMER.schedule(() -> handles.stream().filter(ProcessHandle::isAlive).forEach(ProcessHandle::destroyForcibly),
+                KILL_GRACE.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static void pump(InputStream in, RingBuffer buffer, Consumer<String> listener, AtomicLong lastOutput) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lastOutput.set(System.nanoTime());
+                buffer.add(line);
+                if (listener != null) {
+                    listener.accept(line);
+                }
+            }
+        }
+        catch (IOException e) {
+            // 进程被终止时管道关闭，忽略
+            logger.debug("stream closed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 只保留最后 capacity 行的输出缓冲，由一个读取线程写入；排空超时后读取线程可能仍在写入，因此加锁
+     */
+    private static final class RingBuffer {
+        private final int capacity;
+        private final ArrayDeque<String> lines = new ArrayDeque<>();
+        private volatile boolean dropped;
+
+        RingBuffer(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized void add(String line) {
+            if (capacity <= 0) {
+                return;
+            }
+            if (lines.size() == capacity) {
+                lines.pollFirst();
+                dropped = true;
+            }
+            lines.addLast(line);
+        }
+
+        synchronized List<String> lines() {
+            return List.copyOf(lines);
+        }
+    }
+}
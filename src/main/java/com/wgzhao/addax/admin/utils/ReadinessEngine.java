@@ -0,0 +1,273 @@
+package com.wgzhao.addax.admin.utils;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SP 就绪引擎，sp_imp_alone('sp_start') 中"恢复 SP"部分的增量实现
+ * 启动时从 vw_imp_sp_needs 加载依赖关系，为每个 SP 记录未完成的前置数以及是否有前置在其上次开始之后完成；
+ * 前置任务变为 Y 时对其下游减一，离开 Y 时加一，未完成数归零、有新完成的前置且 SP 不在运行中即为就绪。
+ * sp_start 只读取就绪集合，批量更新提交后再确认取走，不再每次对 vw_imp_sp_needs 整体分组统计。
+ * <p>
+ * 状态变更来自 TaskRegistry 的监听以及数据源采集结束（etl_end）。任务可能在其他节点上执行结束，
+ * 本节点的变更通过 Redis 频道广播给其他节点；广播可能丢失，定时整体重新加载兜底并纳入配置变化
+ */
+@Component
+public class ReadinessEngine implements MessageListener {
+    private static final Logger logger = LoggerFactory.getLogger(ReadinessEngine.class);
+
+    private static final class Node {
+        final String spId;
+        int unmet;
+        // 是否有前置在本 SP 上次开始之后完成
+        boolean fresh;
+        String flag;
+
+        Node(String spId, String flag) {
+            this.spId = spId;
+            this.flag = flag;
+        }
+
+        boolean ready() {
+            return unmet == 0 && fresh && !"R".equals(flag);
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TaskRegistry taskRegistry;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer container;
+
+    private final String node = CommandExecutor.getHostname() + ":" + ProcessHandle.current().pid();
+
+    @Value("${addax.readiness.channel:addax:readiness:status}")
+    private String channel;
+
+    private Map<String, Node> nodes = new HashMap<>();
+
+    // 前置编号到下游 SP 的映射，以及前置当前的状态
+    private Map<String, List<Node>> dependents = new HashMap<>();
+
+    private Map<String, String> upstreamFlags = new HashMap<>();
+
+    private final Set<String> ready = new LinkedHashSet<>();
+
+    private boolean loaded;
+
+    // 重新加载期间的状态变更，加载完成后重放
+    private List<String[]> replay;
+
+    public ReadinessEngine(@Qualifier("oracleJdbcTemplate") JdbcTemplate jdbcTemplate, TaskRegistry taskRegistry,
+            StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer container) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.taskRegistry = taskRegistry;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.container = container;
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        taskRegistry.addListener(this::onStatus);
+        container.addMessageListener(this, new ChannelTopic(channel));
+    }
+
+    /**
+     * 任务状态变更
+     * @param id 任务编号，可以是前置任务、来源系统或者 SP 本身
+     * @param flag 变更后的状态
+     */
+    public void onStatus(String id, String flag) {
+        apply(id, flag, true);
+        publish(id, flag, true);
+    }
+
+    /**
+     * 临时置为 Y 的 SP（sp_start 中前置未就绪或下游正在运行的情形），只改变状态，不视为新的完成
+     */
+    public void hold(String id) {
+        apply(id, "Y", false);
+        publish(id, "Y", false);
+    }
+
+    // 消息内容：节点\t编号\t状态\t是否为新的完成
+    private void publish(String id, String flag, boolean finished) {
+        if (id == null || flag == null) {
+            return;
+        }
+        try {
+            stringRedisTemplate.convertAndSend(channel, node + "\t" + id + "\t" + flag + "\t" + (finished ? "1" : "0"));
+        }
+        catch (Exception e) {
+            logger.warn("failed to publish readiness change {} {}: {}", id, flag, e.getMessage());
+        }
+    }
+
+    /**
+     * 其他节点上的状态变更，重复收到同一变更不影响结果
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\t");
+        if (parts.length != 4 || node.equals(parts[0])) {
+            return;
+        }
+        apply(parts[1], parts[2], "1".equals(parts[3]));
+    }
+
+    private synchronized void apply(String id, String flag, boolean finished) {
+        if (replay != null) {
+            replay.add(new String[] {id, flag, finished ? "1" : "0"});
+        }
+        if (!loaded || id == null || flag == null) {
+            return;
+        }
+        Node self = nodes.get(id);
+        if (self != null) {
+            self.flag = flag;
+            if ("R".equals(flag)) {
+                // 开始时间晚于此前所有前置的完成时间
+                self.fresh = false;
+                ready.remove(id);
+            }
+            else if (self.ready()) {
+                // 运行期间有前置完成，结束后再次就绪
+                ready.add(id);
+            }
+        }
+
+        List<Node> downs = dependents.get(id);
+        if (downs == null) {
+            return;
+        }
+        String old = upstreamFlags.put(id, flag);
+        boolean wasDone = "Y".equals(old);
+        boolean done = "Y".equals(flag);
+        for (Node n : downs) {
+            if (done) {
+                if (!wasDone) {
+                    n.unmet--;
+                }
+                n.fresh |= finished;
+            }
+            else if (wasDone) {
+                n.unmet++;
+            }
+            if (n.ready()) {
+                ready.add(n.spId);
+            }
+            else {
+                ready.remove(n.spId);
+            }
+        }
+    }
+
+    /**
+     * 数据源采集结束，视为该来源系统完成
+     */
+    public void onSourceEnd(String sysid) {
+        onStatus(sysid, "Y");
+    }
+
+    /**
+     * 当前就绪的 SP，不从就绪集合中移除，置N的更新提交后调用 ack 确认
+     * @return 前置已全部完成且有新完成前置的 SP 编号
+     */
+    public synchronized Set<String> ready() {
+        if (!loaded) {
+            reload();
+        }
+        return new LinkedHashSet<>(ready);
+    }
+
+    /**
+     * 确认已经置N的 SP，从就绪集合中移除；更新失败时不调用，下次 sp_start 仍会取到
+     * @param ids ready 返回的 SP 编号
+     */
+    public synchronized void ack(Collection<String> ids) {
+        ids.forEach(ready::remove);
+    }
+
+    @Scheduled(fixedDelayString = "${addax.readiness.refresh-interval:300000}", initialDelayString = "${addax.readiness.refresh-interval:300000}")
+    public void refresh() {
+        try {
+            reload();
+        }
+        catch (Exception e) {
+            logger.warn("failed to reload readiness graph: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 从 vw_imp_sp_needs 重新加载依赖关系及就绪集合
+     */
+    public void reload() {
+        synchronized (this) {
+            replay = new ArrayList<>();
+        }
+        Map<String, Node> n = new HashMap<>();
+        Map<String, List<Node>> d = new HashMap<>();
+        Map<String, String> u = new HashMap<>();
+        List<String[]> events;
+        try {
+            jdbcTemplate.query("select sp_id, needs, needs_flag, " +
+                    "case when needs_end_time > nvl(start_time, needs_end_time - 1) then 1 else 0 end, flag " +
+                    "from vw_imp_sp_needs", (RowCallbackHandler) rs -> {
+                Node node = n.computeIfAbsent(rs.getString(1), k -> new Node(k, null));
+                node.flag = rs.getString(5);
+                String needs = rs.getString(2);
+                if (!"Y".equals(rs.getString(3))) {
+                    node.unmet++;
+                }
+                if (rs.getInt(4) == 1) {
+                    node.fresh = true;
+                }
+                if (needs != null) {
+                    d.computeIfAbsent(needs, k -> new ArrayList<>()).add(node);
+                    u.put(needs, rs.getString(3));
+                }
+            });
+        }
+        finally {
+            synchronized (this) {
+                events = replay;
+                replay = null;
+            }
+        }
+        synchronized (this) {
+            nodes = n;
+            dependents = d;
+            upstreamFlags = u;
+            ready.clear();
+            n.values().stream().filter(Node::ready).forEach(x -> ready.add(x.spId));
+            loaded = true;
+            for (String[] e : events) {
+                apply(e[0], e[1], "1".equals(e[2]));
+            }
+            logger.info("readiness graph loaded, {} sp, {} upstreams, {} ready", n.size(), d.size(), ready.size());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.wgzhao.addax.admin.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 基于 Lettuce 的进程内 Redis 客户端
+ * 替代 rds 命令行调用，由 RedisUtils 的静态方法委托使用
+ */
+@Component
+public class RedisClient {
+    private static final Logger logger = LoggerFactory.getLogger(RedisClient.class);
+
+    // SCAN 每批次返回的建议数量，同时也是批量删除的批次大小
+    private static final int SCAN_BATCH = 500;
+
+    private final StringRedisTemplate redisTemplate;
+
+    // 写入 param.* 等近端缓存的键后通知各实例失效
+    private final CacheUtil cacheUtil;
+
+    public RedisClient(StringRedisTemplate stringRedisTemplate, CacheUtil cacheUtil) {
+        this.redisTemplate = stringRedisTemplate;
+        this.cacheUtil = cacheUtil;
+    }
+
+    /**
+     * 获取值，不存在时返回空字符串，与 rds get 的输出保持一致
+     */
+    public String get(String key) {
+        String value = redisTemplate.opsForValue().get(key);
+        return value == null ? "" : value;
+    }
+
+    public String set(String key, String value) {
+        redisTemplate.opsForValue().set(key, value);
+        cacheUtil.invalidate(key);
+        return "OK";
+    }
+
+    public String delete(String key) {
+        boolean deleted = Boolean.TRUE.equals(redisTemplate.delete(key));
+        cacheUtil.invalidate(key);
+        return deleted ? "1" : "0";
+    }
+
+    /**
+     * 一次往返获取多个键的值，不存在的键返回空字符串
+     * @param keys 键列表
+     * @return 与 keys 顺序一致的值列表
+     */
+    public List<String> multiGet(Collection<String> keys) {
+        List<String> result = new ArrayList<>(keys.size());
+        if (keys.isEmpty()) {
+            return result;
+        }
+        List<String> values = redisTemplate.opsForValue().multiGet(keys);
+        if (values == null) {
+            keys.forEach(k -> result.add(""));
+            return result;
+        }
+        for (String value : values) {
+            result.add(value == null ? "" : value);
+        }
+        return result;
+    }
+
+    /**
+     * 使用 SCAN 遍历匹配的键，替代阻塞式的 keys 命令
+     * @param pattern 匹配模式，如 ds.xxx*
+     * @return 匹配的键列表
+     */
+    public List<String> scan(String pattern) {
+        List<String> keys = new ArrayList<>();
+        ScanOptions options = ScanOptions.scanOptions().match(pattern).count(SCAN_BATCH).build();
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                keys.add(cursor.next());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 删除所有匹配的键，按批次删除
+     * @param pattern 匹配模式
+     * @return 被删除的键
+     */
+    public List<String> deleteByPattern(String pattern) {
+        List<String> keys = scan(pattern);
+        for (int i = 0; i < keys.size(); i += SCAN_BATCH) {
+            redisTemplate.delete(keys.subList(i, Math.min(i + SCAN_BATCH, keys.size())));
+        }
+        keys.forEach(cacheUtil::invalidate);
+        logger.debug("deleted {} keys matching {}", keys.size(), pattern);
+        return keys;
+    }
+
+    /**
+     * 执行 vw_updt_rds 之类的单行命令，仅支持 get/set/del，其余返回 null 由调用方回退到命令行
+     */
+    public String command(String line) {
+        String[] parts = line.trim().split("\\s+", 3);
+        String cmd = parts[0].toLowerCase();
+        if ("set".equals(cmd) && parts.length == 3) {
+            return set(parts[1], parts[2]);
+        }
+        if ("get".equals(cmd) && parts.length == 2) {
+            return get(parts[1]);
+        }
+        if ("del".equals(cmd) && parts.length == 2) {
+            return delete(parts[1]);
+        }
+        return null;
+    }
+}
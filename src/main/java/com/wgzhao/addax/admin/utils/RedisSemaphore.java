@@ -0,0 +1,343 @@
+package com.wgzhao.addax.admin.utils;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 基于 Redis 的分布式计数信号量，替代 wait_idx 轮询 rfg add 的方式获取并发队列号
+ * 每个信号量由三个键组成：
+ * leases 有序集合记录被占用的队列号及租约到期时间，owners 哈希记录队列号的持有令牌，
+ * 释放时向 signal 频道发布队列号。等待方不占用连接池中的连接，而是在本地等待共享订阅连接收到的释放通知，
+ * 收到通知或者等待 addax.semaphore.poll-seconds 后重新尝试获取；通知不落地，不会残留过期的唤醒信号。
+ * 持有方异常退出后，租约到期的队列号在下一次获取时被回收。
+ * 命令行 wait_idx 获取的队列号由本进程持续续约，直到调用脚本通过 release_idx 释放，
+ * 或者持有超过 addax.semaphore.max-hold-seconds(调用脚本异常退出未释放)后停止续约、在租约到期时回收
+ */
+@Component
+public class RedisSemaphore implements MessageListener {
+    private static final Logger logger = LoggerFactory.getLogger(RedisSemaphore.class);
+
+    private static final String NOW_MS = "local t = redis.call('time') " +
+            "local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000) ";
+
+    // KEYS=leases,owners,signal ARGV[1]=并发数 ARGV[2]=租约毫秒 ARGV[3]=令牌 ARGV[4]=键过期毫秒；返回队列号，无空闲时返回 0
+    private static final RedisScript<Long> ACQUIRE = new DefaultRedisScript<>(NOW_MS +
+            "for _, s in ipairs(redis.call('zrangebyscore', KEYS[1], '-inf', now)) do " +
+            "  redis.call('zrem', KEYS[1], s) redis.call('hdel', KEYS[2], s) end " +
+            "for i = 1, tonumber(ARGV[1]) do " +
+            "  local s = tostring(i) " +
+            "  if not redis.call('zscore', KEYS[1], s) then " +
+            "    redis.call('zadd', KEYS[1], now + tonumber(ARGV[2]), s) " +
+            "    redis.call('hset', KEYS[2], s, ARGV[3]) " +
+            "    redis.call('pexpire', KEYS[1], ARGV[4]) redis.call('pexpire', KEYS[2], ARGV[4]) " +
+            "    return i end end " +
+            "return 0", Long.class);
+
+    // KEYS=leases,owners,signal ARGV[1]=队列号 ARGV[2]=令牌(空表示不校验)
+    // 返回 1 已释放，0 未被占用，-1 令牌不匹配
+    private static final RedisScript<Long> RELEASE = new DefaultRedisScript<>(
+            "local cur = redis.call('hget', KEYS[2], ARGV[1]) " +
+            "if not cur then return 0 end " +
+            "if ARGV[2] ~= '' and cur ~= ARGV[2] then return -1 end " +
+            "redis.call('zrem', KEYS[1], ARGV[1]) redis.call('hdel', KEYS[2], ARGV[1]) " +
+            "redis.call('publish', KEYS[3], ARGV[1]) " +
+            "return 1", Long.class);
+
+    // KEYS=leases,owners ARGV[1]=队列号 ARGV[2]=令牌 ARGV[3]=租约毫秒 ARGV[4]=键过期毫秒
+    private static final RedisScript<Long> RENEW = new DefaultRedisScript<>(
+            "if redis.call('hget', KEYS[2], ARGV[1]) ~= ARGV[2] then return 0 end " + NOW_MS +
+            "redis.call('zadd', KEYS[1], now + tonumber(ARGV[3]), ARGV[1]) " +
+            "redis.call('pexpire', KEYS[1], ARGV[4]) redis.call('pexpire', KEYS[2], ARGV[4]) " +
+            "return 1", Long.class);
+
+    /**
+     * 已获取的许可
+     * @param name 信号量名称，如 ds_xxx、runsql_xxx
+     * @param slot 队列号，从1开始
+     * @param token 持有令牌，为 null 时表示通过 rfg 命令行获取
+     */
+    public record Permit(String name, int slot, String token) {}
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    // 本地等待方，信号量名称 -> 释放通知计数
+    private final Map<String, Signal> signals = new ConcurrentHashMap<>();
+
+    // 本进程持有的许可，用于续约
+    private final Set<Permit> held = ConcurrentHashMap.newKeySet();
+
+    // 交由外部进程释放的许可及停止续约的时间(毫秒)
+    private final Map<Permit, Long> holdUntil = new ConcurrentHashMap<>();
+
+    private final String owner = CommandExecutor.getHostname() + ":" + ProcessHandle.current().pid();
+
+    private final AtomicLong seq = new AtomicLong();
+
+    @Value("${addax.semaphore.prefix:sem:}")
+    private String prefix;
+
+    @Value("${addax.semaphore.lease-seconds:300}")
+    private long leaseSeconds;
+
+    @Value("${addax.semaphore.poll-seconds:5}")
+    private long pollSeconds;
+
+    @Value("${addax.semaphore.max-hold-seconds:86400}")
+    private long maxHoldSeconds;
+
+    public RedisSemaphore(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer redisMessageListenerContainer) {
+        this.redisTemplate = stringRedisTemplate;
+        this.listenerContainer = redisMessageListenerContainer;
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        listenerContainer.addMessageListener(this, new PatternTopic(prefix + "*:signal"));
+    }
+
+    /**
+     * 阻塞获取许可，直到有空闲队列号
+     * @param name 信号量名称
+     * @param permits 最大并发数
+     * @return 许可，线程被中断时返回 null
+     */
+    public Permit acquire(String name, int permits) {
+        return acquire(name, permits, 0);
+    }
+
+    /**
+     * 获取许可
+     * @param name 信号量名称
+     * @param permits 最大并发数
+     * @param timeoutSeconds 最长等待秒数，小于等于0表示一直等待
+     * @return 许可，超时或线程被中断时返回 null
+     */
+    public Permit acquire(String name, int permits, long timeoutSeconds) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        String token = owner + ":" + seq.incrementAndGet();
+        List<String> keys = keys(name);
+        Signal signal = signals.compute(keys.get(2), (k, v) -> (v == null ? new Signal() : v).join());
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                // 先取通知计数再尝试获取，尝试期间到达的通知不会丢失
+                long seen = signal.count();
+                Long slot = redisTemplate.execute(ACQUIRE, keys, String.valueOf(Math.max(permits, 1)),
+                        String.valueOf(leaseMillis()), token, String.valueOf(keyTtlMillis()));
+                if (slot != null && slot > 0) {
+                    Permit permit = new Permit(name, slot.intValue(), token);
+                    held.add(permit);
+                    return permit;
+                }
+                // 至少等待 1 秒再重试，poll-seconds 配置为 0 时也不会变成空转或者无限等待
+                long wait = TimeUnit.SECONDS.toNanos(Math.max(1, pollSeconds));
+                if (timeoutSeconds > 0) {
+                    long remain = deadline - System.nanoTime();
+                    if (remain <= 0) {
+                        return null;
+                    }
+                    wait = Math.min(wait, remain);
+                }
+                // 等待释放通知；超时后重新尝试，顺带回收租约到期的队列号
+                if (!signal.await(seen, wait)) {
+                    return null;
+                }
+            }
+            return null;
+        }
+        finally {
+            // 没有等待方时移除，runsql_<uuid> 之类的临时信号量不会一直留在本地
+            signals.computeIfPresent(keys.get(2), (k, v) -> v.leave() ? null : v);
+        }
+    }
+
+    /**
+     * 释放许可并唤醒一个等待方
+     * @param permit 获取时返回的许可
+     * @return 是否释放成功
+     */
+    public boolean release(Permit permit) {
+        held.remove(permit);
+        holdUntil.remove(permit);
+        return release(permit.name(), permit.slot(), permit.token());
+    }
+
+    /**
+     * 不校验令牌强制释放队列号，供命令行 wait_idx 获取的队列号释放使用，同时停止本进程对该队列号的续约
+     * @param name 信号量名称
+     * @param slot 队列号
+     * @return 是否释放成功
+     */
+    public boolean release(String name, int slot) {
+        held.removeIf(p -> p.name().equals(name) && p.slot() == slot);
+        holdUntil.keySet().removeIf(p -> p.name().equals(name) && p.slot() == slot);
+        return release(name, slot, "");
+    }
+
+    private boolean release(String name, int slot, String token) {
+        Long rc = redisTemplate.execute(RELEASE, keys(name), String.valueOf(slot), token);
+        if (rc != null && rc < 0) {
+            logger.warn("slot {}_{} is held by another token, release ignored", name, slot);
+        }
+        return rc != null && rc > 0;
+    }
+
+    /**
+     * 释放指定进程持有的全部队列号，供主节点切换时清理异常退出节点遗留的队列号
+     * @param holder 持有进程，格式为 主机名:进程号
+     * @return 释放的队列号数量
+     */
+    public int releaseHeldBy(String holder) {
+        int released = 0;
+        String suffix = ":owners";
+        for (String k : RedisUtils.keys(prefix + "*" + suffix)) {
+            String name = k.substring(prefix.length(), k.length() - suffix.length());
+            for (Map.Entry<Object, Object> e : redisTemplate.opsForHash().entries(k).entrySet()) {
+                String token = String.valueOf(e.getValue());
+                if (token.startsWith(holder + ":") && release(name, Integer.parseInt(String.valueOf(e.getKey())), token)) {
+                    released++;
+                }
+            }
+        }
+        return released;
+    }
+
+    /**
+     * 交由外部进程释放许可：本进程继续续约，直到 release(name, slot) 或者超过 addax.semaphore.max-hold-seconds
+     * @param permit 获取时返回的许可
+     */
+    public void hold(Permit permit) {
+        holdUntil.put(permit, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(maxHoldSeconds));
+    }
+
+    /**
+     * 续约本进程持有的许可
+     */
+    @Scheduled(fixedDelayString = "${addax.semaphore.renew-interval:60000}")
+    public void renew() {
+        String lease = String.valueOf(leaseMillis());
+        String ttl = String.valueOf(keyTtlMillis());
+        long now = System.currentTimeMillis();
+        for (Permit permit : held) {
+            Long until = holdUntil.get(permit);
+            if (until != null && until < now) {
+                logger.warn("slot {}_{} not released within {}s, renewal stopped", permit.name(), permit.slot(), maxHoldSeconds);
+                held.remove(permit);
+                holdUntil.remove(permit);
+                continue;
+            }
+            Long rc = redisTemplate.execute(RENEW, keys(permit.name()).subList(0, 2),
+                    String.valueOf(permit.slot()), permit.token(), lease, ttl);
+            if (rc == null || rc == 0) {
+                logger.warn("lost slot {}_{}", permit.name(), permit.slot());
+                held.remove(permit);
+                holdUntil.remove(permit);
+            }
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Signal signal = signals.get(new String(message.getChannel(), StandardCharsets.UTF_8));
+        if (signal != null) {
+            signal.fire();
+        }
+    }
+
+    // 释放通知计数，等待方等待计数发生变化
+    private static final class Signal {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final Condition changed = lock.newCondition();
+
+        private long count;
+
+        // 等待方数量，只在 signals.compute 中修改
+        private int waiters;
+
+        Signal join() {
+            waiters++;
+            return this;
+        }
+
+        // 返回 true 表示已经没有等待方
+        boolean leave() {
+            return --waiters <= 0;
+        }
+
+        long count() {
+            lock.lock();
+            try {
+                return count;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        void fire() {
+            lock.lock();
+            try {
+                count++;
+                changed.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        // 返回 false 表示线程被中断
+        boolean await(long seen, long nanos) {
+            lock.lock();
+            try {
+                while (count == seen && nanos > 0) {
+                    nanos = changed.awaitNanos(nanos);
+                }
+                return true;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private List<String> keys(String name) {
+        String base = prefix + name + ":";
+        return List.of(base + "leases", base + "owners", base + "signal");
+    }
+
+    private long leaseMillis() {
+        return TimeUnit.SECONDS.toMillis(leaseSeconds);
+    }
+
+    // runsql_<uuid> 之类的临时信号量在无人使用后自动清理
+    private long keyTtlMillis() {
+        return leaseMillis() * 2;
+    }
+}
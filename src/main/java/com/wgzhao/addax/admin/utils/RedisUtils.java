@@ -1,20 +1,80 @@
 package com.wgzhao.addax.admin.utils;
 
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Redis操作工具类
+ * Spring 容器启动后委托给进程内的 RedisClient 与 FlagRegistry，否则回退到 rds 命令行。
+ * 回退时标志同样读写 FlagRegistry 的键(flag:标志名，值为持有者)及 fencing token，两种方式获取的标志互相可见；
+ * 回退方式获取的标志由本进程的守护线程按 FLAG_RENEW_MILLIS 续约，进程退出后在租约到期时失效。
+ * 回退方式的获取、续约由多条 rds 命令完成，不是原子操作：续约先比对持有者再延长租约，
+ * 两条命令之间标志恰好到期并被其他进程获取时会延长对方的租约，不会影响互斥
  */
 public class RedisUtils {
 
+    // 与 addax.flag.prefix、addax.flag.lease-seconds 的默认值一致，没有 Spring 容器时使用
+    private static final String FLAG_PREFIX = "flag:";
+
+    private static final long FLAG_LEASE_MILLIS = 300_000L;
+
+    private static final long FLAG_RENEW_MILLIS = 60_000L;
+
+    // 与 addax.flag.seq-key、addax.flag.token-key 的默认值一致
+    private static final String FLAG_SEQ = "flag-seq";
+
+    private static final String FLAG_TOKEN = "flag-token";
+
+    // 回退方式获取的标志及其 token
+    private static final Map<String, String> LOCAL_FLAGS = new ConcurrentHashMap<>();
+
+    private static volatile String holder;
+
+    private static ScheduledExecutorService renewer;
+
+    private static RedisClient client() {
+        return SpringContextUtil.getBean(RedisClient.class);
+    }
+
     /**
      * 获取Redis中的值
      * @param key 键
      * @return 值
      */
     public static String get(String key) {
+        RedisClient client = client();
+        if (client != null) {
+            return client.get(key);
+        }
         return CommandExecutor.executeForOutput("rds \"get " + key + "\"").trim();
     }
 
+    /**
+     * 批量获取Redis中的值
+     * @param keys 键列表
+     * @return 与键顺序一致的值列表，不存在的键为空字符串
+     */
+    public static List<String> multiGet(Collection<String> keys) {
+        RedisClient client = client();
+        if (client != null) {
+            return client.multiGet(keys);
+        }
+        List<String> values = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            values.add(get(key));
+        }
+        return values;
+    }
+
     /**
      * 设置Redis中的值
      * @param key 键
@@ -22,6 +82,10 @@ public class RedisUtils {
      * @return 操作结果
      */
     public static String set(String key, String value) {
+        RedisClient client = client();
+        if (client != null) {
+            return client.set(key, value);
+        }
         return CommandExecutor.executeForOutput("rds \"set " + key + " " + value + "\"").trim();
     }
 
@@ -31,16 +95,93 @@ public class RedisUtils {
      * @return 操作结果
      */
     public static String delete(String key) {
+        RedisClient client = client();
+        if (client != null) {
+            return client.delete(key);
+        }
         return CommandExecutor.executeForOutput("rds \"del " + key + "\"").trim();
     }
 
+    /**
+     * 获取匹配的键
+     * @param pattern 匹配模式
+     * @return 键列表
+     */
+    public static List<String> keys(String pattern) {
+        RedisClient client = client();
+        if (client != null) {
+            return client.scan(pattern);
+        }
+        String output = CommandExecutor.executeForOutput("rds \"keys " + pattern + "\"");
+        return Arrays.stream(output.split("\n")).map(String::trim).filter(s -> !s.isEmpty()).toList();
+    }
+
+    /**
+     * 删除匹配的键
+     * @param pattern 匹配模式
+     * @return 被删除的键
+     */
+    public static List<String> deleteByPattern(String pattern) {
+        RedisClient client = client();
+        if (client != null) {
+            return client.deleteByPattern(pattern);
+        }
+        List<String> keys = keys(pattern);
+        keys.forEach(RedisUtils::delete);
+        return keys;
+    }
+
+    /**
+     * 执行单行 Redis 命令，如 vw_updt_rds 中的 set 语句
+     * @param line 命令内容
+     * @return 操作结果
+     */
+    public static String command(String line) {
+        RedisClient client = client();
+        if (client != null) {
+            String result = client.command(line);
+            if (result != null) {
+                return result;
+            }
+        }
+        return CommandExecutor.executeForOutput("rds \"" + line + "\"");
+    }
+
     /**
      * 添加标志
      * @param flag 标志名
-     * @return 操作结果
+     * @return 操作结果，获取成功返回1
      */
     public static String flagAdd(String flag) {
-        return CommandExecutor.executeForOutput("rfg add " + flag).trim();
+        FlagRegistry registry = flags();
+        if (registry != null) {
+            return registry.acquire(flag) > 0 ? "1" : "0";
+        }
+        String rc = CommandExecutor.executeForOutput("rds \"set " + FLAG_PREFIX + flag + " " + holder() + " NX PX " + FLAG_LEASE_MILLIS + "\"").trim();
+        if (!"OK".equalsIgnoreCase(rc)) {
+            return "0";
+        }
+        // 已持有标志，其他进程不会同时写入该标志的 token
+        String token = CommandExecutor.executeForOutput("rds \"incr " + FLAG_SEQ + "\"").trim();
+        CommandExecutor.executeForOutput("rds \"hset " + FLAG_TOKEN + " " + flag + " " + token + "\"");
+        LOCAL_FLAGS.put(flag, token);
+        startRenewer();
+        return "1";
+    }
+
+    /**
+     * 校验本进程获取的标志是否仍然有效(持有者及 fencing token 未变化)，在受标志保护的写入之前调用
+     * @param flag 标志名
+     * @return 本进程仍持有标志时返回 true
+     */
+    public static boolean flagValid(String flag) {
+        FlagRegistry registry = flags();
+        if (registry != null) {
+            return registry.validate(flag);
+        }
+        String token = LOCAL_FLAGS.get(flag);
+        return token != null && holder().equals(get(FLAG_PREFIX + flag))
+                && token.equals(CommandExecutor.executeForOutput("rds \"hget " + FLAG_TOKEN + " " + flag + "\"").trim());
     }
 
     /**
@@ -49,7 +190,13 @@ public class RedisUtils {
      * @return 操作结果
      */
     public static String flagRemove(String flag) {
-        return CommandExecutor.executeForOutput("rfg rem " + flag).trim();
+        FlagRegistry registry = flags();
+        if (registry != null) {
+            return registry.release(flag) ? "1" : "0";
+        }
+        LOCAL_FLAGS.remove(flag);
+        CommandExecutor.executeForOutput("rds \"hdel " + FLAG_TOKEN + " " + flag + "\"");
+        return CommandExecutor.executeForOutput("rds \"del " + FLAG_PREFIX + flag + "\"").trim();
     }
 
     /**
@@ -58,6 +205,105 @@ public class RedisUtils {
      * @return 操作结果
      */
     public static String flagHas(String flag) {
-        return CommandExecutor.executeForOutput("rfg has " + flag).trim();
+        FlagRegistry registry = flags();
+        if (registry != null) {
+            return registry.has(flag) ? "1" : "0";
+        }
+        return CommandExecutor.executeForOutput("rds \"exists " + FLAG_PREFIX + flag + "\"").trim();
+    }
+
+    /**
+     * 批量检查标志是否存在
+     * @param flags 标志名
+     * @return 标志名到是否存在的映射
+     */
+    public static Map<String, Boolean> flagHasMany(Collection<String> flags) {
+        FlagRegistry registry = flags();
+        if (registry != null) {
+            return registry.hasMany(flags);
+        }
+        Map<String, Boolean> result = new LinkedHashMap<>();
+        for (String flag : flags) {
+            result.put(flag, "1".equals(flagHas(flag)));
+        }
+        return result;
+    }
+
+    /**
+     * 当前所有标志的情况，替代 rfg all
+     * @return 每行一个标志
+     */
+    public static String flagAll() {
+        FlagRegistry registry = flags();
+        if (registry != null) {
+            StringBuilder sb = new StringBuilder();
+            registry.all().forEach((k, v) -> sb.append(k).append(" ").append(v).append("\n"));
+            return sb.toString();
+        }
+        List<String> keys = keys(FLAG_PREFIX + "*");
+        List<String> values = multiGet(keys);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < keys.size(); i++) {
+            sb.append(keys.get(i).substring(FLAG_PREFIX.length())).append(" ").append(values.get(i)).append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 等待标志被释放，替代 rfg wtout
+     * @param flag 标志名
+     */
+    public static void flagWaitOut(String flag) {
+        FlagRegistry registry = flags();
+        if (registry != null) {
+            registry.awaitRelease(flag, 0);
+            return;
+        }
+        while ("1".equals(flagHas(flag))) {
+            try {
+                Thread.sleep(1000);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static String holder() {
+        if (holder == null) {
+            holder = CommandExecutor.getHostname() + ":" + ProcessHandle.current().pid();
+        }
+        return holder;
+    }
+
+    // 启动回退方式的续约线程，持有者不再是本进程的标志不再续约
+    private static synchronized void startRenewer() {
+        if (renewer != null) {
+            return;
+        }
+        renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "flag-renew");
+            t.setDaemon(true);
+            return t;
+        });
+        renewer.scheduleWithFixedDelay(() -> LOCAL_FLAGS.forEach((flag, token) -> {
+            try {
+                if (holder().equals(get(FLAG_PREFIX + flag))) {
+                    CommandExecutor.executeForOutput("rds \"pexpire " + FLAG_PREFIX + flag + " " + FLAG_LEASE_MILLIS + "\"");
+                }
+                else {
+                    System.err.println("标志[" + flag + "]已失效，停止续约");
+                    LOCAL_FLAGS.remove(flag, token);
+                }
+            }
+            catch (RuntimeException e) {
+                System.err.println("标志[" + flag + "]续约失败:" + e.getMessage());
+            }
+        }), FLAG_RENEW_MILLIS, FLAG_RENEW_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static FlagRegistry flags() {
+        return SpringContextUtil.getBean(FlagRegistry.class);
     }
 }
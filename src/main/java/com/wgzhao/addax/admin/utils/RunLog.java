@@ -0,0 +1,109 @@
+package com.wgzhao.addax.admin.utils;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.function.Supplier;
+
+/**
+ * 按线程重定向的标准输出
+ * 内嵌执行器在本 JVM 中执行原本由 sp_alone 子进程执行的任务，各处理类通过 System.out 输出的过程日志需要写入各自的运行日志文件。
+ * 安装后 System.out 与 System.err 按当前线程设置的目标输出，未设置目标的线程仍输出到原来的标准输出。
+ * 目标不会自动传给其他线程，提交到线程池的任务及进程输出的读取线程通过 wrap 沿用提交线程的目标
+ */
+public final class RunLog {
+
+    private static final PrintStream STDOUT = System.out;
+
+    private static final PrintStream STDERR = System.err;
+
+    private static final ThreadLocal<PrintStream> TARGET = new ThreadLocal<>();
+
+    private static volatile boolean installed;
+
+    private RunLog() {
+    }
+
+    /**
+     * 替换 System.out 及 System.err，重复调用只替换一次
+     */
+    public static synchronized void install() {
+        if (installed) {
+            return;
+        }
+        System.setOut(new PrintStream(new Route(STDOUT), true));
+        System.setErr(new PrintStream(new Route(STDERR), true));
+        installed = true;
+    }
+
+    /**
+     * 在当前线程上把输出写入指定的流并执行任务，结束后恢复原来的目标
+     * @param target 输出目标，为 null 时输出到原来的标准输出
+     * @param task 任务
+     * @return 任务的返回值
+     */
+    public static <T> T with(PrintStream target, Supplier<T> task) {
+        PrintStream old = TARGET.get();
+        set(target);
+        try {
+            return task.get();
+        }
+        finally {
+            set(old);
+        }
+    }
+
+    /**
+     * 沿用当前线程的目标执行任务，用于提交到其他线程的任务
+     * @param task 任务
+     * @return 包装后的任务
+     */
+    public static Runnable wrap(Runnable task) {
+        if (!installed) {
+            return task;
+        }
+        // 未设置目标时同样包装，覆盖线程池中线程上残留的目标
+        PrintStream target = TARGET.get();
+        return () -> with(target, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    private static void set(PrintStream target) {
+        if (target == null) {
+            TARGET.remove();
+        }
+        else {
+            TARGET.set(target);
+        }
+    }
+
+    // 写入时按当前线程选择目标
+    private static final class Route extends OutputStream {
+        private final PrintStream fallback;
+
+        Route(PrintStream fallback) {
+            this.fallback = fallback;
+        }
+
+        @Override
+        public void write(int b) {
+            out().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            out().write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            out().flush();
+        }
+
+        private PrintStream out() {
+            PrintStream t = TARGET.get();
+            return t == null ? fallback : t;
+        }
+    }
+}
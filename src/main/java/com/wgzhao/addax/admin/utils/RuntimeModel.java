@@ -0,0 +1,413 @@
+package com.wgzhao.addax.admin.utils;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 任务耗时模型
+ * 按任务编号(tid/sp_id/tbl_id/ds_id)及交易日分段(周一至周五、月末)统计历史耗时，
+ * 每段维护 EWMA 以及最近若干次耗时的窗口用于计算 p50/p90；段内样本不足时使用该任务全部样本。
+ * 历史数据来自 tb_imp_jour 中 R/Y(cR/cY) 的配对，运行中通过 TaskRegistry 的状态变更增量更新。
+ * <p>
+ * 调度排序使用预测耗时；运行时间超过自身 p90 一定倍数的任务视为拖尾任务并告警。
+ * 定时检查只在主节点执行，syschk 也会调用检查，已告警记录保存在 Redis 中，多个节点、多个入口只告警一次
+ */
+@Component
+public class RuntimeModel {
+    private static final Logger logger = LoggerFactory.getLogger(RuntimeModel.class);
+
+    // 所有分段合计
+    private static final String ALL = "ALL";
+
+    private static final String RUNNING_SQL = """
+            select sp_id, spname, start_time, (sysdate - start_time) * 86400 from vw_imp_sp where flag = 'R' and start_time is not null
+            union all
+            select tid, spname, start_time, (sysdate - start_time) * 86400 from vw_imp_etl where flag = 'R' and start_time is not null
+            union all
+            select ds_id, ds_name, start_time, (sysdate - start_time) * 86400 from vw_imp_ds2 where flag = 'R' and start_time is not null
+            """;
+
+    /**
+     * 单个分段的耗时统计
+     */
+    static final class Stats {
+        private final double[] window;
+        private final double alpha;
+        private int count;
+        private double ewma;
+
+        Stats(int size, double alpha) {
+            this.window = new double[size];
+            this.alpha = alpha;
+        }
+
+        synchronized void add(double secs) {
+            ewma = count == 0 ? secs : alpha * secs + (1 - alpha) * ewma;
+            window[count % window.length] = secs;
+            count++;
+        }
+
+        synchronized int count() {
+            return count;
+        }
+
+        synchronized double ewma() {
+            return ewma;
+        }
+
+        /**
+         * 窗口内的分位数
+         * @param q 0 到 1 之间
+         */
+        synchronized double quantile(double q) {
+            int n = Math.min(count, window.length);
+            if (n == 0) {
+                return 0;
+            }
+            double[] sorted = Arrays.copyOf(window, n);
+            Arrays.sort(sorted);
+            return sorted[Math.max(0, (int) Math.ceil(q * n) - 1)];
+        }
+    }
+
+    /**
+     * 拖尾任务
+     * @param id 任务编号
+     * @param name 任务名称
+     * @param startTime 本次开始时间
+     * @param elapsed 已运行秒数
+     * @param p90 历史 p90 耗时，无历史时为 0
+     */
+    public record Straggler(String id, String name, long startTime, long elapsed, long p90) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TaskRegistry taskRegistry;
+
+    private final TradeCalendar tradeCalendar;
+
+    private final ParamSnapshot paramSnapshot;
+
+    // 首次使用时加载
+    private volatile Map<String, Map<String, Stats>> stats;
+
+    // 运行中任务的开始时间
+    private final Map<String, Long> started = new ConcurrentHashMap<>();
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final LeaderElection leaderElection;
+
+    // Redis 不可用时本地记录已告警的 任务编号|开始时间
+    private final Set<String> alerted = ConcurrentHashMap.newKeySet();
+
+    // 已告警记录的键前缀，键为 前缀 + 任务编号|开始时间
+    @Value("${addax.runtime.alerted-key-prefix:runtime:alerted:}")
+    private String alertedPrefix;
+
+    // 已告警记录的保留时间，超过一次运行的最长时间即可
+    @Value("${addax.runtime.alerted-ttl-hours:48}")
+    private long alertedTtlHours;
+
+    @Value("${addax.runtime.history-days:60}")
+    private int historyDays;
+
+    @Value("${addax.runtime.window:64}")
+    private int windowSize;
+
+    @Value("${addax.runtime.alpha:0.3}")
+    private double alpha;
+
+    // 分段样本数达到该值才使用分段统计
+    @Value("${addax.runtime.min-samples:3}")
+    private int minSamples;
+
+    @Value("${addax.runtime.straggler-factor:1.5}")
+    private double stragglerFactor;
+
+    // 耗时短于该值的任务不视为拖尾，避免短任务的波动
+    @Value("${addax.runtime.straggler-min-seconds:300}")
+    private long stragglerMinSeconds;
+
+    // 没有历史耗时的任务沿用原有的固定阈值
+    @Value("${addax.runtime.straggler-default:3600}")
+    private long stragglerDefault;
+
+    public RuntimeModel(@Qualifier("oracleJdbcTemplate") JdbcTemplate jdbcTemplate, TaskRegistry taskRegistry,
+            TradeCalendar tradeCalendar, ParamSnapshot paramSnapshot, StringRedisTemplate stringRedisTemplate,
+            LeaderElection leaderElection) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.taskRegistry = taskRegistry;
+        this.tradeCalendar = tradeCalendar;
+        this.paramSnapshot = paramSnapshot;
+        this.redisTemplate = stringRedisTemplate;
+        this.leaderElection = leaderElection;
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        taskRegistry.addListener(this::onStatus);
+    }
+
+    /**
+     * 预测任务在当前交易日的耗时
+     * @param id 任务编号
+     * @param fallback 没有历史样本时使用的耗时，一般为上次的 runtime
+     * @return 预测耗时(秒)
+     */
+    public double predict(String id, double fallback) {
+        Stats s = lookup(id, segment(currentTd()));
+        return s == null ? fallback : s.ewma();
+    }
+
+    /**
+     * 任务在当前交易日的耗时分位数
+     * @return 分位数(秒)，没有历史样本时为 0
+     */
+    public double quantile(String id, double q) {
+        Stats s = lookup(id, segment(currentTd()));
+        return s == null ? 0 : s.quantile(q);
+    }
+
+    /**
+     * 记录一次耗时
+     * @param id 任务编号
+     * @param td 交易日
+     * @param secs 耗时(秒)
+     */
+    public void observe(String id, int td, double secs) {
+        observe(current(), id, td, secs);
+    }
+
+    /**
+     * 主任务状态变更，R 记录开始时间，Y 记录耗时
+     */
+    public void onStatus(String id, String flag) {
+        if ("R".equals(flag)) {
+            started.put(id, System.currentTimeMillis());
+        }
+        else {
+            Long start = started.remove(id);
+            if (start != null && "Y".equals(flag)) {
+                observe(id, currentTd(), (System.currentTimeMillis() - start) / 1000.0);
+            }
+        }
+    }
+
+    /**
+     * 当前运行时间超过自身 p90 乘以 addax.runtime.straggler-factor 的任务
+     */
+    public List<Straggler> stragglers() {
+        List<Straggler> result = new ArrayList<>();
+        current();
+        String segment = segment(currentTd());
+        jdbcTemplate.query(RUNNING_SQL, (RowCallbackHandler) rs -> {
+            String id = rs.getString(1);
+            long elapsed = rs.getLong(4);
+            Stats s = lookup(id, segment);
+            long p90 = s == null ? 0 : Math.round(s.quantile(0.9));
+            double limit = s == null ? stragglerDefault : Math.max(stragglerMinSeconds, p90 * stragglerFactor);
+            if (elapsed > limit) {
+                Timestamp start = rs.getTimestamp(3);
+                result.add(new Straggler(id, rs.getString(2), start.getTime(), elapsed, p90));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 检查拖尾任务并发送告警，每个任务每次运行只告警一次，多个节点共享已告警记录
+     * @return 本次新发现的拖尾任务
+     */
+    public List<Straggler> checkStragglers() {
+        List<Straggler> found;
+        try {
+            found = stragglers();
+        }
+        catch (Exception e) {
+            logger.warn("failed to check stragglers: {}", e.getMessage());
+            return List.of();
+        }
+        Set<String> current = new HashSet<>();
+        List<Straggler> fresh = new ArrayList<>();
+        for (Straggler s : found) {
+            String key = s.id() + "|" + s.startTime();
+            current.add(key);
+            if (markAlerted(key)) {
+                fresh.add(s);
+            }
+        }
+        alerted.retainAll(current);
+        if (!fresh.isEmpty()) {
+            StringBuilder msg = new StringBuilder("以下任务运行时间过长:\n");
+            for (Straggler s : fresh) {
+                msg.append(s.name()).append(" (").append(s.elapsed()).append("秒");
+                if (s.p90() > 0) {
+                    msg.append(", p90=").append(s.p90()).append("秒");
+                }
+                msg.append(")\n");
+            }
+            ProcedureHelper procedureHelper = SpringContextUtil.getBean(ProcedureHelper.class);
+            if (procedureHelper != null) {
+                procedureHelper.spSms(msg.toString(), "1", "110");
+            }
+            else {
+                logger.warn(msg.toString());
+            }
+        }
+        return fresh;
+    }
+
+    @Scheduled(fixedDelayString = "${addax.runtime.straggler-check-interval:60000}", initialDelayString = "${addax.runtime.straggler-check-interval:60000}")
+    public void scheduledCheck() {
+        if (!leaderElection.isLeader()) {
+            return;
+        }
+        checkStragglers();
+    }
+
+    // 首次记录时返回 true；Redis 不可用时退回本地记录，可能在其他节点重复告警
+    private boolean markAlerted(String key) {
+        try {
+            Boolean first = redisTemplate.opsForValue().setIfAbsent(alertedPrefix + key, leaderElection.node(), Duration.ofHours(alertedTtlHours));
+            if (Boolean.TRUE.equals(first)) {
+                alerted.add(key);
+                return true;
+            }
+            return false;
+        }
+        catch (Exception e) {
+            logger.warn("failed to record straggler alert in redis: {}", e.getMessage());
+            return alerted.add(key);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${addax.runtime.reload-interval:3600000}", initialDelayString = "${addax.runtime.reload-interval:3600000}")
+    public void refresh() {
+        try {
+            reload();
+        }
+        catch (Exception e) {
+            logger.warn("failed to reload runtime model: {}", e.getMessage());
+        }
+    }
+
+    private Map<String, Map<String, Stats>> current() {
+        Map<String, Map<String, Stats>> s = stats;
+        if (s == null) {
+            synchronized (this) {
+                if (stats == null) {
+                    try {
+                        reload();
+                    }
+                    catch (Exception e) {
+                        logger.warn("failed to load runtime model: {}", e.getMessage());
+                        stats = new ConcurrentHashMap<>();
+                    }
+                }
+                s = stats;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * 从 tb_imp_jour 重新加载最近 addax.runtime.history-days 天的耗时
+     */
+    public void reload() {
+        Map<String, Map<String, Stats>> loaded = new ConcurrentHashMap<>();
+        Map<String, Long> pending = new HashMap<>();
+        int[] samples = {0};
+        jdbcTemplate.query("select key_id, status, trade_date, updt_date from tb_imp_jour " +
+                "where updt_date > sysdate - ? and status in ('R', 'Y', 'E', 'cR', 'cY', 'cE') " +
+                "order by key_id, updt_date", (RowCallbackHandler) rs -> {
+            String id = rs.getString(1);
+            String status = rs.getString(2);
+            Timestamp ts = rs.getTimestamp(4);
+            if (id == null || ts == null) {
+                return;
+            }
+            if (status.endsWith("R")) {
+                pending.put(id, ts.getTime());
+                return;
+            }
+            Long start = pending.remove(id);
+            if (start != null && status.endsWith("Y")) {
+                observe(loaded, id, rs.getInt(3), (ts.getTime() - start) / 1000.0);
+                samples[0]++;
+            }
+        }, historyDays);
+        stats = loaded;
+        logger.info("runtime model loaded, {} tasks, {} samples", loaded.size(), samples[0]);
+    }
+
+    private void observe(Map<String, Map<String, Stats>> target, String id, int td, double secs) {
+        if (id == null || secs < 0) {
+            return;
+        }
+        Map<String, Stats> m = target.computeIfAbsent(id, k -> new ConcurrentHashMap<>());
+        m.computeIfAbsent(segment(td), k -> new Stats(windowSize, alpha)).add(secs);
+        m.computeIfAbsent(ALL, k -> new Stats(windowSize, alpha)).add(secs);
+    }
+
+    private Stats lookup(String id, String segment) {
+        Map<String, Stats> m = id == null ? null : current().get(id);
+        if (m == null) {
+            return null;
+        }
+        Stats s = m.get(segment);
+        if (s != null && s.count() >= minSamples) {
+            return s;
+        }
+        s = m.get(ALL);
+        return s == null || s.count() == 0 ? null : s;
+    }
+
+    /**
+     * 交易日所属分段：月末最后一个交易日为 ME，其余按星期 W1 到 W7
+     */
+    String segment(int td) {
+        if (td <= 0) {
+            return ALL;
+        }
+        try {
+            if (tradeCalendar.isLastOf(TradeCalendar.Period.MONTH, td)) {
+                return "ME";
+            }
+            return "W" + TradeCalendar.toLocalDate(td).getDayOfWeek().getValue();
+        }
+        catch (Exception e) {
+            return ALL;
+        }
+    }
+
+    private int currentTd() {
+        try {
+            String td = paramSnapshot.get("TD", "C");
+            return td == null ? 0 : Integer.parseInt(td);
+        }
+        catch (Exception e) {
+            return 0;
+        }
+    }
+}
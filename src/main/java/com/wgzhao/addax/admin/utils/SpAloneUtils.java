@@ -10,8 +10,6 @@ import java.io.IOException;
  */
 public class SpAloneUtils {
 
-    private static final String c_sql = RedisUtils.get("com.inicmd");
-
     /**
      * 记录系统日志
      * @param message 日志内容
@@ -31,18 +29,60 @@ public class SpAloneUtils {
     }
 
     /**
-     * 等待可用的队列索引
+     * 运行日志文件名，与 sp_alone 的命名一致：tuna_前缀_日期_时间_主机名_进程号.log
+     * @param logprex 前缀，sp_etl、ds_etl 为 命令_参数，其他为命令
+     * @return 日志文件路径
+     */
+    public static String runLogFile(String logprex) {
+        return RedisUtils.get("path.runlog") + "/tuna_" + logprex + "_" +
+                DateUtils.getCurrentDate("yyyyMMdd_HHmmss") + "_" +
+                CommandExecutor.getHostname().split("\\.")[0] + "_" +
+                ProcessHandle.current().pid() + ".log";
+    }
+
+    /**
+     * 系统暂停(com.halt=Y)时输出提示并发送短信，sp_alone 与内嵌执行器共用
+     * @param source 调用方，如 sp_alone、embedded
+     * @param name 任务名称
+     * @return 系统已暂停返回 true，任务不应再执行
+     */
+    public static boolean halted(String source, String name) {
+        if (!"Y".equals(RedisUtils.get("com.halt"))) {
+            return false;
+        }
+        String msg = DateUtils.getCurrentDateTime() + ":系统暂停服务!!" + source + ":" + name + "无法执行";
+        System.out.println(msg);
+        SqlUtils.sms(msg, "1", "110");
+        return true;
+    }
+
+    /**
+     * 任务执行失败时发送短信，sp_alone 与内嵌执行器共用
+     * @param source 调用方，如 sp_alone、embedded
+     * @param name 任务名称
+     * @param param 任务参数
+     */
+    public static void failed(String source, String name, String param) {
+        SqlUtils.sms(source + ":" + name + "[" + param + "]执行失败，请速速排查", "1", "110");
+    }
+
+    /**
+     * 阻塞获取可用的队列号
+     * Spring 容器中存在 RedisSemaphore 时使用分布式信号量，否则回退到 rfg add 轮询
      * @param prefix 队列前缀
      * @param maxNum 最大并发数
-     * @return 可用的队列索引
+     * @return 许可，线程被中断时返回 null
      */
-    public static String waitIdxResult(String prefix, int maxNum) {
-
+    public static RedisSemaphore.Permit acquireSlot(String prefix, int maxNum) {
+        RedisSemaphore semaphore = SpringContextUtil.getBean(RedisSemaphore.class);
+        if (semaphore != null) {
+            return semaphore.acquire(prefix, maxNum);
+        }
         while (true) {
             for (int idx = 1; idx <= maxNum; idx++) {
                 String flagName = prefix + "_" + idx;
                 if ("1".equals(RedisUtils.flagAdd(flagName))) {
-                    return String.valueOf(idx);
+                    return new RedisSemaphore.Permit(prefix, idx, null);
                 }
             }
 
@@ -50,11 +90,27 @@ public class SpAloneUtils {
                 TimeUnit.SECONDS.sleep(1);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
-                return "0";
+                return null;
             }
         }
     }
 
+    /**
+     * 释放队列号
+     * @param permit acquireSlot 返回的许可
+     * @return 操作结果，释放成功返回1
+     */
+    public static String releaseSlot(RedisSemaphore.Permit permit) {
+        if (permit == null) {
+            return "0";
+        }
+        RedisSemaphore semaphore = SpringContextUtil.getBean(RedisSemaphore.class);
+        if (semaphore != null && permit.token() != null) {
+            return semaphore.release(permit) ? "1" : "0";
+        }
+        return RedisUtils.flagRemove(permit.name() + "_" + permit.slot());
+    }
+
     /**
      * 执行SQL文件
      * @param sqlFile SQL文件路径
@@ -97,41 +153,39 @@ public class SpAloneUtils {
 
         String[] lines = FileUtils.readFileContent(tmpFile).split("\n");
 
-        java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newCachedThreadPool();
-
-        for (String line : lines) {
-            if (line == null || line.trim().isEmpty()) {
-                continue;
-            }
-
-            final String sqlLine = line;
-            String finalDbUrl = dbUrl;
-            String finalDbUser = dbUser;
-            String finalDbPass = dbPass;
-            int finalParallelNum = parallelNum;
-            executor.submit(() -> {
-                String rc = waitIdxResult(parallelName, finalParallelNum);
-                String fname = parallelName + "_" + rc;
-
-                System.out.println(DateUtils.getCurrentDateTime() + ":[" + fname + "]开始执行[" + sqlLine + "]");
-                int result = CommandExecutor.executeWithResult(RedisUtils.get("path.bin") + "/jdbc2console.sh -U \"" +
-                        finalDbUrl + "\" -u \"" + finalDbUser + "\" -p \"" + finalDbPass + "\" \"" +
-                        sqlLine + "\" 2>&1");
-
-                if (result != 0) {
-                    RedisUtils.set(parallelName, String.valueOf(result));
+        try (TaskScope scope = TaskScope.open("runsql", 0)) {
+            for (String line : lines) {
+                if (line == null || line.trim().isEmpty()) {
+                    continue;
                 }
 
-                System.out.println(DateUtils.getCurrentDateTime() + ":[" + fname + "]执行结束[" + sqlLine + "]，执行结果[" +
-                        result + "]，删除标志：" + RedisUtils.flagRemove(fname));
-            });
-        }
-
-        executor.shutdown();
-        try {
-            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+                final String sqlLine = line;
+                String finalDbUrl = dbUrl;
+                String finalDbUser = dbUser;
+                String finalDbPass = dbPass;
+                // 在提交线程上等待队列号，避免每条语句各占一个等待连接
+                RedisSemaphore.Permit permit = acquireSlot(parallelName, parallelNum);
+                if (permit == null || scope.isCancelled()) {
+                    releaseSlot(permit);
+                    RedisUtils.set(parallelName, "-1");
+                    break;
+                }
+                String fname = parallelName + "_" + permit.slot();
+                int[] result = {-1};
+                scope.fork(() -> {
+                    System.out.println(DateUtils.getCurrentDateTime() + ":[" + fname + "]开始执行[" + sqlLine + "]");
+                    result[0] = CommandExecutor.executeWithResult(RedisUtils.get("path.bin") + "/jdbc2console.sh -U \"" +
+                            finalDbUrl + "\" -u \"" + finalDbUser + "\" -p \"" + finalDbPass + "\" \"" +
+                            sqlLine + "\" 2>&1");
+
+                    if (result[0] != 0) {
+                        RedisUtils.set(parallelName, String.valueOf(result[0]));
+                    }
+                    return result[0] == 0;
+                }, () -> System.out.println(DateUtils.getCurrentDateTime() + ":[" + fname + "]执行结束[" + sqlLine + "]，执行结果[" +
+                        result[0] + "]，删除标志：" + releaseSlot(permit)));
+            }
+            scope.join();
         }
 
         CommandExecutor.execute("rm -f " + tmpFile);
@@ -152,8 +206,8 @@ public class SpAloneUtils {
      */
 //    public static String sdb(String sysid, String sql) {
 //        String s = "\"" + sql + "\"";
-//        String command = RedisUtils.get("path.bin") + "/jdbc2console.sh -f MySQL $(" + c_sql +
-//                " \"select db_conn from stg01.vw_imp_system where sysid='" + sysid + "'")
+//        String command = RedisUtils.get("path.bin") + "/jdbc2console.sh -f MySQL " +
+//                SqlUtils.queryForString("select db_conn from stg01.vw_imp_system where sysid=?", sysid) + " " + s;
 //        return CommandExecutor.executeForOutput(command);
 //    }
 
@@ -0,0 +1,136 @@
+package com.wgzhao.addax.admin.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SP 命令执行检查点
+ * 每条命令(com_id)执行成功后记录其命令文本的摘要，按交易日及任务保存在 Redis 哈希 ckpt:交易日:任务编号 中。
+ * 同一交易日重新执行(失败后重跑、手工执行、中断的任务重新调起)时，摘要一致的命令直接置为 cY 不再执行，
+ * 命令文本因参数或脚本修改而变化时重新执行；整个任务成功结束后删除检查点，之后的手工执行仍然完整执行。
+ * <p>
+ * 由 EtlHandler.spEtl 使用，sp_alone 与内嵌执行器相同，计划任务不使用。
+ * 摘要取只替换普通参数的文本(FuncHelper.ComText.stable)，${NOW}、${UUID} 等动态参数不影响摘要；
+ * 库中 fn_imp_value('com_text') 生成的命令(采集任务)只能取生成后的文件，含动态参数时每次都会重新执行。
+ * 中断的任务需要先由 SchedulerFailoverService 重置为 N 再调起，进程启动时的恢复需开启 addax.leader.recover-on-startup。
+ * <p>
+ * 开启后会改变手工重跑的行为，默认关闭，需开启 addax.checkpoint.enabled；
+ * Redis 中没有交易日(param.TD)时不读取也不记录检查点，所有命令都执行
+ */
+@Component
+public class SpCheckpoint {
+    private static final Logger logger = LoggerFactory.getLogger(SpCheckpoint.class);
+
+    private final StringRedisTemplate redisTemplate;
+
+    @Value("${addax.checkpoint.enabled:false}")
+    private boolean enabled;
+
+    @Value("${addax.checkpoint.prefix:ckpt:}")
+    private String prefix;
+
+    @Value("${addax.checkpoint.ttl-hours:72}")
+    private long ttlHours;
+
+    public SpCheckpoint(StringRedisTemplate stringRedisTemplate) {
+        this.redisTemplate = stringRedisTemplate;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 当前交易日已执行成功的命令
+     * @param spId 任务编号
+     * @return com_id -> 命令文本摘要
+     */
+    public Map<String, String> load(String spId) {
+        Map<String, String> result = new HashMap<>();
+        if (!enabled) {
+            return result;
+        }
+        try {
+            String key = key(spId);
+            if (key != null) {
+                redisTemplate.<String, String>opsForHash().entries(key).forEach(result::put);
+            }
+        }
+        catch (Exception e) {
+            logger.warn("failed to load checkpoint of {}: {}", spId, e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * 记录命令执行成功
+     */
+    public void record(String spId, String comId, String digest) {
+        if (!enabled || digest == null) {
+            return;
+        }
+        try {
+            String key = key(spId);
+            if (key == null) {
+                return;
+            }
+            redisTemplate.opsForHash().put(key, comId, digest);
+            redisTemplate.expire(key, ttlHours, TimeUnit.HOURS);
+        }
+        catch (Exception e) {
+            logger.warn("failed to record checkpoint of {}:{}: {}", spId, comId, e.getMessage());
+        }
+    }
+
+    /**
+     * 任务全部命令执行成功后删除检查点
+     */
+    public void clear(String spId) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            String key = key(spId);
+            if (key != null) {
+                redisTemplate.delete(key);
+            }
+        }
+        catch (Exception e) {
+            logger.warn("failed to clear checkpoint of {}: {}", spId, e.getMessage());
+        }
+    }
+
+    /**
+     * 命令文本摘要
+     */
+    public static String digest(String text) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest((text == null ? "" : text).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(d);
+        }
+        catch (NoSuchAlgorithmException e) {
+            return String.valueOf(text == null ? 0 : text.hashCode());
+        }
+    }
+
+    // 没有交易日时返回 null，否则各交易日共用一个检查点，前一天的摘要会跳过当天的命令
+    private String key(String spId) {
+        String td = RedisUtils.get("param.TD");
+        if (td == null || td.isBlank()) {
+            logger.warn("param.TD is not set, checkpoint of {} ignored", spId);
+            return null;
+        }
+        return prefix + td.trim() + ":" + spId;
+    }
+}
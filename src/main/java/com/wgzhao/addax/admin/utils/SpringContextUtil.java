@@ -0,0 +1,34 @@
+package com.wgzhao.addax.admin.utils;
+
+import org.springframework.beans.BeansException;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.stereotype.Component;
+
+/**
+ * Spring 容器访问工具类
+ * 供 RedisUtils、EtlHandler 等静态工具类获取容器中的 Bean
+ */
+@Component
+public class SpringContextUtil implements ApplicationContextAware {
+
+    private static volatile ApplicationContext context;
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+        context = applicationContext;
+    }
+
+    /**
+     * 获取指定类型的 Bean
+     * @param clazz Bean 类型
+     * @return Bean 实例，容器未启动或者不存在该 Bean 时返回 null
+     */
+    public static <T> T getBean(Class<T> clazz) {
+        ApplicationContext ctx = context;
+        if (ctx == null) {
+            return null;
+        }
+        return ctx.getBeanProvider(clazz).getIfAvailable();
+    }
+}
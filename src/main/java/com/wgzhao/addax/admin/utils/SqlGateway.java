@@ -0,0 +1,119 @@
+package com.wgzhao.addax.admin.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 元数据库访问网关
+ * 基于 oracleDatasource 连接池，替代 com.inicmd/com.iniout 命令行，
+ * 提供按类型查询、存储过程调用以及大字段（CLOB）流式写文件
+ */
+@Component
+public class SqlGateway {
+    private static final Logger logger = LoggerFactory.getLogger(SqlGateway.class);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public SqlGateway(@Qualifier("oracleJdbcTemplate") JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 查询第一行第一列
+     * @param sql 查询语句
+     * @param args 绑定参数
+     * @return 结果，没有记录或者为 null 时返回空字符串
+     */
+    public String queryForString(String sql, Object... args) {
+        String value = jdbcTemplate.query(sql, rs -> rs.next() ? rs.getString(1) : null, args);
+        return value == null ? "" : value;
+    }
+
+    /**
+     * 查询每一行的第一列，相当于 iniout 输出的每一行
+     * @param sql 查询语句
+     * @param args 绑定参数
+     * @return 结果列表，null 值转换为空字符串
+     */
+    public List<String> queryForLines(String sql, Object... args) {
+        return jdbcTemplate.query(sql, (rs, i) -> {
+            String value = rs.getString(1);
+            return value == null ? "" : value;
+        }, args);
+    }
+
+    public <T> List<T> query(String sql, RowMapper<T> rowMapper, Object... args) {
+        return jdbcTemplate.query(sql, rowMapper, args);
+    }
+
+    public List<Map<String, Object>> queryForList(String sql, Object... args) {
+        return jdbcTemplate.queryForList(sql, args);
+    }
+
+    public int update(String sql, Object... args) {
+        return jdbcTemplate.update(sql, args);
+    }
+
+    /**
+     * 调用存储过程
+     * @param procedure 过程名，如 stg01.sp_imp_status
+     * @param args 过程参数
+     */
+    public void call(String procedure, Object... args) {
+        String placeholders = String.join(",", Collections.nCopies(args.length, "?"));
+        jdbcTemplate.update("begin " + procedure + "(" + placeholders + "); end;", args);
+    }
+
+    /**
+     * 执行匿名块，用于一次执行多个由程序拼接的过程调用
+     * @param statements 块内语句，不含 begin/end
+     */
+    public void execute(String statements) {
+        jdbcTemplate.execute("begin " + statements + " end;");
+    }
+
+    /**
+     * 将查询结果的第一列按行写入文件，CLOB 以字符流方式读取，不在内存中拼接
+     * @param sql 查询语句
+     * @param target 目标文件
+     * @param args 绑定参数
+     * @return 写入的行数
+     */
+    public int writeToFile(String sql, Path target, Object... args) {
+        Integer rows = jdbcTemplate.query(sql, rs -> {
+            int n = 0;
+            try (BufferedWriter writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+                while (rs.next()) {
+                    try (Reader reader = rs.getCharacterStream(1)) {
+                        if (reader != null) {
+                            reader.transferTo(writer);
+                        }
+                    }
+                    writer.newLine();
+                    n++;
+                }
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return n;
+        }, args);
+        logger.debug("wrote {} rows to {}", rows, target);
+        return rows == null ? 0 : rows;
+    }
+}
@@ -0,0 +1,198 @@
+package com.wgzhao.addax.admin.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 元数据库操作工具类
+ * Spring 容器启动后委托给 SqlGateway 通过连接池执行，否则回退到 com.inicmd/com.iniout 命令行。
+ * 执行失败时把错误信息输出到标准错误，与命令行方式下的日志表现一致
+ */
+public class SqlUtils {
+
+    private static SqlGateway gateway() {
+        return SpringContextUtil.getBean(SqlGateway.class);
+    }
+
+    /**
+     * 查询第一行第一列
+     * @param sql 查询语句，参数使用 ? 占位
+     * @param args 绑定参数
+     * @return 结果，没有记录或者失败时返回空字符串
+     */
+    public static String queryForString(String sql, Object... args) {
+        SqlGateway gateway = gateway();
+        if (gateway != null) {
+            try {
+                return gateway.queryForString(sql, args);
+            }
+            catch (Exception e) {
+                System.err.println("SQL执行失败[" + sql + "]:" + e.getMessage());
+                return "";
+            }
+        }
+        return CommandExecutor.executeForOutput(RedisUtils.get("com.iniout") + " \"" + inline(sql, args) + "\"");
+    }
+
+    /**
+     * 查询每一行的第一列
+     * @param sql 查询语句，参数使用 ? 占位
+     * @param args 绑定参数
+     * @return 结果列表，失败时返回空列表
+     */
+    public static List<String> queryForLines(String sql, Object... args) {
+        SqlGateway gateway = gateway();
+        if (gateway != null) {
+            try {
+                return gateway.queryForLines(sql, args);
+            }
+            catch (Exception e) {
+                System.err.println("SQL执行失败[" + sql + "]:" + e.getMessage());
+                return List.of();
+            }
+        }
+        String output = CommandExecutor.executeForOutput(RedisUtils.get("com.iniout") + " \"" + inline(sql, args) + "\"");
+        return Arrays.stream(output.split("\n")).filter(s -> !s.trim().isEmpty()).toList();
+    }
+
+    /**
+     * 执行 DML/DDL
+     * @param sql 语句，参数使用 ? 占位
+     * @param args 绑定参数
+     * @return 是否执行成功
+     */
+    public static boolean update(String sql, Object... args) {
+        SqlGateway gateway = gateway();
+        if (gateway != null) {
+            try {
+                gateway.update(sql, args);
+                return true;
+            }
+            catch (Exception e) {
+                System.err.println("SQL执行失败[" + sql + "]:" + e.getMessage());
+                return false;
+            }
+        }
+        return CommandExecutor.executeWithResult(RedisUtils.get("com.inicmd") + " \"" + inline(sql, args) + "\" 2>&1") == 0;
+    }
+
+    /**
+     * 调用存储过程
+     * @param procedure 过程名，如 stg01.sp_imp_status
+     * @param args 过程参数
+     * @return 是否执行成功
+     */
+    public static boolean call(String procedure, Object... args) {
+        SqlGateway gateway = gateway();
+        if (gateway != null) {
+            try {
+                gateway.call(procedure, args);
+                return true;
+            }
+            catch (Exception e) {
+                System.err.println("调用" + procedure + "失败:" + e.getMessage());
+                return false;
+            }
+        }
+        String placeholders = String.join(",", Collections.nCopies(args.length, "?"));
+        return block(inline(procedure + "(" + placeholders + ");", args));
+    }
+
+    /**
+     * 执行由多个过程调用拼接的匿名块
+     * @param statements 块内语句，不含 begin/end
+     * @return 是否执行成功
+     */
+    public static boolean execute(String statements) {
+        SqlGateway gateway = gateway();
+        if (gateway != null) {
+            try {
+                gateway.execute(statements);
+                return true;
+            }
+            catch (Exception e) {
+                System.err.println("SQL执行失败[" + statements + "]:" + e.getMessage());
+                return false;
+            }
+        }
+        return block(statements);
+    }
+
+    /**
+     * 将查询结果写入文件，替代 iniout "select ..." >file
+     * @param sql 查询语句，参数使用 ? 占位
+     * @param file 目标文件
+     * @param args 绑定参数
+     * @return 是否执行成功
+     */
+    public static boolean writeToFile(String sql, String file, Object... args) {
+        SqlGateway gateway = gateway();
+        if (gateway != null) {
+            try {
+                gateway.writeToFile(sql, Path.of(file), args);
+                return true;
+            }
+            catch (Exception e) {
+                System.err.println("SQL执行失败[" + sql + "]:" + e.getMessage());
+                return false;
+            }
+        }
+        return CommandExecutor.executeWithResult(RedisUtils.get("com.iniout") + " \"" + inline(sql, args) + "\" >" + file) == 0;
+    }
+
+    /**
+     * 将查询结果写入文件并输出到日志，替代 iniout "select ..." |tee file
+     * @param sql 查询语句，参数使用 ? 占位
+     * @param file 目标文件
+     * @param args 绑定参数
+     * @return 是否执行成功
+     */
+    public static boolean teeToFile(String sql, String file, Object... args) {
+        boolean ok = writeToFile(sql, file, args);
+        if (ok) {
+            // 按字节流复制到日志，大的 CLOB 结果不整体读入内存
+            try {
+                Files.copy(Path.of(file), System.out);
+                System.out.println();
+            }
+            catch (IOException e) {
+                System.err.println("读取文件失败[" + file + "]:" + e.getMessage());
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * 发送短信，调用 stg01.sp_sms
+     * @param msg 消息内容
+     * @param mobile 手机号或者组编号
+     * @param sendType 发送类型
+     */
+    public static boolean sms(String msg, String mobile, String sendType) {
+        return call("stg01.sp_sms", msg, mobile, sendType);
+    }
+
+    private static boolean block(String statements) {
+        return CommandExecutor.executeWithResult(RedisUtils.get("com.inicmd") + " \"begin " + statements + " end;\" 2>&1") == 0;
+    }
+
+    // 命令行方式无法绑定参数，将 ? 替换为转义后的字符串常量
+    private static String inline(String sql, Object... args) {
+        StringBuilder sb = new StringBuilder();
+        int idx = 0;
+        for (char c : sql.toCharArray()) {
+            if (c == '?' && idx < args.length) {
+                Object arg = args[idx++];
+                sb.append(arg == null ? "null" : "'" + arg.toString().replace("'", "''") + "'");
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
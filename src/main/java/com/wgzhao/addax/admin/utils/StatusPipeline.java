@@ -0,0 +1,596 @@
+package com.wgzhao.addax.admin.utils;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * 子任务状态写后管道
+ * cR/cY/cE 等子任务状态变更先追加到本地日志并刷盘（多个线程的追加合并为一次 fsync），随即返回；
+ * 后台定时把积累的变更合并为 JDBC 批量：tb_imp_jour 流水批量插入，tb_imp_sp_com、tb_imp_ds2_tbls
+ * 按编号合并后批量更新，同一事务提交后删除对应的日志段。流水的 updt_date 取变更发生的时间。
+ * 进程异常退出后，启动时重放未删除的日志段，因此流水可能重复但不会丢失；重放的变更只在子任务的开始、结束时间
+ * 都不晚于变更时间时更新子任务状态，跳过重启前后已被更新的行。
+ * 日志目录需要在重启后保留，必须通过 addax.status.log-dir 显式配置，默认不开启写后管道
+ * <p>
+ * 批量写入失败时逐条重试以隔离无法写入的变更：数据库可用而某条变更连续 MAX_ATTEMPTS 次写入失败，
+ * 则移入日志目录下的 dead-letter.log 并记录错误日志，不再阻塞后续变更
+ * <p>
+ * 主任务状态（R/Y/E）需要统计子任务状态，变更前先调用 drain 把管道中的变更写入数据库
+ */
+@Component
+public class StatusPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(StatusPipeline.class);
+
+    private static final String SEGMENT_PREFIX = "status-";
+
+    private static final String DEAD_LETTER = "dead-letter.log";
+
+    // 数据库可用时单条变更的最多写入次数
+    static final int MAX_ATTEMPTS = 3;
+
+    // 与 sp_imp_status 相同的流水内容，子任务信息在提交时按变更前的状态生成
+    private static final String JOUR_SQL = """
+            insert into stg01.tb_imp_jour(kind, trade_date, status, key_id, remark, updt_date)
+            select max(t.sou), ?, ?, ?, max(t.remark || chr(10) || b.remark) || ?, ?
+              from (select sp_id, 'sp' sou,
+                           'SP主表信息：{名称=['||spname||'],主表状态=['||flag||'],前置源=['||need_sou||
+                           '],剩余次数=['||retry_cnt||'],运行耗时=['||runtime||'],任务组=['||task_group||'],参数组=['||param_sou||']}' remark
+                      from stg01.vw_imp_sp where bvalid = 1
+                    union all
+                    select tid, 'etl',
+                           'ETL主表信息：{名称=['||spname||'],源表=['||sou_db_conn||':'||sou_owner||'.'||sou_tablename||
+                           '],主表状态=['||flag||'],剩余次数=['||retry_cnt||'],运行耗时=['||runtime||'],参数组=['||param_sou||']}'
+                      from stg01.vw_imp_etl where bvalid = 1
+                    union all
+                    select pn_id, 'plan', 'PLAN主表信息：{名称=['||spname||'],主表状态=['||flag||'],运行耗时=['||runtime||']}'
+                      from stg01.vw_imp_plan
+                    union all
+                    select ds_id, 'ds',
+                           'DS主表信息：{名称=['||ds_name||'],主表状态=['||flag||'],剩余次数=['||retry_cnt||'],运行耗时=['||runtime||'],参数组=['||param_sou||']}'
+                      from stg01.vw_imp_ds2) t
+             inner join (select sp_id, com_id, flag, '子表信息：{命令类型=['||com_kind||'],命令顺序=['||com_idx||'],命令状态=['||flag||']}' remark
+                           from stg01.tb_imp_sp_com
+                          union all
+                         select ds_id, tbl_id, flag, '子表信息：{状态=['||flag||'],目标表=['||dest_tablename||']}'
+                           from stg01.tb_imp_ds2_tbls) b
+                on b.sp_id = t.sp_id and b.com_id = ? and nvl(b.flag, 'N') <> 'X'
+             where length(b.com_id) = 32
+            having count(1) > 0
+            """;
+
+    // 与 sp_imp_status 相同的保护：编号为 32 位，且主表有效；sp/etl/plan 的子任务只更新 tb_imp_sp_com，ds 的只更新 tb_imp_ds2_tbls
+    private static final String SP_COM_SQL = """
+            update stg01.tb_imp_sp_com b set flag = ?, start_time = nvl(?, start_time), end_time = nvl(?, end_time)
+             where com_id = ? and flag <> 'X' and length(com_id) = 32
+               and exists (select 1 from stg01.vw_imp_sp t where t.sp_id = b.sp_id and t.bvalid = 1
+                           union all
+                           select 1 from stg01.vw_imp_etl t where t.tid = b.sp_id and t.bvalid = 1
+                           union all
+                           select 1 from stg01.vw_imp_plan t where t.pn_id = b.sp_id)
+            """;
+
+    private static final String DS_TBLS_SQL = """
+            update stg01.tb_imp_ds2_tbls b set flag = ?, start_time = nvl(?, start_time), end_time = nvl(?, end_time)
+             where tbl_id = ? and flag <> 'X' and length(tbl_id) = 32
+               and exists (select 1 from stg01.vw_imp_ds2 t where t.ds_id = b.ds_id)
+            """;
+
+    // 重放的变更只更新开始、结束时间都不晚于变更时间的行
+    private static final String REPLAY_GUARD = " and nvl(b.start_time, ?) <= ? and nvl(b.end_time, ?) <= ?";
+
+    record Transition(long time, String kind, String id) {
+        String line() {
+            return time + "\t" + kind + "\t" + id + "\n";
+        }
+
+        static Transition parse(String line) {
+            String[] parts = line.split("\t");
+            if (parts.length != 3) {
+                return null;
+            }
+            try {
+                return new Transition(Long.parseLong(parts[0]), parts[1], parts[2]);
+            }
+            catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 同一编号的多次变更合并后的结果：最后的状态、最后一次开始时间、最后一次结束时间、最后一次变更时间
+     */
+    record Merged(String flag, Timestamp start, Timestamp end, Timestamp last) {
+        Merged then(Transition t) {
+            String f = t.kind().substring(1, 2);
+            Timestamp at = new Timestamp(t.time());
+            return new Merged(f, "R".equals(f) ? at : start, "Y".equals(f) || "E".equals(f) ? at : end, at);
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final FuncHelper funcHelper;
+
+    @Value("${addax.status.write-behind:false}")
+    private boolean enabled;
+
+    @Value("${addax.status.log-dir:}")
+    private String logDir;
+
+    @Value("${addax.status.batch-size:500}")
+    private int batchSize;
+
+    private final Object appendLock = new Object();
+
+    private final Object syncLock = new Object();
+
+    private FileChannel segment;
+
+    private Path segmentPath;
+
+    private long segmentSeq;
+
+    // 已追加和已刷盘的记录序号，用于合并 fsync
+    private long appended;
+
+    private volatile long synced;
+
+    private List<Transition> pending = new ArrayList<>();
+
+    // 已封存、等待写入数据库的日志段，以及上次写入失败待重试的变更，仅在 flush 内访问
+    private final List<Path> sealed = new ArrayList<>();
+
+    private final List<Transition> retry = new ArrayList<>();
+
+    // 数据库可用时写入失败的次数
+    private final Map<Transition, Integer> attempts = new HashMap<>();
+
+    // 启动时从日志段重放、尚未写入的变更
+    private final Set<Transition> replayed = new HashSet<>();
+
+    public StatusPipeline(@Qualifier("oracleJdbcTemplate") JdbcTemplate jdbcTemplate, FuncHelper funcHelper) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.funcHelper = funcHelper;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        if (logDir == null || logDir.isBlank()) {
+            logger.error("addax.status.log-dir is not set, write-behind disabled");
+            enabled = false;
+            return;
+        }
+        try {
+            Path dir = Path.of(logDir);
+            Files.createDirectories(dir);
+            // 重放上次未写入数据库的日志段
+            List<Path> segments;
+            try (Stream<Path> s = Files.list(dir)) {
+                segments = s.filter(p -> p.getFileName().toString().startsWith(SEGMENT_PREFIX)).sorted().toList();
+            }
+            for (Path p : segments) {
+                for (String line : Files.readAllLines(p, StandardCharsets.UTF_8)) {
+                    Transition t = Transition.parse(line);
+                    if (t != null) {
+                        retry.add(t);
+                        replayed.add(t);
+                    }
+                }
+                sealed.add(p);
+                segmentSeq = Math.max(segmentSeq, seqOf(p));
+            }
+            if (!retry.isEmpty()) {
+                logger.info("replaying {} status transitions from {} segments", retry.size(), segments.size());
+            }
+            synchronized (appendLock) {
+                openSegment();
+            }
+        }
+        catch (IOException e) {
+            logger.warn("status log dir {} unavailable, write-behind disabled: {}", logDir, e.getMessage());
+            enabled = false;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 提交子任务状态变更，返回时变更已经落盘
+     * @param kind 状态类型，c 开头的两位，如 cR
+     * @param id 子任务编号 com_id 或者 tbl_id
+     * @return 是否提交成功，失败时调用方应同步调用 sp_imp_status
+     */
+    public boolean submit(String kind, String id) {
+        if (!enabled || kind == null || kind.length() != 2 || id == null || id.isEmpty()) {
+            return false;
+        }
+        Transition t = new Transition(System.currentTimeMillis(), kind, id);
+        long seq;
+        try {
+            synchronized (appendLock) {
+                ByteBuffer buf = ByteBuffer.wrap(t.line().getBytes(StandardCharsets.UTF_8));
+                while (buf.hasRemaining()) {
+                    segment.write(buf);
+                }
+                pending.add(t);
+                seq = ++appended;
+            }
+            sync(seq);
+            return true;
+        }
+        catch (IOException e) {
+            logger.warn("failed to append status transition {} {}: {}", kind, id, e.getMessage());
+            return false;
+        }
+    }
+
+    // 一次 fsync 覆盖在它之前追加的所有记录
+    private void sync(long seq) throws IOException {
+        if (synced >= seq) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (synced >= seq) {
+                return;
+            }
+            long target;
+            FileChannel channel;
+            synchronized (appendLock) {
+                target = appended;
+                channel = segment;
+            }
+            channel.force(false);
+            synced = target;
+        }
+    }
+
+    /**
+     * 把管道中已提交的变更全部写入数据库
+     * @return 是否全部写入成功
+     */
+    public synchronized boolean flush() {
+        if (!enabled) {
+            return true;
+        }
+        try {
+            synchronized (syncLock) {
+                synchronized (appendLock) {
+                    if (!pending.isEmpty()) {
+                        // 封存当前日志段，之后的追加写入新段
+                        segment.force(false);
+                        segment.close();
+                        sealed.add(segmentPath);
+                        retry.addAll(pending);
+                        pending = new ArrayList<>();
+                        openSegment();
+                        synced = appended;
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            logger.warn("failed to rotate status log: {}", e.getMessage());
+            return false;
+        }
+        if (retry.isEmpty()) {
+            return true;
+        }
+
+        try {
+            apply(retry);
+            logger.debug("flushed {} status transitions", retry.size());
+            retry.clear();
+            attempts.clear();
+            replayed.clear();
+            deleteSealed();
+            return true;
+        }
+        catch (Exception e) {
+            logger.warn("failed to flush {} status transitions, retry one by one: {}", retry.size(), e.getMessage());
+        }
+        return isolate();
+    }
+
+    /**
+     * 把管道中的变更全部写入数据库，批量写入失败时按提交顺序逐条同步调用 sp_imp_status 写入
+     * 在主任务状态变更等需要读取子任务状态的操作之前调用
+     * @return 是否全部写入，为 false 时调用方不应继续依赖子任务状态的操作
+     */
+    public synchronized boolean drain() {
+        if (flush()) {
+            return true;
+        }
+        List<Transition> done = new ArrayList<>();
+        for (Transition t : retry) {
+            if (!SqlUtils.call("stg01.sp_imp_status", t.kind(), t.id())) {
+                break;
+            }
+            done.add(t);
+        }
+        if (done.isEmpty()) {
+            return false;
+        }
+        logger.warn("wrote {} of {} status transitions through sp_imp_status", done.size(), retry.size());
+        retry.subList(0, done.size()).clear();
+        done.forEach(attempts::remove);
+        return reseal() && retry.isEmpty();
+    }
+
+    // 逐条写入，数据库可用时连续失败的变更移入死信文件；同一编号在失败的变更之后的变更暂不写入，保持先后顺序
+    private boolean isolate() {
+        List<Transition> failed = new ArrayList<>();
+        Set<String> blocked = new HashSet<>();
+        Set<Transition> tried = new HashSet<>();
+        String error = null;
+        for (Transition t : retry) {
+            if (blocked.contains(t.id())) {
+                failed.add(t);
+                continue;
+            }
+            try {
+                apply(List.of(t));
+                attempts.remove(t);
+            }
+            catch (Exception e) {
+                failed.add(t);
+                tried.add(t);
+                blocked.add(t.id());
+                error = e.getMessage();
+            }
+        }
+        if (failed.size() < retry.size() || available()) {
+            List<Transition> dead = new ArrayList<>();
+            for (Transition t : tried) {
+                if (attempts.merge(t, 1, Integer::sum) >= MAX_ATTEMPTS) {
+                    dead.add(t);
+                }
+            }
+            if (!dead.isEmpty()) {
+                deadLetter(dead, error);
+                failed.removeAll(dead);
+                dead.forEach(attempts::remove);
+            }
+        }
+        if (failed.size() < retry.size()) {
+            retry.clear();
+            retry.addAll(failed);
+            reseal();
+        }
+        if (!failed.isEmpty()) {
+            logger.warn("{} status transitions not written, retry later: {}", failed.size(), error);
+        }
+        return failed.isEmpty();
+    }
+
+    private boolean available() {
+        try {
+            jdbcTemplate.queryForObject("select 1 from dual", Integer.class);
+            return true;
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void deadLetter(List<Transition> dead, String error) {
+        StringBuilder sb = new StringBuilder();
+        dead.forEach(t -> sb.append(t.line()));
+        try {
+            Files.writeString(Path.of(logDir, DEAD_LETTER), sb, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+        }
+        catch (IOException e) {
+            logger.warn("failed to write dead letters: {}", e.getMessage());
+        }
+        logger.error("{} status transitions failed {} times and were moved to {}: {}\n{}", dead.size(), MAX_ATTEMPTS,
+                DEAD_LETTER, error, sb);
+    }
+
+    // 剩余未写入的变更写回最早的已封存日志段，保持重放顺序，其余日志段删除
+    private boolean reseal() {
+        replayed.retainAll(retry);
+        if (sealed.isEmpty()) {
+            return true;
+        }
+        try {
+            if (retry.isEmpty()) {
+                deleteSealed();
+                return true;
+            }
+            Path first = sealed.get(0);
+            Path tmp = first.resolveSibling(first.getFileName() + ".tmp");
+            StringBuilder sb = new StringBuilder();
+            retry.forEach(t -> sb.append(t.line()));
+            Files.writeString(tmp, sb, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+            Files.move(tmp, first, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (Path p : sealed.subList(1, sealed.size())) {
+                Files.deleteIfExists(p);
+            }
+            sealed.subList(1, sealed.size()).clear();
+            return true;
+        }
+        catch (IOException e) {
+            logger.warn("failed to rewrite status log: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    // 变更已经写入数据库，删除失败只会在重放时产生重复流水
+    private void deleteSealed() {
+        for (Path p : sealed) {
+            try {
+                Files.deleteIfExists(p);
+            }
+            catch (IOException e) {
+                logger.warn("failed to delete status log {}: {}", p, e.getMessage());
+            }
+        }
+        sealed.clear();
+    }
+
+    @Scheduled(fixedDelayString = "${addax.status.flush-interval:500}")
+    public void scheduledFlush() {
+        flush();
+    }
+
+    @PreDestroy
+    public void close() {
+        if (!enabled) {
+            return;
+        }
+        flush();
+        synchronized (appendLock) {
+            try {
+                segment.close();
+                if (Files.size(segmentPath) == 0) {
+                    Files.deleteIfExists(segmentPath);
+                }
+            }
+            catch (IOException e) {
+                logger.warn("failed to close status log: {}", e.getMessage());
+            }
+        }
+    }
+
+    // 在一个事务内写入流水并批量更新子任务状态
+    private void apply(List<Transition> transitions) {
+        // 编号的变更全部来自重放时按条件更新，有本次运行提交的变更时以其为准
+        Map<String, Merged> merged = new LinkedHashMap<>();
+        Map<String, Merged> replay = new LinkedHashMap<>();
+        for (Transition t : transitions) {
+            merged.merge(t.id(), new Merged(null, null, null, null).then(t), (a, b) -> a.then(t));
+        }
+        Set<String> live = new HashSet<>();
+        for (Transition t : transitions) {
+            if (!replayed.contains(t)) {
+                live.add(t.id());
+            }
+        }
+        merged.forEach((id, m) -> {
+            if (!live.contains(id)) {
+                replay.put(id, m);
+            }
+        });
+        replay.keySet().forEach(merged::remove);
+        int td = funcHelper.getTd();
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyyMMdd HH:mm:ss");
+
+        jdbcTemplate.execute((ConnectionCallback<Void>) conn -> {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                // 流水按变更前的状态生成，先于更新执行
+                try (PreparedStatement ps = conn.prepareStatement(JOUR_SQL)) {
+                    int n = 0;
+                    for (Transition t : transitions) {
+                        ps.setInt(1, td);
+                        ps.setString(2, t.kind());
+                        ps.setString(3, t.id());
+                        ps.setString(4, "\n开始时间：" + fmt.format(new Date(t.time())) + ",执行耗时：0秒==>传入参数：{i_kind=[" +
+                                t.kind() + "],i_sp_id=[" + t.id() + "]}<==");
+                        ps.setTimestamp(5, new Timestamp(t.time()));
+                        ps.setString(6, t.id());
+                        ps.addBatch();
+                        if (++n % batchSize == 0) {
+                            ps.executeBatch();
+                        }
+                    }
+                    ps.executeBatch();
+                }
+                update(conn, SP_COM_SQL, merged, false);
+                update(conn, DS_TBLS_SQL, merged, false);
+                update(conn, SP_COM_SQL + REPLAY_GUARD, replay, true);
+                update(conn, DS_TBLS_SQL + REPLAY_GUARD, replay, true);
+                conn.commit();
+            }
+            catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+            finally {
+                conn.setAutoCommit(autoCommit);
+            }
+            return null;
+        });
+    }
+
+    private void update(Connection conn, String sql, Map<String, Merged> merged, boolean guarded) throws SQLException {
+        if (merged.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            int n = 0;
+            for (Map.Entry<String, Merged> e : merged.entrySet()) {
+                ps.setString(1, e.getValue().flag());
+                ps.setTimestamp(2, e.getValue().start());
+                ps.setTimestamp(3, e.getValue().end());
+                ps.setString(4, e.getKey());
+                if (guarded) {
+                    Timestamp last = e.getValue().last();
+                    for (int i = 5; i <= 8; i++) {
+                        ps.setTimestamp(i, last);
+                    }
+                }
+                ps.addBatch();
+                if (++n % batchSize == 0) {
+                    ps.executeBatch();
+                }
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private void openSegment() throws IOException {
+        segmentSeq++;
+        segmentPath = Path.of(logDir, String.format("%s%019d.log", SEGMENT_PREFIX, segmentSeq));
+        segment = FileChannel.open(segmentPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static long seqOf(Path p) {
+        String name = p.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - ".log".length()));
+        }
+        catch (RuntimeException e) {
+            return 0;
+        }
+    }
+}
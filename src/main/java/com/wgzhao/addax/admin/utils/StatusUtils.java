@@ -0,0 +1,67 @@
+package com.wgzhao.addax.admin.utils;
+
+/**
+ * 任务状态变更工具类，替代直接调用 sp_imp_status
+ * Spring 容器启动且开启 addax.status.write-behind 时，子任务状态（cR/cY/cE）交给 StatusPipeline 异步批量写入；
+ * 主任务状态需要统计子任务状态，先把管道写空再同步调用 sp_imp_status，管道写不空时放弃本次主任务状态变更。
+ * 执行成功后同步更新 TaskRegistry 中的状态。
+ * 在任务标志保护下的写入使用带标志名的 update，写入前校验标志的 fencing token，标志已被其他进程获取时不写入
+ */
+public class StatusUtils {
+
+    private static StatusPipeline pipeline() {
+        StatusPipeline pipeline = SpringContextUtil.getBean(StatusPipeline.class);
+        return pipeline != null && pipeline.isEnabled() ? pipeline : null;
+    }
+
+    /**
+     * 更新任务状态
+     * @param kind 状态类型，R/Y/E 为主任务，cR/cY/cE 为子任务
+     * @param spId 任务编号
+     * @return 是否执行成功，管道中的子任务状态无法写入时不变更主任务状态，返回 false
+     */
+    public static boolean update(String kind, String spId) {
+        StatusPipeline pipeline = pipeline();
+        boolean ok;
+        if (pipeline != null && kind.length() == 2 && pipeline.submit(kind, spId)) {
+            ok = true;
+        }
+        else if (pipeline != null && !pipeline.drain()) {
+            // 主任务状态按子任务状态计算，子任务状态未写入前不能变更
+            System.err.println("子任务状态写入失败，放弃状态变更:" + kind + " " + spId);
+            ok = false;
+        }
+        else {
+            ok = SqlUtils.call("stg01.sp_imp_status", kind, spId);
+        }
+        TaskRegistry registry = SpringContextUtil.getBean(TaskRegistry.class);
+        if (ok && registry != null) {
+            registry.onStatus(kind, spId);
+        }
+        return ok;
+    }
+
+    /**
+     * 在任务标志保护下更新任务状态
+     * @param kind 状态类型
+     * @param spId 任务编号
+     * @param flag 保护本次执行的标志名，如 sp.任务编号
+     * @return 是否执行成功，本进程已不再持有标志时不写入，返回 false
+     */
+    public static boolean update(String kind, String spId, String flag) {
+        if (!RedisUtils.flagValid(flag)) {
+            System.out.println("标志[" + flag + "]已失效，放弃状态变更:" + kind + " " + spId);
+            return false;
+        }
+        return update(kind, spId);
+    }
+
+    /**
+     * 把管道中的子任务状态写入数据库，在批量调用 sp_imp_status 等需要读取子任务状态的操作之前调用
+     * @return 是否全部写入
+     */
+    public static boolean flush() {
+        StatusPipeline pipeline = pipeline();
+        return pipeline == null || pipeline.drain();
+    }
+}
@@ -0,0 +1,480 @@
+package com.wgzhao.addax.admin.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * 内存任务注册表
+ * 启动时批量加载 SP、采集、计划、数据服务主表及其附属命令（tb_imp_sp_com、tb_imp_ds2_tbls）、来源系统，
+ * 32 位编号驻留为整数句柄，按句柄直接定位任务，取代 sp_imp_status 中 t_sp/t_com 的 UNION ALL 查询
+ * 及 fn_imp_value('taskname') 的逐行调用。
+ * 状态变更经 StatusUtils 发生时同步修改内存中的状态：附属命令直接置为新状态，主任务的结果状态
+ * （Y 可能变为 E）、剩余次数、耗时及 R 时重置的附属命令状态从数据库读回，不在内存中重新推导。
+ * 定时整体重新加载以纳入配置变化及其他节点的变更；重新加载期间发生的状态变更在替换快照后按发生时间重放。
+ * 附属命令被删除重建（如 bupdate 重新生成 99/100 命令）后由 refreshCommands 立即读回；
+ * 统计错误数时附属命令不在快照中则返回 null，由调用方回退到数据库查询
+ */
+@Component
+public class TaskRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(TaskRegistry.class);
+
+    /**
+     * 任务或命令，配置属性在加载时确定，状态随状态变更更新
+     */
+    public static final class Task {
+        private final int handle;
+        private final String id;
+        // sp/etl/plan/ds 为主任务，com/tbl 为附属命令，sys 为来源系统
+        private final String kind;
+        private final String name;
+        private final String owner;
+        private final int parent;
+        private final String paramSou;
+        // 主任务：前置源、任务组、源表；附属命令：命令类型、命令顺序、目标表
+        private final String[] attrs;
+        private volatile String flag;
+        private volatile int retryCnt;
+        private volatile long runtime;
+        private volatile long startTime;
+        private int[] children = new int[0];
+
+        Task(int handle, String id, String kind, String name, String owner, int parent, String paramSou, String[] attrs,
+                String flag, int retryCnt, long runtime, long startTime) {
+            this.handle = handle;
+            this.id = id;
+            this.kind = kind;
+            this.name = name;
+            this.owner = owner;
+            this.parent = parent;
+            this.paramSou = paramSou;
+            this.attrs = attrs;
+            this.flag = flag;
+            this.retryCnt = retryCnt;
+            this.runtime = runtime;
+            this.startTime = startTime;
+        }
+
+        public int handle() {
+            return handle;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public String kind() {
+            return kind;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public String owner() {
+            return owner;
+        }
+
+        public String paramSou() {
+            return paramSou;
+        }
+
+        public String flag() {
+            return flag;
+        }
+
+        public int retryCnt() {
+            return retryCnt;
+        }
+
+        public boolean isSub() {
+            return "com".equals(kind) || "tbl".equals(kind);
+        }
+
+        // 与 sp_imp_status 中 t_sp/t_com 的 remark 一致
+        String remark() {
+            return switch (kind) {
+                case "sp" -> "SP主表信息：{名称=[" + s(name) + "],主表状态=[" + s(flag) + "],前置源=[" + s(attrs[0]) + "],剩余次数=[" + retryCnt +
+                        "],运行耗时=[" + runtime + "],任务组=[" + s(attrs[1]) + "],参数组=[" + s(paramSou) + "]}";
+                case "etl" -> "ETL主表信息：{名称=[" + s(name) + "],源表=[" + s(attrs[2]) + "],主表状态=[" + s(flag) + "],剩余次数=[" + retryCnt +
+                        "],运行耗时=[" + runtime + "],参数组=[" + s(paramSou) + "]}";
+                case "plan" -> "PLAN主表信息：{名称=[" + s(name) + "],主表状态=[" + s(flag) + "],运行耗时=[" + runtime + "]}";
+                case "ds" -> "DS主表信息：{名称=[" + s(name) + "],主表状态=[" + s(flag) + "],剩余次数=[" + retryCnt +
+                        "],运行耗时=[" + runtime + "],参数组=[" + s(paramSou) + "]}";
+                case "com" -> "子表信息：{命令类型=[" + s(attrs[0]) + "],命令顺序=[" + s(attrs[1]) + "],命令状态=[" + s(flag) + "]}";
+                case "tbl" -> "子表信息：{状态=[" + s(flag) + "],目标表=[" + s(attrs[2]) + "]}";
+                default -> "";
+            };
+        }
+
+        private static String s(String v) {
+            return v == null ? "" : v;
+        }
+    }
+
+    // 状态变更事件，重新加载期间缓存
+    private record Event(String kind, String id, long time) {
+    }
+
+    private record Snapshot(Task[] tasks) {
+        Task get(int handle) {
+            return handle >= 0 && handle < tasks.length ? tasks[handle] : null;
+        }
+    }
+
+    // in 列表每批的编号数，不超过 Oracle 的 1000 个限制
+    private static final int IN_BATCH = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // 编号到句柄的映射只增不减，句柄在重新加载之间保持不变
+    private final Map<String, Integer> handles = new ConcurrentHashMap<>();
+
+    private final AtomicInteger nextHandle = new AtomicInteger(0);
+
+    private volatile Snapshot snapshot;
+
+    private final List<BiConsumer<String, String>> listeners = new CopyOnWriteArrayList<>();
+
+    // 重新加载期间的状态变更，替换快照后重放
+    private List<Event> replay;
+
+    public TaskRegistry(@Qualifier("oracleJdbcTemplate") JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 编号对应的句柄，未登记时返回 -1
+     */
+    public int handle(String id) {
+        Integer h = id == null ? null : handles.get(id);
+        return h == null ? -1 : h;
+    }
+
+    /**
+     * 按编号查找任务或命令
+     * @return 任务，不存在时返回 null
+     */
+    public Task get(String id) {
+        return current().get(handle(id));
+    }
+
+    /**
+     * 任务名称，等同于 fn_imp_value('taskname')
+     * 采集、SP、计划取 spname，数据服务主表及其附属表取 ds_name，来源系统取 sysid_sys_name
+     * @param id 编号
+     * @return 名称，注册表中不存在时回退到数据库查询
+     */
+    public String name(String id) {
+        Task t = get(id);
+        if (t != null) {
+            if ("tbl".equals(t.kind)) {
+                Task ds = current().get(t.parent);
+                return ds == null ? null : ds.name;
+            }
+            if (!"com".equals(t.kind)) {
+                return t.name;
+            }
+        }
+        if (id == null || id.isEmpty()) {
+            return null;
+        }
+        return jdbcTemplate.query("select to_char(stg01.fn_imp_value('taskname', ?)) from dual",
+                rs -> rs.next() ? rs.getString(1) : null, id);
+    }
+
+    /**
+     * 状态变更时的任务信息，等同于 sp_imp_status 开头的查询
+     * @param kind 状态类型
+     * @param id 主任务或者附属命令编号
+     * @return 包含 remark、error_count、source 的信息；编号不在注册表中时返回 null，由调用方回退到数据库查询
+     */
+    public Map<String, Object> info(String kind, String id) {
+        Snapshot s = current();
+        Task t = s.get(handle(id));
+        if (t == null || id.length() != 32 || "sys".equals(t.kind)) {
+            return null;
+        }
+        Task main = t.isSub() ? s.get(t.parent) : t;
+        if (main == null) {
+            return null;
+        }
+        int count = 0;
+        int err = 0;
+        String remark = main.remark();
+        for (int c : t.isSub() ? new int[] {t.handle} : main.children) {
+            Task sub = s.get(c);
+            if (sub == null) {
+                // 快照中缺少附属命令，错误数不可信
+                return null;
+            }
+            if ("X".equals(sub.flag)) {
+                continue;
+            }
+            count++;
+            if (!"Y".equals(sub.flag)) {
+                err++;
+            }
+            if (kind.length() == 2) {
+                remark = main.remark() + "\n" + sub.remark();
+            }
+        }
+        Map<String, Object> info = new HashMap<>();
+        info.put("remark", count > 0 ? remark : null);
+        info.put("error_count", count > 0 ? err : -1);
+        info.put("source", count > 0 ? main.kind : null);
+        return info;
+    }
+
+    /**
+     * 状态变更成功（sp_imp_status 已执行或子任务状态已提交到写后管道）后同步修改内存状态
+     * @param kind 状态类型，R/Y/E 为主任务，cR/cY/cE 为附属命令
+     * @param id 编号
+     */
+    public void onStatus(String kind, String id) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (replay != null) {
+                replay.add(new Event(kind, id, now));
+            }
+        }
+        Snapshot s = current();
+        apply(s, kind, id, now);
+        Task t = s.get(handle(id));
+        if (t != null && !t.isSub() && kind != null && kind.length() == 1) {
+            listeners.forEach(l -> l.accept(id, t.flag));
+        }
+    }
+
+    /**
+     * 主任务状态由外部进程直接写入数据库（如租约模式下本机执行的 sp_alone）时，读回主任务及附属命令的状态并通知监听者
+     * @param id 主任务编号
+     */
+    public void resync(String id) {
+        // 置R时的处理即为读回主任务及附属命令
+        onStatus("R", id);
+    }
+
+    /**
+     * 附属命令(tb_imp_sp_com)被删除重建后，读回这些主任务的全部附属命令，替换快照中的附属命令列表
+     * @param ids 主任务编号
+     */
+    public void refreshCommands(Collection<String> ids) {
+        List<String> list = new ArrayList<>(ids);
+        for (int i = 0; i < list.size(); i += IN_BATCH) {
+            List<String> batch = list.subList(i, Math.min(i + IN_BATCH, list.size()));
+            Map<Integer, Task> loaded = new HashMap<>();
+            Map<Integer, List<Integer>> children = new HashMap<>();
+            batch.forEach(id -> children.put(intern(id), new ArrayList<>()));
+            jdbcTemplate.query("select com_id, null, sp_id, com_kind, com_idx, flag, 0, 0, start_time from stg01.tb_imp_sp_com where sp_id in (" +
+                    String.join(",", Collections.nCopies(batch.size(), "?")) + ")", (RowCallbackHandler) rs -> {
+                int parent = intern(rs.getString(3));
+                put(loaded, rs, "com", rs.getString(3), parent, null, new String[] {rs.getString(4), rs.getString(5), null}, 6);
+                children.computeIfAbsent(parent, k -> new ArrayList<>()).add(intern(rs.getString(1)));
+            }, batch.toArray());
+            synchronized (this) {
+                Snapshot s = current();
+                Task[] tasks = Arrays.copyOf(s.tasks(), Math.max(s.tasks().length, nextHandle.get()));
+                loaded.forEach((h, t) -> tasks[h] = t);
+                children.forEach((h, c) -> {
+                    if (tasks[h] != null) {
+                        tasks[h].children = c.stream().mapToInt(Integer::intValue).toArray();
+                    }
+                });
+                snapshot = new Snapshot(tasks);
+            }
+        }
+    }
+
+    /**
+     * 注册主任务状态变更监听，参数为任务编号及变更后的状态（Y 可能因子任务未完成而变为 E）
+     */
+    public void addListener(BiConsumer<String, String> listener) {
+        listeners.add(listener);
+    }
+
+    private void apply(Snapshot s, String kind, String id, long now) {
+        Task t = s.get(handle(id));
+        if (t == null || kind == null || kind.isEmpty()) {
+            return;
+        }
+        if (kind.length() == 2) {
+            if (t.isSub() && !"X".equals(t.flag)) {
+                String f = kind.substring(1, 2);
+                t.flag = f;
+                if ("R".equals(f)) {
+                    t.startTime = now;
+                }
+            }
+            return;
+        }
+        if (!t.isSub() && !"sys".equals(t.kind)) {
+            reread(s, t, "R".equals(kind));
+        }
+    }
+
+    // 从数据库读回主任务状态，置R时同时读回被重置的附属命令状态
+    private void reread(Snapshot s, Task t, boolean children) {
+        String sql = switch (t.kind) {
+            case "sp" -> "select flag, retry_cnt, runtime, start_time from stg01.vw_imp_sp where sp_id = ?";
+            case "etl" -> "select flag, retry_cnt, runtime, start_time from stg01.vw_imp_etl where tid = ?";
+            case "plan" -> "select flag, 0, runtime, start_time from stg01.vw_imp_plan where pn_id = ?";
+            default -> "select flag, retry_cnt, runtime, start_time from stg01.vw_imp_ds2 where ds_id = ?";
+        };
+        jdbcTemplate.query(sql, (RowCallbackHandler) rs -> {
+            Timestamp start = rs.getTimestamp(4);
+            t.flag = rs.getString(1);
+            t.retryCnt = rs.getInt(2);
+            t.runtime = rs.getLong(3);
+            t.startTime = start == null ? 0 : start.getTime();
+        }, t.id);
+        if (children) {
+            String subs = "ds".equals(t.kind) ? "select tbl_id, flag from stg01.tb_imp_ds2_tbls where ds_id = ?"
+                    : "select com_id, flag from stg01.tb_imp_sp_com where sp_id = ?";
+            jdbcTemplate.query(subs, (RowCallbackHandler) rs -> {
+                Task sub = s.get(handle(rs.getString(1)));
+                if (sub != null) {
+                    sub.flag = rs.getString(2);
+                }
+            }, t.id);
+        }
+    }
+
+    /**
+     * 当前快照，未加载时先加载
+     */
+    private Snapshot current() {
+        Snapshot s = snapshot;
+        if (s == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    reload();
+                }
+                s = snapshot;
+            }
+        }
+        return s;
+    }
+
+    @Scheduled(fixedDelayString = "${addax.registry.refresh-interval:300000}", initialDelayString = "${addax.registry.refresh-interval:300000}")
+    public void refresh() {
+        try {
+            reload();
+        }
+        catch (Exception e) {
+            logger.warn("failed to reload task registry: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 从数据库重新加载全部任务
+     * @throws IllegalStateException 写后管道中的子任务状态无法写入数据库，此时不加载
+     */
+    public void reload() {
+        synchronized (this) {
+            replay = new ArrayList<>();
+        }
+        List<Event> events;
+        Snapshot s;
+        try {
+            // 子任务状态可能还在写后管道中，先写入数据库，写不空时保留当前状态，等待下次加载
+            if (!StatusUtils.flush()) {
+                throw new IllegalStateException("pending sub-task status not written, task registry not reloaded");
+            }
+            s = load();
+        }
+        finally {
+            synchronized (this) {
+                events = replay;
+                replay = null;
+            }
+        }
+        synchronized (this) {
+            snapshot = s;
+        }
+        for (Event e : events) {
+            apply(s, e.kind(), e.id(), e.time());
+        }
+    }
+
+    private Snapshot load() {
+        Map<Integer, Task> loaded = new HashMap<>();
+        Map<Integer, List<Integer>> children = new HashMap<>();
+
+        jdbcTemplate.query("select sp_id, spname, sp_owner, param_sou, need_sou, task_group, flag, retry_cnt, runtime, start_time " +
+                "from stg01.vw_imp_sp where bvalid = 1", (RowCallbackHandler) rs ->
+                put(loaded, rs, "sp", rs.getString(3), -1, rs.getString(4),
+                        new String[] {rs.getString(5), rs.getString(6), null}, 7));
+        jdbcTemplate.query("select tid, spname, sysid, param_sou, sou_db_conn||':'||sou_owner||'.'||sou_tablename, flag, retry_cnt, runtime, start_time " +
+                "from stg01.vw_imp_etl where bvalid = 1", (RowCallbackHandler) rs ->
+                put(loaded, rs, "etl", rs.getString(3), -1, rs.getString(4),
+                        new String[] {null, null, rs.getString(5)}, 6));
+        jdbcTemplate.query("select pn_id, spname, null, null, flag, 0, runtime, start_time from stg01.vw_imp_plan", (RowCallbackHandler) rs ->
+                put(loaded, rs, "plan", null, -1, null, new String[3], 5));
+        jdbcTemplate.query("select ds_id, ds_name, dest_sysid, param_sou, flag, retry_cnt, runtime, start_time from stg01.vw_imp_ds2", (RowCallbackHandler) rs ->
+                put(loaded, rs, "ds", rs.getString(3), -1, rs.getString(4), new String[3], 5));
+        jdbcTemplate.query("select com_id, null, sp_id, com_kind, com_idx, flag, 0, 0, start_time from stg01.tb_imp_sp_com", (RowCallbackHandler) rs -> {
+            int parent = intern(rs.getString(3));
+            put(loaded, rs, "com", rs.getString(3), parent, null, new String[] {rs.getString(4), rs.getString(5), null}, 6);
+            children.computeIfAbsent(parent, k -> new ArrayList<>()).add(intern(rs.getString(1)));
+        });
+        jdbcTemplate.query("select tbl_id, null, ds_id, dest_tablename, flag, 0, 0, start_time from stg01.tb_imp_ds2_tbls", (RowCallbackHandler) rs -> {
+            int parent = intern(rs.getString(3));
+            put(loaded, rs, "tbl", rs.getString(3), parent, null, new String[] {null, null, rs.getString(4)}, 5);
+            children.computeIfAbsent(parent, k -> new ArrayList<>()).add(intern(rs.getString(1)));
+        });
+        jdbcTemplate.query("select sysid, sysid||'_'||max(sys_name) from stg01.vw_imp_system group by sysid", (RowCallbackHandler) rs -> {
+            int h = intern(rs.getString(1));
+            loaded.putIfAbsent(h, new Task(h, rs.getString(1), "sys", rs.getString(2), null, -1, null, new String[3], null, 0, 0, 0));
+        });
+
+        Task[] tasks = new Task[nextHandle.get()];
+        loaded.forEach((h, t) -> tasks[h] = t);
+        children.forEach((h, list) -> {
+            if (h < tasks.length && tasks[h] != null) {
+                tasks[h].children = list.stream().mapToInt(Integer::intValue).toArray();
+            }
+        });
+        logger.info("task registry loaded, {} tasks and commands", loaded.size());
+        return new Snapshot(tasks);
+    }
+
+    // flag, retry_cnt, runtime, start_time 依次位于 from 开始的列
+    private void put(Map<Integer, Task> loaded, ResultSet rs, String kind, String owner, int parent, String paramSou,
+            String[] attrs, int from) throws SQLException {
+        String id = rs.getString(1);
+        if (id == null) {
+            return;
+        }
+        int h = intern(id);
+        Timestamp start = rs.getTimestamp(from + 3);
+        loaded.put(h, new Task(h, id, kind, rs.getString(2), owner, parent, paramSou, attrs, rs.getString(from),
+                rs.getInt(from + 1), rs.getLong(from + 2), start == null ? 0 : start.getTime()));
+    }
+
+    private int intern(String id) {
+        if (id == null) {
+            return -1;
+        }
+        return handles.computeIfAbsent(id, k -> nextHandle.getAndIncrement());
+    }
+}
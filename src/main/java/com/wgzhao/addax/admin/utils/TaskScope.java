@@ -0,0 +1,249 @@
+package com.wgzhao.addax.admin.utils;
+
+import org.springframework.core.env.Environment;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 结构化并发作用域，替代处理器中各自创建的 newCachedThreadPool
+ * 作用域内 fork 的子任务必须在 join 之后全部结束，close 时仍未结束的子任务被取消；
+ * 子任务取消时线程被中断，经由 ProcessRunner 执行的子进程树会被一并终止。
+ * JDK 21 的 StructuredTaskScope 仍是预览特性，这里在 ExecutorService 之上实现相同的约束。
+ * <p>
+ * 配置项：
+ * addax.executor.mode=virtual|platform 线程模式，默认 virtual；
+ * addax.executor.max-concurrency 每个作用域同时执行的子任务数上限，addax.executor.limit.&lt;name&gt; 可按作用域覆盖；
+ * addax.executor.fail-fast 子任务失败（抛出异常或者返回 false）时是否取消其余子任务
+ * <p>
+ * 用法：
+ * <pre>
+ * try (TaskScope scope = TaskScope.open("soutab")) {
+ *     scope.fork(() -> soutabEtl(dbConn));
+ *     scope.join();
+ * }
+ * </pre>
+ */
+public class TaskScope implements AutoCloseable {
+
+    private static final int DEFAULT_MAX_CONCURRENCY = 256;
+
+    private final String name;
+
+    private final ExecutorService executor;
+
+    // 虚拟线程模式下限制同时执行的子任务数，平台线程模式下由固定大小的线程池限制
+    private final Semaphore permits;
+
+    private final boolean failFast;
+
+    private final List<Future<?>> futures = new CopyOnWriteArrayList<>();
+
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+    private final AtomicInteger failures = new AtomicInteger(0);
+
+    private final Set<Runnable> cleanups = ConcurrentHashMap.newKeySet();
+
+    private TaskScope(String name, boolean virtual, int limit, boolean failFast) {
+        this.name = name;
+        this.failFast = failFast;
+        if (virtual) {
+            this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+            this.permits = limit > 0 ? new Semaphore(limit) : null;
+        }
+        else {
+            this.executor = limit > 0 ? Executors.newFixedThreadPool(limit) : Executors.newCachedThreadPool();
+            this.permits = null;
+        }
+    }
+
+    /**
+     * 按配置打开作用域
+     * @param name 作用域名称，用于线程命名及 addax.executor.limit.&lt;name&gt; 配置
+     * @return 作用域
+     */
+    public static TaskScope open(String name) {
+        return open(name, -1);
+    }
+
+    /**
+     * 按配置打开作用域，指定默认的并发上限
+     * @param name 作用域名称
+     * @param defaultLimit 未配置 addax.executor.limit.&lt;name&gt; 时的并发上限，小于 0 时使用 addax.executor.max-concurrency，0 表示不限制
+     * @return 作用域
+     */
+    public static TaskScope open(String name, int defaultLimit) {
+        Environment env = SpringContextUtil.getBean(Environment.class);
+        if (env == null) {
+            return new TaskScope(name, true, defaultLimit < 0 ? DEFAULT_MAX_CONCURRENCY : defaultLimit, false);
+        }
+        boolean virtual = !"platform".equalsIgnoreCase(env.getProperty("addax.executor.mode", "virtual"));
+        int fallback = defaultLimit < 0 ? env.getProperty("addax.executor.max-concurrency", Integer.class, DEFAULT_MAX_CONCURRENCY) : defaultLimit;
+        int limit = env.getProperty("addax.executor.limit." + name, Integer.class, fallback);
+        boolean failFast = env.getProperty("addax.executor.fail-fast", Boolean.class, false);
+        return new TaskScope(name, virtual, limit, failFast);
+    }
+
+    /**
+     * 提交子任务，作用域已取消时不再提交
+     * @param task 子任务
+     */
+    public void fork(Runnable task) {
+        fork(() -> {
+            task.run();
+            return true;
+        });
+    }
+
+    /**
+     * 提交子任务，返回 false 或者抛出异常视为失败
+     * @param task 子任务
+     */
+    public void fork(Callable<Boolean> task) {
+        fork(task, null);
+    }
+
+    /**
+     * 提交子任务，并指定清理动作
+     * 清理动作无论子任务是否被执行都会调用且只调用一次，用于释放提交前获取的队列号等资源
+     * @param task 子任务，返回 false 或者抛出异常视为失败
+     * @param cleanup 清理动作
+     */
+    public void fork(Callable<Boolean> task, Runnable cleanup) {
+        if (cancelled.get()) {
+            if (cleanup != null) {
+                cleanup.run();
+            }
+            return;
+        }
+        if (cleanup != null) {
+            cleanups.add(cleanup);
+        }
+        // 子任务的输出沿用提交线程的运行日志
+        futures.add(executor.submit(RunLog.wrap(() -> {
+            try {
+                run(task);
+            }
+            finally {
+                if (cleanup != null && cleanups.remove(cleanup)) {
+                    cleanup.run();
+                }
+            }
+        })));
+    }
+
+    private void run(Callable<Boolean> task) {
+        try {
+            if (permits != null) {
+                permits.acquire();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            if (cancelled.get()) {
+                return;
+            }
+            if (!Boolean.TRUE.equals(task.call())) {
+                failed();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (Exception e) {
+            System.err.println("[" + name + "]子任务执行异常:" + e.getMessage());
+            failed();
+        }
+        finally {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    // 被取消而未开始执行的子任务，其清理动作在这里补做
+    private void runPendingCleanups() {
+        for (Runnable cleanup : cleanups) {
+            if (cleanups.remove(cleanup)) {
+                cleanup.run();
+            }
+        }
+    }
+
+    private void failed() {
+        failures.incrementAndGet();
+        if (failFast) {
+            cancel();
+        }
+    }
+
+    /**
+     * 等待所有子任务结束，等待过程中当前线程被中断时取消所有子任务
+     * @return 是否全部成功且未被取消
+     */
+    public boolean join() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // 继续等待
+            }
+            runPendingCleanups();
+        }
+        catch (InterruptedException e) {
+            // 子任务可能仍在退出中，清理动作留给 close
+            cancel();
+            Thread.currentThread().interrupt();
+        }
+        return failures.get() == 0 && !cancelled.get();
+    }
+
+    /**
+     * 取消作用域，中断所有未结束的子任务，之后的 fork 不再执行
+     */
+    public void cancel() {
+        if (cancelled.compareAndSet(false, true)) {
+            System.err.println("[" + name + "]作用域已取消，终止其余子任务");
+            futures.forEach(f -> f.cancel(true));
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    public int failures() {
+        return failures.get();
+    }
+
+    /**
+     * 关闭作用域，未结束的子任务被取消并等待其退出
+     */
+    @Override
+    public void close() {
+        if (!executor.isTerminated()) {
+            cancel();
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        runPendingCleanups();
+    }
+}
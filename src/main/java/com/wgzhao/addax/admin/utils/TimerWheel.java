@@ -0,0 +1,152 @@
+package com.wgzhao.addax.admin.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 分钟精度的分层时间轮
+ * 三层分别为 60 个分钟槽、24 个小时槽及 64 个天槽，更远的定时放在溢出列表中每天重新检查；
+ * 推进时只在整点、零点把上一层对应槽中的定时下放，每分钟只处理当前分钟槽，开销与到期的定时数相关，与定时总数无关。
+ * 时间以 epoch 分钟表示，每个对象同时只有一个有效定时，重新定时或取消时旧的定时在到期时丢弃
+ */
+public class TimerWheel<T> {
+
+    private static final int[] SIZES = {60, 24, 64};
+
+    private static final long[] SPANS = {1, 60, 1440};
+
+    /**
+     * 到期的定时
+     * @param item 定时对象
+     * @param at 定时的 epoch 分钟
+     */
+    public record Expired<T>(T item, long at) {
+    }
+
+    private record Entry<T>(T item, long at) {
+    }
+
+    private final List<List<List<Entry<T>>>> levels = new ArrayList<>();
+
+    private final List<Entry<T>> overflow = new ArrayList<>();
+
+    // 已经到期但还未被取走的定时
+    private final List<Entry<T>> due = new ArrayList<>();
+
+    // 每个对象当前有效的定时
+    private final Map<T, Long> pending = new HashMap<>();
+
+    private long now;
+
+    /**
+     * @param now 起始的 epoch 分钟，该分钟视为已经处理
+     */
+    public TimerWheel(long now) {
+        this.now = now;
+        for (int size : SIZES) {
+            List<List<Entry<T>>> slots = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                slots.add(new ArrayList<>());
+            }
+            levels.add(slots);
+        }
+    }
+
+    public synchronized long now() {
+        return now;
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * 定时，替换该对象原有的定时
+     * @param item 定时对象
+     * @param at epoch 分钟，不晚于当前时间时在下一次推进时到期
+     */
+    public synchronized void schedule(T item, long at) {
+        pending.put(item, at);
+        Entry<T> e = new Entry<>(item, at);
+        if (at <= now) {
+            due.add(e);
+        }
+        else {
+            insert(e);
+        }
+    }
+
+    /**
+     * 取消定时
+     */
+    public synchronized void cancel(T item) {
+        pending.remove(item);
+    }
+
+    /**
+     * 对象当前的定时
+     * @return epoch 分钟，没有定时返回 -1
+     */
+    public synchronized long scheduledAt(T item) {
+        return pending.getOrDefault(item, -1L);
+    }
+
+    /**
+     * 推进到指定时间
+     * @param to epoch 分钟
+     * @return 到期的定时，按到期时间排列
+     */
+    public synchronized List<Expired<T>> advance(long to) {
+        List<Expired<T>> result = new ArrayList<>();
+        collect(due, result);
+        due.clear();
+        while (now < to) {
+            now++;
+            if (now % SPANS[2] == 0) {
+                cascade(2);
+                List<Entry<T>> far = new ArrayList<>(overflow);
+                overflow.clear();
+                far.forEach(this::insert);
+            }
+            if (now % SPANS[1] == 0) {
+                cascade(1);
+            }
+            List<Entry<T>> slot = levels.get(0).get((int) (now % SIZES[0]));
+            collect(slot, result);
+            slot.clear();
+        }
+        return result;
+    }
+
+    private void collect(List<Entry<T>> entries, List<Expired<T>> result) {
+        for (Entry<T> e : entries) {
+            // 已被取消或者重新定时的旧定时直接丢弃
+            Long at = pending.get(e.item());
+            if (at != null && at == e.at()) {
+                pending.remove(e.item());
+                result.add(new Expired<>(e.item(), e.at()));
+            }
+        }
+    }
+
+    private void cascade(int level) {
+        List<Entry<T>> slot = levels.get(level).get((int) ((now / SPANS[level]) % SIZES[level]));
+        List<Entry<T>> entries = new ArrayList<>(slot);
+        slot.clear();
+        entries.forEach(this::insert);
+    }
+
+    // 当前分钟到期的定时放入当前分钟槽，由调用方随后处理
+    private void insert(Entry<T> e) {
+        long delta = e.at() - now;
+        for (int level = 0; level < SIZES.length; level++) {
+            if (delta < SPANS[level] * SIZES[level]) {
+                levels.get(level).get((int) ((e.at() / SPANS[level]) % SIZES[level])).add(e);
+                return;
+            }
+        }
+        overflow.add(e);
+    }
+}
@@ -0,0 +1,233 @@
+package com.wgzhao.addax.admin.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 内存交易日历
+ * 启动后从 vw_trade_date 一次性加载为有序 int 数组（yyyyMMdd），交易日判断、前后交易日、第 N 个交易日、
+ * 区间交易日数以及周/月/季/年首末交易日均通过二分查找在内存中完成，不再访问数据库。
+ * 定时比对日历表的记录数及首末日期，发生变化时整体重新加载并原子替换
+ */
+@Component
+public class TradeCalendar {
+    private static final Logger logger = LoggerFactory.getLogger(TradeCalendar.class);
+
+    private static final String SIGNATURE_SQL = "select count(1)||'-'||min(init_date)||'-'||max(init_date) from vw_trade_date";
+
+    /**
+     * 周期，周以周一为起始
+     */
+    public enum Period {
+        WEEK, MONTH, QUARTER, YEAR;
+
+        LocalDate start(LocalDate d) {
+            return switch (this) {
+                case WEEK -> d.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                case MONTH -> d.withDayOfMonth(1);
+                case QUARTER -> LocalDate.of(d.getYear(), (d.getMonthValue() - 1) / 3 * 3 + 1, 1);
+                case YEAR -> d.withDayOfYear(1);
+            };
+        }
+
+        LocalDate end(LocalDate d) {
+            return switch (this) {
+                case WEEK -> start(d).plusDays(6);
+                case MONTH -> d.with(TemporalAdjusters.lastDayOfMonth());
+                case QUARTER -> start(d).plusMonths(3).minusDays(1);
+                case YEAR -> d.with(TemporalAdjusters.lastDayOfYear());
+            };
+        }
+    }
+
+    private record Snapshot(int[] days, String signature) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile Snapshot snapshot;
+
+    public TradeCalendar(@Qualifier("oracleJdbcTemplate") JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 日历表发生变化时重新加载
+     */
+    @Scheduled(fixedDelayString = "${addax.calendar.refresh-interval:600000}", initialDelayString = "${addax.calendar.refresh-interval:600000}")
+    public void refreshIfChanged() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return;
+        }
+        try {
+            String signature = jdbcTemplate.queryForObject(SIGNATURE_SQL, String.class);
+            if (!current.signature().equals(signature)) {
+                logger.info("trade calendar changed ({} -> {}), reload", current.signature(), signature);
+                reload();
+            }
+        }
+        catch (Exception e) {
+            logger.warn("failed to check trade calendar: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 重新加载交易日历
+     */
+    public synchronized void reload() {
+        String signature = jdbcTemplate.queryForObject(SIGNATURE_SQL, String.class);
+        List<Integer> rows = jdbcTemplate.queryForList("select init_date from vw_trade_date where init_date is not null order by init_date", Integer.class);
+        int[] days = rows.stream().mapToInt(Integer::intValue).distinct().sorted().toArray();
+        snapshot = new Snapshot(days, signature == null ? "" : signature);
+        logger.info("trade calendar loaded, {} days [{} - {}]", days.length,
+                days.length > 0 ? days[0] : 0, days.length > 0 ? days[days.length - 1] : 0);
+    }
+
+    private int[] days() {
+        Snapshot s = snapshot;
+        if (s == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    reload();
+                }
+                s = snapshot;
+            }
+        }
+        return s.days();
+    }
+
+    /**
+     * 是否交易日
+     */
+    public boolean isTradeDay(int date) {
+        return Arrays.binarySearch(days(), date) >= 0;
+    }
+
+    /**
+     * 小于等于指定日期的最近交易日，没有时返回 0
+     */
+    public int floor(int date) {
+        int[] days = days();
+        int idx = floorIndex(days, date);
+        return idx >= 0 ? days[idx] : 0;
+    }
+
+    /**
+     * 大于等于指定日期的最近交易日，没有时返回 0
+     */
+    public int ceil(int date) {
+        int[] days = days();
+        int idx = ceilIndex(days, date);
+        return idx < days.length ? days[idx] : 0;
+    }
+
+    /**
+     * 上一交易日（严格小于），没有时返回 0
+     */
+    public int prev(int date) {
+        return shift(date, -1);
+    }
+
+    /**
+     * 下一交易日（严格大于），没有时返回 0
+     */
+    public int next(int date) {
+        return shift(date, 1);
+    }
+
+    /**
+     * 按交易日偏移
+     * @param date 基准日期，可以不是交易日
+     * @param n 偏移量，n &gt; 0 为其后第 n 个交易日，n &lt; 0 为其前第 -n 个交易日，0 为小于等于基准日期的最近交易日
+     * @return 交易日，超出日历范围时返回 0
+     */
+    public int shift(int date, int n) {
+        int[] days = days();
+        int idx;
+        if (n == 0) {
+            idx = floorIndex(days, date);
+        }
+        else if (n > 0) {
+            // 基准日期之后的第一个交易日为第 1 个
+            idx = ceilIndex(days, date + 1) + n - 1;
+        }
+        else {
+            idx = floorIndex(days, date - 1) + n + 1;
+        }
+        return idx >= 0 && idx < days.length ? days[idx] : 0;
+    }
+
+    /**
+     * 闭区间内的交易日数
+     */
+    public int count(int from, int to) {
+        if (from > to) {
+            return 0;
+        }
+        int[] days = days();
+        return floorIndex(days, to) - ceilIndex(days, from) + 1;
+    }
+
+    /**
+     * 指定日期所在周期的第一个交易日，该周期没有交易日时返回 0
+     */
+    public int firstOf(Period period, int date) {
+        LocalDate d = toLocalDate(date);
+        int first = ceil(toInt(period.start(d)));
+        return first != 0 && first <= toInt(period.end(d)) ? first : 0;
+    }
+
+    /**
+     * 指定日期所在周期的最后一个交易日，该周期没有交易日时返回 0
+     */
+    public int lastOf(Period period, int date) {
+        LocalDate d = toLocalDate(date);
+        int last = floor(toInt(period.end(d)));
+        return last != 0 && last >= toInt(period.start(d)) ? last : 0;
+    }
+
+    /**
+     * 是否所在周期的第一个交易日
+     */
+    public boolean isFirstOf(Period period, int date) {
+        return isTradeDay(date) && firstOf(period, date) == date;
+    }
+
+    /**
+     * 是否所在周期的最后一个交易日
+     */
+    public boolean isLastOf(Period period, int date) {
+        return isTradeDay(date) && lastOf(period, date) == date;
+    }
+
+    // 最后一个小于等于 date 的下标，没有时为 -1
+    private static int floorIndex(int[] days, int date) {
+        int idx = Arrays.binarySearch(days, date);
+        return idx >= 0 ? idx : -idx - 2;
+    }
+
+    // 第一个大于等于 date 的下标，没有时为 days.length
+    private static int ceilIndex(int[] days, int date) {
+        int idx = Arrays.binarySearch(days, date);
+        return idx >= 0 ? idx : -idx - 1;
+    }
+
+    public static LocalDate toLocalDate(int date) {
+        return LocalDate.of(date / 10000, date / 100 % 100, date % 100);
+    }
+
+    public static int toInt(LocalDate date) {
+        return date.getYear() * 10000 + date.getMonthValue() * 100 + date.getDayOfMonth();
+    }
+}
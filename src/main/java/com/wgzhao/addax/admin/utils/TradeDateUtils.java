@@ -13,8 +13,24 @@ public class TradeDateUtils {
         return sdf.format(day);
     }
 
+    /**
+     * 计算当前日期之前第 shiftDay 个交易日
+     * 优先使用内存交易日历（包含节假日），日历不可用时只跳过周末
+     */
     public static Date calcTradeDate(Integer shiftDay) {
         LocalDate startingDate = LocalDate.now();
+        TradeCalendar calendar = SpringContextUtil.getBean(TradeCalendar.class);
+        if (calendar != null) {
+            try {
+                int day = calendar.shift(TradeCalendar.toInt(startingDate), -shiftDay);
+                if (day != 0) {
+                    return new Date(TradeCalendar.toLocalDate(day).toEpochDay() * 86400 * 1000);
+                }
+            }
+            catch (Exception ignored) {
+                // 日历加载失败时按周末计算
+            }
+        }
         // calc 5 work day ago
         LocalDate day = startingDate.minusDays(shiftDay);  // Add 5 workdays (excluding weekends)
         while (day.getDayOfWeek().getValue() > 5) {
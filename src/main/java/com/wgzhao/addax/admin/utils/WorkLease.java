@@ -0,0 +1,380 @@
+package com.wgzhao.addax.admin.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 多节点任务租约
+ * 开启 addax.lease.enabled 后，sp_init 不再通过调度工具调起任务，而是把任务命令放入 Redis 中的共享队列，
+ * 各 admin 节点按来源系统(sysid)的一致性哈希领取属于自己的任务在本机执行，保持对源库的访问集中在同一节点；
+ * 等待超过 steal-after 的任务任何节点都可以领取。
+ * 领取后持有带到期时间的租约并定时续约，节点异常退出后租约到期的任务重新放回队列；
+ * 续约时发现租约已丢失(已被回收并由其他节点领取)则终止本机的进程树，避免同一任务在两个节点上同时执行。
+ * <p>
+ * 领取的任务通过 sp_alone 命令执行，状态由 sp_alone 直接调用 sp_imp_status 写入数据库，
+ * 不经过本进程的 StatusPipeline 与 TaskRegistry；任务结束后由执行节点从数据库读回状态(TaskRegistry.resync)，
+ * 再经 ReadinessEngine 的状态广播通知其他节点，其他节点的 TaskRegistry 在下次定时刷新时同步。
+ * <p>
+ * 队列及租约由以下键组成：
+ * queue 有序集合记录待领取的任务及入队时间，active 有序集合记录已领取的任务及租约到期时间，
+ * owners 哈希记录任务的持有节点，nodes 有序集合记录存活节点及心跳到期时间，
+ * procs:节点 记录该节点心跳时本机正在执行的 sp_alone 任务编号。
+ * 未开启租约时同样发送心跳，供主节点切换时判断节点是否存活及任务是否仍在某个节点上执行
+ */
+@Component
+public class WorkLease {
+    private static final Logger logger = LoggerFactory.getLogger(WorkLease.class);
+
+    // 一致性哈希环上每个节点的虚拟节点数
+    private static final int VIRTUAL_NODES = 64;
+
+    private static final String NOW_MS = "local t = redis.call('time') " +
+            "local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000) ";
+
+    // KEYS=queue,active,owners ARGV[1]=任务 ARGV[2]=节点 ARGV[3]=租约毫秒；返回 1 领取成功，0 已被其他节点领取
+    private static final RedisScript<Long> CLAIM = new DefaultRedisScript<>(NOW_MS +
+            "if redis.call('zrem', KEYS[1], ARGV[1]) == 0 then return 0 end " +
+            "redis.call('zadd', KEYS[2], now + tonumber(ARGV[3]), ARGV[1]) " +
+            "redis.call('hset', KEYS[3], ARGV[1], ARGV[2]) " +
+            "return 1", Long.class);
+
+    // KEYS=active,owners ARGV[1]=任务 ARGV[2]=节点 ARGV[3]=租约毫秒；返回 0 表示租约已丢失
+    private static final RedisScript<Long> RENEW = new DefaultRedisScript<>(
+            "if redis.call('hget', KEYS[2], ARGV[1]) ~= ARGV[2] then return 0 end " + NOW_MS +
+            "redis.call('zadd', KEYS[1], now + tonumber(ARGV[3]), ARGV[1]) " +
+            "return 1", Long.class);
+
+    // KEYS=active,owners ARGV[1]=任务 ARGV[2]=节点
+    private static final RedisScript<Long> COMPLETE = new DefaultRedisScript<>(
+            "if redis.call('hget', KEYS[2], ARGV[1]) ~= ARGV[2] then return 0 end " +
+            "redis.call('zrem', KEYS[1], ARGV[1]) redis.call('hdel', KEYS[2], ARGV[1]) " +
+            "return 1", Long.class);
+
+    // KEYS=queue,active,owners；租约到期的任务重新入队，返回重新入队的数量
+    private static final RedisScript<Long> REAP = new DefaultRedisScript<>(NOW_MS +
+            "local n = 0 " +
+            "for _, s in ipairs(redis.call('zrangebyscore', KEYS[2], '-inf', now)) do " +
+            "  redis.call('zrem', KEYS[2], s) redis.call('hdel', KEYS[3], s) " +
+            "  redis.call('zadd', KEYS[1], 'NX', now, s) n = n + 1 end " +
+            "return n", Long.class);
+
+    // KEYS=nodes ARGV[1]=节点 ARGV[2]=心跳有效毫秒；返回存活节点
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> HEARTBEAT = new DefaultRedisScript<>(NOW_MS +
+            "redis.call('zremrangebyscore', KEYS[1], '-inf', now) " +
+            "redis.call('zadd', KEYS[1], now + tonumber(ARGV[2]), ARGV[1]) " +
+            "return redis.call('zrange', KEYS[1], 0, -1)", List.class);
+
+    // KEYS=nodes；返回心跳未到期的节点
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> ALIVE = new DefaultRedisScript<>(NOW_MS +
+            "return redis.call('zrangebyscore', KEYS[1], now, '+inf')", List.class);
+
+    // sp_alone 命令行中的任务编号，与 EtlHandler.wkfCommand 生成的命令对应
+    private static final Pattern TASK_COMMAND = Pattern.compile("\\b(?:sp|ds|judge|soutab)_etl\\s+(\\S+)");
+
+    /**
+     * 队列中的任务
+     * @param id 任务编号
+     * @param key 分配依据，一般为来源系统
+     * @param command 在领取节点上执行的命令
+     */
+    public record Work(String id, String key, String command) {
+        String encode() {
+            return id + "\t" + key + "\t" + command;
+        }
+
+        static Work decode(String s) {
+            String[] parts = s.split("\t", 3);
+            return parts.length < 3 ? null : new Work(parts[0], parts[1], parts[2]);
+        }
+    }
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final TaskRegistry taskRegistry;
+
+    private final String node = CommandExecutor.getHostname() + ":" + ProcessHandle.current().pid();
+
+    // 本节点正在执行的任务及其进程，用于续约以及租约丢失时终止
+    private final Map<String, CompletableFuture<ProcessRunner.Result>> running = new ConcurrentHashMap<>();
+
+    private volatile SortedMap<Long, String> ring = new TreeMap<>();
+
+    @Value("${addax.lease.enabled:false}")
+    private boolean enabled;
+
+    @Value("${addax.lease.prefix:lease:}")
+    private String prefix;
+
+    // 需要大于 addax.flag.lease-seconds，重新入队的任务才能获取到异常节点遗留的任务标志
+    @Value("${addax.lease.lease-seconds:360}")
+    private long leaseSeconds;
+
+    @Value("${addax.lease.max-running:8}")
+    private int maxRunning;
+
+    // 超过该时间仍未被所属节点领取的任务，其他节点也可以领取
+    @Value("${addax.lease.steal-after-seconds:60}")
+    private long stealAfterSeconds;
+
+    // 心跳有效时长，超过该时长没有心跳的节点视为已退出
+    @Value("${addax.lease.heartbeat-seconds:30}")
+    private long heartbeatSeconds;
+
+    public WorkLease(StringRedisTemplate stringRedisTemplate, TaskRegistry taskRegistry) {
+        this.redisTemplate = stringRedisTemplate;
+        this.taskRegistry = taskRegistry;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 任务放入共享队列，已在队列中的任务保留原来的入队时间
+     */
+    public void submit(String id, String key, String command) {
+        redisTemplate.opsForZSet().addIfAbsent(keys().get(0), new Work(id, key, command).encode(), System.currentTimeMillis());
+    }
+
+    /**
+     * 存活的节点
+     * @return 心跳未到期的节点(主机名:进程号)
+     */
+    @SuppressWarnings("unchecked")
+    public Set<String> liveNodes() {
+        List<String> nodes = redisTemplate.execute(ALIVE, List.of(prefix + "nodes"));
+        return nodes == null ? new HashSet<>() : new HashSet<>(nodes);
+    }
+
+    /**
+     * 所有存活节点上正在执行的任务：各节点心跳时上报的本机 sp_alone 进程、本机当前的进程以及已被领取的任务
+     * @return 任务编号
+     */
+    public Set<String> runningTasks() {
+        Set<String> ids = new HashSet<>(localTasks());
+        List<String> procKeys = liveNodes().stream().map(n -> prefix + "procs:" + n).toList();
+        if (!procKeys.isEmpty()) {
+            List<String> procs = redisTemplate.opsForValue().multiGet(procKeys);
+            if (procs != null) {
+                procs.stream().filter(p -> p != null && !p.isEmpty()).forEach(p -> ids.addAll(List.of(p.split(","))));
+            }
+        }
+        Set<String> active = redisTemplate.opsForZSet().range(keys().get(1), 0, -1);
+        if (active != null) {
+            for (String member : active) {
+                Work work = Work.decode(member);
+                if (work != null) {
+                    ids.add(work.id());
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * 心跳并上报本机正在执行的任务，未开启租约时同样执行
+     */
+    @Scheduled(fixedDelayString = "${addax.lease.heartbeat-interval:5000}")
+    public void heartbeat() {
+        long ttl = TimeUnit.SECONDS.toMillis(heartbeatSeconds);
+        try {
+            List<String> nodes = beat(ttl);
+            redisTemplate.opsForValue().set(prefix + "procs:" + node, String.join(",", localTasks()), Duration.ofMillis(ttl));
+            if (nodes == null || nodes.isEmpty()) {
+                return;
+            }
+            SortedMap<Long, String> r = new TreeMap<>();
+            for (String n : nodes) {
+                for (int i = 0; i < VIRTUAL_NODES; i++) {
+                    r.put(hash(n + "#" + i), n);
+                }
+            }
+            ring = r;
+        }
+        catch (Exception e) {
+            logger.warn("lease heartbeat failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 回收到期租约并领取属于本节点的任务
+     */
+    @Scheduled(fixedDelayString = "${addax.lease.poll-interval:1000}")
+    public void poll() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            List<String> keys = keys();
+            Long reaped = redisTemplate.execute(REAP, keys);
+            if (reaped != null && reaped > 0) {
+                logger.warn("{} expired leases requeued", reaped);
+            }
+            int free = maxRunning - running.size();
+            if (free <= 0) {
+                return;
+            }
+            Set<ZSetOperations.TypedTuple<String>> queued = redisTemplate.opsForZSet().rangeWithScores(keys.get(0), 0, -1);
+            if (queued == null) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            long stealAfter = TimeUnit.SECONDS.toMillis(stealAfterSeconds);
+            for (ZSetOperations.TypedTuple<String> t : queued) {
+                if (free <= 0) {
+                    break;
+                }
+                Work work = t.getValue() == null ? null : Work.decode(t.getValue());
+                if (work == null) {
+                    continue;
+                }
+                boolean mine = node.equals(owner(work.key()));
+                boolean stale = t.getScore() != null && now - t.getScore().longValue() > stealAfter;
+                if ((mine || stale) && claim(t.getValue())) {
+                    free--;
+                    run(t.getValue(), work);
+                }
+            }
+        }
+        catch (Exception e) {
+            logger.warn("lease poll failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 续约本节点正在执行的任务，租约已丢失的任务终止其进程树
+     */
+    @Scheduled(fixedDelayString = "${addax.lease.renew-interval:60000}")
+    public void renew() {
+        if (!enabled || running.isEmpty()) {
+            return;
+        }
+        List<String> keys = keys().subList(1, 3);
+        String lease = String.valueOf(TimeUnit.SECONDS.toMillis(leaseSeconds));
+        for (Map.Entry<String, CompletableFuture<ProcessRunner.Result>> e : running.entrySet()) {
+            Long rc;
+            try {
+                rc = redisTemplate.execute(RENEW, keys, e.getKey(), node, lease);
+            }
+            catch (Exception ex) {
+                // Redis 不可用时无法判断租约是否仍然有效，保留本机执行，下次再续约
+                logger.warn("failed to renew lease of {}: {}", Work.decode(e.getKey()), ex.getMessage());
+                continue;
+            }
+            if (rc != null && rc == 0) {
+                logger.warn("lost lease of {}, killing the local run", Work.decode(e.getKey()));
+                e.getValue().cancel(true);
+            }
+        }
+    }
+
+    private boolean claim(String member) {
+        Long rc = redisTemplate.execute(CLAIM, keys(), member, node, String.valueOf(TimeUnit.SECONDS.toMillis(leaseSeconds)));
+        return rc != null && rc == 1;
+    }
+
+    private void run(String member, Work work) {
+        logger.info("leased task {} on {}: {}", work.id(), node, work.command());
+        // sp_alone 自身写运行日志，这里的输出带上任务编号记入服务日志
+        CompletableFuture<ProcessRunner.Result> future = ProcessRunner.of(work.command())
+                .onStdout(line -> logger.info("[{}] {}", work.id(), line))
+                .onStderr(line -> logger.warn("[{}] {}", work.id(), line))
+                .start();
+        running.put(member, future);
+        future.whenComplete((r, e) -> {
+            running.remove(member);
+            if (e instanceof CancellationException) {
+                // 租约已由其他节点领取，不再完成租约，也不读回状态
+                return;
+            }
+            if (r != null && r.exitCode() != 0) {
+                logger.warn("leased task {} exited with {}", work.id(), r.exitCode());
+            }
+            try {
+                redisTemplate.execute(COMPLETE, keys().subList(1, 3), member, node);
+            }
+            catch (Exception ex) {
+                logger.warn("failed to complete lease of {}: {}", work.id(), ex.getMessage());
+            }
+            try {
+                taskRegistry.resync(work.id());
+            }
+            catch (Exception ex) {
+                logger.warn("failed to resync status of leased task {}: {}", work.id(), ex.getMessage());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> beat(long ttl) {
+        return redisTemplate.execute(HEARTBEAT, List.of(prefix + "nodes"), node, String.valueOf(ttl));
+    }
+
+    // 本机正在执行的 sp_alone 任务编号
+    private static List<String> localTasks() {
+        List<String> ids = new ArrayList<>();
+        ProcessHandle.allProcesses().forEach(p -> {
+            Matcher m = TASK_COMMAND.matcher(p.info().commandLine().orElse(""));
+            if (m.find()) {
+                ids.add(m.group(1));
+            }
+        });
+        return ids;
+    }
+
+    // 一致性哈希，节点增减时只有相邻区间的来源系统改变归属
+    private String owner(String key) {
+        SortedMap<Long, String> r = ring;
+        if (r.isEmpty()) {
+            return node;
+        }
+        SortedMap<Long, String> tail = r.tailMap(hash(key));
+        return tail.isEmpty() ? r.get(r.firstKey()) : tail.get(tail.firstKey());
+    }
+
+    private static long hash(String s) {
+        try {
+            byte[] d = MessageDigest.getInstance("MD5").digest(s.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) {
+                h = (h << 8) | (d[i] & 0xff);
+            }
+            return h;
+        }
+        catch (NoSuchAlgorithmException e) {
+            return s.hashCode();
+        }
+    }
+
+    private List<String> keys() {
+        return List.of(prefix + "queue", prefix + "active", prefix + "owners");
+    }
+
+}
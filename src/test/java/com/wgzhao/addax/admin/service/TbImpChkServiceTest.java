@@ -0,0 +1,48 @@
+package com.wgzhao.addax.admin.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * tb_imp_chk_etl 的写入以 H2 代替 PostgreSQL 验证
+ */
+class TbImpChkServiceTest {
+
+    private JdbcTemplate jdbcTemplate;
+
+    private TbImpChkService service;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource ds = new DriverManagerDataSource("jdbc:h2:mem:chk;DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(ds);
+        jdbcTemplate.execute("drop all objects");
+        jdbcTemplate.execute("create table tb_imp_chk_etl(tblname varchar(64), kind varchar(16), cnt int not null, updt_date timestamp, logdate varchar(8))");
+        service = new TbImpChkService();
+        ReflectionTestUtils.setField(service, "pgJdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(service, "pgTransactionManager", new DataSourceTransactionManager(ds));
+    }
+
+    @Test
+    void rerunReplacesExistingCounts() {
+        service.saveEtlCounts("20240105", List.of(List.of("t1", "ods", "10"), List.of("t2", "ods", "20")));
+        assertEquals(2, service.saveEtlCounts("20240105", List.of(List.of("t1", "ods", "11"), List.of("t2", "ods", "21"))));
+        assertEquals(List.of(11, 21), jdbcTemplate.queryForList("select cnt from tb_imp_chk_etl order by tblname", Integer.class));
+    }
+
+    @Test
+    void failedInsertKeepsPreviousCounts() {
+        service.saveEtlCounts("20240105", List.of(List.of("t1", "ods", "10")));
+        assertThrows(RuntimeException.class, () -> service.saveEtlCounts("20240105", List.of(List.of("t1", "ods", "not-a-number"))));
+        assertEquals(List.of(10), jdbcTemplate.queryForList("select cnt from tb_imp_chk_etl", Integer.class));
+    }
+}
@@ -0,0 +1,82 @@
+package com.wgzhao.addax.admin.utils;
+
+import com.wgzhao.addax.admin.utils.DispatchPolicy.Candidate;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 内置调度策略的排序及截止时间计算
+ */
+class DispatchPoliciesTest {
+
+    private static Candidate task(String id, String destSys, double runtime) {
+        return new Candidate("sp", id, destSys, runtime, false, 0, 0);
+    }
+
+    private static Candidate task(String id, double runtime, boolean delayed, double criticalPath, double deadline) {
+        return new Candidate("sp", id, "ods", runtime, delayed, criticalPath, deadline);
+    }
+
+    private static List<String> ids(List<Candidate> ordered) {
+        return ordered.stream().map(Candidate::id).toList();
+    }
+
+    @Test
+    void defaultPutsFirstTaskOfEachSystemAhead() {
+        List<Candidate> runnable = List.of(task("a1", "a", 9000), task("a2", "a", 8000), task("b1", "b", 100));
+        // a2 与 a1 同系统，编号为 2，得分 8000 + 10000 低于 b1 的 100 + 20000
+        assertEquals(List.of("a1", "b1", "a2"), ids(new DispatchPolicies.Default().order(runnable, Map.of())));
+        // 系统 b 已有任务在运行，b1 编号为 2
+        assertEquals(List.of("a1", "a2", "b1"), ids(new DispatchPolicies.Default().order(runnable, Map.of("sp|b", 1))));
+    }
+
+    @Test
+    void longestFirstOrdersByRuntime() {
+        List<Candidate> runnable = List.of(task("s", "a", 10), task("l", "b", 300), task("m", "a", 60));
+        DispatchPolicies.LongestFirst policy = new DispatchPolicies.LongestFirst();
+        assertFalse(policy.needsCriticalPath());
+        assertEquals(List.of("l", "m", "s"), ids(policy.order(runnable, Map.of())));
+    }
+
+    @Test
+    void criticalPathOrdersByDownstreamChain() {
+        List<Candidate> runnable = List.of(task("leaf", 500, false, 500, 0), task("root", 10, false, 900, 0),
+                task("mid", 100, false, 900, 0));
+        DispatchPolicies.CriticalPath policy = new DispatchPolicies.CriticalPath();
+        assertTrue(policy.needsCriticalPath());
+        // 关键路径相同时耗时长的先调起
+        assertEquals(List.of("mid", "root", "leaf"), ids(policy.order(runnable, Map.of())));
+    }
+
+    @Test
+    void deadlineOrdersBySlack() {
+        DispatchPolicies.DeadlineFirst policy = new DispatchPolicies.DeadlineFirst();
+        assertTrue(policy.needsCriticalPath());
+        List<Candidate> runnable = List.of(
+                // 距截止 1 小时，链路 30 分钟，松弛 1800
+                task("short", 60, false, 1800, 3600),
+                // 延迟任务已过截止时间，松弛 -120
+                task("delayed", 120, true, 120, 0),
+                // 链路 2 小时超过剩余时间，松弛 -3600，排在短的延迟任务之前
+                task("chain", 600, false, 7200, 3600),
+                // 与 short 松弛相同，耗时长的先调起
+                task("tie", 300, false, 1800, 3600));
+        assertEquals(List.of("chain", "delayed", "tie", "short"), ids(policy.order(runnable, Map.of())));
+    }
+
+    @Test
+    void secondsUntilRollsOverToNextDay() {
+        LocalTime deadline = LocalTime.of(8, 0);
+        assertEquals(3600, Dispatcher.secondsUntil(deadline, LocalDateTime.of(2024, 3, 1, 7, 0)));
+        assertEquals(86400, Dispatcher.secondsUntil(deadline, LocalDateTime.of(2024, 3, 1, 8, 0)));
+        assertEquals(23 * 3600, Dispatcher.secondsUntil(deadline, LocalDateTime.of(2024, 3, 1, 9, 0)));
+    }
+}
@@ -0,0 +1,51 @@
+package com.wgzhao.addax.admin.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * HiveGateway 以 H2 代替元数据库验证批量更新及失败语句的定位
+ */
+class HiveGatewayTest {
+
+    private HiveGateway gateway;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        gateway = new HiveGateway();
+        ReflectionTestUtils.setField(gateway, "metastoreUrl", "jdbc:h2:mem:metastore;DB_CLOSE_DELAY=-1");
+        ReflectionTestUtils.setField(gateway, "metastoreUser", "sa");
+        ReflectionTestUtils.setField(gateway, "metastorePassword", "");
+        ReflectionTestUtils.setField(gateway, "metastoreDriverClassName", "org.h2.Driver");
+        gateway.updateMetastore("create table tbls(tbl_id int primary key, tbl_name varchar(64))");
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        gateway.updateMetastore("drop all objects");
+        gateway.close();
+    }
+
+    @Test
+    void appliesScriptInOneBatch() throws SQLException {
+        assertEquals(3, gateway.updateMetastore("insert into tbls values (1, 'a');\n"
+                + "insert into tbls values (2, 'b');\nupdate tbls set tbl_name = 'c' where tbl_id = 2"));
+        assertEquals(0, gateway.updateMetastore(" ; "));
+    }
+
+    @Test
+    void reportsFailingStatementIndex() {
+        SQLException e = assertThrows(SQLException.class, () -> gateway.updateMetastore(
+                "insert into tbls values (1, 'a');\ninsert into tbls values (1, 'dup');\ninsert into tbls values (3, 'c')"));
+        assertTrue(e.getMessage().startsWith("statement 2/3 failed"), e.getMessage());
+        assertTrue(e.getMessage().contains("insert into tbls values (1, 'dup')"), e.getMessage());
+    }
+}
@@ -0,0 +1,139 @@
+package com.wgzhao.addax.admin.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * ParamTemplate 的替换规则及与 fn_imp_param_replace 逐个 replace 的结果比对
+ */
+class ParamTemplateTest {
+
+    private static final List<String> DYNAMIC = List.of("${NOW}", "${NO}", "${UUID}");
+
+    private static final Map<String, String> DYNAMIC_VALUES = Map.of(
+            "${NOW}", "2024-01-02 03:04:05",
+            "${NO}", "20240102",
+            "${UUID}", "0123456789ABCDEF0123456789ABCDEF");
+
+    @Test
+    void replacesAllKeysInOnePass() {
+        ParamTemplate t = ParamTemplate.compile(Map.of("${TD}", "20240102", "${CD}", "20240101"), DYNAMIC, DYNAMIC_VALUES::get);
+
+        assertEquals("td=20240102,cd=20240101,td=20240102", t.render("td=${TD},cd=${CD},td=${TD}"));
+        assertEquals("no params", t.render("no params"));
+        assertNull(t.render(null));
+    }
+
+    @Test
+    void prefersLongestKeyAtSamePosition() {
+        ParamTemplate t = ParamTemplate.compile(Map.of("${TD", "x", "${TD}", "20240102", "${TD}_1", "20240101"), DYNAMIC, null);
+
+        assertEquals("20240101 20240102", t.render("${TD}_1 ${TD}"));
+    }
+
+    @Test
+    void nullValueRemovesKey() {
+        Map<String, String> params = new HashMap<>();
+        params.put("${EMPTY}", null);
+        params.put("${TD}", "20240102");
+        ParamTemplate t = ParamTemplate.compile(params, DYNAMIC, DYNAMIC_VALUES::get);
+
+        assertEquals("a20240102b", t.render("a${EMPTY}${TD}b"));
+    }
+
+    @Test
+    void rescansNestedValues() {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("${PATH}", "/ods/${DB}/logdate=${TD}");
+        params.put("${DB}", "${SCHEMA}_ods");
+        params.put("${SCHEMA}", "stg01");
+        params.put("${TD}", "20240102");
+        params.put("${STAMP}", "${NOW}");
+        ParamTemplate t = ParamTemplate.compile(params, DYNAMIC, DYNAMIC_VALUES::get);
+
+        assertEquals("/ods/stg01_ods/logdate=20240102 at 2024-01-02 03:04:05", t.render("${PATH} at ${STAMP}"));
+    }
+
+    @Test
+    void stopsExpandingCyclicValues() {
+        ParamTemplate t = ParamTemplate.compile(Map.of("${A}", "[${A}]"), DYNAMIC, null);
+
+        assertEquals("[".repeat(ParamTemplate.MAX_PASSES) + "${A}" + "]".repeat(ParamTemplate.MAX_PASSES), t.render("${A}"));
+    }
+
+    @Test
+    void resolvesDynamicKeysOncePerRender() {
+        AtomicInteger calls = new AtomicInteger();
+        ParamTemplate t = ParamTemplate.compile(Map.of(), DYNAMIC, key -> {
+            calls.incrementAndGet();
+            return "${UUID}".equals(key) ? "U" + calls.get() : null;
+        });
+
+        assertEquals("U2-U2 ${NOW}", t.render("${UUID}-${UUID} ${NOW}"));
+        assertEquals("U3", t.render("${UUID}"));
+    }
+
+    @Test
+    void staticRenderKeepsDynamicKeys() {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("${TD}", "20240102");
+        params.put("${STAMP}", "${NOW}");
+        ParamTemplate t = ParamTemplate.compile(params, DYNAMIC, DYNAMIC_VALUES::get);
+
+        assertEquals("20240102 ${NOW} ${UUID}", t.renderStatic("${TD} ${STAMP} ${UUID}"));
+        assertEquals("20240102 2024-01-02 03:04:05 0123456789ABCDEF0123456789ABCDEF", t.render("${TD} ${STAMP} ${UUID}"));
+    }
+
+    @Test
+    void matchesSequentialReplaceOfStoredProcedure() {
+        Random random = new Random(42);
+        String[] names = {"TD", "CD", "LTD", "NTD", "CW1", "CM1", "CQ0", "HIVE_DB", "DEST", "EMPTY"};
+        for (int round = 0; round < 200; round++) {
+            // 参数值可能引用排在后面的参数，与游标按引用顺序返回时的结果一致
+            Map<String, String> params = new LinkedHashMap<>();
+            for (int i = 0; i < names.length; i++) {
+                String value = switch (random.nextInt(5)) {
+                    case 0 -> null;
+                    case 1 -> i + 1 < names.length ? "v" + i + "${" + names[i + 1 + random.nextInt(names.length - i - 1)] + "}" : "v" + i;
+                    case 2 -> "${NOW}";
+                    default -> String.valueOf(20240000 + random.nextInt(10000));
+                };
+                params.put("${" + names[i] + "}", value);
+            }
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 20; i++) {
+                text.append(switch (random.nextInt(4)) {
+                    case 0 -> "${" + names[random.nextInt(names.length)] + "}";
+                    case 1 -> DYNAMIC.get(random.nextInt(DYNAMIC.size()));
+                    case 2 -> "${UNKNOWN}";
+                    default -> " select * from t where d='";
+                });
+            }
+
+            ParamTemplate t = ParamTemplate.compile(params, DYNAMIC, DYNAMIC_VALUES::get);
+            assertEquals(sequentialReplace(text.toString(), params), t.render(text.toString()), "round " + round);
+        }
+    }
+
+    // fn_imp_param_replace 的逐个 replace，null 值等同于删除
+    private static String sequentialReplace(String text, Map<String, String> params) {
+        String result = text;
+        for (Map.Entry<String, String> e : new ArrayList<>(params.entrySet())) {
+            result = result.replace(e.getKey(), e.getValue() == null ? "" : e.getValue());
+        }
+        for (String key : DYNAMIC) {
+            result = result.replace(key, DYNAMIC_VALUES.get(key));
+        }
+        return result;
+    }
+}
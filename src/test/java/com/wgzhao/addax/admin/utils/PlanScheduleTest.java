@@ -0,0 +1,76 @@
+package com.wgzhao.addax.admin.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * PlanSchedule 以 H2 的 vw_imp_date 验证间隔、定点、跨零点范围的编译及缓存刷新
+ */
+class PlanScheduleTest {
+
+    private JdbcTemplate jdbcTemplate;
+
+    private PlanSchedule schedule;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:plan;DB_CLOSE_DELAY=-1", "sa", ""));
+        jdbcTemplate.execute("create table vw_imp_date(dt varchar(10), dt_full int)");
+        jdbcTemplate.update("insert into vw_imp_date values ('8', 800), ('10', 1000), ('22', 2200)");
+        schedule = new PlanSchedule(jdbcTemplate, null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.execute("drop all objects");
+    }
+
+    @Test
+    void intervalWithinRange() {
+        assertEquals(List.of(480, 510, 540, 570, 600), minutes(schedule.minutes(null, 30, "8-10")));
+    }
+
+    @Test
+    void intervalRangeAcrossMidnight() {
+        // 2 不在 vw_imp_date 中，按整点 02:00 处理
+        assertEquals(List.of(0, 60, 120, 1320, 1380), minutes(schedule.minutes(null, 60, "22-2")));
+    }
+
+    @Test
+    void fixedPoints() {
+        BitSet bits = schedule.minutes("0,8,830,12,15", null, null);
+
+        assertEquals(List.of(0, 480, 510, 720, 900), minutes(bits));
+        assertTrue(schedule.matches(510, "0,8,830,12,15", null, null));
+        assertFalse(schedule.matches(509, "0,8,830,12,15", null, null));
+    }
+
+    @Test
+    void refreshDetectsDateChanges() {
+        assertEquals(480, schedule.minutes(null, 60, "8-10").nextSetBit(0));
+        assertFalse(schedule.refresh());
+
+        jdbcTemplate.update("update vw_imp_date set dt_full = 900 where dt = '8'");
+        assertTrue(schedule.refresh());
+        assertEquals(List.of(540, 600), minutes(schedule.minutes(null, 60, "8-10")));
+
+        schedule.invalidate();
+        schedule.minutes(null, 60, "8-10");
+        assertTrue(schedule.refresh());
+        assertFalse(schedule.refresh());
+    }
+
+    private static List<Integer> minutes(BitSet bits) {
+        return bits.stream().boxed().toList();
+    }
+}
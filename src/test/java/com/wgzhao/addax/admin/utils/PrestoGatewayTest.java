@@ -0,0 +1,96 @@
+package com.wgzhao.addax.admin.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * PrestoGateway 以 H2 代替 Trino 验证脚本执行、查询及连接池划分
+ */
+class PrestoGatewayTest {
+
+    private MockEnvironment env;
+
+    private PrestoGateway gateway;
+
+    @BeforeEach
+    void setUp() {
+        env = new MockEnvironment()
+                .withProperty("addax.presto.engine.presto", "hive")
+                .withProperty("addax.presto.engine.allsql", "hive")
+                .withProperty("addax.presto.engine.ice", "iceberg");
+        gateway = gateway("jdbc:h2:mem:presto;DB_CLOSE_DELAY=-1");
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        gateway.runScript("presto", "drop all objects", null);
+        gateway.close();
+    }
+
+    private PrestoGateway gateway(String url) {
+        PrestoGateway g = new PrestoGateway(env);
+        ReflectionTestUtils.setField(g, "url", url);
+        ReflectionTestUtils.setField(g, "user", "sa");
+        ReflectionTestUtils.setField(g, "password", "");
+        ReflectionTestUtils.setField(g, "driverClassName", "org.h2.Driver");
+        ReflectionTestUtils.setField(g, "poolSize", 2);
+        return g;
+    }
+
+    @Test
+    void runScriptExecutesStatementsAndCollectsRows() throws SQLException {
+        List<List<String>> rows = new ArrayList<>();
+        gateway.runScript("presto", """
+                create table t(id int, name varchar(10));
+                insert into t values (1, 'a;b'); -- comment; not a statement
+                insert into t values (2, 'c');
+                select id, name from t order by id;
+                """, rows::add);
+        assertEquals(List.of(List.of("1", "a;b"), List.of("2", "c")), rows);
+    }
+
+    @Test
+    void runScriptStopsAtFirstFailure() throws SQLException {
+        gateway.runScript("presto", "create table t(id int)", null);
+        assertThrows(SQLException.class, () -> gateway.runScript("presto", "insert into t values (1); select * from missing; insert into t values (2)", null));
+        List<List<String>> rows = new ArrayList<>();
+        gateway.query("presto", "select count(*) from t;", rows::add);
+        assertEquals(List.of(List.of("1")), rows);
+    }
+
+    @Test
+    void enginesSharePoolsPerCatalog() throws SQLException {
+        gateway.query("presto", "select 1", null);
+        gateway.query("allsql", "select 1", null);
+        gateway.query("ice", "select 1", null);
+        Map<?, ?> pools = (Map<?, ?>) ReflectionTestUtils.getField(gateway, "pools");
+        assertEquals(2, pools.size());
+    }
+
+    @Test
+    void catalogUrlReplacesTrinoPath() {
+        PrestoGateway trino = gateway("jdbc:trino://gw:8080/hive/default?SSL=true");
+        assertEquals("jdbc:trino://gw:8080/iceberg?SSL=true", trino.catalogUrl("iceberg"));
+        assertEquals("jdbc:trino://gw:8080/hive", gateway("jdbc:trino://gw:8080").catalogUrl("hive"));
+        env.setProperty("addax.presto.catalog-url.iceberg", "jdbc:trino://other:8443/iceberg");
+        assertEquals("jdbc:trino://other:8443/iceberg", trino.catalogUrl("iceberg"));
+        assertEquals("jdbc:h2:mem:presto;DB_CLOSE_DELAY=-1", gateway.catalogUrl("hive"));
+    }
+
+    @Test
+    void splitStatementsIgnoresQuotedSeparatorsAndComments() {
+        assertEquals(List.of("select ';' from t", "select \"a;b\" from u"),
+                PrestoGateway.splitStatements("select ';' from t; -- x; y\n;select \"a;b\" from u;"));
+    }
+}
@@ -0,0 +1,107 @@
+package com.wgzhao.addax.admin.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ReadinessEngine 以 H2 的 vw_imp_sp_needs 验证前置完成、前置失败以及重新加载后的就绪集合
+ */
+class ReadinessEngineTest {
+
+    private JdbcTemplate jdbcTemplate;
+
+    private ReadinessEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:ready;MODE=Oracle;DB_CLOSE_DELAY=-1", "sa", ""));
+        jdbcTemplate.execute("create table vw_imp_sp_needs(sp_id varchar(32), needs varchar(32), needs_flag varchar(1), " +
+                "needs_end_time timestamp, start_time timestamp, flag varchar(1))");
+        // 不订阅也不广播，Redis 不可用时 publish 只记录日志
+        engine = new ReadinessEngine(jdbcTemplate, null, null, null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.execute("drop all objects");
+    }
+
+    private void need(String spId, String needs, String needsFlag, String needsEnd, String start) {
+        jdbcTemplate.update("insert into vw_imp_sp_needs values (?, ?, ?, ?, ?, 'N')", spId, needs, needsFlag,
+                needsEnd == null ? null : Timestamp.valueOf(needsEnd),
+                start == null ? null : Timestamp.valueOf(start));
+    }
+
+    @Test
+    void dependencyCompletes() {
+        // u1 在 sp1 上次开始之前完成，u2 尚未完成
+        need("sp1", "u1", "Y", "2024-03-01 01:00:00", "2024-03-01 02:00:00");
+        need("sp1", "u2", "N", null, "2024-03-01 02:00:00");
+        assertEquals(Set.of(), engine.ready());
+
+        engine.onStatus("u2", "R");
+        assertEquals(Set.of(), engine.ready());
+        engine.onStatus("u2", "Y");
+        assertEquals(Set.of("sp1"), engine.ready());
+
+        // 置N提交前仍然就绪，确认后移除；SP 开始运行后需要新的前置完成才会再次就绪
+        assertEquals(Set.of("sp1"), engine.ready());
+        engine.ack(List.of("sp1"));
+        assertEquals(Set.of(), engine.ready());
+        engine.onStatus("sp1", "R");
+        engine.onStatus("u1", "Y");
+        assertEquals(Set.of(), engine.ready());
+        engine.onStatus("sp1", "Y");
+        assertEquals(Set.of("sp1"), engine.ready());
+    }
+
+    @Test
+    void failedDependencyBlocksUntilRerun() {
+        need("sp2", "u1", "Y", "2024-03-01 03:00:00", "2024-03-01 02:00:00");
+        need("sp2", "u3", "Y", "2024-03-01 01:00:00", "2024-03-01 02:00:00");
+        assertEquals(Set.of("sp2"), engine.ready());
+
+        engine.onStatus("u3", "E");
+        assertEquals(Set.of(), engine.ready());
+        // 重复的失败不会重复计数
+        engine.onStatus("u3", "E");
+        engine.onStatus("u3", "Y");
+        assertEquals(Set.of("sp2"), engine.ready());
+
+        // 临时置为 Y 不视为新的完成
+        engine.onStatus("sp2", "R");
+        engine.onStatus("u3", "E");
+        engine.hold("u3");
+        assertEquals(Set.of(), engine.ready());
+    }
+
+    @Test
+    void reloadPicksUpNewDependencies() {
+        need("sp3", "u1", "Y", "2024-03-01 03:00:00", "2024-03-01 02:00:00");
+        assertEquals(Set.of("sp3"), engine.ready());
+
+        // 配置中新增未完成的前置，重新加载后不再就绪
+        need("sp3", "u4", "N", null, "2024-03-01 02:00:00");
+        need("sp4", "u1", "Y", "2024-03-01 03:00:00", null);
+        engine.reload();
+        assertEquals(Set.of("sp4"), engine.ready());
+
+        engine.onStatus("u4", "Y");
+        assertEquals(Set.of("sp3", "sp4"), engine.ready());
+
+        // 重新加载按视图中的状态重建，此前内存中的完成被视图中的 N 覆盖
+        engine.reload();
+        assertTrue(engine.ready().contains("sp4"));
+        assertEquals(Set.of("sp4"), engine.ready());
+    }
+}
@@ -0,0 +1,89 @@
+package com.wgzhao.addax.admin.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * TimerWheel 各层槽位的下放、取消及重新定时
+ */
+class TimerWheelTest {
+
+    @Test
+    void expiresAcrossAllLevels() {
+        long start = 1440L * 20000 + 17;
+        TimerWheel<String> wheel = new TimerWheel<>(start);
+        wheel.schedule("minute", start + 5);
+        wheel.schedule("hour", start + 60 * 3 + 7);
+        wheel.schedule("day", start + 1440 * 2 + 11);
+        wheel.schedule("overflow", start + 1440 * 100 + 1);
+        assertEquals(4, wheel.size());
+
+        Map<String, Long> fired = new HashMap<>();
+        for (long t = start + 1; t <= start + 1440 * 101; t++) {
+            for (TimerWheel.Expired<String> e : wheel.advance(t)) {
+                assertEquals(t, e.at(), e.item());
+                fired.put(e.item(), e.at());
+            }
+        }
+        assertEquals(Map.of("minute", start + 5, "hour", start + 187, "day", start + 2891, "overflow", start + 144001), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void dropsCancelledAndRescheduledTimers() {
+        TimerWheel<String> wheel = new TimerWheel<>(0);
+        wheel.schedule("a", 10);
+        wheel.schedule("b", 10);
+        wheel.schedule("c", 10);
+        wheel.cancel("a");
+        wheel.schedule("b", 20);
+
+        assertEquals(List.of(new TimerWheel.Expired<>("c", 10)), wheel.advance(10));
+        assertEquals(-1, wheel.scheduledAt("a"));
+        assertEquals(20, wheel.scheduledAt("b"));
+        assertEquals(List.of(new TimerWheel.Expired<>("b", 20)), wheel.advance(30));
+    }
+
+    @Test
+    void pastTimersExpireOnNextAdvance() {
+        TimerWheel<String> wheel = new TimerWheel<>(100);
+        wheel.schedule("late", 90);
+        wheel.schedule("now", 100);
+
+        List<TimerWheel.Expired<String>> expired = wheel.advance(100);
+        assertEquals(List.of(new TimerWheel.Expired<>("late", 90L), new TimerWheel.Expired<>("now", 100L)), expired);
+    }
+
+    @Test
+    void jumpingAheadReturnsTimersInOrder() {
+        Random random = new Random(7);
+        long start = 1440L * 19000 + 1439;
+        TimerWheel<Integer> wheel = new TimerWheel<>(start);
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            long at = start + 1 + random.nextInt(1440 * 70);
+            wheel.schedule(i, at);
+            expected.add(at);
+        }
+
+        List<Long> fired = new ArrayList<>();
+        for (long t = start; t < start + 1440 * 71; t += 1 + random.nextInt(200)) {
+            for (TimerWheel.Expired<Integer> e : wheel.advance(t)) {
+                assertTrue(e.at() <= t);
+                assertEquals(expected.get(e.item()), e.at());
+                fired.add(e.at());
+            }
+        }
+        fired.addAll(wheel.advance(start + 1440 * 71).stream().map(TimerWheel.Expired::at).toList());
+        assertEquals(expected.stream().sorted().toList(), fired.stream().sorted().toList());
+        assertEquals(0, wheel.size());
+    }
+}